@@ -0,0 +1,63 @@
+package nz.co.airnz.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.model.Email;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cost of logging a drafted email: the pretty-printed JSON the service used to log against the
+ * {@link EmailAuditLog} event that replaced it. Both loggers write to a no-op appender (see
+ * logback.xml of this source set), so the numbers cover building the event and not the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuditLogBenchmark {
+
+  private static final Logger serviceLog = LoggerFactory.getLogger(EmailServiceImpl.class);
+
+  @Param({"100", "10000"})
+  public int contentLength;
+
+  private ObjectMapper objectMapper;
+  private EmailAuditLog auditLog;
+  private Email email;
+
+  @Setup
+  public void setUp() {
+    objectMapper = new ObjectMapper();
+    objectMapper.registerModule(new JavaTimeModule())
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+    auditLog = new EmailAuditLog(256);
+    email = new Email("emailRef1", "Fwd: Introducing the policy",
+        ZonedDateTime.parse("2023-12-12T12:39:40.260Z"), "somebody@airnz.co.nz",
+        "x".repeat(contentLength), List.of("ani@airnz.co.nz", "xyz@airnz.co.nz"),
+        List.of("bcc@airnz.co.nz"));
+  }
+
+  @Benchmark
+  public void prettyPrintedLog() throws IOException {
+    String emailString = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(email);
+    serviceLog.info("Here is your draft email:" + emailString);
+  }
+
+  @Benchmark
+  public void auditLog() {
+    auditLog.drafted("pJo001", email);
+  }
+}
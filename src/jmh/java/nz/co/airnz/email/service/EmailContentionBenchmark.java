@@ -0,0 +1,122 @@
+package nz.co.airnz.email.service;
+
+import jakarta.validation.Validation;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.attachment.AttachmentProperties;
+import nz.co.airnz.email.attachment.BlobStore;
+import nz.co.airnz.email.cache.EmailJsonCache;
+import nz.co.airnz.email.cache.EmailJsonCacheProperties;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.feed.ChangeFeed;
+import nz.co.airnz.email.feed.ChangeFeedProperties;
+import nz.co.airnz.email.limit.LimitProperties;
+import nz.co.airnz.email.limit.WriteAdmission;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.outbound.OutboundMailProperties;
+import nz.co.airnz.email.outbound.OutboundMailQueue;
+import nz.co.airnz.email.search.SearchIndex;
+import nz.co.airnz.email.store.MailboxStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Throughput of getEmailContent on a few drafts while other threads keep editing the same
+ * drafts, against the same readers with nobody editing. Readers never wait for editors, so the
+ * difference between the groups is the cost of encoding the new versions, not of locking.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EmailContentionBenchmark {
+
+  private static final String ACCOUNT = "bench001";
+
+  @Param({"1", "16"})
+  public int drafts;
+
+  @Param({"1000"})
+  public int contentLength;
+
+  private EmailService service;
+  private String[] emailRefs;
+  private EmailRequest[] edits;
+
+  @Setup
+  public void setUp() throws IOException {
+    MailboxStore store = new MailboxStore();
+    SearchIndex searchIndex = new SearchIndex(store);
+    searchIndex.start();
+    EmailJsonCache emailJson = new EmailJsonCache(store, EmailJsonCacheProperties.defaults());
+    emailJson.start();
+    BlobStore blobs = new BlobStore(new AttachmentProperties(
+        Files.createTempDirectory("email-attachments"), DataSize.ofMegabytes(25), Duration.ZERO));
+    blobs.open();
+    // The outbound workers are never started, none of these paths send mail
+    service = new EmailServiceImpl(store, new EmailRefGenerator(0), new EmailAuditLog(256),
+        new OutboundMailQueue(new JavaMailSenderImpl(), OutboundMailProperties.defaults()),
+        searchIndex, new ChangeFeed(ChangeFeedProperties.defaults()), emailJson, blobs,
+        new WriteAdmission(store, new LimitProperties(0, 1, 0)),
+        Validation.buildDefaultValidatorFactory().getValidator());
+
+    List<Email> emails = new ArrayList<>(drafts);
+    emailRefs = new String[drafts];
+    ZonedDateTime date = ZonedDateTime.parse("2023-12-12T12:39:40.260Z");
+    for (int i = 0; i < drafts; i++) {
+      emailRefs[i] = "emailRef" + i;
+      emails.add(new Email(emailRefs[i], "Draft " + i, date, "somebody@airnz.co.nz",
+          "x".repeat(contentLength), List.of("ani@airnz.co.nz"), List.of()));
+    }
+    store.seed(ACCOUNT, emails);
+    // Edits change the subject and the content together, as a reader has to see them
+    edits = new EmailRequest[2];
+    for (int i = 0; i < edits.length; i++) {
+      edits[i] = new EmailRequest("Edit " + i, String.valueOf(i).repeat(contentLength), null,
+          null);
+    }
+  }
+
+  @Benchmark
+  @Group("readWhileEditing")
+  @GroupThreads(3)
+  public ResponseEntity read() {
+    return service.getEmailContent(ACCOUNT, randomRef(), null, WireFormat.JSON, false);
+  }
+
+  @Benchmark
+  @Group("readWhileEditing")
+  @GroupThreads(1)
+  public ResponseEntity edit() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return service.updateEmail(ACCOUNT, randomRef(), edits[random.nextInt(edits.length)], null);
+  }
+
+  @Benchmark
+  @Group("readOnly")
+  @GroupThreads(3)
+  public ResponseEntity readAlone() {
+    return service.getEmailContent(ACCOUNT, randomRef(), null, WireFormat.JSON, false);
+  }
+
+  private String randomRef() {
+    return emailRefs[ThreadLocalRandom.current().nextInt(emailRefs.length)];
+  }
+}
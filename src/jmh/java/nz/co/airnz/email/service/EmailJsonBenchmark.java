@@ -0,0 +1,86 @@
+package nz.co.airnz.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Email;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Jackson round trip of an {@link Email} with each of the mappers the service has used:
+ * {@code PLAIN} is the one every class used to build for itself, {@code SHARED} the configuration
+ * of {@link WireFormat} without bytecode generation and {@code BLACKBIRD} the shared
+ * {@link WireFormat#JSON} mapper itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EmailJsonBenchmark {
+
+  @Param({"PLAIN", "SHARED", "BLACKBIRD"})
+  public String mapper;
+
+  @Param({"100", "10000"})
+  public int contentLength;
+
+  private ObjectMapper objectMapper;
+  private ObjectWriter emailWriter;
+  private ObjectReader emailReader;
+  private Email email;
+  private byte[] json;
+
+  @Setup
+  public void setUp() throws IOException {
+    objectMapper = switch (mapper) {
+      case "PLAIN" -> new ObjectMapper().registerModule(new JavaTimeModule())
+          .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+      case "SHARED" -> WireFormat.mapperBuilder().build();
+      case "BLACKBIRD" -> WireFormat.JSON.objectMapper();
+      default -> throw new IllegalArgumentException(mapper);
+    };
+    emailWriter = objectMapper.writerFor(Email.class);
+    emailReader = objectMapper.readerFor(Email.class);
+    email = new Email("emailRef1", "Fwd: Introducing the policy",
+        ZonedDateTime.parse("2023-12-12T12:39:40.260Z"), "somebody@airnz.co.nz",
+        "x".repeat(contentLength), List.of("ani@airnz.co.nz", "xyz@airnz.co.nz"),
+        List.of("bcc@airnz.co.nz"));
+    json = emailWriter.writeValueAsBytes(email);
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    return emailWriter.writeValueAsBytes(email);
+  }
+
+  @Benchmark
+  public Email deserialize() throws IOException {
+    return emailReader.readValue(json);
+  }
+
+  /**
+   * The untyped mapper calls the service used to make, which look up the serializer every time.
+   */
+  @Benchmark
+  public String serializeWithMapper() throws IOException {
+    return objectMapper.writeValueAsString(email);
+  }
+
+  @Benchmark
+  public Email deserializeWithMapper() throws IOException {
+    return objectMapper.readValue(json, Email.class);
+  }
+}
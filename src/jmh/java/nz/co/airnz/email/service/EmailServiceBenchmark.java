@@ -0,0 +1,132 @@
+package nz.co.airnz.email.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.attachment.AttachmentProperties;
+import nz.co.airnz.email.attachment.BlobStore;
+import nz.co.airnz.email.cache.EmailJsonCache;
+import nz.co.airnz.email.cache.EmailJsonCacheProperties;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.feed.ChangeFeed;
+import nz.co.airnz.email.feed.ChangeFeedProperties;
+import nz.co.airnz.email.limit.LimitProperties;
+import nz.co.airnz.email.limit.WriteAdmission;
+import nz.co.airnz.email.metrics.EmailMetrics;
+import nz.co.airnz.email.metrics.MetricsProperties;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.outbound.OutboundMailProperties;
+import nz.co.airnz.email.outbound.OutboundMailQueue;
+import nz.co.airnz.email.search.SearchIndex;
+import nz.co.airnz.email.store.MailboxStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Request paths of {@link EmailServiceImpl} against one mailbox of {@link #mailboxSize} emails.
+ *
+ * <p>The service is wired as in the application, with search indexing and the audit log, but
+ * without Spring MVC in front of it. Drafts are never removed, so the mailbox grows by the number of
+ * {@link #draftEmail} calls during a run. With {@link #metered} the calls go through
+ * {@link MeteredEmailService}, as they do in the application.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmailServiceBenchmark {
+
+  private static final String ACCOUNT = "bench001";
+  private static final EmailRequest DRAFT = new EmailRequest("Benchmark draft",
+      "A short body that is about as long as a typical draft.", List.of("ani@airnz.co.nz"),
+      List.of("bcc@airnz.co.nz"));
+  private static final EmailRequest UPDATE = new EmailRequest("Updated subject", null, null,
+      null);
+
+  @Param({"10", "1000", "100000", "1000000"})
+  public int mailboxSize;
+
+  @Param({"true", "false"})
+  public boolean metered;
+
+  private EmailService service;
+  private String[] emailRefs;
+
+  @Setup
+  public void setUp() throws IOException {
+    MailboxStore store = new MailboxStore();
+    SearchIndex searchIndex = new SearchIndex(store);
+    searchIndex.start();
+    EmailJsonCache emailJson = new EmailJsonCache(store, EmailJsonCacheProperties.defaults());
+    emailJson.start();
+    BlobStore blobs = new BlobStore(new AttachmentProperties(
+        Files.createTempDirectory("email-attachments"), DataSize.ofMegabytes(25), Duration.ZERO));
+    blobs.open();
+    // The outbound workers are never started, none of these paths send mail
+    EmailServiceImpl emailService = new EmailServiceImpl(store, new EmailRefGenerator(0),
+        new EmailAuditLog(256),
+        new OutboundMailQueue(new JavaMailSenderImpl(), OutboundMailProperties.defaults()),
+        searchIndex, new ChangeFeed(ChangeFeedProperties.defaults()), emailJson, blobs,
+        new WriteAdmission(store, new LimitProperties(0, 1, 0)),
+        Validation.buildDefaultValidatorFactory().getValidator());
+    if (metered) {
+      EmailMetrics metrics = new EmailMetrics(new SimpleMeterRegistry(), store,
+          MetricsProperties.defaults());
+      metrics.start();
+      service = new MeteredEmailService(emailService, metrics);
+    } else {
+      service = emailService;
+    }
+
+    List<Email> emails = new ArrayList<>(mailboxSize);
+    emailRefs = new String[mailboxSize];
+    ZonedDateTime date = ZonedDateTime.parse("2023-12-12T12:39:40.260Z");
+    for (int i = 0; i < mailboxSize; i++) {
+      emailRefs[i] = "emailRef" + i;
+      emails.add(new Email(emailRefs[i], "Subject " + i, date.plusSeconds(i),
+          "somebody@airnz.co.nz", "Content of email " + i + " with a few more words in it.",
+          List.of("ani@airnz.co.nz", "xyz@airnz.co.nz"), List.of("bcc@airnz.co.nz")));
+    }
+    store.seed(ACCOUNT, emails);
+  }
+
+  @Benchmark
+  public ResponseEntity getAllEmails() {
+    return service.getAllEmails(ACCOUNT, null);
+  }
+
+  @Benchmark
+  public ResponseEntity getEmailContent() {
+    return service.getEmailContent(ACCOUNT, randomRef(), null, WireFormat.JSON, false);
+  }
+
+  @Benchmark
+  public ResponseEntity draftEmail() {
+    return service.draftEmail(ACCOUNT, DRAFT);
+  }
+
+  @Benchmark
+  public ResponseEntity updateEmail() {
+    return service.updateEmail(ACCOUNT, randomRef(), UPDATE, null);
+  }
+
+  private String randomRef() {
+    return emailRefs[ThreadLocalRandom.current().nextInt(emailRefs.length)];
+  }
+}
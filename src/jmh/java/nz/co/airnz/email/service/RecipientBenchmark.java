@@ -0,0 +1,143 @@
+package nz.co.airnz.email.service;
+
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import java.lang.ref.Reference;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailAddressValidator;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.store.MailboxStore;
+import nz.co.airnz.email.store.MailboxStoreProperties;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Cost of validating the recipients of a request, and heap kept by a mailbox whose recipients
+ * are or are not interned.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecipientBenchmark {
+
+  private static final Pattern ADDRESS = Pattern.compile("^(.+)@(.+)$");
+  private static final int ADDRESSES = 2_000;
+  private static final int EMAILS = 100_000;
+
+  private Validator validator;
+  private EmailRequest request;
+
+  @Setup
+  public void setUp() {
+    validator = Validation.buildDefaultValidatorFactory().getValidator();
+    List<String> toList = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      toList.add("recipient" + i + "@airnz.co.nz");
+    }
+    request = new EmailRequest("Subject", "Content", toList,
+        List.of("copy1@airnz.co.nz", "copy2@airnz.co.nz"));
+  }
+
+  /**
+   * What {@code @Pattern(regexp = "^(.+)@(.+)$")} did for every address.
+   */
+  @Benchmark
+  public int checkAddressesWithPattern() {
+    int valid = 0;
+    for (String address : request.toList()) {
+      valid += ADDRESS.matcher(address).matches() ? 1 : 0;
+    }
+    for (String address : request.ccList()) {
+      valid += ADDRESS.matcher(address).matches() ? 1 : 0;
+    }
+    return valid;
+  }
+
+  @Benchmark
+  public int checkAddresses() {
+    int valid = 0;
+    for (String address : request.toList()) {
+      valid += EmailAddressValidator.isEmailAddress(address) ? 1 : 0;
+    }
+    for (String address : request.ccList()) {
+      valid += EmailAddressValidator.isEmailAddress(address) ? 1 : 0;
+    }
+    return valid;
+  }
+
+  /**
+   * The whole bean validation of a request, as the controllers run it.
+   */
+  @Benchmark
+  public Set<?> validateRequest() {
+    return validator.validate(request);
+  }
+
+  /**
+   * Stores {@link #EMAILS} emails whose recipients are drawn from {@link #ADDRESSES} addresses,
+   * each parsed into its own strings as a request would be, and reports the heap the mailbox
+   * keeps as {@code retainedBytes}.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int fillMailbox(Mailbox mailbox, Retained retained) {
+    MailboxStore store = new MailboxStore(
+        new MailboxStoreProperties(false, DataSize.ofMegabytes(64), mailbox.internRecipients, 0));
+    store.createAccount("bench001");
+    long before = usedHeap();
+    ZonedDateTime date = ZonedDateTime.parse("2023-12-12T12:39:40.260Z");
+    List<Email> batch = new ArrayList<>(1_000);
+    for (int i = 0; i < EMAILS; i++) {
+      batch.add(new Email("emailRef" + i, "Subject", date, "somebody@airnz.co.nz", "Content",
+          List.of(address(i), address(i * 7 + 1), address(i * 13 + 2)), List.of(address(i + 3))));
+      if (batch.size() == 1_000) {
+        store.putAll("bench001", batch);
+        batch.clear();
+      }
+    }
+    retained.retainedBytes = usedHeap() - before;
+    Reference.reachabilityFence(store);
+    return store.size("bench001");
+  }
+
+  private static String address(int i) {
+    return "recipient" + (i % ADDRESSES) + "@airnz.co.nz";
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @State(Scope.Benchmark)
+  public static class Mailbox {
+
+    @Param({"true", "false"})
+    public boolean internRecipients;
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Retained {
+
+    public long retainedBytes;
+  }
+}
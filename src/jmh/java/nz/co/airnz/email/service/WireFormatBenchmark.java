@@ -0,0 +1,102 @@
+package nz.co.airnz.email.service;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import nz.co.airnz.email.codec.Gzip;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Email;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Bytes on the wire and CPU time per request of an {@link Email} in each {@link WireFormat}, as
+ * it is sent and as it is gzipped. {@code write} reports the size of its body as
+ * {@code wireBytes}; run it with one thread to read that as bytes per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WireFormatBenchmark {
+
+  private static final String[] WORDS = {"the", "flight", "to", "Auckland", "has", "been",
+      "rescheduled", "and", "your", "booking", "reference", "is", "unchanged", "please", "check",
+      "in", "online", "before", "departure", "baggage", "allowance", "for", "this", "fare"};
+
+  @Param({"JSON", "SMILE", "CBOR"})
+  public WireFormat format;
+
+  @Param({"false", "true"})
+  public boolean gzip;
+
+  @Param({"1000", "50000"})
+  public int contentLength;
+
+  private ObjectWriter emailWriter;
+  private ObjectReader emailReader;
+  private Email email;
+  private byte[] body;
+
+  @Setup
+  public void setUp() throws IOException {
+    emailWriter = format.emailWriter();
+    emailReader = format.emailReader();
+    email = new Email("emailRef1", "Fwd: Your flight has been rescheduled",
+        ZonedDateTime.parse("2023-12-12T12:39:40.260Z"), "somebody@airnz.co.nz",
+        prose(contentLength), List.of("ani@airnz.co.nz", "xyz@airnz.co.nz"),
+        List.of("bcc@airnz.co.nz"));
+    body = encode();
+  }
+
+  @Benchmark
+  public byte[] write(WireBytes wire) throws IOException {
+    byte[] encoded = encode();
+    wire.wireBytes = encoded.length;
+    return encoded;
+  }
+
+  @Benchmark
+  public Email read() throws IOException {
+    InputStream in = new ByteArrayInputStream(body);
+    return emailReader.readValue(gzip ? new GZIPInputStream(in) : in);
+  }
+
+  private byte[] encode() throws IOException {
+    byte[] encoded = emailWriter.writeValueAsBytes(email);
+    return gzip ? Gzip.compress(encoded) : encoded;
+  }
+
+  /**
+   * Sentences of common words, which compress about as well as real email content does.
+   */
+  private static String prose(int length) {
+    SplittableRandom random = new SplittableRandom(42);
+    StringBuilder text = new StringBuilder(length + 16);
+    while (text.length() < length) {
+      text.append(WORDS[random.nextInt(WORDS.length)]);
+      text.append(random.nextInt(12) == 0 ? ". " : " ");
+    }
+    return text.substring(0, length);
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class WireBytes {
+
+    public long wireBytes;
+  }
+}
@@ -0,0 +1,27 @@
+package nz.co.airnz.email.attachment;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of email attachments, bound from {@code email.attachments.*}.
+ *
+ * @param directory     where the blob store keeps attachment content
+ * @param maxSize       largest attachment accepted, larger uploads answer 413 Payload Too Large
+ * @param sweepInterval how often content no email refers to any more is removed; content stored
+ *                      or uploaded again within the last interval is always kept. 0 never
+ *                      removes any
+ */
+@ConfigurationProperties(prefix = "email.attachments")
+public record AttachmentProperties(@DefaultValue("data/attachments") Path directory,
+                                   @DefaultValue("25MB") DataSize maxSize,
+                                   @DefaultValue("1h") Duration sweepInterval) {
+
+  public static AttachmentProperties defaults() {
+    return new AttachmentProperties(Path.of("data/attachments"), DataSize.ofMegabytes(25),
+        Duration.ofHours(1));
+  }
+}
@@ -0,0 +1,97 @@
+package nz.co.airnz.email.attachment;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.model.Attachment;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes attachment content no email refers to any more: uploads whose email changed or went
+ * away before they were attached, and the attachments of accounts handed over to another node.
+ *
+ * <p>Every {@link AttachmentProperties#sweepInterval()} it marks the hashes referenced by the
+ * emails of every account in the {@link MailboxStore} and has the {@link BlobStore} sweep the rest.
+ * Blobs stored within the last interval are kept, which covers uploads that are committed but not
+ * attached yet. A pass is skipped while an {@link nz.co.airnz.email.store.AccountLoader} still has
+ * accounts to load, since their emails may refer to blobs too.
+ */
+@Component
+public class AttachmentSweeper {
+
+  private static final Logger log = LoggerFactory.getLogger(AttachmentSweeper.class);
+
+  private final BlobStore blobs;
+  private final MailboxStore store;
+  private final AttachmentProperties properties;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "email-attachment-sweeper");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  public AttachmentSweeper(BlobStore blobs, MailboxStore store,
+      AttachmentProperties properties) {
+    this.blobs = blobs;
+    this.store = store;
+    this.properties = properties;
+  }
+
+  @PostConstruct
+  public void start() {
+    long interval = properties.sweepInterval().toMillis();
+    if (interval > 0) {
+      executor.scheduleWithFixedDelay(this::scheduledSweep, interval, interval,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Removes the blobs that were stored before {@code storedBefore} and that no email the store
+   * holds refers to.
+   *
+   * @return the number of blobs removed, or -1 when accounts remain to be loaded
+   */
+  public int sweep(Instant storedBefore) throws IOException {
+    if (store.hasUnloadedAccounts()) {
+      log.info("Attachment sweep skipped, not every account has been loaded yet");
+      return -1;
+    }
+    Set<String> referenced = new HashSet<>();
+    for (String accountName : store.accountNames()) {
+      for (String emailRef : store.emailRefs(accountName)) {
+        store.get(accountName, emailRef).map(Email::getAttachments).ifPresent(attachments -> {
+          for (Attachment attachment : attachments) {
+            referenced.add(attachment.sha256());
+          }
+        });
+      }
+    }
+    return blobs.sweep(referenced, storedBefore);
+  }
+
+  private void scheduledSweep() {
+    try {
+      // Taken before the references, so a blob committed meanwhile is always kept
+      sweep(Instant.now().minus(properties.sweepInterval()));
+    } catch (IOException | RuntimeException e) {
+      log.error("Attachment sweep failed", e);
+    }
+  }
+}
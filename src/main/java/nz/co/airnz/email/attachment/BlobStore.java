@@ -0,0 +1,262 @@
+package nz.co.airnz.email.attachment;
+
+import jakarta.annotation.PostConstruct;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Content-addressed store of attachment content on the local disk.
+ *
+ * <p>Each blob is a file named after the SHA-256 of its content, so content attached to any
+ * number of emails of any number of accounts is kept once. An {@link Upload} streams content to a
+ * temporary file through a fixed-size buffer while it hashes it, so an upload takes the same
+ * memory whatever its size. Once committed, the file is moved to its name in one rename; a blob
+ * that already exists is kept and the upload discarded, and its modification time is set to
+ * now. Blobs are never changed; {@link #sweep} removes those no email refers to any more.
+ *
+ * <p>Downloads send the file at {@link #path} as it is, so Tomcat's sendfile and Netty's file
+ * regions can have the kernel copy it to the socket without passing it through the heap.
+ * {@link #transferTo} does the same with {@link FileChannel#transferTo} for other targets.
+ */
+@Component
+public class BlobStore {
+
+  private static final Logger log = LoggerFactory.getLogger(BlobStore.class);
+  private static final Pattern SHA_256 = Pattern.compile("[0-9a-f]{64}");
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path directory;
+  private final Path incoming;
+  private final long maxSize;
+  // Commits share it, a sweep takes it alone to check and remove one blob
+  private final ReadWriteLock sweepLock = new ReentrantReadWriteLock();
+
+  public BlobStore(AttachmentProperties properties) {
+    this.directory = properties.directory();
+    this.incoming = directory.resolve("incoming");
+    this.maxSize = properties.maxSize().toBytes();
+  }
+
+  /**
+   * Creates the store's directories and removes uploads a previous run left unfinished.
+   */
+  @PostConstruct
+  public void open() throws IOException {
+    Files.createDirectories(incoming);
+    try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(incoming)) {
+      for (Path leftover : leftovers) {
+        Files.deleteIfExists(leftover);
+        log.info("Removed unfinished upload {}", leftover);
+      }
+    }
+  }
+
+  /**
+   * Starts an upload. Close it to discard it if it is not committed.
+   */
+  public Upload upload() throws IOException {
+    return new Upload(Files.createTempFile(incoming, "upload", ".tmp"));
+  }
+
+  public boolean contains(String sha256) {
+    return SHA_256.matcher(sha256).matches() && Files.isRegularFile(path(sha256));
+  }
+
+  /**
+   * Returns the file of the blob. Blobs are spread over 256 directories by the first byte of
+   * their hash, so no directory gets too large.
+   *
+   * @throws IllegalArgumentException when {@code sha256} is not a lower case hex SHA-256
+   */
+  public Path path(String sha256) {
+    if (!SHA_256.matcher(sha256).matches()) {
+      throw new IllegalArgumentException("Not a SHA-256: " + sha256);
+    }
+    return directory.resolve(sha256.substring(0, 2)).resolve(sha256);
+  }
+
+  /**
+   * Writes the whole blob to the target.
+   *
+   * @return the number of bytes written
+   */
+  public long transferTo(String sha256, WritableByteChannel target) throws IOException {
+    try (FileChannel channel = FileChannel.open(path(sha256), StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      while (position < size) {
+        position += channel.transferTo(position, size - position, target);
+      }
+      return size;
+    }
+  }
+
+  /**
+   * Removes the blobs that are not referenced and were last stored before {@code storedBefore}.
+   * Uploads commit a blob before an email refers to it, so a blob stored after the caller started
+   * collecting the references may be missing from them; pass a time before that, with enough
+   * margin for an upload to be attached.
+   *
+   * @param referenced   hashes of the blobs that are still referenced
+   * @param storedBefore only blobs last stored before it are removed
+   * @return the number of blobs removed
+   */
+  public int sweep(Set<String> referenced, Instant storedBefore) throws IOException {
+    int removed = 0;
+    try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, Files::isDirectory)) {
+      for (Path shard : shards) {
+        if (shard.equals(incoming)) {
+          continue;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+          for (Path file : files) {
+            String sha256 = file.getFileName().toString();
+            if (SHA_256.matcher(sha256).matches() && !referenced.contains(sha256)
+                && remove(file, storedBefore)) {
+              removed++;
+            }
+          }
+        }
+      }
+    }
+    if (removed > 0) {
+      log.info("Removed {} attachment blobs no email refers to", removed);
+    }
+    return removed;
+  }
+
+  private boolean remove(Path file, Instant storedBefore) throws IOException {
+    sweepLock.writeLock().lock();
+    try {
+      // A commit of the same content since the references were taken has made the blob new again
+      return Files.getLastModifiedTime(file).toInstant().isBefore(storedBefore)
+          && Files.deleteIfExists(file);
+    } finally {
+      sweepLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Content that has been stored under its hash.
+   */
+  public record Blob(String sha256, long size) {
+  }
+
+  /**
+   * Thrown when an upload grows past {@link AttachmentProperties#maxSize()}.
+   */
+  public static class TooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    TooLargeException(long maxSize) {
+      super("Attachments may not be larger than " + maxSize + " bytes");
+    }
+  }
+
+  /**
+   * Content being written to the store. Not thread-safe: one writer at a time, which may change
+   * between writes.
+   */
+  public final class Upload implements Closeable {
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MessageDigest digest;
+    private long size;
+    private boolean committed;
+
+    private Upload(Path file) throws IOException {
+      this.file = file;
+      this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+      try {
+        this.digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        // Every Java platform has SHA-256
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer.
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+      size += buffer.remaining();
+      if (size > maxSize) {
+        throw new TooLargeException(maxSize);
+      }
+      digest.update(buffer.duplicate());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+
+    /**
+     * Appends everything the stream has left, without closing it.
+     */
+    public void write(InputStream in) throws IOException {
+      byte[] bytes = new byte[BUFFER_SIZE];
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int read;
+      while ((read = in.read(bytes)) >= 0) {
+        write(buffer.clear().limit(read));
+      }
+    }
+
+    /**
+     * Stores the content written so far under its hash.
+     */
+    public Blob commit() throws IOException {
+      // The blob must be on disk before an email can refer to it
+      channel.force(false);
+      channel.close();
+      String sha256 = HexFormat.of().formatHex(digest.digest());
+      Path target = path(sha256);
+      sweepLock.readLock().lock();
+      try {
+        if (Files.exists(target)) {
+          // So that a sweep does not take it before the email that refers to it is stored
+          Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+          Files.delete(file);
+        } else {
+          Files.createDirectories(target.getParent());
+          // Two uploads of the same content may both get here; either rename leaves the same blob
+          Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+      } finally {
+        sweepLock.readLock().unlock();
+      }
+      committed = true;
+      return new Blob(sha256, size);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!committed) {
+        channel.close();
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package nz.co.airnz.email.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import java.io.UncheckedIOException;
+import java.util.function.Supplier;
+import nz.co.airnz.email.codec.Gzip;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxListener;
+import nz.co.airnz.email.store.MailboxStore;
+import org.springframework.stereotype.Component;
+
+/**
+ * Size-bounded cache of emails already encoded as UTF-8 JSON, so reading a popular email does not
+ * walk and serialise it again. Emails read in one of the binary {@link WireFormat}s are kept in
+ * that format as well, next to the JSON, and large emails read by clients that accept gzip are
+ * also kept gzipped.
+ *
+ * <p>Entries are weighed by their encoded size and evicted by Caffeine's W-TinyLFU policy. Each
+ * entry remembers the version of the email it was encoded from and is only served while the
+ * email still has that version; the cache also listens to the {@link MailboxStore} and drops the
+ * entry of every email that is stored or updated, and the entries of an account it removes.
+ */
+@Component
+public class EmailJsonCache implements MailboxListener {
+
+  // Rough size of the key, the entry and Caffeine's bookkeeping for one email
+  private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+  private final MailboxStore store;
+  private final Cache<Key, Encoded> cache;
+  private final long gzipMinSize;
+
+  public EmailJsonCache(MailboxStore store, EmailJsonCacheProperties properties) {
+    this.store = store;
+    this.cache = Caffeine.newBuilder()
+        .maximumWeight(properties.maxSize().toBytes())
+        .<Key, Encoded>weigher((key, encoded) -> encoded.bytes().length + ENTRY_OVERHEAD_BYTES)
+        .build();
+    this.gzipMinSize = properties.gzipMinSize().toBytes();
+  }
+
+  @PostConstruct
+  public void start() {
+    store.addListener(this);
+  }
+
+  /**
+   * Returns the email as UTF-8 JSON, encoding it only when the cache does not hold its current
+   * version.
+   */
+  public byte[] json(String accountName, Email email) {
+    return encoded(accountName, email, WireFormat.JSON);
+  }
+
+  /**
+   * Returns the email encoded in the given format, encoding it only when the cache does not hold
+   * its current version in that format.
+   */
+  public byte[] encoded(String accountName, Email email, WireFormat format) {
+    return cached(new Key(accountName, email.getEmailRef(), format, false), email, () -> {
+      try {
+        return format.emailWriter().writeValueAsBytes(email);
+      } catch (JsonProcessingException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  /**
+   * Returns the email encoded in the given format and gzipped, or null when it is smaller than
+   * {@link EmailJsonCacheProperties#gzipMinSize()} encoded and is better sent as it is.
+   */
+  public byte[] gzipped(String accountName, Email email, WireFormat format) {
+    return cached(new Key(accountName, email.getEmailRef(), format, true), email, () -> {
+      byte[] encoded = encoded(accountName, email, format);
+      return encoded.length < gzipMinSize ? null : Gzip.compress(encoded);
+    });
+  }
+
+  private byte[] cached(Key key, Email email, Supplier<byte[]> encoder) {
+    long version = email.getVersion();
+    Encoded cached = cache.getIfPresent(key);
+    if (cached != null && cached.version() == version) {
+      return cached.bytes();
+    }
+
+    // Emails are immutable, so the bytes always match the version. An older version put after a
+    // newer one was stored is never served, since only an email of that version can ask for it.
+    byte[] bytes = encoder.get();
+    if (bytes != null) {
+      cache.put(key, new Encoded(version, bytes));
+    }
+    return bytes;
+  }
+
+  @Override
+  public void emailStored(String accountName, Email email) {
+    for (WireFormat format : WireFormat.values()) {
+      cache.invalidate(new Key(accountName, email.getEmailRef(), format, false));
+      cache.invalidate(new Key(accountName, email.getEmailRef(), format, true));
+    }
+  }
+
+  @Override
+  public void accountRemoved(String accountName) {
+    cache.asMap().keySet().removeIf(key -> key.accountName().equals(accountName));
+  }
+
+  long weightedSize() {
+    cache.cleanUp();
+    return cache.policy().eviction().orElseThrow().weightedSize().orElse(0);
+  }
+
+  private record Key(String accountName, String emailRef, WireFormat format, boolean gzipped) { }
+
+  private record Encoded(long version, byte[] bytes) { }
+}
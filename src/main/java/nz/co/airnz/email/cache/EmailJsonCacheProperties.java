@@ -0,0 +1,20 @@
+package nz.co.airnz.email.cache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of the encoded email cache, bound from {@code email.cache.*}.
+ *
+ * @param maxSize     bytes of encoded JSON kept in memory, 0 to disable the cache
+ * @param gzipMinSize encoded size from which emails are gzipped for clients that accept it
+ */
+@ConfigurationProperties(prefix = "email.cache")
+public record EmailJsonCacheProperties(@DefaultValue("64MB") DataSize maxSize,
+                                       @DefaultValue("2KB") DataSize gzipMinSize) {
+
+  public static EmailJsonCacheProperties defaults() {
+    return new EmailJsonCacheProperties(DataSize.ofMegabytes(64), DataSize.ofKilobytes(2));
+  }
+}
@@ -0,0 +1,253 @@
+package nz.co.airnz.email.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves accounts between nodes when the membership of the cluster changes.
+ *
+ * <p>A membership change is installed on the node it is made on, which passes it on to every node
+ * of the old and the new ring, so joining and leaving nodes hear about it as well. Each node then
+ * hands every account it holds but no longer owns to the new owner. It first posts a copy of the
+ * account's emails while the account still takes writes, then {@link MailboxStore#fence fences}
+ * the account, so writes still in progress on it finish and later ones fail, and posts the emails
+ * that changed in between. Only once the owner has answered both is the account removed from the
+ * store. Until then the node keeps every email, so neither a failed request nor a crash loses one;
+ * the owner merges whatever it is sent again. Requests for the account are redirected to the new
+ * owner from the moment the ring changes, so the account answers 404 there until its emails have
+ * arrived.
+ *
+ * <p>A transfer that fails lifts the fence and keeps the account. The same pass runs every
+ * {@link ClusterProperties#rebalanceInterval()}, which retries such accounts and also moves
+ * accounts this node still holds from before a restart.
+ */
+@Component
+@ConditionalOnProperty(prefix = "email.cluster", name = "enabled", havingValue = "true")
+public class AccountRebalancer {
+
+  /**
+   * Marks a membership change that was passed on by another node, so it is not passed on again.
+   */
+  public static final String PROPAGATED_HEADER = "X-Email-Cluster-Propagated";
+  /**
+   * Carries {@link ClusterProperties#secret()} on the calls that change the cluster.
+   */
+  public static final String SECRET_HEADER = "X-Email-Cluster-Secret";
+  static final String NODES_PATH = "/api/v1/cluster/nodes";
+  static final String ACCOUNTS_PATH = "/api/v1/cluster/accounts/";
+
+  private static final Logger log = LoggerFactory.getLogger(AccountRebalancer.class);
+
+  private final MailboxStore store;
+  private final AccountRouter router;
+  private final ClusterProperties properties;
+  private final ObjectWriter emailsWriter;
+  private final ObjectWriter nodesWriter;
+  private final HttpClient httpClient;
+  // One thread, so membership changes and rebalancing passes never overlap
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "email-cluster-rebalancer");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  public AccountRebalancer(MailboxStore store, AccountRouter router,
+      ClusterProperties properties) {
+    this.store = store;
+    this.router = router;
+    this.properties = properties;
+    ObjectMapper objectMapper = WireFormat.JSON.objectMapper();
+    this.emailsWriter = objectMapper.writerFor(new TypeReference<List<Email>>() { });
+    this.nodesWriter = objectMapper.writerFor(new TypeReference<List<String>>() { });
+    this.httpClient = HttpClient.newBuilder()
+        .connectTimeout(properties.transferTimeout())
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .build();
+  }
+
+  @PostConstruct
+  public void start() {
+    long interval = properties.rebalanceInterval().toMillis();
+    executor.scheduleWithFixedDelay(this::rebalance, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Installs a ring of the given nodes, then passes the change on to the other nodes unless it
+   * came from one of them, and hands over the accounts this node no longer owns.
+   *
+   * @return the future of the handover, which runs in the background
+   */
+  public Future<?> changeMembership(Collection<String> nodes, boolean propagate) {
+    Set<String> previous = new TreeSet<>(router.nodes());
+    HashRing ring = router.install(nodes);
+    return executor.submit(() -> {
+      if (propagate) {
+        Set<String> notified = new TreeSet<>(previous);
+        notified.addAll(ring.nodes());
+        notified.removeIf(node -> node.equals(router.self()));
+        notified.forEach(node -> propagate(node, ring.nodes()));
+      }
+      rebalance();
+    });
+  }
+
+  /**
+   * Takes over an account handed over by another node, adding to any emails this node already
+   * holds for it.
+   */
+  public void receive(String accountName, List<Email> emails) {
+    store.createAccount(accountName);
+    store.putAll(accountName, emails);
+    log.info("Took over account {} with {} emails", accountName, emails.size());
+  }
+
+  /**
+   * Hands every account this node holds but does not own to its owner.
+   */
+  void rebalance() {
+    try {
+      for (String accountName : new ArrayList<>(store.accountNames())) {
+        String owner = router.remoteOwner(accountName);
+        if (owner != null) {
+          transfer(accountName, owner);
+        }
+      }
+    } catch (RuntimeException e) {
+      // An exception would cancel the scheduled passes
+      log.error("Rebalancing the cluster failed", e);
+    }
+  }
+
+  private void transfer(String accountName, String owner) {
+    long startTime = System.nanoTime();
+    List<Email> snapshot = emails(accountName);
+    if (!post(accountName, owner, snapshot) || !store.fence(accountName)) {
+      return;
+    }
+    boolean handedOver = false;
+    try {
+      List<Email> changed = changedSince(snapshot, emails(accountName));
+      handedOver = changed.isEmpty() || post(accountName, owner, changed);
+      if (handedOver) {
+        store.removeAccount(accountName);
+        log.info("Handed account {} with {} emails over to {} in {} ms, {} of them after the copy",
+            accountName, snapshot.size() + changed.size(), owner,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), changed.size());
+      }
+    } finally {
+      if (!handedOver) {
+        store.unfence(accountName);
+      }
+    }
+  }
+
+  private List<Email> emails(String accountName) {
+    List<Email> emails = new ArrayList<>();
+    for (String emailRef : store.emailRefs(accountName)) {
+      store.get(accountName, emailRef).ifPresent(emails::add);
+    }
+    return emails;
+  }
+
+  /**
+   * Returns the emails that were added or replaced since the snapshot was taken. The store never
+   * changes an email in place, so any other instance under a reference is a change.
+   */
+  private static List<Email> changedSince(List<Email> snapshot, List<Email> emails) {
+    Map<String, Email> before = new HashMap<>();
+    for (Email email : snapshot) {
+      before.put(email.getEmailRef(), email);
+    }
+    List<Email> changed = new ArrayList<>();
+    for (Email email : emails) {
+      if (before.get(email.getEmailRef()) != email) {
+        changed.add(email);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Posts the emails to the owner of the account, which adds them to what it holds.
+   *
+   * @return whether the owner took them
+   */
+  private boolean post(String accountName, String owner, List<Email> emails) {
+    try {
+      HttpResponse<Void> response = send(HttpRequest.newBuilder(URI.create(owner + ACCOUNTS_PATH
+              + URLEncoder.encode(accountName, StandardCharsets.UTF_8).replace("+", "%20")))
+          .POST(HttpRequest.BodyPublishers.ofByteArray(emailsWriter.writeValueAsBytes(emails))));
+      if (response.statusCode() / 100 == 2) {
+        return true;
+      }
+      log.warn("Handing account {} over to {} failed with status {}, keeping it for now",
+          accountName, owner, response.statusCode());
+    } catch (IOException e) {
+      log.warn("Handing account {} over to {} failed, keeping it for now: {}", accountName, owner,
+          e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  private void propagate(String node, List<String> nodes) {
+    try {
+      HttpResponse<Void> response = send(HttpRequest.newBuilder(URI.create(node + NODES_PATH))
+          .header(PROPAGATED_HEADER, "true")
+          .PUT(HttpRequest.BodyPublishers.ofByteArray(nodesWriter.writeValueAsBytes(nodes))));
+      if (response.statusCode() / 100 != 2) {
+        log.warn("Node {} refused the cluster membership with status {}", node,
+            response.statusCode());
+      }
+    } catch (IOException e) {
+      log.warn("Could not pass the cluster membership on to {}: {}", node, e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private HttpResponse<Void> send(HttpRequest.Builder request)
+      throws IOException, InterruptedException {
+    return httpClient.send(request.timeout(properties.transferTimeout())
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .header(SECRET_HEADER, properties.secret())
+        .build(), HttpResponse.BodyHandlers.discarding());
+  }
+}
@@ -0,0 +1,112 @@
+package nz.co.airnz.email.cluster;
+
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import nz.co.airnz.email.loader.MailboxLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Knows which node of the cluster owns each account.
+ *
+ * <p>The ring starts out with {@link ClusterProperties#nodes()} once the web server is up and
+ * this node knows its own address, and is replaced as a whole when the membership changes. Until
+ * then every account is treated as local. The router also limits the {@link MailboxLoader} to the
+ * accounts this node owns.
+ */
+@Component
+@ConditionalOnProperty(prefix = "email.cluster", name = "enabled", havingValue = "true")
+public class AccountRouter {
+
+  private static final Logger log = LoggerFactory.getLogger(AccountRouter.class);
+
+  private final ClusterProperties properties;
+  private final MailboxLoader loader;
+  private volatile String self;
+  private volatile HashRing ring;
+
+  public AccountRouter(ClusterProperties properties, MailboxLoader loader) {
+    this.properties = properties;
+    this.loader = loader;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (StringUtils.hasText(properties.self())) {
+      join(properties.self());
+    }
+    loader.setAccountFilter(this::isLocal);
+  }
+
+  @EventListener
+  public void webServerStarted(WebServerInitializedEvent event) {
+    if (self == null) {
+      join("http://localhost:" + event.getWebServer().getPort());
+    }
+  }
+
+  private void join(String selfUrl) {
+    self = normalize(selfUrl);
+    List<String> nodes = properties.nodes().isEmpty() ? List.of(self) : properties.nodes();
+    install(nodes);
+  }
+
+  /**
+   * Replaces the ring with one of the given nodes and returns it.
+   */
+  public HashRing install(Collection<String> nodes) {
+    List<String> normalized = new ArrayList<>(nodes.size());
+    nodes.forEach(node -> normalized.add(normalize(node)));
+    HashRing installed = HashRing.of(normalized, properties.virtualNodes());
+    if (self != null && !installed.nodes().contains(self)) {
+      log.warn("{} is not one of the cluster nodes {}, it will not own any account", self,
+          installed.nodes());
+    }
+    ring = installed;
+    log.info("Cluster ring of {} nodes installed: {}", installed.nodes().size(), installed.nodes());
+    return installed;
+  }
+
+  /**
+   * Returns the base URL of this node, or null while it is not known yet.
+   */
+  public String self() {
+    return self;
+  }
+
+  /**
+   * Returns the nodes of the current ring, empty while it is not known yet.
+   */
+  public List<String> nodes() {
+    HashRing current = ring;
+    return current == null ? List.of() : current.nodes();
+  }
+
+  /**
+   * Returns the node that owns the account, or null when it is this node.
+   */
+  public String remoteOwner(String accountName) {
+    HashRing current = ring;
+    if (current == null || accountName == null) {
+      return null;
+    }
+    String owner = current.owner(accountName);
+    return owner == null || owner.equals(self) ? null : owner;
+  }
+
+  public boolean isLocal(String accountName) {
+    return remoteOwner(accountName) == null;
+  }
+
+  static String normalize(String node) {
+    String trimmed = node.trim();
+    return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+  }
+}
@@ -0,0 +1,44 @@
+package nz.co.airnz.email.cluster;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.util.Map;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Redirects requests for an account that another node owns to that node on the servlet stack.
+ *
+ * <p>307 Temporary Redirect keeps the method and body of the request, so sends, drafts and
+ * updates are repeated as they were against the owner. The request is answered before its body is
+ * read.
+ */
+public class AccountRoutingInterceptor implements HandlerInterceptor {
+
+  private final AccountRouter router;
+
+  public AccountRoutingInterceptor(AccountRouter router) {
+    this.router = router;
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+      Object handler) {
+    String owner = router.remoteOwner(accountName(request));
+    if (owner == null) {
+      return true;
+    }
+    String query = request.getQueryString();
+    response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+    response.setHeader(HttpHeaders.LOCATION,
+        owner + request.getRequestURI() + (query == null ? "" : "?" + query));
+    return false;
+  }
+
+  private static String accountName(HttpServletRequest request) {
+    Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+    return variables instanceof Map<?, ?> map ? (String) map.get("name") : null;
+  }
+}
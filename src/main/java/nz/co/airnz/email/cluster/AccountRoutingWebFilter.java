@@ -0,0 +1,57 @@
+package nz.co.airnz.email.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+/**
+ * Redirects requests for an account that another node owns to that node on the reactive stack,
+ * like {@link AccountRoutingInterceptor}. It runs ahead of write admission.
+ */
+@Component
+@Profile("reactive")
+@ConditionalOnProperty(prefix = "email.cluster", name = "enabled", havingValue = "true")
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class AccountRoutingWebFilter implements WebFilter {
+
+  private static final PathPattern ACCOUNT =
+      PathPatternParser.defaultInstance.parse("/api/v1/email/account/{name}/**");
+
+  private final AccountRouter router;
+
+  public AccountRoutingWebFilter(AccountRouter router) {
+    this.router = router;
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    ServerHttpRequest request = exchange.getRequest();
+    PathContainer path = request.getPath().pathWithinApplication();
+    PathPattern.PathMatchInfo match = ACCOUNT.matchAndExtract(path);
+    String owner = match == null ? null : router.remoteOwner(match.getUriVariables().get("name"));
+    if (owner == null) {
+      return chain.filter(exchange);
+    }
+    ServerHttpResponse response = exchange.getResponse();
+    response.setStatusCode(HttpStatus.TEMPORARY_REDIRECT);
+    response.getHeaders().setLocation(UriComponentsBuilder.fromHttpUrl(owner)
+        .path(request.getPath().value())
+        .query(request.getURI().getRawQuery())
+        .build(true)
+        .toUri());
+    return response.setComplete();
+  }
+}
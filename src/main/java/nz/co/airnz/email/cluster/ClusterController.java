@@ -0,0 +1,115 @@
+package nz.co.airnz.email.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Membership and account handover endpoints of the cluster, used by operators and by the nodes
+ * themselves. The controller uses no servlet or WebFlux types, so both stacks serve it.
+ *
+ * <p>Anyone who can change the membership can point accounts at a node of their choice, which
+ * the rebalancer then posts every mailbox to, and anyone who can hand an account over can write
+ * emails into it. Both calls are therefore only taken with {@link ClusterProperties#secret()} in
+ * the {@value AccountRebalancer#SECRET_HEADER} header, which the nodes send to each other and
+ * operators send when they change the membership; without a secret configured they are refused.
+ * The secret is sent as it is, so nodes should reach each other over TLS or a private network.
+ * Reading the membership needs no secret.
+ */
+@RestController
+@ConditionalOnProperty(prefix = "email.cluster", name = "enabled", havingValue = "true")
+@RequestMapping("/api/v1/cluster")
+public class ClusterController {
+
+  private static final Logger log = LoggerFactory.getLogger(ClusterController.class);
+
+  private final AccountRouter router;
+  private final AccountRebalancer rebalancer;
+  private final MailboxStore store;
+  private final byte[] secret;
+
+  public ClusterController(AccountRouter router, AccountRebalancer rebalancer,
+      MailboxStore store, ClusterProperties properties) {
+    this.router = router;
+    this.rebalancer = rebalancer;
+    this.store = store;
+    this.secret = properties.secret().getBytes(StandardCharsets.UTF_8);
+    if (secret.length == 0) {
+      log.warn("email.cluster.secret is not set, membership changes and account handovers will "
+          + "be refused");
+    }
+  }
+
+  /**
+   * Returns this node's view of the cluster.
+   */
+  @GetMapping("/nodes")
+  public ClusterView getNodes() {
+    return view();
+  }
+
+  /**
+   * Replaces the nodes of the cluster, e.g. to add a node that has been started or before
+   * stopping one. The change is passed on to all old and new nodes, and accounts move to their new
+   * owners in the background.
+   */
+  @PutMapping("/nodes")
+  public ResponseEntity<ClusterView> putNodes(@RequestBody List<String> nodes,
+      @RequestHeader(name = AccountRebalancer.PROPAGATED_HEADER, defaultValue = "false")
+      boolean propagated,
+      @RequestHeader(name = AccountRebalancer.SECRET_HEADER, required = false) String secret) {
+    if (!trusted(secret)) {
+      log.warn("Refused a membership change without the cluster secret");
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    if (nodes.isEmpty() || nodes.stream().anyMatch(node -> node == null || node.isBlank())) {
+      return ResponseEntity.badRequest().build();
+    }
+    log.info("putNodes endpoint with nodes {}", nodes);
+    rebalancer.changeMembership(nodes, !propagated);
+    return ResponseEntity.accepted().body(view());
+  }
+
+  /**
+   * Takes over an account from another node.
+   */
+  @PostMapping("/accounts/{name}")
+  public Mono<ResponseEntity<Void>> receiveAccount(@PathVariable String name,
+      @RequestBody List<Email> emails,
+      @RequestHeader(name = AccountRebalancer.SECRET_HEADER, required = false) String secret) {
+    if (!trusted(secret)) {
+      log.warn("Refused a handover of account {} without the cluster secret", name);
+      return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+    }
+    return Mono.fromCallable(() -> {
+      rebalancer.receive(name, emails);
+      return ResponseEntity.noContent().<Void>build();
+    }).subscribeOn(Schedulers.boundedElastic());
+  }
+
+  private boolean trusted(String sent) {
+    return secret.length > 0 && sent != null
+        && MessageDigest.isEqual(secret, sent.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private ClusterView view() {
+    return new ClusterView(router.self(), router.nodes(), store.accountNames().size());
+  }
+}
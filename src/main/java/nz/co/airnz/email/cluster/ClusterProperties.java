@@ -0,0 +1,38 @@
+package nz.co.airnz.email.cluster;
+
+import java.time.Duration;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Account sharding across several nodes, bound from {@code email.cluster.*}.
+ *
+ * @param enabled           whether accounts are sharded; without it every node serves every
+ *                          account it holds
+ * @param self              base URL other nodes reach this node at, e.g.
+ *                          {@code http://10.0.0.1:8080}; empty for {@code http://localhost:<port>}
+ * @param secret            shared by all nodes and sent with membership changes and account
+ *                          handovers; empty to refuse both
+ * @param nodes             base URLs of all nodes at startup, including this one; empty for this
+ *                          node alone. Later changes go through {@code PUT /api/v1/cluster/nodes}
+ * @param virtualNodes      points each node takes on the hash ring, more spread accounts more
+ *                          evenly
+ * @param rebalanceInterval how often the node hands over accounts it no longer owns, which also
+ *                          retries transfers that failed
+ * @param transferTimeout   how long a node waits for another one to take over an account
+ */
+@ConfigurationProperties(prefix = "email.cluster")
+public record ClusterProperties(@DefaultValue("false") boolean enabled,
+                                @DefaultValue("") String self,
+                                @DefaultValue("") String secret,
+                                @DefaultValue List<String> nodes,
+                                @DefaultValue("128") int virtualNodes,
+                                @DefaultValue("30s") Duration rebalanceInterval,
+                                @DefaultValue("30s") Duration transferTimeout) {
+
+  public static ClusterProperties defaults() {
+    return new ClusterProperties(false, "", "", List.of(), 128, Duration.ofSeconds(30),
+        Duration.ofSeconds(30));
+  }
+}
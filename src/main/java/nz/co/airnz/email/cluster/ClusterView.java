@@ -0,0 +1,12 @@
+package nz.co.airnz.email.cluster;
+
+import java.util.List;
+
+/**
+ * What one node knows about the cluster.
+ *
+ * @param self     base URL of the node
+ * @param nodes    nodes of its ring, in sorted order
+ * @param accounts accounts the node holds
+ */
+public record ClusterView(String self, List<String> nodes, int accounts) { }
@@ -0,0 +1,101 @@
+package nz.co.airnz.email.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Immutable consistent-hash ring that assigns every account to one node.
+ *
+ * <p>Each node takes a number of virtual points on a 64-bit ring and an account belongs to the
+ * node of the first point at or after the account's hash, wrapping around at the end. Adding a
+ * node therefore only takes accounts over from the other nodes, and removing one only hands its
+ * own accounts to the rest; every other account keeps its owner. Points are kept in one sorted
+ * array, so a lookup is a binary search without allocation.
+ */
+public final class HashRing {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final List<String> nodes;
+  private final long[] points;
+  private final String[] owners;
+
+  private HashRing(List<String> nodes, long[] points, String[] owners) {
+    this.nodes = nodes;
+    this.points = points;
+    this.owners = owners;
+  }
+
+  /**
+   * Builds the ring of the given nodes. The order of the nodes and duplicates make no difference,
+   * so every node that is given the same set builds the same ring.
+   */
+  public static HashRing of(Collection<String> nodes, int virtualNodes) {
+    List<String> distinct = List.copyOf(new TreeSet<>(nodes));
+    int pointsPerNode = Math.max(1, virtualNodes);
+    long[] hashes = new long[distinct.size() * pointsPerNode];
+    String[] hashOwners = new String[hashes.length];
+    Integer[] order = new Integer[hashes.length];
+    for (int n = 0; n < distinct.size(); n++) {
+      for (int v = 0; v < pointsPerNode; v++) {
+        int i = n * pointsPerNode + v;
+        hashes[i] = hash(distinct.get(n) + "#" + v);
+        hashOwners[i] = distinct.get(n);
+        order[i] = i;
+      }
+    }
+    // Ties between two nodes' points are broken by node name, again so every node agrees
+    Arrays.sort(order, (a, b) -> hashes[a] != hashes[b]
+        ? Long.compare(hashes[a], hashes[b]) : hashOwners[a].compareTo(hashOwners[b]));
+    long[] points = new long[order.length];
+    String[] owners = new String[order.length];
+    for (int i = 0; i < order.length; i++) {
+      points[i] = hashes[order[i]];
+      owners[i] = hashOwners[order[i]];
+    }
+    return new HashRing(distinct, points, owners);
+  }
+
+  /**
+   * Returns the node that owns the account, or null when the ring has no nodes.
+   */
+  public String owner(String accountName) {
+    if (points.length == 0) {
+      return null;
+    }
+    int index = Arrays.binarySearch(points, hash(accountName));
+    if (index < 0) {
+      index = -index - 1;
+    }
+    return owners[index == points.length ? 0 : index];
+  }
+
+  /**
+   * Returns the nodes of the ring in sorted order.
+   */
+  public List<String> nodes() {
+    return nodes;
+  }
+
+  /**
+   * 64-bit FNV-1a of the UTF-8 bytes, finished with the MurmurHash3 mixer so that similar keys
+   * such as {@code node#1} and {@code node#2} land far apart on the ring.
+   */
+  static long hash(String key) {
+    long hash = FNV_OFFSET_BASIS;
+    for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= FNV_PRIME;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
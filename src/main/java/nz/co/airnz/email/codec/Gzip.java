@@ -0,0 +1,67 @@
+package nz.co.airnz.email.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip content coding for responses the application compresses itself.
+ *
+ * <p>The server compresses most responses on its own, but Tomcat leaves responses with a strong
+ * ETag alone, since compressing them would change the representation the tag stands for. Emails
+ * are served with strong ETags, so they are compressed here and given a tag of their own.
+ */
+public final class Gzip {
+
+  public static final String CODING = "gzip";
+
+  private Gzip() {
+  }
+
+  /**
+   * Returns true when the {@code Accept-Encoding} header allows gzip, either by name or through
+   * {@code *}, with a quality above 0.
+   */
+  public static boolean accepted(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    Boolean wildcard = null;
+    for (String candidate : acceptEncoding.split(",")) {
+      String[] parts = candidate.split(";");
+      String coding = parts[0].trim();
+      boolean allowed = parts.length < 2 || quality(parts[1]) > 0;
+      if (coding.equalsIgnoreCase(CODING)) {
+        return allowed;
+      }
+      if (coding.equals("*")) {
+        wildcard = allowed;
+      }
+    }
+    return Boolean.TRUE.equals(wildcard);
+  }
+
+  public static byte[] compress(byte[] bytes) {
+    // Compressed prose is usually well under half of its size
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 32);
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed, 8192)) {
+      out.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static double quality(String parameter) {
+    String trimmed = parameter.trim();
+    if (!trimmed.startsWith("q=")) {
+      return 1;
+    }
+    try {
+      return Double.parseDouble(trimmed.substring(2));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
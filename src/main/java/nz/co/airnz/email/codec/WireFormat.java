@@ -0,0 +1,131 @@
+package nz.co.airnz.email.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailRequest;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Content types the API reads and writes emails in.
+ *
+ * <p>JSON is the default. Smile and CBOR are binary encodings of the same Jackson model for
+ * internal callers: field names and numbers are encoded compactly and nothing has to be escaped,
+ * so they are smaller and cheaper to write and parse, while prose content stays as it is.
+ *
+ * <p>Each format has the one mapper the whole application uses for it, including Spring MVC and
+ * WebFlux, and readers and writers for {@link Email} and {@link EmailRequest} that are resolved
+ * once up front. Mappers, readers and writers are thread-safe; change a reader or writer with its
+ * {@code with} methods, which return a new one and leave the shared one as it is.
+ */
+public enum WireFormat {
+
+  JSON(MediaType.APPLICATION_JSON, new JsonFactory()),
+  SMILE(new MediaType("application", "x-jackson-smile"), new SmileFactory()),
+  CBOR(MediaType.APPLICATION_CBOR, new CBORFactory());
+
+  private final MediaType mediaType;
+  private final ObjectMapper objectMapper;
+  private final ObjectReader emailReader;
+  private final ObjectWriter emailWriter;
+  private final ObjectReader emailRequestReader;
+  private final ObjectWriter emailRequestWriter;
+
+  WireFormat(MediaType mediaType, JsonFactory factory) {
+    this.mediaType = mediaType;
+    // Blackbird generates accessors for getters, setters and creators instead of reflecting
+    this.objectMapper = mapperBuilder().factory(factory)
+        .modulesToInstall(new BlackbirdModule())
+        .build();
+    this.emailReader = objectMapper.readerFor(Email.class);
+    this.emailWriter = objectMapper.writerFor(Email.class);
+    this.emailRequestReader = objectMapper.readerFor(EmailRequest.class);
+    this.emailRequestWriter = objectMapper.writerFor(EmailRequest.class);
+  }
+
+  /**
+   * Returns a builder with the configuration all mappers share, which is Spring Boot's default:
+   * Java time and JDK 8 types are supported, dates are written as ISO strings and unknown
+   * properties are ignored.
+   */
+  public static Jackson2ObjectMapperBuilder mapperBuilder() {
+    return Jackson2ObjectMapperBuilder.json()
+        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS,
+            SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS);
+  }
+
+  public MediaType mediaType() {
+    return mediaType;
+  }
+
+  /**
+   * Returns the shared mapper of this format. It must not be reconfigured.
+   */
+  public ObjectMapper objectMapper() {
+    return objectMapper;
+  }
+
+  public ObjectReader emailReader() {
+    return emailReader;
+  }
+
+  public ObjectWriter emailWriter() {
+    return emailWriter;
+  }
+
+  public ObjectReader emailRequestReader() {
+    return emailRequestReader;
+  }
+
+  public ObjectWriter emailRequestWriter() {
+    return emailRequestWriter;
+  }
+
+  /**
+   * Picks the format for a response from the {@code Accept} header: the most preferred media type
+   * one of the formats matches, or JSON when there is no header or it cannot be parsed.
+   */
+  public static WireFormat negotiate(String accept) {
+    if (accept == null || accept.isBlank()) {
+      return JSON;
+    }
+    List<MediaType> accepted;
+    try {
+      accepted = MediaType.parseMediaTypes(accept);
+    } catch (InvalidMediaTypeException e) {
+      return JSON;
+    }
+    WireFormat best = null;
+    MediaType bestMatch = null;
+    for (MediaType mediaType : accepted) {
+      WireFormat format = match(mediaType);
+      if (format != null && mediaType.getQualityValue() > 0 && (bestMatch == null
+          || mediaType.getQualityValue() > bestMatch.getQualityValue()
+          || mediaType.getQualityValue() == bestMatch.getQualityValue()
+              && bestMatch.isWildcardSubtype() && !mediaType.isWildcardSubtype())) {
+        best = format;
+        bestMatch = mediaType;
+      }
+    }
+    return best == null ? JSON : best;
+  }
+
+  private static WireFormat match(MediaType mediaType) {
+    // Wildcards such as */* match JSON first
+    for (WireFormat format : values()) {
+      if (mediaType.includes(format.mediaType)) {
+        return format;
+      }
+    }
+    return null;
+  }
+}
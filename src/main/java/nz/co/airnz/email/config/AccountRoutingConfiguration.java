@@ -0,0 +1,34 @@
+package nz.co.airnz.email.config;
+
+import nz.co.airnz.email.cluster.AccountRouter;
+import nz.co.airnz.email.cluster.AccountRoutingInterceptor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Routes account requests to the node that owns the account on the servlet stack, when
+ * {@code email.cluster.enabled=true}.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("!reactive")
+@ConditionalOnProperty(prefix = "email.cluster", name = "enabled", havingValue = "true")
+public class AccountRoutingConfiguration implements WebMvcConfigurer {
+
+  private final AccountRouter router;
+
+  public AccountRoutingConfiguration(AccountRouter router) {
+    this.router = router;
+  }
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    // Ahead of write admission, so a request is only counted by the node that handles it
+    registry.addInterceptor(new AccountRoutingInterceptor(router))
+        .addPathPatterns("/api/v1/email/account/**")
+        .order(Ordered.HIGHEST_PRECEDENCE);
+  }
+}
@@ -0,0 +1,45 @@
+package nz.co.airnz.email.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs request handling on virtual threads when {@code email.virtual-threads.enabled=true}.
+ *
+ * <p>Tomcat hands every request to a new virtual thread instead of its bounded worker pool, and
+ * asynchronous MVC work such as streamed exports runs on virtual threads as well. A request that
+ * blocks, for example on the journal sync or a lock, then parks its virtual thread and frees the
+ * carrier thread for other requests. The store uses {@code ReentrantLock} rather than
+ * {@code synchronized} for anything that can wait, so blocked requests do not pin carriers.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(prefix = "email.virtual-threads", name = "enabled", havingValue = "true")
+public class VirtualThreadConfiguration implements WebMvcConfigurer {
+
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+  @Bean
+  public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+    log.info("Handling requests on virtual threads");
+    return protocolHandler -> protocolHandler.setExecutor(virtualThreads());
+  }
+
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    configurer.setTaskExecutor(new TaskExecutorAdapter(virtualThreads()));
+  }
+
+  private static ExecutorService virtualThreads() {
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("email-virtual-", 0)
+        .factory());
+  }
+}
@@ -0,0 +1,114 @@
+package nz.co.airnz.email.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Map;
+import nz.co.airnz.email.codec.WireFormat;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reads and writes every {@link WireFormat} on both stacks with the shared mappers of the
+ * formats, so requests and responses go through the same mapper as the rest of the application.
+ *
+ * <p>The JSON mapper takes the place of the one Boot would build. Spring would register Smile and
+ * CBOR on its own with its default mappers, which write dates as timestamps; the converters and
+ * codecs here take their place.
+ *
+ * <p>The wire formats are fixed: the journal and the cache keep emails in them, and other instances
+ * read what this one writes. Their mappers are therefore not built from Boot's
+ * {@code Jackson2ObjectMapperBuilder}, and neither {@code spring.jackson.*} properties nor
+ * {@code Jackson2ObjectMapperBuilderCustomizer} beans apply to them. Setting such properties only
+ * logs a warning; change {@link WireFormat#mapperBuilder()} instead.
+ */
+@Configuration(proxyBeanMethods = false)
+public class WireFormatConfiguration {
+
+  private static final Logger log = LoggerFactory.getLogger(WireFormatConfiguration.class);
+
+  @Bean
+  @Primary
+  public ObjectMapper objectMapper(Environment environment) {
+    if (Binder.get(environment).bind("spring.jackson", Bindable.mapOf(String.class, Object.class))
+        .isBound()) {
+      log.warn("spring.jackson.* properties are ignored: emails are read and written with the "
+          + "fixed mappers of their wire formats");
+    }
+    return WireFormat.JSON.objectMapper();
+  }
+
+  @Bean
+  @Profile("!reactive")
+  public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+    return new MappingJackson2SmileHttpMessageConverter(WireFormat.SMILE.objectMapper());
+  }
+
+  @Bean
+  @Profile("!reactive")
+  public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter() {
+    return new MappingJackson2CborHttpMessageConverter(WireFormat.CBOR.objectMapper());
+  }
+
+  @Bean
+  @Profile("reactive")
+  public CodecCustomizer binaryCodecCustomizer() {
+    ObjectMapper smile = WireFormat.SMILE.objectMapper();
+    ObjectMapper cbor = WireFormat.CBOR.objectMapper();
+    Jackson2JsonEncoder json = new Jackson2JsonEncoder(WireFormat.JSON.objectMapper());
+    // Without media types the codecs would claim the JSON ones
+    MediaType smileType = WireFormat.SMILE.mediaType();
+    MediaType cborType = WireFormat.CBOR.mediaType();
+    return configurer -> {
+      configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smile, smileType));
+      configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smile, smileType));
+      // CBOR is not one of the default codecs, and custom codecs come first: JSON goes ahead of
+      // it so that requests and responses without a media type stay JSON
+      configurer.customCodecs().register(json);
+      configurer.customCodecs().register(new SingleValueCborEncoder(cbor));
+      configurer.customCodecs().register(new Jackson2CborDecoder(cbor, cborType));
+    };
+  }
+
+  /**
+   * Spring's CBOR encoder cannot write streams; single values, which is all the API answers in
+   * CBOR, are written whole.
+   */
+  private static final class SingleValueCborEncoder extends Jackson2CborEncoder {
+
+    SingleValueCborEncoder(ObjectMapper mapper) {
+      super(mapper, WireFormat.CBOR.mediaType());
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+        ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+      if (inputStream instanceof Mono<?> value) {
+        return value.map(item -> encodeValue(item, bufferFactory, elementType, mimeType, hints))
+            .flux();
+      }
+      return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+    }
+  }
+}
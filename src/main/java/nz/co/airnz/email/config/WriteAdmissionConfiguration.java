@@ -0,0 +1,30 @@
+package nz.co.airnz.email.config;
+
+import nz.co.airnz.email.limit.WriteAdmission;
+import nz.co.airnz.email.limit.WriteAdmissionInterceptor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Puts the endpoints that add emails behind {@link WriteAdmission} on the servlet stack.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("!reactive")
+public class WriteAdmissionConfiguration implements WebMvcConfigurer {
+
+  private final WriteAdmission admission;
+
+  public WriteAdmissionConfiguration(WriteAdmission admission) {
+    this.admission = admission;
+  }
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    // Only POST requests to these paths are counted, see WriteAdmissionInterceptor
+    registry.addInterceptor(new WriteAdmissionInterceptor(admission))
+        .addPathPatterns("/api/v1/email/account/*", "/api/v1/email/account/*/draft",
+            "/api/v1/email/account/*/batch");
+  }
+}
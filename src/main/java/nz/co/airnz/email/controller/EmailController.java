@@ -1,70 +1,201 @@
 package nz.co.airnz.email.controller;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.headers.Header;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import java.io.IOException;
 import java.util.List;
+import nz.co.airnz.email.codec.Gzip;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.ChangePage;
 import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
 import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.FetchResult;
+import nz.co.airnz.email.model.SendResult;
 import nz.co.airnz.email.service.EmailService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
+@Profile("!reactive")
 @RequestMapping("/api/v1/email")
 @Tag(name = "Email API", description = "Email API")
 public class EmailController {
 
+  // Request attributes of Tomcat's sendfile support
+  private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+  static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+  // Requests Spring has to answer itself, with 206, 304 or 412
+  private static final List<String> CONDITIONAL_HEADERS = List.of(HttpHeaders.RANGE,
+      HttpHeaders.IF_RANGE, HttpHeaders.IF_MATCH, HttpHeaders.IF_NONE_MATCH,
+      HttpHeaders.IF_MODIFIED_SINCE, HttpHeaders.IF_UNMODIFIED_SINCE);
+
   private final EmailService emailService;
-  private final ObjectMapper objectMapper = new ObjectMapper();
   private static final Logger log = LoggerFactory.getLogger(EmailController.class);
 
   public EmailController(@Autowired EmailService emailService) {
     this.emailService = emailService;
-    objectMapper.registerModule(new JavaTimeModule())
-        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
   }
 
   @Operation(
       summary = "Retrieve the contents of the user's inbox (Please use account name pJo001).",
-      description = "Retrieve the contents of the user's inbox.")
+      description = "Retrieve the contents of the user's inbox. The ETag changes with every change "
+          + "to the inbox; send it back as If-None-Match to get 304 Not Modified while it holds.")
   @ApiResponses({
       @ApiResponse(responseCode = "200", content = {
           @Content(schema = @Schema(implementation = List.class), mediaType = "application/json")}),
+      @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
       @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
   @GetMapping("/account/{name}")
-  public ResponseEntity getAllEmails(@PathVariable String name) {
+  public ResponseEntity getAllEmails(@PathVariable String name,
+      @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
     log.info("getAllEmails endpoint with account name {}", name);
-    return emailService.getAllEmails(name);
+    return emailService.getAllEmails(name, ifNoneMatch);
+  }
+
+  @Operation(
+      summary = "Retrieve one page of the user's inbox as email summaries (Please use account name pJo001).",
+      description = "Retrieve up to limit (at most 100) email summaries without their content, oldest "
+          + "first. Pass the returned nextCursor to fetch the following page.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(schema = @Schema(implementation = EmailPage.class), mediaType = "application/json")}),
+      @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
+  @GetMapping("/account/{name}/summaries")
+  public ResponseEntity getEmailSummaries(@PathVariable String name,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "20") int limit) {
+    log.info("getEmailSummaries endpoint with account name {} and cursor {}", name, cursor);
+    return emailService.getEmailSummaries(name, cursor, limit);
+  }
+
+  @Operation(
+      summary = "Export every email of the user's inbox, including content, as newline delimited JSON.",
+      description = "Stream the full inbox as application/x-ndjson, one email per line. The response "
+          + "is written while the inbox is read, so it starts immediately and is never buffered whole.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(schema = @Schema(implementation = Email.class), mediaType = "application/x-ndjson")}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
+  @GetMapping("/account/{name}/export")
+  public ResponseEntity<StreamingResponseBody> exportEmails(@PathVariable String name) {
+    log.info("exportEmails endpoint with account name {}", name);
+    return emailService.exportEmails(name);
+  }
+
+  @Operation(
+      summary = "Search the user's inbox (Please use account name pJo001).",
+      description = "Find the emails whose subject, content, sender or recipients contain every word "
+          + "of q, best match first. Matches in the subject rank highest. Pass the returned "
+          + "nextCursor to fetch the following page.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(schema = @Schema(implementation = EmailPage.class), mediaType = "application/json")}),
+      @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
+  @GetMapping("/account/{name}/search")
+  public ResponseEntity searchEmails(@PathVariable String name, @RequestParam String q,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "20") int limit) {
+    log.info("searchEmails endpoint with account name {} and cursor {}", name, cursor);
+    return emailService.searchEmails(name, q, cursor, limit);
+  }
+
+  @Operation(
+      summary = "Wait for changes to the user's inbox (Please use account name pJo001).",
+      description = "Long-poll for draft, sent and updated events after the since cursor. Answers as "
+          + "soon as there is at least one event, or with no events after about 25 seconds. Pass "
+          + "the returned cursor as since in the next call; without since only changes from now on "
+          + "are returned. missed is true when older changes were dropped and the inbox has to be "
+          + "listed again.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(schema = @Schema(implementation = ChangePage.class), mediaType = "application/json")}),
+      @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
+  @GetMapping("/account/{name}/changes")
+  public DeferredResult<ResponseEntity> pollChanges(@PathVariable String name,
+      @RequestParam(required = false) Long since) {
+    log.info("pollChanges endpoint with account name {} and since {}", name, since);
+    return emailService.pollChanges(name, since);
+  }
+
+  @Operation(
+      summary = "Stream changes to the user's inbox as server-sent events.",
+      description = "Send every draft, sent and updated event after the since cursor as it happens. "
+          + "Each event's id is its cursor, so a reconnecting client resumes from the Last-Event-ID "
+          + "header. A reset event means older changes were dropped and the inbox has to be listed "
+          + "again.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(schema = @Schema(implementation = ChangePage.class), mediaType = "text/event-stream")}),
+      @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
+  @GetMapping("/account/{name}/changes/stream")
+  public ResponseEntity<SseEmitter> streamChanges(@PathVariable String name,
+      @RequestParam(required = false) Long since,
+      @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+    log.info("streamChanges endpoint with account name {} and since {}", name, since);
+    return emailService.streamChanges(name, since != null ? since : lastEventId);
   }
 
   @Operation(
       summary = "Retrieve the contents of a single email. (Please use account name pJo001 and emailRef1)",
-      description = "Retrieve the contents of a single email.")
+      description = "Retrieve the contents of a single email. The ETag is the email's version; send "
+          + "it back as If-None-Match to get 304 Not Modified while the email is unchanged. Accept "
+          + "application/x-jackson-smile or application/cbor to get the email in a binary format.")
   @ApiResponses({
       @ApiResponse(responseCode = "200", content = {
-          @Content(schema = @Schema(implementation = Email.class), mediaType = "application/json")}),
+          @Content(schema = @Schema(implementation = Email.class), mediaType = "application/json"),
+          @Content(schema = @Schema(implementation = Email.class),
+              mediaType = "application/x-jackson-smile"),
+          @Content(schema = @Schema(implementation = Email.class), mediaType = "application/cbor")}),
+      @ApiResponse(responseCode = "304", content = {@Content(schema = @Schema())}),
       @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
   @GetMapping("/account/{name}/{emailRef}")
-  public ResponseEntity getEmailContent(@PathVariable String name, @PathVariable String emailRef) {
+  public ResponseEntity getEmailContent(@PathVariable String name, @PathVariable String emailRef,
+      @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
     log.info("getEmailContent endpoint with account name {} and emailRef {}", name, emailRef);
-    return emailService.getEmailContent(name, emailRef);
+    return emailService.getEmailContent(name, emailRef, ifNoneMatch,
+        WireFormat.negotiate(accept), Gzip.accepted(acceptEncoding));
   }
 
   @Operation(
@@ -76,8 +207,10 @@ public class EmailController {
       @ApiResponse(responseCode = "400", content = {
           @Content(schema = @Schema(implementation = ResponseEntity.class), mediaType = "application/json")}),
       @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())}),
-      @ApiResponse(responseCode = "422", content = {
-          @Content(schema = @Schema(implementation = ResponseEntity.class), mediaType = "application/json")})})
+      @ApiResponse(responseCode = "429", headers = {@Header(name = HttpHeaders.RETRY_AFTER,
+          description = "Seconds until the account may add emails again")},
+          content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "507", content = {@Content(schema = @Schema())})})
   @PostMapping("/account/{name}/draft")
   public ResponseEntity draftEmail(@PathVariable String name,
       @Valid @RequestBody EmailRequest emailRequest) {
@@ -87,15 +220,21 @@ public class EmailController {
 
   @Operation(
       summary = "Send an email.",
-      description = "Send an email.")
+      description = "Send an email. The email is queued for delivery and the response is returned "
+          + "as soon as it is accepted; 503 means the delivery queue is full and the call should be "
+          + "retried later. 429 means the account sends too fast and may retry after the seconds "
+          + "in Retry-After; 507 means the account's mailbox is full.")
   @ApiResponses({
-      @ApiResponse(responseCode = "201", content = {
+      @ApiResponse(responseCode = "202", content = {
           @Content(schema = @Schema(implementation = Email.class), mediaType = "application/json")}),
       @ApiResponse(responseCode = "400", content = {
           @Content(schema = @Schema(implementation = ResponseEntity.class), mediaType = "application/json")}),
       @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())}),
-      @ApiResponse(responseCode = "422", content = {
-          @Content(schema = @Schema(implementation = ResponseEntity.class), mediaType = "application/json")})})
+      @ApiResponse(responseCode = "429", headers = {@Header(name = HttpHeaders.RETRY_AFTER,
+          description = "Seconds until the account may add emails again")},
+          content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "503", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "507", content = {@Content(schema = @Schema())})})
   @PostMapping("/account/{name}")
   public ResponseEntity sendEmail(@PathVariable String name,
       @Valid @RequestBody EmailRequest emailRequest) {
@@ -103,22 +242,137 @@ public class EmailController {
     return emailService.sendEmail(name, emailRequest);
   }
 
+  @Operation(
+      summary = "Send many emails in one request.",
+      description = "Send up to 1000 emails. Each email is validated and queued on its own and gets "
+          + "its own entry in the response, in request order: 202 with the emailRef when it was "
+          + "queued, 400 when it is invalid, 429 when the account has no rate limit left for it, "
+          + "503 when the delivery queue is full or 507 when the account's mailbox is full. The "
+          + "whole request is refused with 429 and a Retry-After header when the account sends "
+          + "too fast.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(array = @ArraySchema(schema = @Schema(implementation = SendResult.class)),
+              mediaType = "application/json")}),
+      @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "429", headers = {@Header(name = HttpHeaders.RETRY_AFTER,
+          description = "Seconds until the account may add emails again")},
+          content = {@Content(schema = @Schema())})})
+  @PostMapping("/account/{name}/batch")
+  public ResponseEntity sendEmails(@PathVariable String name,
+      @RequestBody List<EmailRequest> emailRequests) {
+    log.info("sendEmails endpoint with account name {} and {} email requests", name,
+        emailRequests.size());
+    return emailService.sendEmails(name, emailRequests);
+  }
+
+  @Operation(
+      summary = "Retrieve the contents of many emails in one request.",
+      description = "Retrieve up to 1000 emails by reference. Each reference gets its own entry in "
+          + "the response, in request order: 200 with the email or 404 when it does not exist.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(array = @ArraySchema(schema = @Schema(implementation = FetchResult.class)),
+              mediaType = "application/json")}),
+      @ApiResponse(responseCode = "400", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
+  @PostMapping("/account/{name}/fetch")
+  public ResponseEntity fetchEmails(@PathVariable String name,
+      @RequestBody List<String> emailRefs) {
+    log.info("fetchEmails endpoint with account name {} and {} email references", name,
+        emailRefs.size());
+    return emailService.fetchEmails(name, emailRefs);
+  }
+
   @Operation(
       summary = "Update one or more properties of draft email.",
-      description = "Update one or more properties of draft email.")
+      description = "Update one or more properties of draft email. With If-Match set to the ETag "
+          + "the email was read with, the update is refused with 412 Precondition Failed when "
+          + "someone else updated the email in the meantime.")
   @ApiResponses({
       @ApiResponse(responseCode = "200", content = {
           @Content(schema = @Schema(implementation = Email.class), mediaType = "application/json")}),
       @ApiResponse(responseCode = "400", content = {
           @Content(schema = @Schema(implementation = ResponseEntity.class), mediaType = "application/json")}),
       @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())}),
-      @ApiResponse(responseCode = "422", content = {
-          @Content(schema = @Schema(implementation = ResponseEntity.class), mediaType = "application/json")})})
+      @ApiResponse(responseCode = "412", content = {@Content(schema = @Schema())})})
   @PatchMapping("/account/{name}/{emailRef}/draft")
   public ResponseEntity updateEmail(@PathVariable String name, @PathVariable String emailRef,
-      @Valid @RequestBody EmailRequest updateRequest) {
+      @Valid @RequestBody EmailRequest updateRequest,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
     log.info("updateEmail endpoint with account name {} and emailRef {}", name, emailRef);
-    return emailService.updateEmail(name, emailRef, updateRequest);
+    return emailService.updateEmail(name, emailRef, updateRequest, ifMatch);
+  }
+
+  @Operation(
+      summary = "Attach a file to an email.",
+      description = "Attach the file of a multipart upload to an email. The content is streamed "
+          + "to disk and stored once however many emails it is attached to; the email only holds "
+          + "a reference to it, with its name, type, size and SHA-256. If-Match works as for "
+          + "updates. Files larger than email.attachments.max-size are refused with 413.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(schema = @Schema(implementation = Email.class), mediaType = "application/json")}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "412", content = {@Content(schema = @Schema())}),
+      @ApiResponse(responseCode = "413", content = {@Content(schema = @Schema())})})
+  @PostMapping(path = "/account/{name}/{emailRef}/attachments",
+      consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ResponseEntity addAttachment(@PathVariable String name, @PathVariable String emailRef,
+      @RequestPart("file") MultipartFile file,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    log.info("addAttachment endpoint with account name {} and emailRef {}", name, emailRef);
+    return emailService.addAttachment(name, emailRef, file, ifMatch);
+  }
+
+  @Operation(
+      summary = "Download an attachment of an email.",
+      description = "Download an attachment by the SHA-256 in its reference. The ETag is the "
+          + "SHA-256, since the content of an attachment never changes. Range requests are "
+          + "answered with 206 Partial Content.")
+  @ApiResponses({
+      @ApiResponse(responseCode = "200", content = {
+          @Content(mediaType = "application/octet-stream")}),
+      @ApiResponse(responseCode = "206", content = {
+          @Content(mediaType = "application/octet-stream")}),
+      @ApiResponse(responseCode = "404", content = {@Content(schema = @Schema())})})
+  @GetMapping("/account/{name}/{emailRef}/attachments/{sha256}")
+  public ResponseEntity<Resource> getAttachment(@PathVariable String name,
+      @PathVariable String emailRef, @PathVariable String sha256, HttpServletRequest request)
+      throws IOException {
+    log.info("getAttachment endpoint with account name {} and emailRef {}", name, emailRef);
+    return sendfile(request, emailService.getAttachment(name, emailRef, sha256));
+  }
+
+  /**
+   * Hands a whole file to Tomcat, which sends it with sendfile once the headers are written, so
+   * its content never passes through the JVM. HEAD, range and conditional requests and servers
+   * without sendfile get the resource, which Spring writes itself.
+   */
+  private static ResponseEntity<Resource> sendfile(HttpServletRequest request,
+      ResponseEntity<Resource> response) throws IOException {
+    if (!HttpStatus.OK.equals(response.getStatusCode())
+        || !(response.getBody() instanceof FileSystemResource file)
+        || !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))
+        || !HttpMethod.GET.matches(request.getMethod())
+        || CONDITIONAL_HEADERS.stream().anyMatch(name -> request.getHeader(name) != null)) {
+      return response;
+    }
+    request.setAttribute(SENDFILE_FILENAME, file.getFile().getCanonicalPath());
+    request.setAttribute(SENDFILE_START, 0L);
+    request.setAttribute(SENDFILE_END, file.contentLength());
+    return ResponseEntity.ok().headers(response.getHeaders()).build();
+  }
+
+  /**
+   * Uploads larger than the multipart limits never reach the service, Tomcat refuses them while
+   * it parses the request.
+   */
+  @ExceptionHandler(MaxUploadSizeExceededException.class)
+  public ResponseEntity<String> handleUploadTooLarge(MaxUploadSizeExceededException e) {
+    return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).contentType(MediaType.TEXT_PLAIN)
+        .body("Attachments may not be larger than email.attachments.max-size");
   }
 
 }
@@ -0,0 +1,177 @@
+package nz.co.airnz.email.controller;
+
+import jakarta.validation.Valid;
+import java.util.List;
+import nz.co.airnz.email.codec.Gzip;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.ChangePage;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.FetchResult;
+import nz.co.airnz.email.model.SendResult;
+import nz.co.airnz.email.service.ReactiveEmailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * WebFlux version of {@link EmailController}, active under the {@code reactive} profile. It serves
+ * the same routes with the same status codes and messages; see {@link EmailController} for the API
+ * documentation.
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping("/api/v1/email")
+public class ReactiveEmailController {
+
+  private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+  private final ReactiveEmailService emailService;
+  private static final Logger log = LoggerFactory.getLogger(ReactiveEmailController.class);
+
+  public ReactiveEmailController(ReactiveEmailService emailService) {
+    this.emailService = emailService;
+  }
+
+  @GetMapping("/account/{name}")
+  public Mono<ResponseEntity<List<String>>> getAllEmails(@PathVariable String name,
+      @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+    log.info("getAllEmails endpoint with account name {}", name);
+    return emailService.getEmailRefs(name, ifNoneMatch);
+  }
+
+  @GetMapping("/account/{name}/summaries")
+  public Mono<EmailPage> getEmailSummaries(@PathVariable String name,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "20") int limit) {
+    log.info("getEmailSummaries endpoint with account name {} and cursor {}", name, cursor);
+    return emailService.getEmailSummaries(name, cursor, limit);
+  }
+
+  @GetMapping(path = "/account/{name}/export", produces = APPLICATION_NDJSON)
+  public Flux<Email> exportEmails(@PathVariable String name) {
+    log.info("exportEmails endpoint with account name {}", name);
+    return emailService.getAllEmails(name);
+  }
+
+  @GetMapping("/account/{name}/search")
+  public Mono<EmailPage> searchEmails(@PathVariable String name, @RequestParam String q,
+      @RequestParam(required = false) String cursor,
+      @RequestParam(defaultValue = "20") int limit) {
+    log.info("searchEmails endpoint with account name {} and cursor {}", name, cursor);
+    return emailService.searchEmails(name, q, cursor, limit);
+  }
+
+  @GetMapping("/account/{name}/changes")
+  public Mono<ChangePage> pollChanges(@PathVariable String name,
+      @RequestParam(required = false) Long since) {
+    log.info("pollChanges endpoint with account name {} and since {}", name, since);
+    return emailService.pollChanges(name, since);
+  }
+
+  @GetMapping(path = "/account/{name}/changes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<Object>> streamChanges(@PathVariable String name,
+      @RequestParam(required = false) Long since,
+      @RequestHeader(name = "Last-Event-ID", required = false) Long lastEventId) {
+    log.info("streamChanges endpoint with account name {} and since {}", name, since);
+    return emailService.streamChanges(name, since != null ? since : lastEventId);
+  }
+
+  @GetMapping("/account/{name}/{emailRef}")
+  public Mono<ResponseEntity<byte[]>> getEmailContent(@PathVariable String name,
+      @PathVariable String emailRef,
+      @RequestHeader(name = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(name = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    log.info("getEmailContent endpoint with account name {} and emailRef {}", name, emailRef);
+    return emailService.getEmailContent(name, emailRef, ifNoneMatch,
+        WireFormat.negotiate(accept), Gzip.accepted(acceptEncoding));
+  }
+
+  @PostMapping("/account/{name}/draft")
+  public Mono<ResponseEntity<Email>> draftEmail(@PathVariable String name,
+      @Valid @RequestBody EmailRequest emailRequest) {
+    log.info("draftEmail endpoint with account name {} and email request", name);
+    return emailService.draftEmail(name, emailRequest);
+  }
+
+  @PostMapping("/account/{name}")
+  @ResponseStatus(HttpStatus.ACCEPTED)
+  public Mono<Email> sendEmail(@PathVariable String name,
+      @Valid @RequestBody EmailRequest emailRequest) {
+    log.info("sendEmail endpoint with account name {} and email request", name);
+    return emailService.sendEmail(name, emailRequest);
+  }
+
+  @PostMapping("/account/{name}/batch")
+  public Mono<List<SendResult>> sendEmails(@PathVariable String name,
+      @RequestBody List<EmailRequest> emailRequests) {
+    log.info("sendEmails endpoint with account name {} and {} email requests", name,
+        emailRequests.size());
+    return emailService.sendEmails(name, emailRequests);
+  }
+
+  @PostMapping("/account/{name}/fetch")
+  public Mono<List<FetchResult>> fetchEmails(@PathVariable String name,
+      @RequestBody List<String> emailRefs) {
+    log.info("fetchEmails endpoint with account name {} and {} email references", name,
+        emailRefs.size());
+    return emailService.fetchEmails(name, emailRefs);
+  }
+
+  @PatchMapping("/account/{name}/{emailRef}/draft")
+  public Mono<ResponseEntity<Email>> updateEmail(@PathVariable String name,
+      @PathVariable String emailRef, @Valid @RequestBody EmailRequest updateRequest,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    log.info("updateEmail endpoint with account name {} and emailRef {}", name, emailRef);
+    return emailService.updateEmail(name, emailRef, updateRequest, ifMatch);
+  }
+
+  @PostMapping(path = "/account/{name}/{emailRef}/attachments",
+      consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public Mono<ResponseEntity<Email>> addAttachment(@PathVariable String name,
+      @PathVariable String emailRef, @RequestPart("file") FilePart file,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    log.info("addAttachment endpoint with account name {} and emailRef {}", name, emailRef);
+    return emailService.addAttachment(name, emailRef, file, ifMatch);
+  }
+
+  @GetMapping("/account/{name}/{emailRef}/attachments/{sha256}")
+  public Mono<ResponseEntity<Resource>> getAttachment(@PathVariable String name,
+      @PathVariable String emailRef, @PathVariable String sha256) {
+    log.info("getAttachment endpoint with account name {} and emailRef {}", name, emailRef);
+    return emailService.getAttachment(name, emailRef, sha256);
+  }
+
+  /**
+   * Answers with the plain text message, like the servlet controller does.
+   */
+  @ExceptionHandler(ResponseStatusException.class)
+  public ResponseEntity<String> handleStatus(ResponseStatusException e) {
+    return ResponseEntity.status(e.getStatusCode()).contentType(MediaType.TEXT_PLAIN)
+        .body(e.getReason());
+  }
+}
@@ -0,0 +1,76 @@
+package nz.co.airnz.email.feed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import nz.co.airnz.email.model.ChangeEvent;
+import nz.co.airnz.email.model.ChangePage;
+import nz.co.airnz.email.model.EmailSummary;
+
+/**
+ * Ring buffer of the most recent changes of one account.
+ *
+ * <p>Event {@code n} lives in slot {@code n & mask}, so appending overwrites the oldest event once
+ * the ring is full and reading after a cursor is a direct index instead of a search. Readers are
+ * signalled after every append and pull the events they have not seen themselves, which keeps
+ * slow readers from holding up writers.
+ */
+final class AccountFeed {
+
+  private final ChangeEvent[] ring;
+  private final int mask;
+  private final List<Runnable> readers = new CopyOnWriteArrayList<>();
+  // Guarded by this
+  private long lastSequence;
+
+  AccountFeed(int capacity) {
+    int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.ring = new ChangeEvent[size];
+    this.mask = size - 1;
+  }
+
+  void append(ChangeEvent.Type type, EmailSummary email) {
+    synchronized (this) {
+      lastSequence++;
+      ring[(int) (lastSequence & mask)] = new ChangeEvent(lastSequence, type, email);
+    }
+    // Outside the lock, a reader may read the ring again straight away
+    for (Runnable reader : readers) {
+      reader.run();
+    }
+  }
+
+  synchronized long lastSequence() {
+    return lastSequence;
+  }
+
+  /**
+   * Returns up to {@code limit} events after the cursor. A cursor ahead of the feed comes from
+   * before a restart, and the client missed whatever happened in between.
+   */
+  synchronized ChangePage after(long since, int limit) {
+    long oldest = Math.max(1, lastSequence - ring.length + 1);
+    if (since > lastSequence) {
+      return new ChangePage(List.of(), lastSequence, true);
+    }
+    boolean missed = since + 1 < oldest;
+    long from = Math.max(since + 1, oldest);
+    long to = Math.min(lastSequence, from + limit - 1);
+    if (from > to) {
+      return new ChangePage(List.of(), missed ? lastSequence : since, missed);
+    }
+    List<ChangeEvent> events = new ArrayList<>((int) (to - from + 1));
+    for (long sequence = from; sequence <= to; sequence++) {
+      events.add(ring[(int) (sequence & mask)]);
+    }
+    return new ChangePage(events, to, missed);
+  }
+
+  void addReader(Runnable reader) {
+    readers.add(reader);
+  }
+
+  void removeReader(Runnable reader) {
+    readers.remove(reader);
+  }
+}
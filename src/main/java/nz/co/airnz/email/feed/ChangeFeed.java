@@ -0,0 +1,198 @@
+package nz.co.airnz.email.feed;
+
+import jakarta.annotation.PreDestroy;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import nz.co.airnz.email.model.ChangeEvent;
+import nz.co.airnz.email.model.ChangePage;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-account feed of draft, send and update events, so clients learn about new mail without
+ * listing the inbox again.
+ *
+ * <p>Each account keeps its last {@link ChangeFeedProperties#capacity()} events in an
+ * {@link AccountFeed} ring. Clients either long-poll with {@link #poll}, which completes as soon
+ * as there is an event after their cursor, or {@link #subscribe} to be handed every event as it
+ * happens. Subscribers are called on virtual threads, so a client that reads slowly only holds up
+ * its own delivery.
+ */
+@Component
+public class ChangeFeed {
+
+  /**
+   * Name of the server-sent event that tells a client it missed changes and has to list the inbox
+   * again. Other events are named after their {@link ChangeEvent.Type}.
+   */
+  public static final String RESET_EVENT = "reset";
+
+  static final int MAX_EVENTS_PER_PAGE = 256;
+
+  private static final Logger log = LoggerFactory.getLogger(ChangeFeed.class);
+
+  private final ChangeFeedProperties properties;
+  private final ConcurrentMap<String, AccountFeed> feeds = new ConcurrentHashMap<>();
+  private final ExecutorService delivery = Executors.newThreadPerTaskExecutor(
+      Thread.ofVirtual().name("email-feed-", 0).factory());
+
+  public ChangeFeed(ChangeFeedProperties properties) {
+    this.properties = properties;
+  }
+
+  @PreDestroy
+  public void stop() {
+    delivery.shutdownNow();
+  }
+
+  public ChangeFeedProperties properties() {
+    return properties;
+  }
+
+  public void drafted(String accountName, Email email) {
+    feed(accountName).append(ChangeEvent.Type.DRAFTED, EmailSummary.of(email));
+  }
+
+  public void sent(String accountName, Email email) {
+    feed(accountName).append(ChangeEvent.Type.SENT, EmailSummary.of(email));
+  }
+
+  public void updated(String accountName, Email email) {
+    feed(accountName).append(ChangeEvent.Type.UPDATED, EmailSummary.of(email));
+  }
+
+  /**
+   * Returns the cursor of the latest event of the account, 0 when there is none yet.
+   */
+  public long cursor(String accountName) {
+    return feed(accountName).lastSequence();
+  }
+
+  /**
+   * Returns the events of the account after the cursor without waiting.
+   */
+  public ChangePage changes(String accountName, long since) {
+    return feed(accountName).after(since, MAX_EVENTS_PER_PAGE);
+  }
+
+  /**
+   * Returns a future of the events after the cursor. It completes straight away when there are
+   * any, otherwise with the first event that follows, or empty after the poll timeout.
+   */
+  public CompletableFuture<ChangePage> poll(String accountName, long since) {
+    AccountFeed feed = feed(accountName);
+    ChangePage page = feed.after(since, MAX_EVENTS_PER_PAGE);
+    if (hasNews(page)) {
+      return CompletableFuture.completedFuture(page);
+    }
+
+    CompletableFuture<ChangePage> result = new CompletableFuture<>();
+    Runnable reader = () -> {
+      ChangePage next = feed.after(since, MAX_EVENTS_PER_PAGE);
+      if (hasNews(next)) {
+        result.complete(next);
+      }
+    };
+    feed.addReader(reader);
+    result.whenComplete((changes, failure) -> feed.removeReader(reader));
+    // An event appended before the reader was added would otherwise wait for the next one
+    reader.run();
+    return result.completeOnTimeout(page, properties.pollTimeout().toMillis(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Hands every event of the account after the cursor to the consumer, page by page and in order,
+   * until the subscription is cancelled. The consumer is never called concurrently, and a consumer
+   * that throws cancels its subscription.
+   */
+  public Subscription subscribe(String accountName, long since, Consumer<ChangePage> consumer) {
+    Subscription subscription = new Subscription(feed(accountName), since, consumer);
+    subscription.feed.addReader(subscription);
+    subscription.run();
+    return subscription;
+  }
+
+  private AccountFeed feed(String accountName) {
+    return feeds.computeIfAbsent(accountName, name -> new AccountFeed(properties.capacity()));
+  }
+
+  /**
+   * Returns the server-sent event name of the change, such as {@code sent}.
+   */
+  public static String eventName(ChangeEvent event) {
+    return event.type().name().toLowerCase(Locale.ROOT);
+  }
+
+  private static boolean hasNews(ChangePage page) {
+    return !page.events().isEmpty() || page.missed();
+  }
+
+  /**
+   * A subscriber's position in an account's feed.
+   */
+  public final class Subscription implements Runnable {
+
+    private final AccountFeed feed;
+    private final Consumer<ChangePage> consumer;
+    // Counts the signals since the last drain, so concurrent appends start one drain at a time
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean cancelled;
+    private long cursor;
+
+    private Subscription(AccountFeed feed, long since, Consumer<ChangePage> consumer) {
+      this.feed = feed;
+      this.cursor = since;
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void run() {
+      if (pending.getAndIncrement() == 0) {
+        try {
+          delivery.execute(this::drain);
+        } catch (RuntimeException e) {
+          // The feed is shutting down
+          cancel();
+        }
+      }
+    }
+
+    public void cancel() {
+      cancelled = true;
+      feed.removeReader(this);
+    }
+
+    private void drain() {
+      int signals = pending.get();
+      while (!cancelled) {
+        ChangePage page = feed.after(cursor, MAX_EVENTS_PER_PAGE);
+        if (hasNews(page)) {
+          try {
+            consumer.accept(page);
+          } catch (RuntimeException e) {
+            log.debug("Change feed subscriber failed, cancelling it: {}", e.getMessage());
+            cancel();
+            return;
+          }
+          cursor = page.cursor();
+          continue;
+        }
+        signals = pending.addAndGet(-signals);
+        if (signals == 0) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,23 @@
+package nz.co.airnz.email.feed;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the inbox change feed, bound from {@code email.feed.*}.
+ *
+ * @param capacity      changes kept per account; a client further behind than this has to list
+ *                      the inbox again
+ * @param pollTimeout   how long a long-poll request waits for a change before it answers empty
+ * @param streamTimeout how long an event stream stays open before the client has to reconnect
+ */
+@ConfigurationProperties(prefix = "email.feed")
+public record ChangeFeedProperties(@DefaultValue("1024") int capacity,
+                                   @DefaultValue("25s") Duration pollTimeout,
+                                   @DefaultValue("30m") Duration streamTimeout) {
+
+  public static ChangeFeedProperties defaults() {
+    return new ChangeFeedProperties(1024, Duration.ofSeconds(25), Duration.ofMinutes(30));
+  }
+}
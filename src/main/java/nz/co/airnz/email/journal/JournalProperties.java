@@ -0,0 +1,21 @@
+package nz.co.airnz.email.journal;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of the mailbox write-ahead log, bound from {@code email.journal.*}.
+ *
+ * @param enabled          whether mailbox changes are journaled and recovered at startup
+ * @param directory        where log segments and snapshots are kept
+ * @param segmentSize      size of each memory-mapped log segment
+ * @param snapshotInterval how often a snapshot is taken and the log behind it discarded
+ */
+@ConfigurationProperties(prefix = "email.journal")
+public record JournalProperties(@DefaultValue("false") boolean enabled,
+                                @DefaultValue("data/journal") Path directory,
+                                @DefaultValue("64MB") DataSize segmentSize,
+                                @DefaultValue("5m") Duration snapshotInterval) { }
@@ -0,0 +1,137 @@
+package nz.co.airnz.email.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * One memory-mapped, append-only file of the mailbox journal.
+ *
+ * <p>Each record is laid out as {@code [int length][int crc][long sequence][payload]}, where the
+ * CRC-32C covers the sequence and the payload. The file is zero filled when it is created, so a
+ * zero length marks the end of the written records. A record whose checksum does not match was
+ * torn by a crash and ends the segment as well.
+ */
+final class JournalSegment implements Closeable {
+
+  static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES;
+  private static final String PREFIX = "journal-";
+  private static final String SUFFIX = ".log";
+
+  private final FileChannel channel;
+  private final MappedByteBuffer buffer;
+  private final CRC32C crc = new CRC32C();
+  private int syncedPosition;
+
+  private JournalSegment(FileChannel channel, MappedByteBuffer buffer) {
+    this.channel = channel;
+    this.buffer = buffer;
+  }
+
+  static JournalSegment create(Path directory, long firstSequence, int size) throws IOException {
+    Path path = directory.resolve(fileName(firstSequence));
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      return new JournalSegment(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  static String fileName(long firstSequence) {
+    return String.format("%s%020d%s", PREFIX, firstSequence, SUFFIX);
+  }
+
+  static boolean isSegment(Path path) {
+    String name = path.getFileName().toString();
+    return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+  }
+
+  static long firstSequenceOf(Path path) {
+    String name = path.getFileName().toString();
+    return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+  }
+
+  /**
+   * Calls the consumer for every intact record of the segment file, in order.
+   *
+   * @return the sequence of the last intact record, or -1 when there is none
+   */
+  static long read(Path path, RecordConsumer consumer) throws IOException {
+    long lastSequence = -1;
+    CRC32C crc = new CRC32C();
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      while (buffer.remaining() >= HEADER_BYTES) {
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining() - Long.BYTES) {
+          break;
+        }
+        int start = buffer.position();
+        long sequence = buffer.getLong();
+        byte[] payload = new byte[length];
+        buffer.get(payload);
+
+        crc.reset();
+        crc.update(buffer.duplicate().position(start).limit(start + Long.BYTES + length));
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        consumer.accept(sequence, payload);
+        lastSequence = sequence;
+      }
+    } catch (BufferUnderflowException e) {
+      // A truncated file simply ends early
+    }
+    return lastSequence;
+  }
+
+  boolean hasRoomFor(int payloadLength) {
+    return buffer.remaining() >= HEADER_BYTES + payloadLength;
+  }
+
+  void append(long sequence, byte[] payload) {
+    int start = buffer.position();
+    buffer.position(start + Integer.BYTES + Integer.BYTES);
+    buffer.putLong(sequence);
+    buffer.put(payload);
+
+    crc.reset();
+    crc.update(buffer.duplicate().position(start + Integer.BYTES + Integer.BYTES)
+        .limit(buffer.position()));
+    // The length goes in last, so a half written record still reads as the end of the segment
+    buffer.putInt(start + Integer.BYTES, (int) crc.getValue());
+    buffer.putInt(start, payload.length);
+  }
+
+  /**
+   * Syncs the records appended since the last call to disk.
+   */
+  void force() {
+    int position = buffer.position();
+    if (position > syncedPosition) {
+      buffer.force(syncedPosition, position - syncedPosition);
+      syncedPosition = position;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    channel.close();
+  }
+
+  @FunctionalInterface
+  interface RecordConsumer {
+
+    void accept(long sequence, byte[] payload) throws IOException;
+  }
+}
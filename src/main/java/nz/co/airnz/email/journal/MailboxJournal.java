@@ -0,0 +1,455 @@
+package nz.co.airnz.email.journal;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxPage;
+import nz.co.airnz.email.store.MailboxStore;
+import nz.co.airnz.email.store.MutationLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Durable write-ahead log of every change made to the {@link MailboxStore}.
+ *
+ * <p>Request threads encode the changed email and queue it. A single flusher thread writes
+ * everything that has queued up into the current memory-mapped {@link JournalSegment} and syncs
+ * it to disk once for the whole group, so concurrent writers share one fsync. A snapshot of the
+ * whole store is written periodically; the segments it covers are then deleted, so recovery loads
+ * the latest snapshot and replays only the log written after it.
+ *
+ * <p>A record holds the account name followed by the email as JSON, or the account name alone
+ * when the account was removed.
+ *
+ * <p>If the flusher thread dies, every queued and later write fails with the reason instead of
+ * waiting for it, and snapshots and shutdown wait for it no longer than {@link #FLUSH_TIMEOUT}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "email.journal", name = "enabled", havingValue = "true")
+public class MailboxJournal implements MutationLog {
+
+  private static final Logger log = LoggerFactory.getLogger(MailboxJournal.class);
+
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final String SNAPSHOT_SUFFIX = ".snap";
+  private static final int SNAPSHOT_MAGIC = 0x454d4c53;
+  private static final byte SNAPSHOT_END = 0;
+  private static final byte SNAPSHOT_ACCOUNT = 1;
+  private static final byte SNAPSHOT_EMAIL = 2;
+  private static final int SNAPSHOT_BATCH_SIZE = 1024;
+  private static final int MAX_GROUP_SIZE = 4096;
+  static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(30);
+
+  private final MailboxStore store;
+  private final JournalProperties properties;
+  private final Path directory;
+  private final int segmentSize;
+  private final ObjectReader emailReader;
+  private final ObjectWriter emailWriter;
+  private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+  private final ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "email-journal-snapshot");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private Thread flusher;
+  private volatile boolean running;
+  // Why the flusher stopped; set before it fails what is still queued
+  private volatile Throwable failure;
+
+  // Owned by the flusher thread once the journal is open
+  private JournalSegment segment;
+  private long nextSequence;
+
+  public MailboxJournal(MailboxStore store, JournalProperties properties) {
+    this.store = store;
+    this.properties = properties;
+    this.directory = properties.directory();
+    this.segmentSize = Math.toIntExact(properties.segmentSize().toBytes());
+    this.emailReader = WireFormat.JSON.emailReader();
+    this.emailWriter = WireFormat.JSON.emailWriter();
+  }
+
+  @PostConstruct
+  public void open() throws IOException {
+    Files.createDirectories(directory);
+    nextSequence = recover() + 1;
+    segment = JournalSegment.create(directory, nextSequence, segmentSize);
+
+    running = true;
+    flusher = new Thread(this::flushLoop, "email-journal-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+    store.setMutationLog(this);
+
+    long interval = properties.snapshotInterval().toMillis();
+    snapshots.scheduleWithFixedDelay(this::scheduledSnapshot, interval, interval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void close() throws IOException, InterruptedException {
+    store.setMutationLog(MutationLog.NONE);
+    snapshots.shutdownNow();
+    try {
+      // A final snapshot keeps the next startup from replaying the log
+      snapshot();
+    } finally {
+      stop();
+    }
+  }
+
+  /**
+   * Stops writing without taking a snapshot, leaving the directory as a crash would.
+   */
+  void stop() throws IOException, InterruptedException {
+    store.setMutationLog(MutationLog.NONE);
+    snapshots.shutdownNow();
+    running = false;
+    flusher.join(FLUSH_TIMEOUT.toMillis());
+    if (flusher.isAlive()) {
+      // The segment stays mapped; unmapping it under a writing flusher could crash the JVM
+      log.error("Journal flusher did not stop within {}", FLUSH_TIMEOUT);
+      return;
+    }
+    segment.close();
+  }
+
+  @Override
+  public CompletableFuture<?> append(String accountName, Email email) {
+    if (!running || failure != null) {
+      return CompletableFuture.failedFuture(stopped());
+    }
+    try {
+      PendingWrite write = new PendingWrite(encode(accountName, email));
+      pending.add(write);
+      if (failure != null) {
+        // The flusher stopped while the write was queued and may not have seen it
+        write.done.completeExceptionally(stopped());
+      }
+      return write.done;
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  @Override
+  public CompletableFuture<?> accountRemoved(String accountName) {
+    return append(accountName, null);
+  }
+
+  /**
+   * Writes the whole store to a new snapshot and deletes the log segments it makes redundant.
+   */
+  public void snapshot() throws IOException {
+    long startTime = System.nanoTime();
+    PendingWrite roll = new PendingWrite(null);
+    pending.add(roll);
+    if (failure != null) {
+      roll.done.completeExceptionally(stopped());
+    }
+    long lastSequence = awaitRoll(roll.done);
+    // Writers keep their stripe lock until the change they logged is applied, so once every change
+    // up to lastSequence is applied the store contains at least that state. Later changes may be
+    // included too; replaying them is harmless.
+    store.awaitLoggedChanges();
+
+    Path temporary = directory.resolve(SNAPSHOT_PREFIX + lastSequence + ".tmp");
+    long emails = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(Files.newOutputStream(temporary), 1 << 16)))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeLong(lastSequence);
+      for (String accountName : store.accountNames()) {
+        out.writeByte(SNAPSHOT_ACCOUNT);
+        out.writeUTF(accountName);
+        long afterSequence = -1;
+        MailboxPage page;
+        do {
+          page = store.page(accountName, afterSequence, SNAPSHOT_BATCH_SIZE);
+          for (Email email : page.emails()) {
+            byte[] json = emailWriter.writeValueAsBytes(email);
+            out.writeByte(SNAPSHOT_EMAIL);
+            out.writeInt(json.length);
+            out.write(json);
+            emails++;
+          }
+          afterSequence = page.lastSequence();
+        } while (page.hasMore());
+      }
+      out.writeByte(SNAPSHOT_END);
+    }
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+      channel.force(true);
+    }
+    Files.move(temporary, directory.resolve(snapshotFileName(lastSequence)),
+        StandardCopyOption.ATOMIC_MOVE);
+
+    deleteCoveredFiles(lastSequence);
+    log.info("Journal snapshot of {} emails up to sequence {} written in {} ms", emails,
+        lastSequence, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+  }
+
+  private long awaitRoll(CompletableFuture<Long> done) throws IOException {
+    try {
+      return done.get(FLUSH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      throw new IOException("Journal could not start a new segment", e.getCause());
+    } catch (TimeoutException e) {
+      throw new IOException("Journal flusher did not respond within " + FLUSH_TIMEOUT, failure);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the journal flusher");
+    }
+  }
+
+  private void scheduledSnapshot() {
+    try {
+      snapshot();
+    } catch (IOException | UncheckedIOException e) {
+      log.error("Journal snapshot failed", e);
+    }
+  }
+
+  private long recover() throws IOException {
+    long startTime = System.nanoTime();
+    long lastSequence = 0;
+    long recovered = 0;
+
+    Path snapshot = latestSnapshot();
+    if (snapshot != null) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+          new GZIPInputStream(Files.newInputStream(snapshot), 1 << 16)))) {
+        if (in.readInt() != SNAPSHOT_MAGIC) {
+          throw new IOException("Not a journal snapshot: " + snapshot);
+        }
+        lastSequence = in.readLong();
+        String accountName = null;
+        for (byte type = in.readByte(); type != SNAPSHOT_END; type = in.readByte()) {
+          if (type == SNAPSHOT_ACCOUNT) {
+            accountName = in.readUTF();
+            store.createAccount(accountName);
+          } else {
+            byte[] json = new byte[in.readInt()];
+            in.readFully(json);
+            store.put(accountName, emailReader.readValue(json));
+            recovered++;
+          }
+        }
+      }
+    }
+
+    long snapshotSequence = lastSequence;
+    long[] replayed = new long[1];
+    for (Path segmentFile : segmentFiles()) {
+      long last = JournalSegment.read(segmentFile, (sequence, payload) -> {
+        if (sequence > snapshotSequence) {
+          apply(payload);
+          replayed[0]++;
+        }
+      });
+      lastSequence = Math.max(lastSequence, last);
+    }
+
+    log.info("Journal recovered {} emails from snapshot and replayed {} log records in {} ms",
+        recovered, replayed[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    return lastSequence;
+  }
+
+  private void apply(byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    String accountName = in.readUTF();
+    int offset = payload.length - in.available();
+    if (offset == payload.length) {
+      store.removeAccount(accountName);
+      return;
+    }
+    store.createAccount(accountName);
+    store.put(accountName, emailReader.readValue(payload, offset, payload.length - offset));
+  }
+
+  private byte[] encode(String accountName, Email email) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(accountName);
+    // A record of the account name alone removes the account
+    if (email != null) {
+      emailWriter.writeValue(bytes, email);
+    }
+    return bytes.toByteArray();
+  }
+
+  private void flushLoop() {
+    List<PendingWrite> group = new ArrayList<>();
+    try {
+      while (running || !pending.isEmpty()) {
+        try {
+          PendingWrite first = pending.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+          group.add(first);
+          pending.drainTo(group, MAX_GROUP_SIZE - 1);
+          writeGroup(group);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failure = new IllegalStateException("Journal flusher was interrupted");
+          return;
+        } catch (IOException | RuntimeException e) {
+          log.error("Journal write failed for {} records", group.size(), e);
+          group.forEach(write -> write.done.completeExceptionally(e));
+        } finally {
+          group.clear();
+        }
+      }
+    } catch (Error e) {
+      log.error("Journal flusher failed, changes can no longer be made durable", e);
+      failure = e;
+      throw e;
+    } finally {
+      if (failure == null) {
+        failure = new IllegalStateException("Journal is closed");
+      }
+      // Writers and snapshots waiting for these would otherwise wait forever
+      for (PendingWrite write = pending.poll(); write != null; write = pending.poll()) {
+        write.done.completeExceptionally(stopped());
+      }
+      group.forEach(write -> write.done.completeExceptionally(stopped()));
+    }
+  }
+
+  private IllegalStateException stopped() {
+    Throwable cause = failure;
+    if (cause == null) {
+      return new IllegalStateException("Journal is closed");
+    }
+    return new IllegalStateException("Journal flusher stopped: " + cause.getMessage(), cause);
+  }
+
+  private void writeGroup(List<PendingWrite> group) throws IOException {
+    List<PendingWrite> unsynced = new ArrayList<>(group.size());
+    for (PendingWrite write : group) {
+      if (write.payload == null) {
+        // Roll request from snapshot(): everything so far is made durable in the current segment
+        sync(unsynced);
+        roll();
+        write.done.complete(nextSequence - 1);
+        continue;
+      }
+      if (!segment.hasRoomFor(write.payload.length)) {
+        sync(unsynced);
+        roll();
+        if (!segment.hasRoomFor(write.payload.length)) {
+          write.done.completeExceptionally(new IOException(
+              "Journal record of " + write.payload.length + " bytes exceeds the segment size"));
+          continue;
+        }
+      }
+      segment.append(nextSequence++, write.payload);
+      unsynced.add(write);
+    }
+    sync(unsynced);
+  }
+
+  private void sync(List<PendingWrite> unsynced) {
+    if (unsynced.isEmpty()) {
+      return;
+    }
+    segment.force();
+    unsynced.forEach(write -> write.done.complete(null));
+    unsynced.clear();
+  }
+
+  private void roll() throws IOException {
+    segment.close();
+    segment = JournalSegment.create(directory, nextSequence, segmentSize);
+  }
+
+  private void deleteCoveredFiles(long lastSequence) throws IOException {
+    for (Path segmentFile : segmentFiles()) {
+      if (JournalSegment.firstSequenceOf(segmentFile) <= lastSequence) {
+        Files.deleteIfExists(segmentFile);
+      }
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : files.filter(MailboxJournal::isSnapshot).toList()) {
+        if (snapshotSequenceOf(file) < lastSequence) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(JournalSegment::isSegment).sorted().toList();
+    }
+  }
+
+  private Path latestSnapshot() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(MailboxJournal::isSnapshot).max((a, b) ->
+          Long.compare(snapshotSequenceOf(a), snapshotSequenceOf(b))).orElse(null);
+    }
+  }
+
+  private static String snapshotFileName(long lastSequence) {
+    return String.format("%s%020d%s", SNAPSHOT_PREFIX, lastSequence, SNAPSHOT_SUFFIX);
+  }
+
+  private static boolean isSnapshot(Path path) {
+    String name = path.getFileName().toString();
+    return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+  }
+
+  private static long snapshotSequenceOf(Path path) {
+    String name = path.getFileName().toString();
+    return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(),
+        name.length() - SNAPSHOT_SUFFIX.length()));
+  }
+
+  private static final class PendingWrite {
+
+    // null asks the flusher to start a new segment
+    private final byte[] payload;
+    private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+    private PendingWrite(byte[] payload) {
+      this.payload = payload;
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package nz.co.airnz.email.limit;
+
+/**
+ * Whether a request that adds emails may go ahead. A refused request should be answered with 429
+ * Too Many Requests and a {@code Retry-After} of {@link #retryAfterSeconds()}.
+ */
+public record Admission(boolean admitted, long retryAfterSeconds, String message) {
+
+  static final Admission ADMITTED = new Admission(true, 0, null);
+
+  static Admission refused(long retryAfterSeconds, String message) {
+    return new Admission(false, retryAfterSeconds, message);
+  }
+}
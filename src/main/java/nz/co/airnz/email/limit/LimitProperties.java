@@ -0,0 +1,23 @@
+package nz.co.airnz.email.limit;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Admission limits of the requests that add emails, bound from {@code email.limits.*}.
+ *
+ * @param ratePerSecond       sustained sends and drafts per second allowed for one account, 0 for
+ *                            no limit
+ * @param burst               sends and drafts an idle account may make at once
+ * @param maxConcurrentWrites sends and drafts of all accounts in progress at the same time, 0 for
+ *                            no limit
+ */
+@ConfigurationProperties(prefix = "email.limits")
+public record LimitProperties(@DefaultValue("20") double ratePerSecond,
+                              @DefaultValue("100") int burst,
+                              @DefaultValue("256") int maxConcurrentWrites) {
+
+  public static LimitProperties defaults() {
+    return new LimitProperties(20, 100, 256);
+  }
+}
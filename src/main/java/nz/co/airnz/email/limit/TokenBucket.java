@@ -0,0 +1,41 @@
+package nz.co.airnz.email.limit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, kept as a single timestamp in the manner of the generic cell rate
+ * algorithm: the time at which the bucket would be full again. Taking a token moves that time
+ * one interval forward with a compare-and-set, and a request is refused while the time lies more
+ * than a burst ahead of now.
+ */
+final class TokenBucket {
+
+  private final long intervalNanos;
+  private final long burstNanos;
+  private final AtomicLong fullAt;
+
+  TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+    this.intervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+    this.burstNanos = intervalNanos * (Math.max(1, burst) - 1);
+    this.fullAt = new AtomicLong(nowNanos);
+  }
+
+  /**
+   * Takes a token if there is one.
+   *
+   * @return 0 when a token was taken, otherwise the nanoseconds until one is available
+   */
+  long tryTake(long nowNanos) {
+    while (true) {
+      long current = fullAt.get();
+      long start = current - nowNanos > 0 ? current : nowNanos;
+      long waitNanos = start - nowNanos - burstNanos;
+      if (waitNanos > 0) {
+        return waitNanos;
+      }
+      if (fullAt.compareAndSet(current, start + intervalNanos)) {
+        return 0;
+      }
+    }
+  }
+}
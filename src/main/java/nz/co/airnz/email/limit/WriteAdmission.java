@@ -0,0 +1,99 @@
+package nz.co.airnz.email.limit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission control for sends and drafts, checked before the request body is read.
+ *
+ * <p>A request is first counted against {@link LimitProperties#maxConcurrentWrites()}, which
+ * sheds load when the node as a whole is saturated, and then takes a token from its account's
+ * {@link TokenBucket}, which keeps one account from crowding out the others. Neither check takes a
+ * lock. Buckets are only kept for accounts the store holds, so requests for made-up account names
+ * cannot grow the map. Batches take a token for every further email they hold with
+ * {@link #admitBatchItem}, once their body has been read.
+ */
+@Component
+public class WriteAdmission {
+
+  private static final Logger log = LoggerFactory.getLogger(WriteAdmission.class);
+
+  private final MailboxStore store;
+  private final LimitProperties properties;
+  private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+  private final AtomicInteger inProgress = new AtomicInteger();
+
+  public WriteAdmission(MailboxStore store, LimitProperties properties) {
+    this.store = store;
+    this.properties = properties;
+  }
+
+  /**
+   * Decides on a send or draft for the account. An admitted request has to be followed by
+   * {@link #release()} once it is done.
+   */
+  public Admission admit(String accountName) {
+    int maxConcurrent = properties.maxConcurrentWrites();
+    if (maxConcurrent > 0 && inProgress.incrementAndGet() > maxConcurrent) {
+      inProgress.decrementAndGet();
+      log.warn("Shedding a write for account {}, {} writes in progress", accountName,
+          maxConcurrent);
+      return Admission.refused(1, "Too many requests in progress, please retry later");
+    }
+
+    TokenBucket bucket = bucketFor(accountName);
+    long waitNanos = bucket == null ? 0 : bucket.tryTake(System.nanoTime());
+    if (waitNanos > 0) {
+      release();
+      log.warn("Account {} is over its rate limit", accountName);
+      return Admission.refused(Math.max(1, ceilSeconds(waitNanos)),
+          "Too many emails for this account, please retry later");
+    }
+    return Admission.ADMITTED;
+  }
+
+  /**
+   * Takes one more token from the account's bucket for an email of a batch beyond the first.
+   * {@link #admit} only takes one for the request, before its body says how many emails it holds.
+   *
+   * @return false when the account is over its rate, in which case the email should be refused
+   */
+  public boolean admitBatchItem(String accountName) {
+    TokenBucket bucket = bucketFor(accountName);
+    return bucket == null || bucket.tryTake(System.nanoTime()) == 0;
+  }
+
+  public void release() {
+    if (properties.maxConcurrentWrites() > 0) {
+      inProgress.decrementAndGet();
+    }
+  }
+
+  int inProgress() {
+    return inProgress.get();
+  }
+
+  private TokenBucket bucketFor(String accountName) {
+    if (properties.ratePerSecond() <= 0 || accountName == null) {
+      return null;
+    }
+    TokenBucket bucket = buckets.get(accountName);
+    // Only loaded accounts: loading one blocks, and the reactive filter runs on an event loop. The
+    // first write to an account that is not loaded yet goes through without a bucket.
+    if (bucket == null && store.isLoaded(accountName)) {
+      bucket = buckets.computeIfAbsent(accountName, name ->
+          new TokenBucket(properties.ratePerSecond(), properties.burst(), System.nanoTime()));
+    }
+    return bucket;
+  }
+
+  private static long ceilSeconds(long nanos) {
+    return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+  }
+}
@@ -0,0 +1,60 @@
+package nz.co.airnz.email.limit;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Applies {@link WriteAdmission} to the send and draft endpoints of the servlet stack. Interceptors
+ * run before the handler's arguments are resolved, so a refused request is answered without
+ * reading or deserializing its body.
+ */
+public class WriteAdmissionInterceptor implements HandlerInterceptor {
+
+  private static final String ADMITTED = WriteAdmissionInterceptor.class.getName() + ".ADMITTED";
+
+  private final WriteAdmission admission;
+
+  public WriteAdmissionInterceptor(WriteAdmission admission) {
+    this.admission = admission;
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+      Object handler) throws IOException {
+    if (!HttpMethod.POST.matches(request.getMethod())) {
+      return true;
+    }
+    Admission decision = admission.admit(accountName(request));
+    if (!decision.admitted()) {
+      response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+      response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(decision.retryAfterSeconds()));
+      response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+      response.getWriter().write(decision.message());
+      return false;
+    }
+    request.setAttribute(ADMITTED, Boolean.TRUE);
+    return true;
+  }
+
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+      Object handler, Exception ex) {
+    if (request.getAttribute(ADMITTED) != null) {
+      request.removeAttribute(ADMITTED);
+      admission.release();
+    }
+  }
+
+  private static String accountName(HttpServletRequest request) {
+    Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+    return variables instanceof Map<?, ?> map ? (String) map.get("name") : null;
+  }
+}
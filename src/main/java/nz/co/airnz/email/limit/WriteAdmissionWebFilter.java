@@ -0,0 +1,71 @@
+package nz.co.airnz.email.limit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+/**
+ * Applies {@link WriteAdmission} to the send and draft endpoints of the reactive stack, before
+ * the request body is subscribed to.
+ */
+@Component
+@Profile("reactive")
+public class WriteAdmissionWebFilter implements WebFilter {
+
+  private static final List<PathPattern> WRITES = List.of(
+      PathPatternParser.defaultInstance.parse("/api/v1/email/account/{name}"),
+      PathPatternParser.defaultInstance.parse("/api/v1/email/account/{name}/draft"),
+      PathPatternParser.defaultInstance.parse("/api/v1/email/account/{name}/batch"));
+
+  private final WriteAdmission admission;
+
+  public WriteAdmissionWebFilter(WriteAdmission admission) {
+    this.admission = admission;
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+    ServerHttpRequest request = exchange.getRequest();
+    if (request.getMethod() != HttpMethod.POST) {
+      return chain.filter(exchange);
+    }
+    PathContainer path = request.getPath().pathWithinApplication();
+    for (PathPattern pattern : WRITES) {
+      PathPattern.PathMatchInfo match = pattern.matchAndExtract(path);
+      if (match != null) {
+        return admit(match.getUriVariables().get("name"), exchange, chain);
+      }
+    }
+    return chain.filter(exchange);
+  }
+
+  private Mono<Void> admit(String accountName, ServerWebExchange exchange, WebFilterChain chain) {
+    Admission decision = admission.admit(accountName);
+    if (decision.admitted()) {
+      return chain.filter(exchange).doFinally(signal -> admission.release());
+    }
+    ServerHttpResponse response = exchange.getResponse();
+    response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+    response.getHeaders().set(HttpHeaders.RETRY_AFTER,
+        String.valueOf(decision.retryAfterSeconds()));
+    response.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+    DataBuffer body = response.bufferFactory()
+        .wrap(decision.message().getBytes(StandardCharsets.UTF_8));
+    return response.writeWith(Mono.just(body));
+  }
+}
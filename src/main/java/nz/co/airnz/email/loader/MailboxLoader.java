@@ -0,0 +1,216 @@
+package nz.co.airnz.email.loader;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.AccountLoader;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+/**
+ * Seeds the {@link MailboxStore} from a directory of email files laid out as
+ * {@code <location>/<account>/<anything>.json}.
+ *
+ * <p>Startup only lists the files and registers the loader with the store, so an account that is
+ * asked for before it has been loaded is loaded right away. Unless the loader is lazy, all accounts
+ * are then loaded in parallel once the application has started. Files are parsed on a fork-join
+ * pool with one shared {@link ObjectReader}; a file that cannot be read is logged and skipped
+ * without affecting the rest of its account.
+ *
+ * <p>Only accounts accepted by the {@link #setAccountFilter account filter} are loaded, so that
+ * nodes sharing one set of files each load their own accounts.
+ */
+@Component
+public class MailboxLoader implements AccountLoader, ApplicationRunner {
+
+  private static final Logger log = LoggerFactory.getLogger(MailboxLoader.class);
+
+  private final MailboxStore store;
+  private final MailboxLoaderProperties properties;
+  private final ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+  private final ObjectReader emailReader;
+  private final ForkJoinPool pool;
+  // Files of the accounts that have not been loaded yet
+  private final ConcurrentMap<String, List<Resource>> unloaded = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, CompletableFuture<Integer>> loading =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, String> failures = new ConcurrentHashMap<>();
+  private volatile Predicate<String> accountFilter = accountName -> true;
+
+  public MailboxLoader(MailboxStore store, MailboxLoaderProperties properties) {
+    this.store = store;
+    this.properties = properties;
+    this.emailReader = WireFormat.JSON.emailReader();
+    this.pool = new ForkJoinPool(properties.parallelism() > 0
+        ? properties.parallelism() : Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Finds the email files of every account and starts serving accounts from them on demand.
+   */
+  @PostConstruct
+  public void discover() throws IOException {
+    Resource[] files = resolver.getResources(properties.location() + "/*/*.json");
+    Map<String, List<Resource>> byAccount = new ConcurrentHashMap<>();
+    for (Resource file : files) {
+      String accountName = accountNameOf(file);
+      if (accountName != null) {
+        byAccount.computeIfAbsent(accountName, name -> new ArrayList<>()).add(file);
+      }
+    }
+    // File name order is the order the emails are added to the mailbox in
+    byAccount.values().forEach(accountFiles ->
+        accountFiles.sort(Comparator.comparing(MailboxLoader::fileNameOf)));
+    unloaded.putAll(byAccount);
+    store.setAccountLoader(this);
+    log.info("Found {} email files for {} accounts in {}", files.length, byAccount.size(),
+        properties.location());
+  }
+
+  /**
+   * Limits loading to the accounts the filter accepts. Accounts that were already loaded stay in
+   * the store.
+   */
+  public void setAccountFilter(Predicate<String> accountFilter) {
+    this.accountFilter = accountFilter == null ? accountName -> true : accountFilter;
+  }
+
+  @Override
+  public void run(ApplicationArguments args) {
+    if (!properties.lazy()) {
+      loadAll();
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Loads every account that has not been loaded yet, in parallel.
+   */
+  public void loadAll() {
+    long startTime = System.nanoTime();
+    List<String> accountNames = unloaded.keySet().stream().filter(accountFilter).toList();
+    int failuresBefore = failures.size();
+    AtomicInteger emails = new AtomicInteger();
+    pool.submit(() -> accountNames.parallelStream()
+        .forEach(accountName -> emails.addAndGet(loadAccount(accountName)))).join();
+    log.info("Loaded {} emails for {} accounts in {} ms, {} files failed", emails.get(),
+        accountNames.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+        failures.size() - failuresBefore);
+  }
+
+  @Override
+  public void load(String accountName) {
+    loadAccount(accountName);
+  }
+
+  /**
+   * Returns whether accounts the account filter accepts have not been loaded yet.
+   */
+  @Override
+  public boolean hasUnloadedAccounts() {
+    return unloaded.keySet().stream().anyMatch(accountFilter);
+  }
+
+  /**
+   * Returns the reason each file that could not be loaded failed, by file.
+   */
+  public Map<String, String> failures() {
+    return Collections.unmodifiableMap(failures);
+  }
+
+  private int loadAccount(String accountName) {
+    if (!unloaded.containsKey(accountName) || !accountFilter.test(accountName)) {
+      return 0;
+    }
+    CompletableFuture<Integer> loaded = new CompletableFuture<>();
+    CompletableFuture<Integer> running = loading.putIfAbsent(accountName, loaded);
+    if (running != null) {
+      // Another thread is loading the account, it can be used once that has finished
+      running.join();
+      return 0;
+    }
+    try {
+      List<Resource> files = unloaded.get(accountName);
+      int added = files == null ? 0 : store.seed(accountName, read(files));
+      unloaded.remove(accountName);
+      loaded.complete(added);
+      return added;
+    } catch (RuntimeException e) {
+      loaded.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(accountName);
+    }
+  }
+
+  private List<Email> read(List<Resource> files) {
+    if (files.size() == 1) {
+      Email email = read(files.get(0));
+      return email == null ? List.of() : List.of(email);
+    }
+    return pool.submit(() -> files.parallelStream().map(this::read).filter(Objects::nonNull)
+        .toList()).join();
+  }
+
+  private Email read(Resource file) {
+    try (InputStream in = file.getInputStream()) {
+      Email email = emailReader.readValue(in);
+      if (email.getEmailRef() == null) {
+        throw new IOException("emailRef is missing");
+      }
+      return email;
+    } catch (IOException | RuntimeException e) {
+      String description = file.getDescription();
+      failures.put(description, String.valueOf(e.getMessage()));
+      log.warn("Skipping email file {}: {}", description, e.getMessage());
+      return null;
+    }
+  }
+
+  private static String accountNameOf(Resource file) {
+    String[] segments = pathOf(file).split("/");
+    return segments.length < 2 ? null : segments[segments.length - 2];
+  }
+
+  private static String fileNameOf(Resource file) {
+    String path = pathOf(file);
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  private static String pathOf(Resource file) {
+    try {
+      // Also works for jar: URLs, whose path ends in the entry name
+      return file.getURL().getPath();
+    } catch (IOException e) {
+      return String.valueOf(file.getFilename());
+    }
+  }
+}
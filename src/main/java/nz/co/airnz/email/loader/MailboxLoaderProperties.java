@@ -0,0 +1,23 @@
+package nz.co.airnz.email.loader;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the seed email loader, bound from {@code email.loader.*}.
+ *
+ * @param location    directory holding one sub directory of {@code *.json} emails per account, as
+ *                    a Spring resource location such as {@code classpath*:emails} or
+ *                    {@code file:/var/lib/email/seed}
+ * @param lazy        load an account on its first access instead of loading all of them at startup
+ * @param parallelism threads parsing email files, 0 to use one per available processor
+ */
+@ConfigurationProperties(prefix = "email.loader")
+public record MailboxLoaderProperties(@DefaultValue("classpath*:emails") String location,
+                                      @DefaultValue("false") boolean lazy,
+                                      @DefaultValue("0") int parallelism) {
+
+  public static MailboxLoaderProperties defaults() {
+    return new MailboxLoaderProperties("classpath*:emails", false, 0);
+  }
+}
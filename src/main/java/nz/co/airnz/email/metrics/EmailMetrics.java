@@ -0,0 +1,164 @@
+package nz.co.airnz.email.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.store.MailboxListener;
+import nz.co.airnz.email.store.MailboxStore;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters of the email API.
+ *
+ * <ul>
+ *   <li>{@code email.operation}: timer with a percentile histogram per {@link EmailOperation}</li>
+ *   <li>{@code email.operation.errors}: counter per operation and 4xx or 5xx status</li>
+ *   <li>{@code email.content.size}: distribution of the content length of drafted, sent and
+ *   updated emails</li>
+ *   <li>{@code email.store.accounts}, {@code email.store.emails}, {@code email.store.heap} and
+ *   {@code email.store.off.heap}: gauges read from the {@link MailboxStore}</li>
+ *   <li>{@code email.store.account.emails}: emails of each account, one series per account, only
+ *   with {@link MetricsProperties#perAccountGauges()}</li>
+ * </ul>
+ *
+ * <p>Every timer and the counters for 400, 404 and 500 are registered up front and looked up by
+ * array index, so recording never touches the registry on the request path. Counters for other
+ * statuses are registered the first time they occur.
+ */
+@Component
+public class EmailMetrics implements MailboxListener {
+
+  private static final int FIRST_ERROR_STATUS = 400;
+  private static final int LAST_ERROR_STATUS = 599;
+
+  private final MeterRegistry registry;
+  private final MailboxStore store;
+  private final boolean perAccountGauges;
+  private final Map<EmailOperation, Timer> timers = new EnumMap<>(EmailOperation.class);
+  private final Map<EmailOperation, AtomicReferenceArray<Counter>> errors =
+      new EnumMap<>(EmailOperation.class);
+  private final DistributionSummary contentSize;
+  private final Set<String> accounts = ConcurrentHashMap.newKeySet();
+
+  public EmailMetrics(MeterRegistry registry, MailboxStore store, MetricsProperties properties) {
+    this.registry = registry;
+    this.store = store;
+    this.perAccountGauges = properties.perAccountGauges();
+    for (EmailOperation operation : EmailOperation.values()) {
+      timers.put(operation, Timer.builder("email.operation")
+          .description("Time taken by an email API operation, until its handler returns")
+          .tag("operation", operation.tag())
+          .publishPercentileHistogram()
+          // Fewer buckets and a single histogram instead of a ring of them keep recording cheap
+          .minimumExpectedValue(Duration.ofNanos(10_000))
+          .maximumExpectedValue(Duration.ofSeconds(30))
+          .distributionStatisticBufferLength(1)
+          .register(registry));
+      errors.put(operation,
+          new AtomicReferenceArray<>(LAST_ERROR_STATUS - FIRST_ERROR_STATUS + 1));
+      for (int status : new int[] {400, 404, 500}) {
+        errorCounter(operation, status);
+      }
+    }
+    this.contentSize = DistributionSummary.builder("email.content.size")
+        .description("Content length of drafted, sent and updated emails")
+        .baseUnit("characters")
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  @PostConstruct
+  public void start() {
+    Gauge.builder("email.store.accounts", store, s -> s.accountNames().size())
+        .description("Accounts held in memory")
+        .register(registry);
+    Gauge.builder("email.store.emails", store, MailboxStore::emailCount)
+        .description("Emails held in memory for all accounts")
+        .register(registry);
+    Gauge.builder("email.store.heap", store, MailboxStore::estimatedHeapBytes)
+        .description("Estimated heap taken by the stored emails")
+        .baseUnit("bytes")
+        .register(registry);
+    Gauge.builder("email.store.off.heap", store, MailboxStore::offHeapBytes)
+        .description("Native memory taken by email bodies stored off the heap")
+        .baseUnit("bytes")
+        .register(registry);
+    if (perAccountGauges) {
+      store.accountNames().forEach(this::gaugeAccount);
+      store.addListener(this);
+    }
+  }
+
+  /**
+   * Records an operation that started at {@code startNanos} (from {@link System#nanoTime()}) and
+   * answered with the given HTTP status.
+   */
+  public void record(EmailOperation operation, long startNanos, int status) {
+    timers.get(operation).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    if (status >= FIRST_ERROR_STATUS && status <= LAST_ERROR_STATUS) {
+      errorCounter(operation, status).increment();
+    }
+  }
+
+  public void recordContent(EmailRequest emailRequest) {
+    if (emailRequest != null && emailRequest.content() != null) {
+      contentSize.record(emailRequest.content().length());
+    }
+  }
+
+  @Override
+  public void emailStored(String accountName, Email email) {
+    // Accounts are few, so after the first email this is a single lookup
+    if (!accounts.contains(accountName)) {
+      gaugeAccount(accountName);
+    }
+  }
+
+  @Override
+  public void accountRemoved(String accountName) {
+    if (accounts.remove(accountName)) {
+      Gauge gauge =
+          registry.find("email.store.account.emails").tag("account", accountName).gauge();
+      if (gauge != null) {
+        registry.remove(gauge);
+      }
+    }
+  }
+
+  private void gaugeAccount(String accountName) {
+    if (accounts.add(accountName)) {
+      Gauge.builder("email.store.account.emails", store, s -> s.size(accountName))
+          .description("Emails held in memory for the account")
+          .tag("account", accountName)
+          .register(registry);
+    }
+  }
+
+  private Counter errorCounter(EmailOperation operation, int status) {
+    AtomicReferenceArray<Counter> counters = errors.get(operation);
+    int index = status - FIRST_ERROR_STATUS;
+    Counter counter = counters.get(index);
+    if (counter == null) {
+      // Registering the same meter twice returns the existing one, so a race is harmless
+      counter = Counter.builder("email.operation.errors")
+          .description("Operations that answered with a client or server error")
+          .tag("operation", operation.tag())
+          .tag("status", String.valueOf(status))
+          .register(registry);
+      counters.set(index, counter);
+    }
+    return counter;
+  }
+}
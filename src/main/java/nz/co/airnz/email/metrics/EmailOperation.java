@@ -0,0 +1,32 @@
+package nz.co.airnz.email.metrics;
+
+/**
+ * The operations of the email API, as they are tagged on the {@link EmailMetrics} meters.
+ */
+public enum EmailOperation {
+
+  GET_ALL_EMAILS("getAllEmails"),
+  GET_EMAIL_SUMMARIES("getEmailSummaries"),
+  EXPORT_EMAILS("exportEmails"),
+  SEARCH_EMAILS("searchEmails"),
+  GET_EMAIL_CONTENT("getEmailContent"),
+  POLL_CHANGES("pollChanges"),
+  STREAM_CHANGES("streamChanges"),
+  DRAFT_EMAIL("draftEmail"),
+  SEND_EMAIL("sendEmail"),
+  SEND_EMAILS("sendEmails"),
+  FETCH_EMAILS("fetchEmails"),
+  UPDATE_EMAIL("updateEmail"),
+  ADD_ATTACHMENT("addAttachment"),
+  GET_ATTACHMENT("getAttachment");
+
+  private final String tag;
+
+  EmailOperation(String tag) {
+    this.tag = tag;
+  }
+
+  public String tag() {
+    return tag;
+  }
+}
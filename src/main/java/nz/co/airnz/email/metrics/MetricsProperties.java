@@ -0,0 +1,19 @@
+package nz.co.airnz.email.metrics;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the email metrics, bound from {@code email.metrics.*}.
+ *
+ * @param perAccountGauges publish the number of emails of every account as its own series; each
+ *                         account adds one to the registry and to every scrape, so only turn it on
+ *                         for a small number of accounts
+ */
+@ConfigurationProperties(prefix = "email.metrics")
+public record MetricsProperties(@DefaultValue("false") boolean perAccountGauges) {
+
+  public static MetricsProperties defaults() {
+    return new MetricsProperties(false);
+  }
+}
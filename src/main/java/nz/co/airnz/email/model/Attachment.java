@@ -0,0 +1,14 @@
+package nz.co.airnz.email.model;
+
+/**
+ * A file attached to an email. The email only holds this reference; the content is kept once in
+ * the {@link nz.co.airnz.email.attachment.BlobStore} under its SHA-256, however many emails of
+ * however many accounts it is attached to.
+ *
+ * @param sha256 hex SHA-256 of the content, which is also its key in the blob store
+ */
+public record Attachment(String name,
+                         String contentType,
+                         long size,
+                         String sha256) {
+}
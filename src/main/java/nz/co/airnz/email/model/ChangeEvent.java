@@ -0,0 +1,14 @@
+package nz.co.airnz.email.model;
+
+/**
+ * One change to an account's inbox. {@code sequence} numbers the changes of an account from 1
+ * and doubles as the cursor to resume the change feed after this event.
+ */
+public record ChangeEvent(long sequence,
+                         Type type,
+                         EmailSummary email) {
+
+    public enum Type {
+        DRAFTED, SENT, UPDATED
+    }
+}
@@ -0,0 +1,12 @@
+package nz.co.airnz.email.model;
+
+import java.util.List;
+
+/**
+ * Changes of an account after a cursor, oldest first. Pass {@code cursor} as {@code since} to
+ * fetch the following changes. {@code missed} is true when changes after the given cursor are no
+ * longer kept, so the client has to list the inbox again instead of relying on the feed alone.
+ */
+public record ChangePage(List<ChangeEvent> events,
+                         long cursor,
+                         boolean missed) { }
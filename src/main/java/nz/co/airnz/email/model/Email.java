@@ -1,25 +1,48 @@
 package nz.co.airnz.email.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.Serial;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * An email as the store holds it. Emails are immutable: an update makes a changed copy with
+ * the {@code with} methods and stores it in place of the original, so whoever holds an email
+ * always sees all of one version and none of the next.
+ */
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class Email {
+public final class Email {
     @Serial
     private static final long serialVersionUID = 1L;
 
     private final String emailRef;
-    private String subject;
+    private final String subject;
     private final ZonedDateTime date;
     private final String sender;
-    private String content;
-    private List<String> toList;
-    private List<String> ccList;
+    private final EmailBody body;
+    private final long version;
+    private final List<Attachment> attachments;
 
+    public Email(String emailRef, String subject, ZonedDateTime date, String sender,
+        String content, List<String> toList, List<String> ccList) {
+        this(emailRef, subject, date, sender, content, toList, ccList, 1);
+    }
+
+    public Email(String emailRef, String subject, ZonedDateTime date, String sender,
+        String content, List<String> toList, List<String> ccList, long version) {
+        this(emailRef, subject, date, sender, content, toList, ccList, version, null);
+    }
+
+    /**
+     * @param version     starts at 1 and goes up by one with every update of the email. Emails
+     *                    written before versions existed read as version 1.
+     * @param attachments references to the attached files, in the order they were attached
+     */
     @JsonCreator
     public Email(
         @JsonProperty("emailRef") String emailRef,
@@ -28,15 +51,22 @@ public class Email {
         @JsonProperty("sender") String sender,
         @JsonProperty("content") String content,
         @JsonProperty("toList") List<String> toList,
-        @JsonProperty("ccList") List<String> ccList) {
-        super();
+        @JsonProperty("ccList") List<String> ccList,
+        @JsonProperty("version") long version,
+        @JsonProperty("attachments") List<Attachment> attachments) {
+        this(emailRef, subject, date, sender, EmailBody.of(content, toList, ccList),
+            Math.max(1, version), attachments == null ? List.of() : List.copyOf(attachments));
+    }
+
+    private Email(String emailRef, String subject, ZonedDateTime date, String sender,
+        EmailBody body, long version, List<Attachment> attachments) {
         this.emailRef = emailRef;
         this.subject = subject;
         this.date = date;
         this.sender = sender;
-        this.content = content;
-        this.toList = toList;
-        this.ccList = ccList;
+        this.body = body;
+        this.version = version;
+        this.attachments = attachments;
     }
 
     public String getEmailRef() {
@@ -47,31 +77,87 @@ public class Email {
         return subject;
     }
 
+    public ZonedDateTime getDate() {
+        return date;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
     public String getContent() {
-        return content;
+        return body.content();
     }
 
     public List<String> getToList() {
-        return toList;
+        return body.toList();
     }
 
     public List<String> getCcList() {
-        return ccList;
+        return body.ccList();
     }
 
-    public void setSubject(String subject) {
-        this.subject = subject;
+    @JsonIgnore
+    public EmailBody getBody() {
+        return body;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public List<Attachment> getAttachments() {
+        return attachments;
+    }
+
+    public Email withSubject(String subject) {
+        return new Email(emailRef, subject, date, sender, body, version, attachments);
+    }
+
+    public Email withContent(String content) {
+        return withBody(EmailBody.of(content, body.toList(), body.ccList()));
+    }
+
+    public Email withToList(List<String> toList) {
+        return withBody(EmailBody.of(body.content(), toList, body.ccList()));
+    }
+
+    public Email withCcList(List<String> ccList) {
+        return withBody(EmailBody.of(body.content(), body.toList(), ccList));
     }
 
-    public void setContent(String content) {
-        this.content = content;
+    /**
+     * Returns a copy with the same content, recipients and version held by another body, for
+     * example one that keeps them off the heap.
+     */
+    public Email withBody(EmailBody body) {
+        return new Email(emailRef, subject, date, sender, body, version, attachments);
     }
 
-    public void setToList(List<String> toList) {
-        this.toList = toList;
+    public Email withVersion(long version) {
+        return new Email(emailRef, subject, date, sender, body, version, attachments);
     }
 
-    public void setCcList(List<String> ccList) {
-        this.ccList = ccList;
+    /**
+     * Returns a copy with the attachment added, or in place of an attachment with the same
+     * content.
+     */
+    public Email withAttachment(Attachment attachment) {
+        List<Attachment> attached = new ArrayList<>(attachments.size() + 1);
+        boolean replaced = false;
+        for (Attachment existing : attachments) {
+            if (existing.sha256().equals(attachment.sha256())) {
+                attached.add(attachment);
+                replaced = true;
+            } else {
+                attached.add(existing);
+            }
+        }
+        if (!replaced) {
+            attached.add(attachment);
+        }
+        return new Email(emailRef, subject, date, sender, body, version,
+            List.copyOf(attached));
     }
 }
@@ -0,0 +1,38 @@
+package nz.co.airnz.email.model;
+
+import jakarta.validation.ConstraintValidator;
+import jakarta.validation.ConstraintValidatorContext;
+
+/**
+ * Checks {@link EmailAddress} in one pass over the characters, without a regular expression and
+ * without allocating. Accepts exactly what {@code ^(.+)@(.+)$} accepted before.
+ */
+public class EmailAddressValidator implements ConstraintValidator<EmailAddress, CharSequence> {
+
+    @Override
+    public boolean isValid(CharSequence value, ConstraintValidatorContext context) {
+        return value == null || isEmailAddress(value);
+    }
+
+    public static boolean isEmailAddress(CharSequence value) {
+        int length = value.length();
+        boolean separated = false;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '@') {
+                // Any @ that has a character on either side will do
+                separated |= i > 0 && i < length - 1;
+            } else if (isLineTerminator(c)) {
+                return false;
+            }
+        }
+        return separated;
+    }
+
+    /**
+     * The characters {@code .} does not match in a {@link java.util.regex.Pattern}.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,43 @@
+package nz.co.airnz.email.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The bulky part of an {@link Email}: its content and recipients. The store may swap an email's
+ * body for one that lives outside the Java heap and is decoded on every access.
+ */
+public interface EmailBody {
+
+    String content();
+
+    List<String> toList();
+
+    List<String> ccList();
+
+    /**
+     * Returns a body that keeps its own unmodifiable copies of the recipient lists, so changes the
+     * caller makes to its lists afterwards do not reach a stored email.
+     */
+    static EmailBody of(String content, List<String> toList, List<String> ccList) {
+        return new OnHeap(content, copyOf(toList), copyOf(ccList));
+    }
+
+    private static List<String> copyOf(List<String> list) {
+        if (list == null) {
+            return null;
+        }
+        for (String address : list) {
+            // Requests may carry null addresses, which List.copyOf rejects
+            if (address == null) {
+                return Collections.unmodifiableList(new ArrayList<>(list));
+            }
+        }
+        return List.copyOf(list);
+    }
+
+    record OnHeap(String content,
+                  List<String> toList,
+                  List<String> ccList) implements EmailBody { }
+}
@@ -0,0 +1,9 @@
+package nz.co.airnz.email.model;
+
+import java.util.List;
+
+/**
+ * One page of an account's inbox. {@code nextCursor} is null on the last page.
+ */
+public record EmailPage(List<EmailSummary> emails,
+                        String nextCursor) { }
@@ -1,9 +1,9 @@
 package nz.co.airnz.email.model;
 
-import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.NotNull;
 import java.util.List;
 
 public record EmailRequest(String subject,
                            String content,
-                           List<@Pattern(regexp = "^(.+)@(.+)$") String> toList,
-                           List<@Pattern(regexp = "^(.+)@(.+)$") String> ccList) { }
+                           List<@NotNull @EmailAddress String> toList,
+                           List<@NotNull @EmailAddress String> ccList) { }
@@ -0,0 +1,14 @@
+package nz.co.airnz.email.model;
+
+import java.time.ZonedDateTime;
+
+public record EmailSummary(String emailRef,
+                           String subject,
+                           ZonedDateTime date,
+                           String sender) {
+
+    public static EmailSummary of(Email email) {
+        return new EmailSummary(email.getEmailRef(), email.getSubject(), email.getDate(),
+            email.getSender());
+    }
+}
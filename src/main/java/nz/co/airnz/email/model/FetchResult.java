@@ -0,0 +1,21 @@
+package nz.co.airnz.email.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one reference of a batch fetch, in the order the references were given.
+ * {@code email} is only set when the status is 200.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record FetchResult(String emailRef,
+                          int status,
+                          Email email) {
+
+    public static FetchResult found(Email email) {
+        return new FetchResult(email.getEmailRef(), 200, email);
+    }
+
+    public static FetchResult notFound(String emailRef) {
+        return new FetchResult(emailRef, 404, null);
+    }
+}
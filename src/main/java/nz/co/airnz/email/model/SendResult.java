@@ -0,0 +1,21 @@
+package nz.co.airnz.email.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Outcome of one email of a batch send, in the order the emails were given. {@code emailRef} is
+ * set when the email was accepted and {@code message} when it was not.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record SendResult(int status,
+                         String emailRef,
+                         String message) {
+
+    public static SendResult accepted(String emailRef) {
+        return new SendResult(202, emailRef, null);
+    }
+
+    public static SendResult rejected(int status, String message) {
+        return new SendResult(status, null, message);
+    }
+}
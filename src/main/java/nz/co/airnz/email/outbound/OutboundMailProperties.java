@@ -0,0 +1,34 @@
+package nz.co.airnz.email.outbound;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings of the outbound send pipeline, bound from {@code email.outbound.*}.
+ *
+ * @param queueCapacity  emails that may be waiting for delivery, including retries, before sends
+ *                       are rejected
+ * @param workers        delivery threads draining the queue
+ * @param batchSize      messages a worker takes from the queue in one go
+ * @param maxAttempts    delivery attempts per message before it is given up on
+ * @param initialBackoff delay before the first retry, doubled on every further retry
+ * @param maxBackoff     upper bound of the retry delay
+ * @param from           sender address of outgoing messages
+ * @param drainTimeout   how long shutdown waits for queued emails to be delivered
+ */
+@ConfigurationProperties(prefix = "email.outbound")
+public record OutboundMailProperties(@DefaultValue("10000") int queueCapacity,
+                                     @DefaultValue("4") int workers,
+                                     @DefaultValue("50") int batchSize,
+                                     @DefaultValue("5") int maxAttempts,
+                                     @DefaultValue("500ms") Duration initialBackoff,
+                                     @DefaultValue("30s") Duration maxBackoff,
+                                     @DefaultValue("no-reply@airnz.co.nz") String from,
+                                     @DefaultValue("10s") Duration drainTimeout) {
+
+  public static OutboundMailProperties defaults() {
+    return new OutboundMailProperties(10000, 4, 50, 5, Duration.ofMillis(500),
+        Duration.ofSeconds(30), "no-reply@airnz.co.nz", Duration.ofSeconds(10));
+  }
+}
@@ -0,0 +1,286 @@
+package nz.co.airnz.email.outbound;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import nz.co.airnz.email.model.Email;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * Bounded queue between the request threads that send emails and the SMTP server.
+ *
+ * <p>The queue has {@link OutboundMailProperties#queueCapacity()} places, and an email holds its
+ * place until it is delivered or given up on, retries included. A caller that must store an email
+ * before it is sent {@link #reserve}s places first, so a full queue is noticed before anything is
+ * stored, and {@link #release}s them again when storing fails. {@link #submit} only enqueues and
+ * returns false when the queue is full, which lets callers push back instead of piling up work.
+ *
+ * <p>Worker threads drain the queue in batches and hand every batch to the mail sender in one call,
+ * so all messages of a batch share one connection to the relay. Each email is one message with
+ * its full To and Cc headers; the relay delivers it to every recipient's domain. Batches are not
+ * split by destination domain: every message goes to the one configured relay, which routes each
+ * recipient itself, so a split would only hand it the same message once per domain. Failed messages
+ * are retried with exponential backoff until {@link OutboundMailProperties#maxAttempts()} is
+ * reached. On shutdown the workers keep delivering for up to
+ * {@link OutboundMailProperties#drainTimeout()}; every email still undelivered after that is
+ * logged.
+ */
+@Component
+public class OutboundMailQueue {
+
+  private static final Logger log = LoggerFactory.getLogger(OutboundMailQueue.class);
+
+  private final JavaMailSender mailSender;
+  private final OutboundMailProperties properties;
+  private final Semaphore places;
+  private final BlockingQueue<OutboundMessage> queue = new LinkedBlockingQueue<>();
+  private final Map<Long, OutboundMessage> awaitingRetry = new ConcurrentHashMap<>();
+  private final AtomicLong retrySequence = new AtomicLong();
+  private final ExecutorService workers;
+  private final ScheduledExecutorService retries;
+  private volatile boolean running;
+  private volatile boolean stopping;
+
+  public OutboundMailQueue(JavaMailSender mailSender, OutboundMailProperties properties) {
+    this.mailSender = mailSender;
+    this.properties = properties;
+    this.places = new Semaphore(properties.queueCapacity());
+    this.workers = Executors.newFixedThreadPool(properties.workers(),
+        daemonThreads("email-outbound-"));
+    this.retries = Executors.newSingleThreadScheduledExecutor(
+        daemonThreads("email-outbound-retry-"));
+  }
+
+  @PostConstruct
+  public void start() {
+    running = true;
+    for (int i = 0; i < properties.workers(); i++) {
+      workers.execute(this::drain);
+    }
+  }
+
+  /**
+   * Stops taking retries and lets the workers deliver what is queued, for up to the drain
+   * timeout. Emails waiting for a retry get one last attempt. Whatever is left is logged as
+   * dropped.
+   */
+  @PreDestroy
+  public void stop() {
+    stopping = true;
+    retries.shutdownNow();
+    for (Long retry : awaitingRetry.keySet()) {
+      OutboundMessage message = awaitingRetry.remove(retry);
+      if (message != null) {
+        queue.add(message);
+      }
+    }
+    workers.shutdown();
+    try {
+      if (!workers.awaitTermination(properties.drainTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+        log.warn("Outbound queue not drained within {}", properties.drainTimeout());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    running = false;
+    workers.shutdownNow();
+
+    List<OutboundMessage> dropped = new ArrayList<>(queue.size());
+    queue.drainTo(dropped);
+    for (OutboundMessage message : dropped) {
+      log.error("Dropping undelivered email {} of account {} on shutdown", message.emailRef(),
+          message.accountName());
+    }
+  }
+
+  /**
+   * Takes places in the queue for emails that will be {@link #submitReserved submitted} once the
+   * caller is ready to send them.
+   *
+   * @return false when there are not that many places left, in which case none is taken
+   */
+  public boolean reserve(int emails) {
+    return places.tryAcquire(emails);
+  }
+
+  /**
+   * Gives back places taken by {@link #reserve} that will not be used.
+   */
+  public void release(int emails) {
+    places.release(emails);
+  }
+
+  /**
+   * Queues the email for delivery in a place taken by {@link #reserve}.
+   */
+  public void submitReserved(String accountName, Email email) {
+    queue.add(new OutboundMessage(accountName, email.getEmailRef(), email.getSubject(),
+        email.getContent(), recipients(email.getToList()), recipients(email.getCcList()), 0));
+  }
+
+  /**
+   * Queues the email for delivery.
+   *
+   * @return false when the queue is full, in which case nothing is queued
+   */
+  public boolean submit(String accountName, Email email) {
+    if (!reserve(1)) {
+      return false;
+    }
+    submitReserved(accountName, email);
+    return true;
+  }
+
+  public int size() {
+    return queue.size();
+  }
+
+  private void drain() {
+    List<OutboundMessage> batch = new ArrayList<>(properties.batchSize());
+    while (running && !(stopping && queue.isEmpty())) {
+      try {
+        OutboundMessage first = queue.poll(stopping ? 10 : 1000, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, properties.batchSize() - 1);
+        deliver(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        log.error("Outbound delivery worker failed on a batch of {} messages", batch.size(), e);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  void deliver(List<OutboundMessage> batch) {
+    Map<MimeMessage, OutboundMessage> mimeMessages = new IdentityHashMap<>();
+    for (OutboundMessage message : batch) {
+      try {
+        mimeMessages.put(toMimeMessage(message), message);
+      } catch (MessagingException | RuntimeException e) {
+        // A message that cannot be built will not get better by retrying it
+        log.error("Dropping email {} of account {}: {}", message.emailRef(),
+            message.accountName(), e.getMessage());
+        places.release();
+      }
+    }
+    if (mimeMessages.isEmpty()) {
+      return;
+    }
+
+    Map<Object, Exception> failed = Map.of();
+    boolean allFailed = false;
+    try {
+      mailSender.send(mimeMessages.keySet().toArray(new MimeMessage[0]));
+    } catch (MailSendException e) {
+      failed = e.getFailedMessages();
+      allFailed = failed.isEmpty();
+      log.warn("Delivery of {} of {} messages failed: {}",
+          allFailed ? mimeMessages.size() : failed.size(), mimeMessages.size(), e.getMessage());
+    } catch (RuntimeException e) {
+      // Any other MailException, or a failure of the sender itself
+      allFailed = true;
+      log.warn("Delivery of {} messages failed: {}", mimeMessages.size(), e.getMessage());
+    }
+    for (Map.Entry<MimeMessage, OutboundMessage> entry : mimeMessages.entrySet()) {
+      if (allFailed || failed.containsKey(entry.getKey())) {
+        retry(entry.getValue());
+      } else {
+        places.release();
+      }
+    }
+  }
+
+  private void retry(OutboundMessage message) {
+    if (message.attempt() + 1 >= properties.maxAttempts()) {
+      log.error("Giving up on email {} of account {} after {} attempts",
+          message.emailRef(), message.accountName(), message.attempt() + 1);
+      places.release();
+      return;
+    }
+    if (stopping) {
+      log.error("Dropping undelivered email {} of account {} on shutdown", message.emailRef(),
+          message.accountName());
+      places.release();
+      return;
+    }
+    long delay = backoffMillis(message.attempt());
+    log.warn("Retrying email {} of account {} in {} ms", message.emailRef(),
+        message.accountName(), delay);
+    long retry = retrySequence.incrementAndGet();
+    awaitingRetry.put(retry, message.nextAttempt());
+    retries.schedule(() -> {
+      // Unless stop() has taken it over already
+      OutboundMessage next = awaitingRetry.remove(retry);
+      if (next != null) {
+        queue.add(next);
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  long backoffMillis(int attempt) {
+    long initial = properties.initialBackoff().toMillis();
+    long max = properties.maxBackoff().toMillis();
+    int shift = Math.min(Math.max(attempt, 0), 30);
+    return Math.min(max, initial << shift);
+  }
+
+  private MimeMessage toMimeMessage(OutboundMessage message) throws MessagingException {
+    MimeMessage mimeMessage = mailSender.createMimeMessage();
+    MimeMessageHelper helper = new MimeMessageHelper(mimeMessage, "UTF-8");
+    helper.setFrom(properties.from());
+    if (!message.toList().isEmpty()) {
+      helper.setTo(message.toList().toArray(new String[0]));
+    }
+    if (!message.ccList().isEmpty()) {
+      helper.setCc(message.ccList().toArray(new String[0]));
+    }
+    helper.setSubject(message.subject() == null ? "" : message.subject());
+    helper.setText(message.content() == null ? "" : message.content());
+    mimeMessage.setHeader("X-Email-Ref", message.emailRef());
+    return mimeMessage;
+  }
+
+  private static List<String> recipients(List<String> addresses) {
+    // Requests are validated, but a missing address must not fail an email that is stored already
+    return CollectionUtils.isEmpty(addresses) ? List.of()
+        : addresses.stream().filter(Objects::nonNull).toList();
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,20 @@
+package nz.co.airnz.email.outbound;
+
+import java.util.List;
+
+/**
+ * A sent email on its way to the SMTP server.
+ */
+record OutboundMessage(String accountName,
+                       String emailRef,
+                       String subject,
+                       String content,
+                       List<String> toList,
+                       List<String> ccList,
+                       int attempt) {
+
+  OutboundMessage nextAttempt() {
+    return new OutboundMessage(accountName, emailRef, subject, content, toList, ccList,
+        attempt + 1);
+  }
+}
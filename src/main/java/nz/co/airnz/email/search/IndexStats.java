@@ -0,0 +1,23 @@
+package nz.co.airnz.email.search;
+
+/**
+ * Size of a search index.
+ *
+ * @param emails         indexed emails
+ * @param terms          distinct terms
+ * @param postings       document entries over all posting lists
+ * @param estimatedBytes estimated heap used by the index, excluding the emails themselves
+ */
+public record IndexStats(long emails, long terms, long postings, long estimatedBytes) {
+
+  static final IndexStats EMPTY = new IndexStats(0, 0, 0, 0);
+
+  public long bytesPerEmail() {
+    return emails == 0 ? 0 : estimatedBytes / emails;
+  }
+
+  IndexStats plus(IndexStats other) {
+    return new IndexStats(emails + other.emails, terms + other.terms, postings + other.postings,
+        estimatedBytes + other.estimatedBytes);
+  }
+}
@@ -0,0 +1,200 @@
+package nz.co.airnz.email.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import nz.co.airnz.email.model.Email;
+
+/**
+ * Inverted index over the emails of one account.
+ *
+ * <p>Every term maps to a {@link PostingList} of integer document ids. A search looks up the
+ * posting list of each query term and intersects them starting from the shortest, so its cost
+ * depends on how many emails contain the rarest term and not on the size of the mailbox. Matches are
+ * ranked by the sum of tf-idf weights of the query terms, where a term found in the subject counts
+ * more than one found in the content.
+ */
+final class MailboxIndex {
+
+  static final int SUBJECT_WEIGHT = 3;
+  static final int ADDRESS_WEIGHT = 2;
+  static final int CONTENT_WEIGHT = 1;
+  private static final int MAX_TERM_LENGTH = 64;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, Integer> docIds = new HashMap<>();
+  private final List<String> emailRefs = new ArrayList<>();
+  // Term ids of every document, so re-indexing can remove the old postings
+  private final List<int[]> docTerms = new ArrayList<>();
+  private final Map<String, Integer> termIds = new HashMap<>();
+  private final List<PostingList> postings = new ArrayList<>();
+  private long postingCount;
+
+  /**
+   * Adds the email to the index, replacing what was indexed for the same reference before.
+   */
+  void index(Email email) {
+    Map<String, Integer> frequencies = termFrequencies(email);
+    lock.writeLock().lock();
+    try {
+      Integer existing = docIds.get(email.getEmailRef());
+      int doc;
+      if (existing == null) {
+        doc = emailRefs.size();
+        docIds.put(email.getEmailRef(), doc);
+        emailRefs.add(email.getEmailRef());
+        docTerms.add(null);
+      } else {
+        doc = existing;
+        for (int term : docTerms.get(doc)) {
+          postings.get(term).remove(doc);
+          postingCount--;
+        }
+      }
+
+      int[] terms = new int[frequencies.size()];
+      int i = 0;
+      for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+        int term = termIds.computeIfAbsent(entry.getKey(), key -> {
+          postings.add(new PostingList());
+          return postings.size() - 1;
+        });
+        postings.get(term).put(doc, entry.getValue());
+        terms[i++] = term;
+      }
+      postingCount += terms.length;
+      docTerms.set(doc, terms);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the emails containing every term of the query, best match first.
+   */
+  SearchResult search(List<String> queryTerms, int offset, int limit) {
+    lock.readLock().lock();
+    try {
+      List<PostingList> lists = new ArrayList<>(queryTerms.size());
+      for (String queryTerm : queryTerms) {
+        Integer term = termIds.get(queryTerm);
+        if (term == null || postings.get(term).size() == 0) {
+          return SearchResult.EMPTY;
+        }
+        lists.add(postings.get(term));
+      }
+      lists.sort(Comparator.comparingInt(PostingList::size));
+
+      PostingList shortest = lists.get(0);
+      int[] matches = new int[shortest.size()];
+      double[] scores = new double[shortest.size()];
+      int matchCount = 0;
+      double documentCount = emailRefs.size();
+      candidates:
+      for (int i = 0; i < shortest.size(); i++) {
+        int doc = shortest.doc(i);
+        double score = shortest.frequency(i) * idf(documentCount, shortest);
+        for (int l = 1; l < lists.size(); l++) {
+          PostingList list = lists.get(l);
+          int index = list.indexOf(doc);
+          if (index < 0) {
+            continue candidates;
+          }
+          score += list.frequency(index) * idf(documentCount, list);
+        }
+        matches[matchCount] = doc;
+        scores[matchCount] = score;
+        matchCount++;
+      }
+
+      // Best score first, newer emails first among equal scores
+      Integer[] order = new Integer[matchCount];
+      for (int i = 0; i < matchCount; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> scores[a] != scores[b]
+          ? Double.compare(scores[b], scores[a]) : Integer.compare(matches[b], matches[a]));
+
+      List<String> page = new ArrayList<>(Math.max(0, Math.min(limit, matchCount - offset)));
+      for (int i = offset; i < matchCount && page.size() < limit; i++) {
+        page.add(emailRefs.get(matches[order[i]]));
+      }
+      return new SearchResult(page, matchCount);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  IndexStats stats() {
+    lock.readLock().lock();
+    try {
+      long bytes = 0;
+      for (Map.Entry<String, Integer> term : termIds.entrySet()) {
+        // HashMap node, boxed id and the term string
+        bytes += 32 + 16 + 40 + term.getKey().length();
+      }
+      for (PostingList list : postings) {
+        bytes += list.estimatedBytes();
+      }
+      for (int doc = 0; doc < emailRefs.size(); doc++) {
+        // HashMap node, boxed id, the term id array and the list slots
+        bytes += 32 + 16 + 16 + 4L * docTerms.get(doc).length + 8;
+      }
+      return new IndexStats(emailRefs.size(), termIds.size(), postingCount, bytes);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static double idf(double documentCount, PostingList list) {
+    return Math.log(1 + documentCount / list.size());
+  }
+
+  private static Map<String, Integer> termFrequencies(Email email) {
+    Map<String, Integer> frequencies = new LinkedHashMap<>();
+    addTerms(frequencies, email.getSubject(), SUBJECT_WEIGHT);
+    addTerms(frequencies, email.getSender(), ADDRESS_WEIGHT);
+    if (email.getToList() != null) {
+      email.getToList().forEach(address -> addTerms(frequencies, address, ADDRESS_WEIGHT));
+    }
+    if (email.getCcList() != null) {
+      email.getCcList().forEach(address -> addTerms(frequencies, address, ADDRESS_WEIGHT));
+    }
+    addTerms(frequencies, email.getContent(), CONTENT_WEIGHT);
+    return frequencies;
+  }
+
+  private static void addTerms(Map<String, Integer> frequencies, String text, int weight) {
+    for (String term : tokenize(text)) {
+      frequencies.merge(term, weight, Integer::sum);
+    }
+  }
+
+  /**
+   * Splits the text into lower case runs of letters and digits. Addresses are split as well, so
+   * {@code ani@airnz.co.nz} yields {@code ani}, {@code airnz}, {@code co} and {@code nz}.
+   */
+  static List<String> tokenize(String text) {
+    if (text == null || text.isEmpty()) {
+      return List.of();
+    }
+    List<String> terms = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean partOfTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (partOfTerm && start < 0) {
+        start = i;
+      } else if (!partOfTerm && start >= 0) {
+        terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return terms;
+  }
+}
@@ -0,0 +1,71 @@
+package nz.co.airnz.email.search;
+
+import java.util.Arrays;
+
+/**
+ * Documents containing one term, kept as parallel primitive arrays sorted by document id.
+ *
+ * <p>New emails get the highest document id so far and are appended at the end. Only re-indexing
+ * an updated email inserts into or removes from the middle of the arrays.
+ */
+final class PostingList {
+
+  private static final int INITIAL_CAPACITY = 4;
+
+  private int[] docs = new int[INITIAL_CAPACITY];
+  private int[] frequencies = new int[INITIAL_CAPACITY];
+  private int size;
+
+  int size() {
+    return size;
+  }
+
+  int doc(int index) {
+    return docs[index];
+  }
+
+  int frequency(int index) {
+    return frequencies[index];
+  }
+
+  /**
+   * Returns the position of the document in the list, or a negative value when it is missing.
+   */
+  int indexOf(int doc) {
+    return Arrays.binarySearch(docs, 0, size, doc);
+  }
+
+  void put(int doc, int frequency) {
+    int index = size > 0 && docs[size - 1] < doc ? -size - 1 : indexOf(doc);
+    if (index >= 0) {
+      frequencies[index] = frequency;
+      return;
+    }
+    int insertAt = -index - 1;
+    if (size == docs.length) {
+      int capacity = size + (size >> 1) + 1;
+      docs = Arrays.copyOf(docs, capacity);
+      frequencies = Arrays.copyOf(frequencies, capacity);
+    }
+    System.arraycopy(docs, insertAt, docs, insertAt + 1, size - insertAt);
+    System.arraycopy(frequencies, insertAt, frequencies, insertAt + 1, size - insertAt);
+    docs[insertAt] = doc;
+    frequencies[insertAt] = frequency;
+    size++;
+  }
+
+  void remove(int doc) {
+    int index = indexOf(doc);
+    if (index < 0) {
+      return;
+    }
+    System.arraycopy(docs, index + 1, docs, index, size - index - 1);
+    System.arraycopy(frequencies, index + 1, frequencies, index, size - index - 1);
+    size--;
+  }
+
+  long estimatedBytes() {
+    // Object header and fields, plus the two arrays with their headers
+    return 24 + 2 * (16 + 4L * docs.length);
+  }
+}
@@ -0,0 +1,101 @@
+package nz.co.airnz.email.search;
+
+import jakarta.annotation.PostConstruct;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxListener;
+import nz.co.airnz.email.store.MailboxPage;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Full-text search over subject, content, sender and recipients, with one {@link MailboxIndex}
+ * per account.
+ *
+ * <p>The index listens to the {@link MailboxStore}, so every email that is drafted, sent, updated,
+ * loaded or recovered is indexed as part of the same change.
+ */
+@Component
+public class SearchIndex implements MailboxListener {
+
+  private static final Logger log = LoggerFactory.getLogger(SearchIndex.class);
+  private static final int REINDEX_BATCH_SIZE = 1024;
+
+  private final MailboxStore store;
+  private final ConcurrentMap<String, MailboxIndex> indexes = new ConcurrentHashMap<>();
+
+  public SearchIndex(MailboxStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Starts listening to the store and indexes the emails it already holds.
+   */
+  @PostConstruct
+  public void start() {
+    store.addListener(this);
+    long startTime = System.nanoTime();
+    for (String accountName : store.accountNames()) {
+      long afterSequence = -1;
+      MailboxPage page;
+      do {
+        page = store.page(accountName, afterSequence, REINDEX_BATCH_SIZE);
+        // Indexing an email twice only replaces its entry
+        page.emails().forEach(email -> emailStored(accountName, email));
+        afterSequence = page.lastSequence();
+      } while (page.hasMore());
+    }
+    IndexStats stats = stats();
+    log.info("Indexed {} emails with {} terms in {} ms, about {} bytes per email", stats.emails(),
+        stats.terms(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+        stats.bytesPerEmail());
+  }
+
+  @Override
+  public void emailStored(String accountName, Email email) {
+    indexes.computeIfAbsent(accountName, name -> new MailboxIndex()).index(email);
+  }
+
+  @Override
+  public void accountRemoved(String accountName) {
+    indexes.remove(accountName);
+  }
+
+  /**
+   * Returns the emails of the account that contain every word of the query, best match first.
+   */
+  public SearchResult search(String accountName, String query, int offset, int limit) {
+    MailboxIndex index = indexes.get(accountName);
+    List<String> terms = List.copyOf(new LinkedHashSet<>(MailboxIndex.tokenize(query)));
+    if (index == null || terms.isEmpty()) {
+      return SearchResult.EMPTY;
+    }
+    return index.search(terms, offset, limit);
+  }
+
+  /**
+   * Returns true when the query contains at least one searchable word.
+   */
+  public static boolean isSearchable(String query) {
+    return !MailboxIndex.tokenize(query).isEmpty();
+  }
+
+  public IndexStats stats(String accountName) {
+    MailboxIndex index = indexes.get(accountName);
+    return index == null ? IndexStats.EMPTY : index.stats();
+  }
+
+  public IndexStats stats() {
+    IndexStats total = IndexStats.EMPTY;
+    for (MailboxIndex index : indexes.values()) {
+      total = total.plus(index.stats());
+    }
+    return total;
+  }
+}
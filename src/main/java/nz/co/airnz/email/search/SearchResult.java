@@ -0,0 +1,14 @@
+package nz.co.airnz.email.search;
+
+import java.util.List;
+
+/**
+ * One page of search hits, best match first.
+ *
+ * @param emailRefs references of the matching emails on this page
+ * @param total     number of matching emails over all pages
+ */
+public record SearchResult(List<String> emailRefs, int total) {
+
+  static final SearchResult EMPTY = new SearchResult(List.of(), 0);
+}
@@ -0,0 +1,103 @@
+package nz.co.airnz.email.service;
+
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Structured audit trail of draft, send and update events.
+ *
+ * <p>Events are written as key=value pairs to the {@value #LOGGER_NAME} logger, which
+ * logback-spring.xml routes through its own asynchronous appender. Nothing is built unless the
+ * logger is enabled, the email is never serialised, and the content is cut to a configurable
+ * number of characters.
+ *
+ * <p>Subject and content come from the client, so they are escaped as in a JSON string: a quote,
+ * backslash or line break in them cannot end the value or start a forged entry.
+ */
+@Component
+public class EmailAuditLog {
+
+  public static final String LOGGER_NAME = "nz.co.airnz.email.audit";
+
+  private static final Logger log = LoggerFactory.getLogger(LOGGER_NAME);
+
+  private final int maxContentLength;
+
+  @Autowired
+  public EmailAuditLog(@Value("${email.audit.max-content-length:256}") int maxContentLength) {
+    this.maxContentLength = Math.max(0, maxContentLength);
+  }
+
+  public void drafted(String accountName, Email email) {
+    record("draft", accountName, email);
+  }
+
+  public void sent(String accountName, Email email) {
+    record("send", accountName, email);
+  }
+
+  public void updated(String accountName, Email email) {
+    record("update", accountName, email);
+  }
+
+  private void record(String event, String accountName, Email email) {
+    if (!log.isInfoEnabled()) {
+      return;
+    }
+    log.info("event={} account={} emailRef={} subject=\"{}\" to={} cc={} contentLength={} content=\"{}\"",
+        event, accountName, email.getEmailRef(), escape(email.getSubject()),
+        count(email.getToList()), count(email.getCcList()), length(email.getContent()),
+        escape(truncate(email.getContent())));
+  }
+
+  String truncate(String content) {
+    if (content == null || content.length() <= maxContentLength) {
+      return content;
+    }
+    return content.substring(0, maxContentLength) + "...";
+  }
+
+  static String escape(String value) {
+    if (value == null) {
+      return null;
+    }
+    StringBuilder escaped = null;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      String replacement = switch (c) {
+        case '"' -> "\\\"";
+        case '\\' -> "\\\\";
+        case '\n' -> "\\n";
+        case '\r' -> "\\r";
+        case '\t' -> "\\t";
+        default -> Character.isISOControl(c) || c == '\u2028' || c == '\u2029'
+            ? String.format("\\u%04x", (int) c) : null;
+      };
+      if (replacement != null && escaped == null) {
+        // Most values need no escaping and are logged as they are
+        escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+      }
+      if (escaped != null) {
+        if (replacement != null) {
+          escaped.append(replacement);
+        } else {
+          escaped.append(c);
+        }
+      }
+    }
+    return escaped == null ? value : escaped.toString();
+  }
+
+  private static int count(List<String> recipients) {
+    return recipients == null ? 0 : recipients.size();
+  }
+
+  private static int length(String content) {
+    return content == null ? 0 : content.length();
+  }
+}
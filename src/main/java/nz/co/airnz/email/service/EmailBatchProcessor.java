@@ -0,0 +1,161 @@
+package nz.co.airnz.email.service;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import nz.co.airnz.email.feed.ChangeFeed;
+import nz.co.airnz.email.limit.WriteAdmission;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.FetchResult;
+import nz.co.airnz.email.model.SendResult;
+import nz.co.airnz.email.outbound.OutboundMailQueue;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Batch send and fetch shared by the servlet and the reactive email service.
+ *
+ * <p>A batch is validated item by item with one {@link Validator}, so an invalid email only fails
+ * its own entry instead of the whole request. The accepted emails are written to the store under a
+ * single acquisition of the account's stripe lock, which also enforces the account's quota: emails
+ * beyond it are refused with 507 Insufficient Storage, even when concurrent batches took the room
+ * after this one checked it.
+ *
+ * <p>Every email of a batch counts against the account's rate limit. {@link WriteAdmission} takes
+ * one token for the request before its body is read; each further accepted email takes another,
+ * and those the account has no token left for are refused with 429 Too Many Requests.
+ *
+ * <p>As for a single send, every accepted email takes its place in the outbound queue first and is
+ * only queued once it is stored, so an email that fails to be stored is never delivered.
+ */
+class EmailBatchProcessor {
+
+  static final int MAX_BATCH_SIZE = 1000;
+
+  private static final Logger log = LoggerFactory.getLogger(EmailBatchProcessor.class);
+
+  private final MailboxStore accounts;
+  private final EmailRefGenerator refGenerator;
+  private final EmailAuditLog auditLog;
+  private final OutboundMailQueue outbound;
+  private final ChangeFeed changeFeed;
+  private final WriteAdmission admission;
+  private final Validator validator;
+
+  EmailBatchProcessor(MailboxStore accounts, EmailRefGenerator refGenerator,
+      EmailAuditLog auditLog, OutboundMailQueue outbound, ChangeFeed changeFeed,
+      WriteAdmission admission, Validator validator) {
+    this.accounts = accounts;
+    this.refGenerator = refGenerator;
+    this.auditLog = auditLog;
+    this.outbound = outbound;
+    this.changeFeed = changeFeed;
+    this.admission = admission;
+    this.validator = validator;
+  }
+
+  /**
+   * Returns why the batch as a whole cannot be processed, or null when it can.
+   */
+  static String checkBatchSize(List<?> items) {
+    if (items == null || items.isEmpty()) {
+      return "Batch must contain at least one item";
+    }
+    if (items.size() > MAX_BATCH_SIZE) {
+      return "Batch must not contain more than " + MAX_BATCH_SIZE + " items";
+    }
+    return null;
+  }
+
+  List<SendResult> send(String accountName, List<EmailRequest> emailRequests) {
+    List<SendResult> results = new ArrayList<>(emailRequests.size());
+    List<Email> accepted = new ArrayList<>(emailRequests.size());
+    List<Integer> acceptedAt = new ArrayList<>(emailRequests.size());
+    // Only refuses early, the store checks the quota again when the emails are added
+    int room = accounts.roomFor(accountName);
+    for (EmailRequest emailRequest : emailRequests) {
+      String problem = validate(emailRequest);
+      if (problem != null) {
+        results.add(SendResult.rejected(HttpStatus.BAD_REQUEST.value(), problem));
+        continue;
+      }
+      if (accepted.size() >= room) {
+        results.add(SendResult.rejected(HttpStatus.INSUFFICIENT_STORAGE.value(),
+            EmailServiceImpl.MAILBOX_FULL));
+        continue;
+      }
+      // The first accepted email uses the token the request was admitted with
+      if (!accepted.isEmpty() && !admission.admitBatchItem(accountName)) {
+        results.add(SendResult.rejected(HttpStatus.TOO_MANY_REQUESTS.value(),
+            "Too many emails for this account, please retry later"));
+        continue;
+      }
+      if (!outbound.reserve(1)) {
+        results.add(SendResult.rejected(HttpStatus.SERVICE_UNAVAILABLE.value(),
+            "Email server is busy, please retry later"));
+        continue;
+      }
+      Email email = EmailServiceImpl.newEmail(refGenerator.nextRef(), emailRequest);
+      accepted.add(email);
+      acceptedAt.add(results.size());
+      results.add(SendResult.accepted(email.getEmailRef()));
+    }
+
+    int stored = -1;
+    try {
+      stored = accepted.isEmpty() ? 0 : accounts.putAllWithinQuota(accountName, accepted);
+    } finally {
+      // The places of the emails that were not stored
+      outbound.release(accepted.size() - Math.max(stored, 0));
+    }
+    if (stored < 0) {
+      // The account was removed while the batch was checked, none of it was stored
+      log.error("Email account {} not found", accountName);
+      results.replaceAll(result -> result.emailRef() == null ? result
+          : SendResult.rejected(HttpStatus.NOT_FOUND.value(), "Email account not found"));
+      return results;
+    }
+    for (int i = stored; i < accepted.size(); i++) {
+      // Concurrent writers took the room that was left when the batch was checked
+      results.set(acceptedAt.get(i), SendResult.rejected(
+          HttpStatus.INSUFFICIENT_STORAGE.value(), EmailServiceImpl.MAILBOX_FULL));
+    }
+    for (Email email : accepted.subList(0, stored)) {
+      outbound.submitReserved(accountName, email);
+      auditLog.sent(accountName, email);
+      changeFeed.sent(accountName, email);
+    }
+    log.info("Batch of {} emails for account {}: {} accepted", emailRequests.size(), accountName,
+        stored);
+    return results;
+  }
+
+  List<FetchResult> fetch(String accountName, List<String> emailRefs) {
+    List<FetchResult> results = new ArrayList<>(emailRefs.size());
+    for (String emailRef : emailRefs) {
+      results.add(accounts.get(accountName, emailRef).map(FetchResult::found)
+          .orElseGet(() -> FetchResult.notFound(emailRef)));
+    }
+    return results;
+  }
+
+  private String validate(EmailRequest emailRequest) {
+    if (emailRequest == null) {
+      return "Invalid request content: email is missing";
+    }
+    Set<ConstraintViolation<EmailRequest>> violations = validator.validate(emailRequest);
+    if (!violations.isEmpty()) {
+      return violations.stream()
+          .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+          .sorted()
+          .collect(Collectors.joining(", ", "Invalid request content: ", ""));
+    }
+    return EmailServiceImpl.checkEmailCompleteness(emailRequest);
+  }
+}
@@ -0,0 +1,76 @@
+package nz.co.airnz.email.service;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Generates unique, time-ordered email references without taking a lock.
+ *
+ * <p>Each id packs 41 bits of milliseconds since 2023-01-01, a 10 bit node id and a 12 bit
+ * per-millisecond sequence. When more than 4096 ids are requested within one millisecond, or the
+ * wall clock moves backwards, the generator keeps counting forward from the last id it issued, so
+ * ids stay strictly increasing on a node. Ids are rendered as fixed width base 36, which makes the
+ * lexical order of the references match their numeric (and therefore chronological) order.
+ */
+@Component
+public class EmailRefGenerator {
+
+  public static final String PREFIX = "emailRef-";
+
+  static final long EPOCH_MILLIS = 1672531200000L; // 2023-01-01T00:00:00Z
+  static final int NODE_BITS = 10;
+  static final int SEQUENCE_BITS = 12;
+  static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+  private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+  private static final int ID_WIDTH = Long.toString(Long.MAX_VALUE, Character.MAX_RADIX).length();
+
+  private final Clock clock;
+  private final long nodeId;
+  // Last issued (timestamp << SEQUENCE_BITS | sequence)
+  private final AtomicLong state = new AtomicLong();
+
+  @Autowired
+  public EmailRefGenerator(@Value("${email.node-id:0}") int nodeId) {
+    this(nodeId, Clock.systemUTC());
+  }
+
+  EmailRefGenerator(int nodeId, Clock clock) {
+    if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+      throw new IllegalArgumentException(
+          "email.node-id must be between 0 and " + MAX_NODE_ID + " but was " + nodeId);
+    }
+    this.nodeId = nodeId;
+    this.clock = clock;
+  }
+
+  public String nextRef() {
+    return format(nextId());
+  }
+
+  public long nextId() {
+    long now = clock.millis() - EPOCH_MILLIS;
+    long last;
+    long next;
+    do {
+      last = state.get();
+      next = (now > (last >>> SEQUENCE_BITS)) ? now << SEQUENCE_BITS : last + 1;
+    } while (!state.compareAndSet(last, next));
+
+    return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS))
+        | (nodeId << SEQUENCE_BITS)
+        | (next & SEQUENCE_MASK);
+  }
+
+  static String format(long id) {
+    String digits = Long.toString(id, Character.MAX_RADIX);
+    StringBuilder ref = new StringBuilder(PREFIX.length() + ID_WIDTH).append(PREFIX);
+    for (int i = digits.length(); i < ID_WIDTH; i++) {
+      ref.append('0');
+    }
+    return ref.append(digits).toString();
+  }
+}
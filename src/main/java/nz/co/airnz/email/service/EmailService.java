@@ -1,17 +1,68 @@
 package nz.co.airnz.email.service;
 
+import java.util.List;
+import nz.co.airnz.email.codec.WireFormat;
 import nz.co.airnz.email.model.EmailRequest;
+import org.springframework.core.io.Resource;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 public interface EmailService {
 
-  ResponseEntity getAllEmails(String accountName);
+  /**
+   * Returns the references of the account's emails with the inbox's ETag, or 304 Not Modified
+   * when {@code ifNoneMatch} already lists that tag.
+   */
+  ResponseEntity getAllEmails(String accountName, String ifNoneMatch);
 
-  ResponseEntity getEmailContent(String accountName, String emailRef);
+  ResponseEntity getEmailSummaries(String accountName, String cursor, int limit);
+
+  ResponseEntity<StreamingResponseBody> exportEmails(String accountName);
+
+  ResponseEntity searchEmails(String accountName, String query, String cursor, int limit);
+
+  /**
+   * Returns the email in the given format with its ETag, or 304 Not Modified when
+   * {@code ifNoneMatch} already lists that tag. With {@code gzip} set, emails from a configured
+   * size on are sent gzipped.
+   */
+  ResponseEntity getEmailContent(String accountName, String emailRef, String ifNoneMatch,
+      WireFormat format, boolean gzip);
+
+  DeferredResult<ResponseEntity> pollChanges(String accountName, Long since);
+
+  ResponseEntity<SseEmitter> streamChanges(String accountName, Long since);
 
   ResponseEntity draftEmail(String accountName, EmailRequest emailRequest);
 
   ResponseEntity sendEmail(String accountName, EmailRequest emailRequest);
 
-  ResponseEntity updateEmail(String accountName, String emailRef, EmailRequest updateRequest);
+  ResponseEntity sendEmails(String accountName, List<EmailRequest> emailRequests);
+
+  ResponseEntity fetchEmails(String accountName, List<String> emailRefs);
+
+  /**
+   * Updates the email, unless {@code ifMatch} is given and no longer lists its ETag, in which case
+   * the answer is 412 Precondition Failed.
+   */
+  ResponseEntity updateEmail(String accountName, String emailRef, EmailRequest updateRequest,
+      String ifMatch);
+
+  /**
+   * Streams the file into the blob store and adds a reference to it to the email, with the same
+   * {@code ifMatch} check as {@link #updateEmail}. Attaching content the email already has
+   * replaces its reference, e.g. to rename it.
+   */
+  ResponseEntity addAttachment(String accountName, String emailRef, MultipartFile file,
+      String ifMatch);
+
+  /**
+   * Returns the content of one of the email's attachments, by the SHA-256 in its reference, as
+   * the file of its blob.
+   */
+  ResponseEntity<Resource> getAttachment(String accountName, String emailRef,
+      String sha256);
 }
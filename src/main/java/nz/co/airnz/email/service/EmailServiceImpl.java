@@ -1,130 +1,308 @@
 package nz.co.airnz.email.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.micrometer.common.util.StringUtils;
+import jakarta.validation.Validator;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+import nz.co.airnz.email.attachment.BlobStore;
+import nz.co.airnz.email.cache.EmailJsonCache;
+import nz.co.airnz.email.codec.Gzip;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.feed.ChangeFeed;
+import nz.co.airnz.email.limit.WriteAdmission;
+import nz.co.airnz.email.model.Attachment;
+import nz.co.airnz.email.model.ChangeEvent;
+import nz.co.airnz.email.model.ChangePage;
 import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
 import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.EmailSummary;
+import nz.co.airnz.email.outbound.OutboundMailQueue;
+import nz.co.airnz.email.search.SearchIndex;
+import nz.co.airnz.email.search.SearchResult;
+import nz.co.airnz.email.store.MailboxPage;
+import nz.co.airnz.email.store.MailboxStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Component
+@Profile("!reactive")
 public class EmailServiceImpl implements EmailService {
 
-  private final Map<String, Map<String, Email>> accounts = new LinkedHashMap<>();
-
-  private final ObjectMapper objectMapper = new ObjectMapper();
+  static final int MAX_PAGE_SIZE = 100;
+  static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+  private static final int EXPORT_BATCH_SIZE = 256;
+  static final String MAILBOX_FULL = "Mailbox is full, no more emails can be added";
+  static final String ATTACHMENT_NOT_FOUND = "Attachment not found";
+
+  private final MailboxStore accounts;
+  private final EmailRefGenerator refGenerator;
+  private final EmailAuditLog auditLog;
+  private final OutboundMailQueue outbound;
+  private final SearchIndex searchIndex;
+  private final ChangeFeed changeFeed;
+  private final EmailJsonCache emailJson;
+  private final BlobStore blobs;
+  private final EmailBatchProcessor batches;
+
+  // Flushing is left to the export so that each batch reaches the socket in one write
+  private static final ObjectWriter exportWriter = WireFormat.JSON.emailWriter()
+      .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
   private static final Logger log = LoggerFactory.getLogger(EmailServiceImpl.class);
 
-  public EmailServiceImpl() {
-    objectMapper.registerModule(new JavaTimeModule())
-        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
-    loadEmailsAtStartUp();
+  @Autowired
+  public EmailServiceImpl(MailboxStore accounts, EmailRefGenerator refGenerator,
+      EmailAuditLog auditLog, OutboundMailQueue outbound, SearchIndex searchIndex,
+      ChangeFeed changeFeed, EmailJsonCache emailJson, BlobStore blobs, WriteAdmission admission,
+      Validator validator) {
+    this.accounts = accounts;
+    this.refGenerator = refGenerator;
+    this.auditLog = auditLog;
+    this.outbound = outbound;
+    this.searchIndex = searchIndex;
+    this.changeFeed = changeFeed;
+    this.emailJson = emailJson;
+    this.blobs = blobs;
+    this.batches = new EmailBatchProcessor(accounts, refGenerator, auditLog, outbound, changeFeed,
+        admission, validator);
   }
 
-  private void loadEmailsAtStartUp() {
-    try {
-      // Adding three emails under pJo001
-      Map<String, Email> account1_emails = new LinkedHashMap<>();
-      Email email1 = objectMapper.readValue(
-          getResource("/emails/pJo001/emailRef1.json"), Email.class);
-      account1_emails.put(email1.getEmailRef(), email1);
-      Email email2 = objectMapper.readValue(
-          getResource("/emails/pJo001/emailRef2.json"), Email.class);
-      account1_emails.put(email2.getEmailRef(), email2);
-      Email email3 = objectMapper.readValue(
-          getResource("/emails/pJo001/emailRef3.json"), Email.class);
-      account1_emails.put(email3.getEmailRef(), email3);
-
-      accounts.put("pJo001", account1_emails);
-      log.info("Loaded " + account1_emails.size() + " emails in memory for pJo001");
-
-      // Adding two emails under iDa001
-      Map<String, Email> account2_emails = new LinkedHashMap<>();
-      Email email4 = objectMapper.readValue(
-          getResource("/emails/iDa001/emailRef4.json"), Email.class);
-      account2_emails.put(email4.getEmailRef(), email4);
-      Email email5 = objectMapper.readValue(
-          getResource("/emails/iDa001/emailRef5.json"), Email.class);
-      account2_emails.put(email5.getEmailRef(), email5);
-
-      accounts.put("iDa001", account2_emails);
-      log.info("Loaded " + account2_emails.size() + " emails in memory for iDa001");
+  @Override
+  public ResponseEntity getAllEmails(String accountName, String ifNoneMatch) {
+    if (!isAccountFound(accountName)) {
+      return getNoAccountResponse(accountName);
+    }
 
-    } catch (IOException e) {
-      log.error("JSON config data is incorrect - load failed");
+    // The tag is read first, so it is never newer than the references it is sent with
+    String tag = EntityTags.ofInbox(accounts.version(accountName));
+    if (EntityTags.matchesWeakly(ifNoneMatch, tag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build();
+    }
+
+    // Only returning the email References - it would be good if the dates are also returned
+    return ResponseEntity.ok().eTag(tag).body(accounts.emailRefs(accountName));
+  }
+
+  @Override
+  public ResponseEntity getEmailSummaries(String accountName, String cursor, int limit) {
+    if (!isAccountFound(accountName)) {
+      return getNoAccountResponse(accountName);
+    }
+    if (limit < 1) {
+      return getBadRequestResponse("limit must be at least 1");
     }
+
+    long afterSequence = -1;
+    if (StringUtils.isNotEmpty(cursor)) {
+      Long decoded = decodeCursor(cursor);
+      if (decoded == null) {
+        return getBadRequestResponse("Invalid cursor: " + cursor);
+      }
+      afterSequence = decoded;
+    }
+
+    MailboxPage page = accounts.page(accountName, afterSequence, Math.min(limit, MAX_PAGE_SIZE));
+    String nextCursor = page.hasMore() ? encodeCursor(page.lastSequence()) : null;
+    return new ResponseEntity(new EmailPage(
+        page.emails().stream().map(EmailSummary::of).toList(), nextCursor), HttpStatus.OK);
   }
 
-  private InputStream getResource(String fileName) {
-    return this.getClass().getResourceAsStream(fileName);
+  @Override
+  public ResponseEntity<StreamingResponseBody> exportEmails(String accountName) {
+    if (!isAccountFound(accountName)) {
+      return getStreamedError(getNoAccountResponse(accountName));
+    }
+
+    StreamingResponseBody body = outputStream -> {
+      try (JsonGenerator generator = exportWriter.createGenerator(outputStream)) {
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        long afterSequence = -1;
+        MailboxPage page;
+        do {
+          page = accounts.page(accountName, afterSequence, EXPORT_BATCH_SIZE);
+          for (Email email : page.emails()) {
+            exportWriter.writeValue(generator, email);
+            generator.writeRaw('\n');
+          }
+          generator.flush();
+          afterSequence = page.lastSequence();
+        } while (page.hasMore());
+      }
+    };
+    return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
   }
 
   @Override
-  public ResponseEntity getAllEmails(String accountName) {
+  public ResponseEntity searchEmails(String accountName, String query, String cursor, int limit) {
     if (!isAccountFound(accountName)) {
       return getNoAccountResponse(accountName);
     }
+    if (!SearchIndex.isSearchable(query)) {
+      return getBadRequestResponse("q must contain at least one word to search for");
+    }
+    if (limit < 1) {
+      return getBadRequestResponse("limit must be at least 1");
+    }
 
-    // Only returning the email References - it would be good if the dates are also returned
-    return new ResponseEntity(new ArrayList<>(accounts.get(accountName).keySet()), HttpStatus.OK);
+    // The cursor of a ranked result is the offset of the next page
+    long offset = 0;
+    if (StringUtils.isNotEmpty(cursor)) {
+      Long decoded = decodeCursor(cursor);
+      if (decoded == null || decoded < 0 || decoded > Integer.MAX_VALUE) {
+        return getBadRequestResponse("Invalid cursor: " + cursor);
+      }
+      offset = decoded;
+    }
+
+    SearchResult result = searchIndex.search(accountName, query, (int) offset,
+        Math.min(limit, MAX_PAGE_SIZE));
+    long nextOffset = offset + result.emailRefs().size();
+    String nextCursor = nextOffset < result.total() ? encodeCursor(nextOffset) : null;
+    return new ResponseEntity(new EmailPage(result.emailRefs().stream()
+        .map(emailRef -> accounts.get(accountName, emailRef))
+        .flatMap(Optional::stream)
+        .map(EmailSummary::of)
+        .toList(), nextCursor), HttpStatus.OK);
   }
 
   @Override
-  public ResponseEntity getEmailContent(String accountName, String emailRef) {
+  public ResponseEntity getEmailContent(String accountName, String emailRef,
+      String ifNoneMatch, WireFormat format, boolean gzip) {
 
     if (!isAccountFound(accountName)) {
       return getNoAccountResponse(accountName);
     }
 
-    Map<String, Email> emails = accounts.get(accountName);
+    Optional<Email> email = accounts.get(accountName, emailRef);
 
-    if (emails.containsKey(emailRef)) {
-      return new ResponseEntity(emails.get(emailRef), HttpStatus.OK);
+    if (email.isPresent()) {
+      if (EntityTags.matchesWeakly(ifNoneMatch, EntityTags.of(email.get()))) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+            .eTag(EntityTags.ofNotModified(ifNoneMatch, email.get())).build();
+      }
+      return emailContent(emailJson, accountName, email.get(), format, gzip);
     }
 
     log.error("Email reference number {} not found", emailRef);
     return new ResponseEntity("Email reference number not found", HttpStatus.NOT_FOUND);
   }
 
+  /**
+   * Answers with the email in the given format, gzipped when the client accepts it and the email
+   * is large enough. Already encoded bytes go to the response as they are.
+   */
+  static ResponseEntity<byte[]> emailContent(EmailJsonCache emailJson, String accountName,
+      Email email, WireFormat format, boolean gzip) {
+    // The email is immutable, so the tag and the bytes always describe the same version
+    String tag = EntityTags.of(email);
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+        .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+        .contentType(format.mediaType());
+    byte[] gzipped = gzip ? emailJson.gzipped(accountName, email, format) : null;
+    if (gzipped != null) {
+      return response.eTag(EntityTags.ofGzipped(tag))
+          .header(HttpHeaders.CONTENT_ENCODING, Gzip.CODING)
+          .body(gzipped);
+    }
+    return response.eTag(tag).body(emailJson.encoded(accountName, email, format));
+  }
+
   @Override
-  public ResponseEntity draftEmail(String accountName, EmailRequest emailRequest) {
+  public DeferredResult<ResponseEntity> pollChanges(String accountName, Long since) {
+    // Outlives the feed's own timeout, so the poll always ends with the feed's answer
+    DeferredResult<ResponseEntity> result = new DeferredResult<>(
+        changeFeed.properties().pollTimeout().plusSeconds(5).toMillis());
     if (!isAccountFound(accountName)) {
-      return getNoAccountResponse(accountName);
+      result.setResult(getNoAccountResponse(accountName));
+      return result;
+    }
+    if (since != null && since < 0) {
+      result.setResult(getBadRequestResponse("since must not be negative"));
+      return result;
     }
 
-    Email email = new Email(
-        "emailRef-draft",
-        emailRequest.subject(),
-        ZonedDateTime.now(),
-        null,
-        emailRequest.content(),
-        emailRequest.toList(),
-        emailRequest.ccList()
-    );
+    // Without a cursor the client only wants what happens from now on
+    long cursor = since == null ? changeFeed.cursor(accountName) : since;
+    CompletableFuture<ChangePage> changes = changeFeed.poll(accountName, cursor);
+    changes.thenAccept(page -> result.setResult(new ResponseEntity(page, HttpStatus.OK)));
+    result.onCompletion(() -> changes.cancel(false));
+    return result;
+  }
 
-    try {
-      String emailString = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(email);
-      log.info("Here is your draft email:" + emailString);
+  @Override
+  public ResponseEntity<SseEmitter> streamChanges(String accountName, Long since) {
+    if (!isAccountFound(accountName)) {
+      return getEventStreamError(getNoAccountResponse(accountName));
+    }
+    if (since != null && since < 0) {
+      return getEventStreamError(getBadRequestResponse("since must not be negative"));
+    }
 
-      Map<String, Email> emails = accounts.get(accountName);
-      emails.put(email.getEmailRef(), email);
+    SseEmitter emitter = new SseEmitter(changeFeed.properties().streamTimeout().toMillis());
+    long cursor = since == null ? changeFeed.cursor(accountName) : since;
+    ChangeFeed.Subscription subscription = changeFeed.subscribe(accountName, cursor,
+        page -> send(emitter, page));
+    emitter.onCompletion(subscription::cancel);
+    emitter.onTimeout(subscription::cancel);
+    emitter.onError(failure -> subscription.cancel());
+    return ResponseEntity.ok().contentType(MediaType.TEXT_EVENT_STREAM).body(emitter);
+  }
 
-      return new ResponseEntity(email, HttpStatus.CREATED);
-    } catch (IOException e) {
-      return new ResponseEntity(e.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+  @Override
+  public ResponseEntity draftEmail(String accountName, EmailRequest emailRequest) {
+    if (!isAccountFound(accountName)) {
+      return getNoAccountResponse(accountName);
+    }
+    if (accounts.roomFor(accountName) < 1) {
+      return getMailboxFullResponse(accountName);
     }
+
+    Email email = newEmail(refGenerator.nextRef(), emailRequest);
+
+    // The store checks the quota again, concurrent writers may have taken the room since
+    int stored = accounts.putAllWithinQuota(accountName, List.of(email));
+    if (stored < 0) {
+      return getNoAccountResponse(accountName);
+    }
+    if (stored == 0) {
+      return getMailboxFullResponse(accountName);
+    }
+    auditLog.drafted(accountName, email);
+    changeFeed.drafted(accountName, email);
+
+    return ResponseEntity.status(HttpStatus.CREATED).eTag(EntityTags.of(email)).body(email);
   }
 
   @Override
@@ -143,72 +321,160 @@ public class EmailServiceImpl implements EmailService {
     if(emailCheck != null) {
       return getBadRequestResponse(emailCheck);
     }
+    if (accounts.roomFor(accountName) < 1) {
+      return getMailboxFullResponse(accountName);
+    }
 
-    Email email = new Email(
-        "emailRef-sent",
-        emailRequest.subject(),
-        ZonedDateTime.now(),
-        null,
-        emailRequest.content(),
-        emailRequest.toList(),
-        emailRequest.ccList()
-    );
+    Email email = newEmail(refGenerator.nextRef(), emailRequest);
 
+    // The email is stored before it is queued, so that only stored emails are ever delivered;
+    // its place in the queue is taken first, so a full queue refuses it before it is stored
+    if (!outbound.reserve(1)) {
+      log.error("Outbound queue is full, rejected email for account {}", accountName);
+      return new ResponseEntity("Email server is busy, please retry later",
+          HttpStatus.SERVICE_UNAVAILABLE);
+    }
+    int stored = -1;
     try {
-      String emailString = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(email);
-      log.info("Here is the preview of your email:" + emailString);
+      stored = accounts.putAllWithinQuota(accountName, List.of(email));
+    } finally {
+      if (stored != 1) {
+        outbound.release(1);
+      }
+    }
+    if (stored < 0) {
+      return getNoAccountResponse(accountName);
+    }
+    if (stored == 0) {
+      return getMailboxFullResponse(accountName);
+    }
 
-      // We assume there is an integration with email server and the relevant email is created and sent
+    // Delivery happens on the outbound workers, the caller only waits for the email to be queued
+    outbound.submitReserved(accountName, email);
+    auditLog.sent(accountName, email);
+    changeFeed.sent(accountName, email);
 
-      Map<String, Email> emails = accounts.get(accountName);
-      emails.put(email.getEmailRef(), email);
+    return new ResponseEntity(email, HttpStatus.ACCEPTED);
+  }
 
-      return new ResponseEntity(email, HttpStatus.CREATED);
-    } catch (IOException e) {
-      return new ResponseEntity(e.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+  @Override
+  public ResponseEntity sendEmails(String accountName, List<EmailRequest> emailRequests) {
+    if (!isAccountFound(accountName)) {
+      return getNoAccountResponse(accountName);
+    }
+    String batchCheck = EmailBatchProcessor.checkBatchSize(emailRequests);
+    if (batchCheck != null) {
+      return getBadRequestResponse(batchCheck);
     }
+
+    // Every email gets its own status, the batch itself succeeds
+    return new ResponseEntity(batches.send(accountName, emailRequests), HttpStatus.OK);
+  }
+
+  @Override
+  public ResponseEntity fetchEmails(String accountName, List<String> emailRefs) {
+    if (!isAccountFound(accountName)) {
+      return getNoAccountResponse(accountName);
+    }
+    String batchCheck = EmailBatchProcessor.checkBatchSize(emailRefs);
+    if (batchCheck != null) {
+      return getBadRequestResponse(batchCheck);
+    }
+
+    return new ResponseEntity(batches.fetch(accountName, emailRefs), HttpStatus.OK);
   }
 
   @Override
   public ResponseEntity updateEmail(String accountName, String emailRef,
-      EmailRequest updateRequest) {
+      EmailRequest updateRequest, String ifMatch) {
 
     if (!isAccountFound(accountName)) {
       return getNoAccountResponse(accountName);
     }
 
-    Map<String, Email> emails = accounts.get(accountName);
-    if (emails.containsKey(emailRef)) {
-      Email email = emails.get(emailRef);
-      try {
+    Optional<Email> updated;
+    try {
+      updated = accounts.update(accountName, emailRef,
+          EntityTags.ifMatch(ifMatch, updateFrom(updateRequest)));
+    } catch (ResponseStatusException e) {
+      log.error("Email {} changed since version {}, update rejected", emailRef, ifMatch);
+      return new ResponseEntity(e.getReason(), e.getStatusCode());
+    }
 
-        if (StringUtils.isNotEmpty(updateRequest.subject())) {
-          email.setSubject(updateRequest.subject());
-        }
-        if (StringUtils.isNotEmpty(updateRequest.content())) {
-          email.setContent(updateRequest.content());
-        }
-        if (!CollectionUtils.isEmpty(updateRequest.toList())) {
-          email.setToList(updateRequest.toList());
-        }
-        if (!CollectionUtils.isEmpty(updateRequest.ccList())) {
-          email.setCcList(updateRequest.ccList());
-        }
-
-        String emailString = objectMapper.writerWithDefaultPrettyPrinter()
-            .writeValueAsString(email);
-        log.info("Here is your updated email:" + emailString);
-
-        return new ResponseEntity(email, HttpStatus.OK);
-      } catch (IOException e) {
-        return new ResponseEntity(e.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
-      }
+    if (updated.isPresent()) {
+      auditLog.updated(accountName, updated.get());
+      changeFeed.updated(accountName, updated.get());
+      return ResponseEntity.ok().eTag(EntityTags.of(updated.get())).body(updated.get());
     }
     return new ResponseEntity("Email reference not found", HttpStatus.NOT_FOUND);
   }
 
+  @Override
+  public ResponseEntity addAttachment(String accountName, String emailRef, MultipartFile file,
+      String ifMatch) {
+
+    if (!isAccountFound(accountName)) {
+      return getNoAccountResponse(accountName);
+    }
+    Optional<Email> current = accounts.get(accountName, emailRef);
+    if (current.isEmpty()) {
+      return new ResponseEntity("Email reference not found", HttpStatus.NOT_FOUND);
+    }
+    // Checked again when the attachment is added, this spares the upload when it would fail
+    if (ifMatch != null && !EntityTags.matches(ifMatch, EntityTags.of(current.get()))) {
+      log.error("Email {} changed since version {}, attachment rejected", emailRef, ifMatch);
+      return new ResponseEntity(EntityTags.PRECONDITION_FAILED_MESSAGE,
+          HttpStatus.PRECONDITION_FAILED);
+    }
+
+    Attachment attachment;
+    try (InputStream in = file.getInputStream(); BlobStore.Upload upload = blobs.upload()) {
+      upload.write(in);
+      attachment = attachment(file.getOriginalFilename(), file.getContentType(), upload.commit());
+    } catch (BlobStore.TooLargeException e) {
+      log.error("Attachment to email {} refused: {}", emailRef, e.getMessage());
+      return new ResponseEntity(e.getMessage(), HttpStatus.PAYLOAD_TOO_LARGE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    Optional<Email> updated;
+    try {
+      updated = accounts.update(accountName, emailRef,
+          EntityTags.ifMatch(ifMatch, email -> email.withAttachment(attachment)));
+    } catch (ResponseStatusException e) {
+      log.error("Email {} changed since version {}, attachment rejected", emailRef, ifMatch);
+      return new ResponseEntity(e.getReason(), e.getStatusCode());
+    }
+
+    if (updated.isPresent()) {
+      auditLog.updated(accountName, updated.get());
+      changeFeed.updated(accountName, updated.get());
+      return ResponseEntity.ok().eTag(EntityTags.of(updated.get())).body(updated.get());
+    }
+    return new ResponseEntity("Email reference not found", HttpStatus.NOT_FOUND);
+  }
+
+  @Override
+  public ResponseEntity<Resource> getAttachment(String accountName, String emailRef,
+      String sha256) {
+    if (!isAccountFound(accountName)) {
+      return getResourceError(getNoAccountResponse(accountName));
+    }
+    Optional<Attachment> attachment = accounts.get(accountName, emailRef)
+        .flatMap(email -> attachmentOf(email, sha256))
+        .filter(found -> blobs.contains(found.sha256()));
+    if (attachment.isEmpty()) {
+      log.error("Attachment {} of email {} not found", sha256, emailRef);
+      return getResourceError(new ResponseEntity(ATTACHMENT_NOT_FOUND, HttpStatus.NOT_FOUND));
+    }
+
+    return attachmentResponse(attachment.get())
+        .<Resource>body(new FileSystemResource(blobs.path(sha256)));
+  }
+
   private boolean isAccountFound(String accountName) {
-    return accounts.containsKey(accountName);
+    return accounts.hasAccount(accountName);
   }
 
   private ResponseEntity getNoAccountResponse(String name) {
@@ -216,13 +482,161 @@ public class EmailServiceImpl implements EmailService {
     return new ResponseEntity("Email account not found", HttpStatus.NOT_FOUND);
   }
 
-  private String checkEmailCompleteness(EmailRequest emailRequest) {
+  private ResponseEntity getMailboxFullResponse(String name) {
+    log.error("Mailbox of account {} is full", name);
+    return new ResponseEntity(MAILBOX_FULL, HttpStatus.INSUFFICIENT_STORAGE);
+  }
+
+  private static void send(SseEmitter emitter, ChangePage page) {
+    try {
+      if (page.missed()) {
+        emitter.send(SseEmitter.event().id(String.valueOf(page.cursor()))
+            .name(ChangeFeed.RESET_EVENT).data(page.cursor()));
+      }
+      for (ChangeEvent event : page.events()) {
+        emitter.send(SseEmitter.event().id(String.valueOf(event.sequence()))
+            .name(ChangeFeed.eventName(event)).data(event, MediaType.APPLICATION_JSON));
+      }
+    } catch (IOException e) {
+      // The client has gone, failing here ends the subscription
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * A streaming endpoint cannot fall back to a String body, so the message is streamed too.
+   */
+  private static ResponseEntity<StreamingResponseBody> getStreamedError(ResponseEntity error) {
+    byte[] message = String.valueOf(error.getBody()).getBytes(StandardCharsets.UTF_8);
+    return ResponseEntity.status(error.getStatusCode()).contentType(MediaType.TEXT_PLAIN)
+        .body(outputStream -> outputStream.write(message));
+  }
+
+  /**
+   * A resource endpoint cannot fall back to a String body, so the message is sent as a resource.
+   */
+  private static ResponseEntity<Resource> getResourceError(ResponseEntity error) {
+    byte[] message = String.valueOf(error.getBody()).getBytes(StandardCharsets.UTF_8);
+    return ResponseEntity.status(error.getStatusCode()).contentType(MediaType.TEXT_PLAIN)
+        .body(new ByteArrayResource(message));
+  }
+
+  /**
+   * An event stream cannot fall back to a String body, so the message is sent as an error event.
+   */
+  private static ResponseEntity<SseEmitter> getEventStreamError(ResponseEntity error) {
+    SseEmitter emitter = new SseEmitter();
+    try {
+      emitter.send(SseEmitter.event().name("error").data(error.getBody(), MediaType.TEXT_PLAIN));
+    } catch (IOException e) {
+      // Nothing is written before the handler returns, the event is only buffered
+    }
+    emitter.complete();
+    return ResponseEntity.status(error.getStatusCode()).contentType(MediaType.TEXT_EVENT_STREAM)
+        .body(emitter);
+  }
+
+  static Email newEmail(String emailRef, EmailRequest emailRequest) {
+    return new Email(
+        emailRef,
+        emailRequest.subject(),
+        ZonedDateTime.now(),
+        null,
+        emailRequest.content(),
+        emailRequest.toList(),
+        emailRequest.ccList()
+    );
+  }
+
+  /**
+   * Returns the change an update request makes: a copy of the email in which every property the
+   * request sets replaces the email's.
+   */
+  static UnaryOperator<Email> updateFrom(EmailRequest updateRequest) {
+    return email -> {
+      Email updated = email;
+      if (StringUtils.isNotEmpty(updateRequest.subject())) {
+        updated = updated.withSubject(updateRequest.subject());
+      }
+      if (StringUtils.isNotEmpty(updateRequest.content())) {
+        updated = updated.withContent(updateRequest.content());
+      }
+      if (!CollectionUtils.isEmpty(updateRequest.toList())) {
+        updated = updated.withToList(updateRequest.toList());
+      }
+      if (!CollectionUtils.isEmpty(updateRequest.ccList())) {
+        updated = updated.withCcList(updateRequest.ccList());
+      }
+      return updated;
+    };
+  }
+
+  /**
+   * Returns the reference to a stored upload. Only the last part of the client's file name is
+   * kept, and content types that cannot be parsed become application/octet-stream.
+   */
+  static Attachment attachment(String filename, String contentType, BlobStore.Blob blob) {
+    String name = filename == null ? ""
+        : filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1);
+    MediaType mediaType = MediaType.APPLICATION_OCTET_STREAM;
+    if (StringUtils.isNotEmpty(contentType)) {
+      try {
+        mediaType = MediaType.parseMediaType(contentType);
+      } catch (InvalidMediaTypeException e) {
+        log.warn("Attachment {} has an invalid content type {}", name, contentType);
+      }
+    }
+    return new Attachment(name.isEmpty() ? blob.sha256() : name, mediaType.toString(),
+        blob.size(), blob.sha256());
+  }
+
+  static Optional<Attachment> attachmentOf(Email email, String sha256) {
+    return email.getAttachments().stream()
+        .filter(attachment -> attachment.sha256().equals(sha256))
+        .findFirst();
+  }
+
+  /**
+   * Starts the response to an attachment download. Blobs never change, so the hash of the content
+   * is its strong ETag.
+   */
+  static ResponseEntity.BodyBuilder attachmentResponse(Attachment attachment) {
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(attachment.contentType()))
+        .contentLength(attachment.size())
+        .eTag(attachment.sha256())
+        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+            .filename(attachment.name(), StandardCharsets.UTF_8).build().toString());
+  }
+
+  static String encodeCursor(long sequence) {
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(sequence).array());
+  }
+
+  static Long decodeCursor(String cursor) {
+    try {
+      byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+      return bytes.length == Long.BYTES ? ByteBuffer.wrap(bytes).getLong() : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  static String checkEmailCompleteness(EmailRequest emailRequest) {
     if(CollectionUtils.isEmpty(emailRequest.toList())) {
       return "Email not complete: toList is mandatory to send an email";
     }
+    if(hasMissingAddress(emailRequest.toList()) || hasMissingAddress(emailRequest.ccList())) {
+      return "Email not complete: toList and ccList must not contain empty addresses";
+    }
     return null;
   }
 
+  private static boolean hasMissingAddress(List<String> addresses) {
+    return addresses != null && addresses.stream().anyMatch(Objects::isNull);
+  }
+
   private ResponseEntity getBadRequestResponse(String message) {
     log.error(message);
     return new ResponseEntity(message, HttpStatus.BAD_REQUEST);
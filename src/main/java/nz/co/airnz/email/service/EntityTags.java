@@ -0,0 +1,108 @@
+package nz.co.airnz.email.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.UnaryOperator;
+import nz.co.airnz.email.codec.Gzip;
+import nz.co.airnz.email.model.Email;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Strong ETags of emails and inboxes, shared by the servlet and the reactive email service.
+ *
+ * <p>An email's tag is its version, which survives restarts with the journal. An inbox's version
+ * starts again whenever the store is rebuilt, so its tag also carries a token of this process to
+ * keep a tag from an earlier run from matching a different inbox.
+ *
+ * <p>A gzipped email is a representation of its own and has a tag of its own, the version with a
+ * {@code -gzip} suffix. Headers that list it match the email just like the plain tag.
+ */
+final class EntityTags {
+
+  static final String PRECONDITION_FAILED_MESSAGE =
+      "Email has changed since it was read, read it again before updating it";
+
+  private static final String GZIP_SUFFIX = "-" + Gzip.CODING + "\"";
+  private static final String INSTANCE = Long.toString(
+      ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+
+  private EntityTags() {
+  }
+
+  static String of(Email email) {
+    return "\"" + email.getVersion() + "\"";
+  }
+
+  /**
+   * Returns the tag of the gzipped representation of the email with the given tag.
+   */
+  static String ofGzipped(String tag) {
+    return tag.substring(0, tag.length() - 1) + GZIP_SUFFIX;
+  }
+
+  /**
+   * Returns the tag to answer 304 Not Modified for the email with: the gzipped one when the
+   * {@code If-None-Match} header lists it, so the client recognises the representation it holds.
+   */
+  static String ofNotModified(String ifNoneMatch, Email email) {
+    String tag = of(email);
+    String gzipped = ofGzipped(tag);
+    return ifNoneMatch.contains(gzipped) ? gzipped : tag;
+  }
+
+  static String ofInbox(long version) {
+    return "\"" + INSTANCE + "-" + version + "\"";
+  }
+
+  /**
+   * Returns true when the {@code If-Match} header lists the tag or is {@code *}. A weak tag in the
+   * header never matches.
+   */
+  static boolean matches(String ifMatch, String tag) {
+    return matches(ifMatch, tag, false);
+  }
+
+  /**
+   * Returns true when the {@code If-None-Match} header lists the tag, weak or not, or is
+   * {@code *}.
+   */
+  static boolean matchesWeakly(String ifNoneMatch, String tag) {
+    return matches(ifNoneMatch, tag, true);
+  }
+
+  private static boolean matches(String header, String tag, boolean weak) {
+    if (header == null) {
+      return false;
+    }
+    for (String candidate : header.split(",")) {
+      String trimmed = candidate.trim();
+      if (weak && trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (trimmed.endsWith(GZIP_SUFFIX)) {
+        trimmed = trimmed.substring(0, trimmed.length() - GZIP_SUFFIX.length()) + "\"";
+      }
+      if (trimmed.equals("*") || trimmed.equals(tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Wraps an update so that it only applies while the email still matches the {@code If-Match}
+   * header. The check runs under the store's lock, just before the update.
+   */
+  static UnaryOperator<Email> ifMatch(String ifMatch, UnaryOperator<Email> update) {
+    if (ifMatch == null) {
+      return update;
+    }
+    return email -> {
+      if (!matches(ifMatch, of(email))) {
+        throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+            PRECONDITION_FAILED_MESSAGE);
+      }
+      return update.apply(email);
+    };
+  }
+}
@@ -0,0 +1,183 @@
+package nz.co.airnz.email.service;
+
+import java.util.List;
+import java.util.function.Supplier;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.metrics.EmailMetrics;
+import nz.co.airnz.email.metrics.EmailOperation;
+import nz.co.airnz.email.model.EmailRequest;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.ErrorResponse;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Times every call to {@link EmailServiceImpl} and counts the ones that fail, see
+ * {@link EmailMetrics}. A call that throws is recorded with the status it is answered with. Long
+ * polls, event streams and exports are timed until their handler returns, not until the response
+ * is complete.
+ */
+@Component
+@Primary
+@Profile("!reactive")
+public class MeteredEmailService implements EmailService {
+
+  private final EmailService delegate;
+  private final EmailMetrics metrics;
+
+  public MeteredEmailService(EmailServiceImpl delegate, EmailMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public ResponseEntity getAllEmails(String accountName, String ifNoneMatch) {
+    long start = System.nanoTime();
+    return record(EmailOperation.GET_ALL_EMAILS, start,
+        () -> delegate.getAllEmails(accountName, ifNoneMatch));
+  }
+
+  @Override
+  public ResponseEntity getEmailSummaries(String accountName, String cursor, int limit) {
+    long start = System.nanoTime();
+    return record(EmailOperation.GET_EMAIL_SUMMARIES, start,
+        () -> delegate.getEmailSummaries(accountName, cursor, limit));
+  }
+
+  @Override
+  public ResponseEntity<StreamingResponseBody> exportEmails(String accountName) {
+    long start = System.nanoTime();
+    return record(EmailOperation.EXPORT_EMAILS, start, () -> delegate.exportEmails(accountName));
+  }
+
+  @Override
+  public ResponseEntity searchEmails(String accountName, String query, String cursor,
+      int limit) {
+    long start = System.nanoTime();
+    return record(EmailOperation.SEARCH_EMAILS, start,
+        () -> delegate.searchEmails(accountName, query, cursor, limit));
+  }
+
+  @Override
+  public ResponseEntity getEmailContent(String accountName, String emailRef, String ifNoneMatch,
+      WireFormat format, boolean gzip) {
+    long start = System.nanoTime();
+    return record(EmailOperation.GET_EMAIL_CONTENT, start,
+        () -> delegate.getEmailContent(accountName, emailRef, ifNoneMatch, format, gzip));
+  }
+
+  @Override
+  public DeferredResult<ResponseEntity> pollChanges(String accountName, Long since) {
+    long start = System.nanoTime();
+    DeferredResult<ResponseEntity> result;
+    try {
+      result = delegate.pollChanges(accountName, since);
+    } catch (RuntimeException e) {
+      metrics.record(EmailOperation.POLL_CHANGES, start, statusOf(e));
+      throw e;
+    }
+    // Only a rejected poll has its answer already, one that waits is counted as OK
+    int status = result.getResult() instanceof ResponseEntity<?> response
+        ? response.getStatusCode().value()
+        : HttpStatus.OK.value();
+    metrics.record(EmailOperation.POLL_CHANGES, start, status);
+    return result;
+  }
+
+  @Override
+  public ResponseEntity<SseEmitter> streamChanges(String accountName, Long since) {
+    long start = System.nanoTime();
+    return record(EmailOperation.STREAM_CHANGES, start,
+        () -> delegate.streamChanges(accountName, since));
+  }
+
+  @Override
+  public ResponseEntity draftEmail(String accountName, EmailRequest emailRequest) {
+    long start = System.nanoTime();
+    metrics.recordContent(emailRequest);
+    return record(EmailOperation.DRAFT_EMAIL, start,
+        () -> delegate.draftEmail(accountName, emailRequest));
+  }
+
+  @Override
+  public ResponseEntity sendEmail(String accountName, EmailRequest emailRequest) {
+    long start = System.nanoTime();
+    metrics.recordContent(emailRequest);
+    return record(EmailOperation.SEND_EMAIL, start,
+        () -> delegate.sendEmail(accountName, emailRequest));
+  }
+
+  @Override
+  public ResponseEntity sendEmails(String accountName, List<EmailRequest> emailRequests) {
+    long start = System.nanoTime();
+    if (emailRequests != null) {
+      emailRequests.forEach(metrics::recordContent);
+    }
+    return record(EmailOperation.SEND_EMAILS, start,
+        () -> delegate.sendEmails(accountName, emailRequests));
+  }
+
+  @Override
+  public ResponseEntity fetchEmails(String accountName, List<String> emailRefs) {
+    long start = System.nanoTime();
+    return record(EmailOperation.FETCH_EMAILS, start,
+        () -> delegate.fetchEmails(accountName, emailRefs));
+  }
+
+  @Override
+  public ResponseEntity updateEmail(String accountName, String emailRef,
+      EmailRequest updateRequest, String ifMatch) {
+    long start = System.nanoTime();
+    metrics.recordContent(updateRequest);
+    return record(EmailOperation.UPDATE_EMAIL, start,
+        () -> delegate.updateEmail(accountName, emailRef, updateRequest, ifMatch));
+  }
+
+  @Override
+  public ResponseEntity addAttachment(String accountName, String emailRef, MultipartFile file,
+      String ifMatch) {
+    long start = System.nanoTime();
+    return record(EmailOperation.ADD_ATTACHMENT, start,
+        () -> delegate.addAttachment(accountName, emailRef, file, ifMatch));
+  }
+
+  @Override
+  public ResponseEntity<Resource> getAttachment(String accountName, String emailRef,
+      String sha256) {
+    long start = System.nanoTime();
+    return record(EmailOperation.GET_ATTACHMENT, start,
+        () -> delegate.getAttachment(accountName, emailRef, sha256));
+  }
+
+  /**
+   * Makes the call and records it, with the status of its response or, when it throws, the status
+   * the exception is answered with.
+   */
+  private <T extends ResponseEntity<?>> T record(EmailOperation operation, long start,
+      Supplier<T> call) {
+    T response;
+    try {
+      response = call.get();
+    } catch (RuntimeException e) {
+      metrics.record(operation, start, statusOf(e));
+      throw e;
+    }
+    metrics.record(operation, start, response.getStatusCode().value());
+    return response;
+  }
+
+  private static int statusOf(RuntimeException e) {
+    // ResponseStatusException and Spring's other web exceptions carry their status, anything else
+    // ends up as a 500
+    return e instanceof ErrorResponse error
+        ? error.getStatusCode().value()
+        : HttpStatus.INTERNAL_SERVER_ERROR.value();
+  }
+}
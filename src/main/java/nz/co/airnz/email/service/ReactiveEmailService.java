@@ -0,0 +1,80 @@
+package nz.co.airnz.email.service;
+
+import java.util.List;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.ChangePage;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.FetchResult;
+import nz.co.airnz.email.model.SendResult;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.multipart.FilePart;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link EmailService} for the WebFlux stack.
+ *
+ * <p>Failures are signalled as {@link org.springframework.web.server.ResponseStatusException}s
+ * carrying the status and message {@link EmailService} would have answered with.
+ */
+public interface ReactiveEmailService {
+
+  /**
+   * Streams the whole inbox, oldest first. Emails are read from the store one batch at a time as
+   * the subscriber requests them.
+   */
+  Flux<Email> getAllEmails(String accountName);
+
+  /**
+   * Returns the references of the account's emails with the inbox's ETag, or 304 Not Modified
+   * when {@code ifNoneMatch} already lists that tag.
+   */
+  Mono<ResponseEntity<List<String>>> getEmailRefs(String accountName, String ifNoneMatch);
+
+  Mono<EmailPage> getEmailSummaries(String accountName, String cursor, int limit);
+
+  Mono<EmailPage> searchEmails(String accountName, String query, String cursor, int limit);
+
+  /**
+   * Returns the email encoded in the given format, and gzipped when {@code gzip} is set and the
+   * email is large enough, see {@link nz.co.airnz.email.cache.EmailJsonCache}.
+   */
+  Mono<ResponseEntity<byte[]>> getEmailContent(String accountName, String emailRef,
+      String ifNoneMatch, WireFormat format, boolean gzip);
+
+  Mono<ChangePage> pollChanges(String accountName, Long since);
+
+  /**
+   * Streams the changes after {@code since} as server-sent events until the client disconnects.
+   */
+  Flux<ServerSentEvent<Object>> streamChanges(String accountName, Long since);
+
+  Mono<ResponseEntity<Email>> draftEmail(String accountName, EmailRequest emailRequest);
+
+  Mono<Email> sendEmail(String accountName, EmailRequest emailRequest);
+
+  Mono<List<SendResult>> sendEmails(String accountName, List<EmailRequest> emailRequests);
+
+  Mono<List<FetchResult>> fetchEmails(String accountName, List<String> emailRefs);
+
+  Mono<ResponseEntity<Email>> updateEmail(String accountName, String emailRef,
+      EmailRequest updateRequest, String ifMatch);
+
+  /**
+   * Streams the file into the blob store, one buffer at a time, and adds a reference to it to the
+   * email, see {@link EmailService#addAttachment}.
+   */
+  Mono<ResponseEntity<Email>> addAttachment(String accountName, String emailRef, FilePart file,
+      String ifMatch);
+
+  /**
+   * Returns the content of one of the email's attachments as a file, which the server sends
+   * without copying it through the heap.
+   */
+  Mono<ResponseEntity<Resource>> getAttachment(String accountName, String emailRef,
+      String sha256);
+}
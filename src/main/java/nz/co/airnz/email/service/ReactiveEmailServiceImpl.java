@@ -0,0 +1,436 @@
+package nz.co.airnz.email.service;
+
+import io.micrometer.common.util.StringUtils;
+import jakarta.validation.Validator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import nz.co.airnz.email.attachment.BlobStore;
+import nz.co.airnz.email.cache.EmailJsonCache;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.feed.ChangeFeed;
+import nz.co.airnz.email.limit.WriteAdmission;
+import nz.co.airnz.email.model.Attachment;
+import nz.co.airnz.email.model.ChangeEvent;
+import nz.co.airnz.email.model.ChangePage;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.EmailSummary;
+import nz.co.airnz.email.model.FetchResult;
+import nz.co.airnz.email.model.SendResult;
+import nz.co.airnz.email.outbound.OutboundMailQueue;
+import nz.co.airnz.email.search.SearchIndex;
+import nz.co.airnz.email.search.SearchResult;
+import nz.co.airnz.email.store.MailboxPage;
+import nz.co.airnz.email.store.MailboxStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link ReactiveEmailService} over the same {@link MailboxStore} as {@link EmailServiceImpl}.
+ *
+ * <p>Reads only touch memory and run on the caller's thread. Writes may wait for the journal to
+ * sync, so they run on the bounded elastic scheduler and never block an event loop.
+ */
+@Component
+@Profile("reactive")
+public class ReactiveEmailServiceImpl implements ReactiveEmailService {
+
+  private static final int LISTING_BATCH_SIZE = 256;
+  private static final Logger log = LoggerFactory.getLogger(ReactiveEmailServiceImpl.class);
+
+  private final MailboxStore accounts;
+  private final EmailRefGenerator refGenerator;
+  private final EmailAuditLog auditLog;
+  private final OutboundMailQueue outbound;
+  private final SearchIndex searchIndex;
+  private final ChangeFeed changeFeed;
+  private final EmailJsonCache emailJson;
+  private final BlobStore blobs;
+  private final EmailBatchProcessor batches;
+
+  public ReactiveEmailServiceImpl(MailboxStore accounts, EmailRefGenerator refGenerator,
+      EmailAuditLog auditLog, OutboundMailQueue outbound, SearchIndex searchIndex,
+      ChangeFeed changeFeed, EmailJsonCache emailJson, BlobStore blobs, WriteAdmission admission,
+      Validator validator) {
+    this.accounts = accounts;
+    this.refGenerator = refGenerator;
+    this.auditLog = auditLog;
+    this.outbound = outbound;
+    this.searchIndex = searchIndex;
+    this.changeFeed = changeFeed;
+    this.emailJson = emailJson;
+    this.blobs = blobs;
+    this.batches = new EmailBatchProcessor(accounts, refGenerator, auditLog, outbound, changeFeed,
+        admission, validator);
+  }
+
+  @Override
+  public Flux<Email> getAllEmails(String accountName) {
+    return requireAccount(accountName).thenMany(
+        // One page is read per downstream request, so a slow client never makes us buffer more
+        Flux.<MailboxPage, Long>generate(() -> -1L, (afterSequence, sink) -> {
+          MailboxPage page = accounts.page(accountName, afterSequence, LISTING_BATCH_SIZE);
+          sink.next(page);
+          if (!page.hasMore()) {
+            sink.complete();
+          }
+          return page.lastSequence();
+        }).concatMapIterable(MailboxPage::emails, 1));
+  }
+
+  @Override
+  public Mono<ResponseEntity<List<String>>> getEmailRefs(String accountName,
+      String ifNoneMatch) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      // The tag is read first, so it is never newer than the references it is sent with
+      String tag = EntityTags.ofInbox(accounts.version(accountName));
+      if (EntityTags.matchesWeakly(ifNoneMatch, tag)) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).<List<String>>build();
+      }
+      return ResponseEntity.ok().eTag(tag).body(accounts.emailRefs(accountName));
+    }));
+  }
+
+  @Override
+  public Mono<EmailPage> getEmailSummaries(String accountName, String cursor, int limit) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      if (limit < 1) {
+        throw badRequest("limit must be at least 1");
+      }
+      long afterSequence = -1;
+      if (StringUtils.isNotEmpty(cursor)) {
+        Long decoded = EmailServiceImpl.decodeCursor(cursor);
+        if (decoded == null) {
+          throw badRequest("Invalid cursor: " + cursor);
+        }
+        afterSequence = decoded;
+      }
+      MailboxPage page = accounts.page(accountName, afterSequence,
+          Math.min(limit, EmailServiceImpl.MAX_PAGE_SIZE));
+      String nextCursor = page.hasMore() ? EmailServiceImpl.encodeCursor(page.lastSequence())
+          : null;
+      return new EmailPage(page.emails().stream().map(EmailSummary::of).toList(), nextCursor);
+    }));
+  }
+
+  @Override
+  public Mono<EmailPage> searchEmails(String accountName, String query, String cursor,
+      int limit) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      if (!SearchIndex.isSearchable(query)) {
+        throw badRequest("q must contain at least one word to search for");
+      }
+      if (limit < 1) {
+        throw badRequest("limit must be at least 1");
+      }
+      long offset = 0;
+      if (StringUtils.isNotEmpty(cursor)) {
+        Long decoded = EmailServiceImpl.decodeCursor(cursor);
+        if (decoded == null || decoded < 0 || decoded > Integer.MAX_VALUE) {
+          throw badRequest("Invalid cursor: " + cursor);
+        }
+        offset = decoded;
+      }
+      SearchResult result = searchIndex.search(accountName, query, (int) offset,
+          Math.min(limit, EmailServiceImpl.MAX_PAGE_SIZE));
+      long nextOffset = offset + result.emailRefs().size();
+      String nextCursor = nextOffset < result.total()
+          ? EmailServiceImpl.encodeCursor(nextOffset) : null;
+      return new EmailPage(result.emailRefs().stream()
+          .flatMap(emailRef -> accounts.get(accountName, emailRef).stream())
+          .map(EmailSummary::of)
+          .toList(), nextCursor);
+    }));
+  }
+
+  @Override
+  public Mono<ResponseEntity<byte[]>> getEmailContent(String accountName, String emailRef,
+      String ifNoneMatch, WireFormat format, boolean gzip) {
+    return requireAccount(accountName).then(Mono.defer(() ->
+        Mono.justOrEmpty(accounts.get(accountName, emailRef))
+            .map(email -> {
+              if (EntityTags.matchesWeakly(ifNoneMatch, EntityTags.of(email))) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(EntityTags.ofNotModified(ifNoneMatch, email)).<byte[]>build();
+              }
+              return EmailServiceImpl.emailContent(emailJson, accountName, email, format, gzip);
+            })
+            .switchIfEmpty(Mono.error(() -> {
+              log.error("Email reference number {} not found", emailRef);
+              return new ResponseStatusException(HttpStatus.NOT_FOUND,
+                  "Email reference number not found");
+            }))));
+  }
+
+  @Override
+  public Mono<ChangePage> pollChanges(String accountName, Long since) {
+    return requireAccount(accountName).then(Mono.defer(() -> {
+      long cursor = resolveSince(accountName, since);
+      // Cancelling the subscription, e.g. when the client disconnects, cancels the poll
+      return Mono.fromFuture(() -> changeFeed.poll(accountName, cursor));
+    }));
+  }
+
+  @Override
+  public Flux<ServerSentEvent<Object>> streamChanges(String accountName, Long since) {
+    return requireAccount(accountName).thenMany(Flux.defer(() -> {
+      long cursor = resolveSince(accountName, since);
+      return Flux.<ChangePage>create(sink -> {
+        ChangeFeed.Subscription subscription = changeFeed.subscribe(accountName, cursor,
+            sink::next);
+        sink.onDispose(subscription::cancel);
+      });
+    })).concatMapIterable(ReactiveEmailServiceImpl::toEvents);
+  }
+
+  @Override
+  public Mono<ResponseEntity<Email>> draftEmail(String accountName,
+      EmailRequest emailRequest) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      requireRoom(accountName);
+      Email email = EmailServiceImpl.newEmail(refGenerator.nextRef(), emailRequest);
+      int stored = accounts.putAllWithinQuota(accountName, List.of(email));
+      if (stored < 0) {
+        throw accountNotFound(accountName);
+      }
+      if (stored == 0) {
+        throw mailboxFull(accountName);
+      }
+      auditLog.drafted(accountName, email);
+      changeFeed.drafted(accountName, email);
+      return ResponseEntity.status(HttpStatus.CREATED).eTag(EntityTags.of(email)).body(email);
+    }).subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  @Override
+  public Mono<Email> sendEmail(String accountName, EmailRequest emailRequest) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      String emailCheck = EmailServiceImpl.checkEmailCompleteness(emailRequest);
+      if (emailCheck != null) {
+        throw badRequest(emailCheck);
+      }
+      requireRoom(accountName);
+      Email email = EmailServiceImpl.newEmail(refGenerator.nextRef(), emailRequest);
+      // Stored before it is queued, in a place in the queue taken first, as in EmailServiceImpl
+      if (!outbound.reserve(1)) {
+        log.error("Outbound queue is full, rejected email for account {}", accountName);
+        throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+            "Email server is busy, please retry later");
+      }
+      int stored = -1;
+      try {
+        stored = accounts.putAllWithinQuota(accountName, List.of(email));
+      } finally {
+        if (stored != 1) {
+          outbound.release(1);
+        }
+      }
+      if (stored < 0) {
+        throw accountNotFound(accountName);
+      }
+      if (stored == 0) {
+        throw mailboxFull(accountName);
+      }
+      outbound.submitReserved(accountName, email);
+      auditLog.sent(accountName, email);
+      changeFeed.sent(accountName, email);
+      return email;
+    }).subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  @Override
+  public Mono<List<SendResult>> sendEmails(String accountName, List<EmailRequest> emailRequests) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      String batchCheck = EmailBatchProcessor.checkBatchSize(emailRequests);
+      if (batchCheck != null) {
+        throw badRequest(batchCheck);
+      }
+      return batches.send(accountName, emailRequests);
+    }).subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  @Override
+  public Mono<List<FetchResult>> fetchEmails(String accountName, List<String> emailRefs) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      String batchCheck = EmailBatchProcessor.checkBatchSize(emailRefs);
+      if (batchCheck != null) {
+        throw badRequest(batchCheck);
+      }
+      return batches.fetch(accountName, emailRefs);
+    }));
+  }
+
+  @Override
+  public Mono<ResponseEntity<Email>> updateEmail(String accountName, String emailRef,
+      EmailRequest updateRequest, String ifMatch) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      Email email = accounts.update(accountName, emailRef,
+              EntityTags.ifMatch(ifMatch, EmailServiceImpl.updateFrom(updateRequest)))
+          .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+              "Email reference not found"));
+      auditLog.updated(accountName, email);
+      changeFeed.updated(accountName, email);
+      return ResponseEntity.ok().eTag(EntityTags.of(email)).body(email);
+    }).subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  @Override
+  public Mono<ResponseEntity<Email>> addAttachment(String accountName, String emailRef,
+      FilePart file, String ifMatch) {
+    return requireAccount(accountName).then(Mono.defer(() -> {
+      Optional<Email> current = accounts.get(accountName, emailRef);
+      if (current.isEmpty()) {
+        return Mono.<BlobStore.Blob>error(new ResponseStatusException(HttpStatus.NOT_FOUND,
+            "Email reference not found"));
+      }
+      // Checked again when the attachment is added, this spares the upload when it would fail
+      if (ifMatch != null && !EntityTags.matches(ifMatch, EntityTags.of(current.get()))) {
+        return Mono.<BlobStore.Blob>error(new ResponseStatusException(
+            HttpStatus.PRECONDITION_FAILED, EntityTags.PRECONDITION_FAILED_MESSAGE));
+      }
+      return Mono.using(blobs::upload, upload -> store(upload, file.content()),
+          ReactiveEmailServiceImpl::discard);
+    })).map(blob -> EmailServiceImpl.attachment(file.filename(),
+        Objects.toString(file.headers().getContentType(), null), blob))
+        .flatMap(attachment -> Mono.fromCallable(() -> {
+          Email email = accounts.update(accountName, emailRef,
+                  EntityTags.ifMatch(ifMatch, stored -> stored.withAttachment(attachment)))
+              .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                  "Email reference not found"));
+          auditLog.updated(accountName, email);
+          changeFeed.updated(accountName, email);
+          return ResponseEntity.ok().eTag(EntityTags.of(email)).body(email);
+        }).subscribeOn(Schedulers.boundedElastic()));
+  }
+
+  @Override
+  public Mono<ResponseEntity<Resource>> getAttachment(String accountName, String emailRef,
+      String sha256) {
+    return requireAccount(accountName).then(Mono.fromCallable(() -> {
+      Attachment attachment = accounts.get(accountName, emailRef)
+          .flatMap(email -> EmailServiceImpl.attachmentOf(email, sha256))
+          .filter(found -> blobs.contains(found.sha256()))
+          .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+              EmailServiceImpl.ATTACHMENT_NOT_FOUND));
+      // A file resource goes out through a zero-copy file region on Netty
+      return EmailServiceImpl.attachmentResponse(attachment)
+          .<Resource>body(new FileSystemResource(blobs.path(sha256)));
+    }));
+  }
+
+  /**
+   * Writes the content to the upload one buffer at a time, off the event loop, and commits it.
+   * The next buffer is only requested once the last one is written, so an upload holds on to no
+   * more than one buffer whatever its size.
+   */
+  private static Mono<BlobStore.Blob> store(BlobStore.Upload upload, Flux<DataBuffer> content) {
+    return content.concatMap(buffer -> Mono.fromCallable(() -> {
+              try (DataBuffer.ByteBufferIterator buffers = buffer.readableByteBuffers()) {
+                while (buffers.hasNext()) {
+                  upload.write(buffers.next());
+                }
+              }
+              return buffer;
+            })
+            .subscribeOn(Schedulers.boundedElastic())
+            .doFinally(signal -> DataBufferUtils.release(buffer)), 1)
+        .then(Mono.fromCallable(upload::commit).subscribeOn(Schedulers.boundedElastic()))
+        .onErrorMap(BlobStore.TooLargeException.class,
+            e -> new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage()));
+  }
+
+  private static void discard(BlobStore.Upload upload) {
+    try {
+      upload.close();
+    } catch (IOException e) {
+      log.warn("Could not discard an unfinished upload", e);
+    }
+  }
+
+  /**
+   * Checks that the account exists. A loaded account is checked on the calling thread; loading one
+   * lazily reads its files and may wait for the journal, so that happens on boundedElastic and
+   * never on an event loop.
+   */
+  private Mono<Void> requireAccount(String accountName) {
+    return Mono.defer(() -> {
+      if (accounts.isLoaded(accountName)) {
+        return Mono.empty();
+      }
+      return Mono.fromCallable(() -> accounts.hasAccount(accountName))
+          .subscribeOn(Schedulers.boundedElastic())
+          .flatMap(found -> found ? Mono.<Void>empty() : Mono.error(accountNotFound(accountName)));
+    });
+  }
+
+  private static ResponseStatusException accountNotFound(String accountName) {
+    log.error("Email account {} not found", accountName);
+    return new ResponseStatusException(HttpStatus.NOT_FOUND, "Email account not found");
+  }
+
+  /**
+   * Refuses the write early when the account is full. The store checks the quota again when the
+   * email is added, as concurrent writers may take the room in between.
+   */
+  private void requireRoom(String accountName) {
+    if (accounts.roomFor(accountName) < 1) {
+      throw mailboxFull(accountName);
+    }
+  }
+
+  private static ResponseStatusException mailboxFull(String accountName) {
+    log.error("Mailbox of account {} is full", accountName);
+    return new ResponseStatusException(HttpStatus.INSUFFICIENT_STORAGE,
+        EmailServiceImpl.MAILBOX_FULL);
+  }
+
+  /**
+   * Returns the cursor to start the feed from. Without one the client only wants what happens
+   * from now on.
+   */
+  private long resolveSince(String accountName, Long since) {
+    if (since == null) {
+      return changeFeed.cursor(accountName);
+    }
+    if (since < 0) {
+      throw badRequest("since must not be negative");
+    }
+    return since;
+  }
+
+  private static List<ServerSentEvent<Object>> toEvents(ChangePage page) {
+    List<ServerSentEvent<Object>> events = new ArrayList<>(page.events().size() + 1);
+    if (page.missed()) {
+      events.add(ServerSentEvent.builder().id(String.valueOf(page.cursor()))
+          .event(ChangeFeed.RESET_EVENT).data(page.cursor()).build());
+    }
+    for (ChangeEvent event : page.events()) {
+      events.add(ServerSentEvent.builder().id(String.valueOf(event.sequence()))
+          .event(ChangeFeed.eventName(event)).data(event).build());
+    }
+    return events;
+  }
+
+  private static ResponseStatusException badRequest(String message) {
+    log.error(message);
+    return new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
+  }
+}
@@ -0,0 +1,23 @@
+package nz.co.airnz.email.store;
+
+/**
+ * Loads accounts into a {@link MailboxStore} the first time they are asked for.
+ *
+ * <p>{@link #load} is called without any store lock held whenever the store is asked for an
+ * account it does not hold. It should add the account to the store if it knows it and do nothing
+ * otherwise. Concurrent calls for the same account must load it only once and return after it has
+ * been loaded.
+ */
+public interface AccountLoader {
+
+  AccountLoader NONE = accountName -> { };
+
+  void load(String accountName);
+
+  /**
+   * Returns whether the loader knows accounts it has not loaded into the store yet.
+   */
+  default boolean hasUnloadedAccounts() {
+    return false;
+  }
+}
@@ -0,0 +1,264 @@
+package nz.co.airnz.email.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import nz.co.airnz.email.model.EmailBody;
+
+/**
+ * Store of encoded email bodies in direct (native) memory.
+ *
+ * <p>Bodies are written one after the other into fixed-size chunks, and a stored body refers to
+ * its chunk and offset. Reads use absolute positions only, so they need no lock. Every chunk
+ * counts the bytes of the bodies in it that are still stored. A chunk whose last body is
+ * {@link #release released} is dropped, and its native memory is given back once no email read
+ * from it is referenced any more. Space in a chunk is never written twice, as a reader may still
+ * hold a body that was released. Chunks that are mostly released are emptied by
+ * {@link MailboxStore} moving their remaining bodies into new chunks once
+ * {@link #needsCompaction()} says so.
+ *
+ * <p>A body is laid out as its content followed by the to and cc lists. A string is its UTF-8
+ * length and bytes, a list its size followed by its strings, and -1 stands for null.
+ */
+final class BodyArena {
+
+  private static final int NULL = -1;
+  // Fraction of a chunk that has to be released before its bodies are moved out of it
+  private static final double COMPACTION_THRESHOLD = 0.5;
+
+  private final int chunkSize;
+  // Guarded by this
+  private final Set<Chunk> chunks = new HashSet<>();
+  private Chunk current;
+  private long allocatedBytes;
+  private long releasedBytes;
+
+  BodyArena(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Writes the body to native memory and returns one that reads it from there.
+   */
+  OffHeapBody store(EmailBody body) {
+    byte[] encoded = encode(body);
+    Chunk chunk;
+    int offset;
+    synchronized (this) {
+      if (current == null || current.buffer.remaining() < encoded.length) {
+        Chunk full = current;
+        current = new Chunk(ByteBuffer.allocateDirect(Math.max(chunkSize, encoded.length)));
+        chunks.add(current);
+        allocatedBytes += current.buffer.capacity();
+        if (full != null && full.liveBytes == 0) {
+          drop(full);
+        }
+      }
+      chunk = current;
+      offset = chunk.buffer.position();
+      chunk.buffer.put(encoded);
+      chunk.liveBytes += encoded.length;
+    }
+    return new OffHeapBody(this, chunk, offset, encoded.length);
+  }
+
+  /**
+   * Accounts for a body that is no longer stored, and drops its chunk once nothing in it is.
+   */
+  synchronized void release(OffHeapBody body) {
+    Chunk chunk = body.chunk();
+    chunk.liveBytes -= body.length();
+    releasedBytes += body.length();
+    if (chunk.liveBytes == 0 && chunk != current) {
+      drop(chunk);
+    }
+  }
+
+  private void drop(Chunk chunk) {
+    if (chunks.remove(chunk)) {
+      allocatedBytes -= chunk.buffer.capacity();
+      releasedBytes -= chunk.buffer.position();
+    }
+  }
+
+  /**
+   * Returns whether more than {@link #COMPACTION_THRESHOLD} of the full chunks has been released,
+   * in which case at least one of them {@link #isSparse is sparse}.
+   */
+  synchronized boolean needsCompaction() {
+    long full = 0;
+    long live = 0;
+    for (Chunk chunk : chunks) {
+      if (chunk != current) {
+        full += chunk.buffer.position();
+        live += chunk.liveBytes;
+      }
+    }
+    return full > 0 && full - live > full * COMPACTION_THRESHOLD;
+  }
+
+  /**
+   * Returns whether the body is in a full chunk of which more than {@link #COMPACTION_THRESHOLD}
+   * has been released, so it should be moved to a new one.
+   */
+  synchronized boolean isSparse(OffHeapBody body) {
+    Chunk chunk = body.chunk();
+    int used = chunk.buffer.position();
+    return chunk != current && chunks.contains(chunk)
+        && used - chunk.liveBytes > used * COMPACTION_THRESHOLD;
+  }
+
+  synchronized long allocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /**
+   * Returns the bytes of released bodies in chunks that are still allocated.
+   */
+  synchronized long releasedBytes() {
+    return releasedBytes;
+  }
+
+  String content(OffHeapBody body) {
+    return new Reader(body).string();
+  }
+
+  List<String> toList(OffHeapBody body) {
+    Reader reader = new Reader(body);
+    reader.skipString();
+    return reader.list();
+  }
+
+  List<String> ccList(OffHeapBody body) {
+    Reader reader = new Reader(body);
+    reader.skipString();
+    reader.skipList();
+    return reader.list();
+  }
+
+  private static byte[] encode(EmailBody body) {
+    List<byte[]> strings = new ArrayList<>();
+    int size = sizeOf(body.content(), strings) + sizeOf(body.toList(), strings)
+        + sizeOf(body.ccList(), strings);
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    int next = 0;
+    next = put(buffer, body.content() == null ? null : strings.get(next), next);
+    next = put(buffer, body.toList(), strings, next);
+    put(buffer, body.ccList(), strings, next);
+    return buffer.array();
+  }
+
+  private static int sizeOf(String value, List<byte[]> strings) {
+    if (value == null) {
+      return Integer.BYTES;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    strings.add(bytes);
+    return Integer.BYTES + bytes.length;
+  }
+
+  private static int sizeOf(List<String> values, List<byte[]> strings) {
+    int size = Integer.BYTES;
+    if (values != null) {
+      for (String value : values) {
+        size += sizeOf(value, strings);
+      }
+    }
+    return size;
+  }
+
+  private static int put(ByteBuffer buffer, byte[] bytes, int next) {
+    if (bytes == null) {
+      buffer.putInt(NULL);
+      return next;
+    }
+    buffer.putInt(bytes.length).put(bytes);
+    return next + 1;
+  }
+
+  private static int put(ByteBuffer buffer, List<String> values, List<byte[]> strings, int next) {
+    if (values == null) {
+      buffer.putInt(NULL);
+      return next;
+    }
+    buffer.putInt(values.size());
+    for (String value : values) {
+      next = put(buffer, value == null ? null : strings.get(next), next);
+    }
+    return next;
+  }
+
+  /**
+   * A block of native memory. Its position is where the next body goes.
+   */
+  static final class Chunk {
+
+    private final ByteBuffer buffer;
+    // Guarded by the arena
+    private int liveBytes;
+
+    private Chunk(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+  }
+
+  /**
+   * Walks one body with absolute reads, so any number of readers can share a chunk.
+   */
+  private static final class Reader {
+
+    private final ByteBuffer chunk;
+    private int position;
+
+    private Reader(OffHeapBody body) {
+      this.chunk = body.chunk().buffer;
+      this.position = body.offset();
+    }
+
+    private int nextInt() {
+      int value = chunk.getInt(position);
+      position += Integer.BYTES;
+      return value;
+    }
+
+    private String string() {
+      int length = nextInt();
+      if (length == NULL) {
+        return null;
+      }
+      byte[] bytes = new byte[length];
+      chunk.get(position, bytes);
+      position += length;
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void skipString() {
+      int length = nextInt();
+      if (length != NULL) {
+        position += length;
+      }
+    }
+
+    private List<String> list() {
+      int size = nextInt();
+      if (size == NULL) {
+        return null;
+      }
+      List<String> values = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        values.add(string());
+      }
+      return values;
+    }
+
+    private void skipList() {
+      int size = nextInt();
+      for (int i = 0; i < size; i++) {
+        skipString();
+      }
+    }
+  }
+}
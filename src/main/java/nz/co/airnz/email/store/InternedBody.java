@@ -0,0 +1,45 @@
+package nz.co.airnz.email.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import nz.co.airnz.email.model.EmailBody;
+
+/**
+ * An email body whose recipients are the shared copies handed out by a
+ * {@link RecipientDictionary}.
+ */
+record InternedBody(String content, String[] to, String[] cc, RecipientDictionary dictionary)
+    implements EmailBody {
+
+  static InternedBody of(EmailBody body, RecipientDictionary dictionary) {
+    return new InternedBody(body.content(), dictionary.intern(body.toList()),
+        dictionary.intern(body.ccList()), dictionary);
+  }
+
+  /**
+   * Counts another use of the recipients, for the body being stored once more.
+   */
+  void retain() {
+    dictionary.retain(to);
+    dictionary.retain(cc);
+  }
+
+  /**
+   * Gives the recipients back to the dictionary once the body is no longer stored.
+   */
+  void release() {
+    dictionary.release(to);
+    dictionary.release(cc);
+  }
+
+  @Override
+  public List<String> toList() {
+    return to == null ? null : Collections.unmodifiableList(Arrays.asList(to));
+  }
+
+  @Override
+  public List<String> ccList() {
+    return cc == null ? null : Collections.unmodifiableList(Arrays.asList(cc));
+  }
+}
@@ -0,0 +1,18 @@
+package nz.co.airnz.email.store;
+
+import nz.co.airnz.email.model.Email;
+
+/**
+ * Notified of every email a {@link MailboxStore} adds or changes, and of accounts it removes.
+ *
+ * <p>Called while the account's stripe lock is held, so notifications for one account arrive in
+ * the order the changes were applied. Implementations must be quick and must not call back into the
+ * store.
+ */
+public interface MailboxListener {
+
+  void emailStored(String accountName, Email email);
+
+  default void accountRemoved(String accountName) {
+  }
+}
@@ -0,0 +1,10 @@
+package nz.co.airnz.email.store;
+
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+
+/**
+ * A slice of a mailbox in insertion order. {@code lastSequence} is the index position of the last
+ * email in the slice and is what the next slice should start after.
+ */
+public record MailboxPage(List<Email> emails, long lastSequence, boolean hasMore) { }
@@ -0,0 +1,721 @@
+package nz.co.airnz.email.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailBody;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Thread-safe in-memory store of every account's mailbox.
+ *
+ * <p>Lookups never lock. Mutations take one of a fixed set of striped locks chosen by the
+ * account name, so writers to different accounts rarely contend. Emails are immutable, and a
+ * change stores a new email in place of the old one with a single map write, so a lookup returns
+ * either the old email or the new one and never a mix of both. Each mailbox keeps an
+ * insertion-ordered index that can be iterated while writers keep appending to it.
+ *
+ * <p>When a {@link MutationLog} is attached, every put and update is handed to it under the stripe
+ * lock and applied only once the log reports it as durable, still under the lock. A change the
+ * log fails to make durable is never applied, so readers never see a change the caller was told
+ * failed. Writes to one account therefore wait for the log one after another, while writes to
+ * accounts on other stripes share the log's group commits. Registered {@link MailboxListener}s are
+ * notified under the same lock. Removing an account goes through both as well.
+ *
+ * <p>Every mailbox has a version that goes up with each change to it, and {@link #update} bumps
+ * the version of the email it changes, so callers can tell whether what they hold is current.
+ *
+ * <p>When an {@link AccountLoader} is attached, an account the store does not hold yet is offered
+ * to it before the store reports the account as missing.
+ *
+ * <p>With {@link MailboxStoreProperties#offHeapBodies()} the content and recipients of every
+ * stored email are moved to a {@link BodyArena} in native memory, which keeps large mailboxes off
+ * the garbage collector's books. The store keeps copies of the emails that read their body back
+ * on demand. Once much of the arena belongs to bodies that were replaced or removed, the writer
+ * that notices moves the bodies left in those chunks to new ones, so the old chunks can be freed.
+ * Otherwise, with {@link MailboxStoreProperties#internRecipients()}, recipients are shared
+ * copies from a {@link RecipientDictionary}, so an address appears once however many emails it is
+ * on. The dictionary drops an address once no stored email is sent to it.
+ */
+@Component
+public class MailboxStore {
+
+  private static final int DEFAULT_STRIPES = 64;
+  // Rough heap cost of an email besides its strings: the objects, map entries and index node
+  private static final int EMAIL_OVERHEAD_BYTES = 200;
+  private static final int STRING_OVERHEAD_BYTES = 40;
+
+  private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+  private final ReentrantLock[] stripes;
+  private final int stripeMask;
+  private volatile MutationLog mutationLog = MutationLog.NONE;
+  private volatile AccountLoader accountLoader = AccountLoader.NONE;
+  private final List<MailboxListener> listeners = new CopyOnWriteArrayList<>();
+  private final BodyArena arena;
+  private final RecipientDictionary recipients;
+  private final LongAdder heapBytes = new LongAdder();
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private final int maxEmailsPerAccount;
+
+  public MailboxStore() {
+    this(DEFAULT_STRIPES);
+  }
+
+  public MailboxStore(int stripeCount) {
+    this(stripeCount, MailboxStoreProperties.defaults());
+  }
+
+  @Autowired
+  public MailboxStore(MailboxStoreProperties properties) {
+    this(DEFAULT_STRIPES, properties);
+  }
+
+  public MailboxStore(int stripeCount, MailboxStoreProperties properties) {
+    int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+    this.stripes = new ReentrantLock[size];
+    for (int i = 0; i < size; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+    this.stripeMask = size - 1;
+    this.arena = properties.offHeapBodies()
+        ? new BodyArena((int) Math.min(Integer.MAX_VALUE, properties.chunkSize().toBytes()))
+        : null;
+    this.maxEmailsPerAccount = properties.maxEmailsPerAccount();
+    this.recipients = arena == null && properties.internRecipients()
+        ? new RecipientDictionary()
+        : null;
+  }
+
+  public void setMutationLog(MutationLog mutationLog) {
+    this.mutationLog = mutationLog == null ? MutationLog.NONE : mutationLog;
+  }
+
+  public void addListener(MailboxListener listener) {
+    listeners.add(listener);
+  }
+
+  public void setAccountLoader(AccountLoader accountLoader) {
+    this.accountLoader = accountLoader == null ? AccountLoader.NONE : accountLoader;
+  }
+
+  public boolean hasAccount(String accountName) {
+    return accountName != null && mailbox(accountName) != null;
+  }
+
+  /**
+   * Returns whether the store holds the account already. Unlike {@link #hasAccount} it does not
+   * offer a missing account to the {@link AccountLoader}, so it never reads files or blocks, and
+   * can be called on an event loop.
+   */
+  public boolean isLoaded(String accountName) {
+    return accountName != null && mailboxes.containsKey(accountName);
+  }
+
+  /**
+   * Returns whether the {@link AccountLoader} knows accounts the store does not hold yet.
+   */
+  public boolean hasUnloadedAccounts() {
+    return accountLoader.hasUnloadedAccounts();
+  }
+
+  /**
+   * Creates an empty mailbox for the account unless one already exists.
+   */
+  public void createAccount(String accountName) {
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      mailboxes.computeIfAbsent(accountName, name -> new Mailbox());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Adds the emails to the account in the given order, creating the account if needed. Emails
+   * whose reference the account already holds are skipped. A new account only becomes visible
+   * once all of its emails are in place.
+   *
+   * @return the number of emails added
+   */
+  public int seed(String accountName, Collection<Email> emails) {
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      Mailbox existing = mailboxes.get(accountName);
+      Mailbox mailbox = existing == null ? new Mailbox() : existing;
+      Map<String, Email> added = new LinkedHashMap<>();
+      for (Email email : emails) {
+        if (!mailbox.emails.containsKey(email.getEmailRef())) {
+          added.putIfAbsent(email.getEmailRef(), email);
+        }
+      }
+      awaitDurable(accountName, added.values());
+      for (Email email : added.values()) {
+        Email stored = stored(email);
+        mailbox.emails.put(email.getEmailRef(), stored);
+        mailbox.order.put(mailbox.nextSequence++, email.getEmailRef());
+        mailbox.version++;
+        heapBytes.add(heapBytes(stored));
+        notifyStored(accountName, stored);
+      }
+      if (existing == null) {
+        mailboxes.put(accountName, mailbox);
+      }
+      return added.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the account and returns its emails in insertion order, for example to hand the
+   * account over to another node. Writes to the account that are already in progress when it is
+   * removed fail as if it did not exist.
+   *
+   * @return the removed emails, or empty when the store does not hold the account
+   */
+  public List<Email> removeAccount(String accountName) {
+    List<Email> removed;
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      if (!mailboxes.containsKey(accountName)) {
+        return Collections.emptyList();
+      }
+      mutationLog.accountRemoved(accountName).join();
+      Mailbox mailbox = mailboxes.remove(accountName);
+      mailbox.removed = true;
+      removed = new ArrayList<>(mailbox.emails.size());
+      for (String emailRef : mailbox.order.values()) {
+        Email email = mailbox.emails.get(emailRef);
+        removed.add(email);
+        heapBytes.add(-heapBytes(email));
+        release(email, null);
+      }
+      for (MailboxListener listener : listeners) {
+        listener.accountRemoved(accountName);
+      }
+    } finally {
+      lock.unlock();
+    }
+    compactIfNeeded();
+    return removed;
+  }
+
+  /**
+   * Stops writes to the account until it is {@link #unfence unfenced} or removed; they fail as if
+   * the account did not exist, while lookups go on as before. Writes in progress finish first, so
+   * once this returns the account's emails stay as they are. Nothing is logged, so a restart lifts
+   * the fence. Used to copy an account to another node without missing a write.
+   *
+   * @return false when the store does not hold the account
+   */
+  public boolean fence(String accountName) {
+    return setFenced(accountName, true);
+  }
+
+  /**
+   * Lets writes to an account that was {@link #fence fenced} go ahead again.
+   */
+  public void unfence(String accountName) {
+    setFenced(accountName, false);
+  }
+
+  private boolean setFenced(String accountName, boolean fenced) {
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      Mailbox mailbox = mailboxes.get(accountName);
+      if (mailbox == null) {
+        return false;
+      }
+      mailbox.fenced = fenced;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the accounts the store holds. Accounts an {@link AccountLoader} has not loaded yet
+   * are not included.
+   */
+  public Set<String> accountNames() {
+    return Collections.unmodifiableSet(mailboxes.keySet());
+  }
+
+  /**
+   * Returns the version of the account's mailbox, or -1 when the account does not exist.
+   */
+  public long version(String accountName) {
+    Mailbox mailbox = mailbox(accountName);
+    return mailbox == null ? -1 : mailbox.version;
+  }
+
+  public int size(String accountName) {
+    Mailbox mailbox = mailbox(accountName);
+    return mailbox == null ? 0 : mailbox.emails.size();
+  }
+
+  /**
+   * Returns the number of emails of all accounts the store holds. Accounts an
+   * {@link AccountLoader} has not loaded yet are not counted, and none is loaded.
+   */
+  public long emailCount() {
+    long emails = 0;
+    for (Mailbox mailbox : mailboxes.values()) {
+      emails += mailbox.emails.size();
+    }
+    return emails;
+  }
+
+  /**
+   * Returns how many more emails the account may take under
+   * {@link MailboxStoreProperties#maxEmailsPerAccount()}. Callers may check it to refuse a write
+   * early, but only {@link #putAllWithinQuota} enforces the quota; by the time they write,
+   * concurrent writers may have taken the room.
+   */
+  public int roomFor(String accountName) {
+    if (maxEmailsPerAccount <= 0) {
+      return Integer.MAX_VALUE;
+    }
+    return Math.max(0, maxEmailsPerAccount - size(accountName));
+  }
+
+  public Optional<Email> get(String accountName, String emailRef) {
+    Mailbox mailbox = mailbox(accountName);
+    if (mailbox == null || emailRef == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(mailbox.emails.get(emailRef));
+  }
+
+  /**
+   * Returns the email references of the account in insertion order. The copy is taken from a
+   * weakly consistent view, so it never blocks concurrent writers.
+   */
+  public List<String> emailRefs(String accountName) {
+    Mailbox mailbox = mailbox(accountName);
+    if (mailbox == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<>(mailbox.order.values());
+  }
+
+  /**
+   * Returns up to {@code limit} emails that were inserted after the given index position. The
+   * lookup starts directly at {@code afterSequence} in the index, so the cost depends on the page
+   * size and not on the size of the mailbox. Use -1 to start from the oldest email.
+   */
+  public MailboxPage page(String accountName, long afterSequence, int limit) {
+    Mailbox mailbox = mailbox(accountName);
+    if (mailbox == null) {
+      return new MailboxPage(Collections.emptyList(), afterSequence, false);
+    }
+    List<Email> emails = new ArrayList<>(limit);
+    long lastSequence = afterSequence;
+    Iterator<Map.Entry<Long, String>> entries =
+        mailbox.order.tailMap(afterSequence, false).entrySet().iterator();
+    while (emails.size() < limit && entries.hasNext()) {
+      Map.Entry<Long, String> entry = entries.next();
+      Email email = mailbox.emails.get(entry.getValue());
+      if (email != null) {
+        emails.add(email);
+        lastSequence = entry.getKey();
+      }
+    }
+    return new MailboxPage(emails, lastSequence, entries.hasNext());
+  }
+
+  /**
+   * Stores the email under its reference. Replacing an existing email keeps its original
+   * position in the insertion order.
+   *
+   * @return false when the account does not exist
+   */
+  public boolean put(String accountName, Email email) {
+    Mailbox mailbox = mailbox(accountName);
+    if (mailbox == null) {
+      return false;
+    }
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      if (!mailbox.writable()) {
+        return false;
+      }
+      mutationLog.append(accountName, email).join();
+      Email stored = stored(email);
+      Email previous = mailbox.emails.put(email.getEmailRef(), stored);
+      if (previous == null) {
+        mailbox.order.put(mailbox.nextSequence++, email.getEmailRef());
+      }
+      mailbox.version++;
+      release(previous, stored);
+      heapBytes.add(heapBytes(stored) - heapBytes(previous));
+      notifyStored(accountName, stored);
+    } finally {
+      lock.unlock();
+    }
+    compactIfNeeded();
+    return true;
+  }
+
+  /**
+   * Stores all emails under one acquisition of the account's stripe lock, in the given order,
+   * with the same semantics as {@link #put} for each of them.
+   *
+   * @return false when the account does not exist
+   */
+  public boolean putAll(String accountName, Collection<Email> emails) {
+    return putAll(accountName, emails, false) >= 0;
+  }
+
+  /**
+   * Stores the emails like {@link #putAll}, but only as many of them as the account has room for
+   * under {@link MailboxStoreProperties#maxEmailsPerAccount()}. The room is checked under the
+   * account's stripe lock, so concurrent writers cannot take the account over its quota together.
+   * An email that replaces one the account holds takes no room. Meant for emails from clients;
+   * replaying a journal or handing an account over uses {@link #putAll}, which ignores the quota.
+   *
+   * @return how many emails were stored, always the first ones, or -1 when the account does not
+   *     exist
+   */
+  public int putAllWithinQuota(String accountName, Collection<Email> emails) {
+    return putAll(accountName, emails, true);
+  }
+
+  private int putAll(String accountName, Collection<Email> emails, boolean withinQuota) {
+    Mailbox mailbox = mailbox(accountName);
+    if (mailbox == null) {
+      return -1;
+    }
+    int count;
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      if (!mailbox.writable()) {
+        return -1;
+      }
+      Collection<Email> fitting = withinQuota ? fitting(mailbox, emails) : emails;
+      awaitDurable(accountName, fitting);
+      for (Email email : fitting) {
+        Email stored = stored(email);
+        Email previous = mailbox.emails.put(email.getEmailRef(), stored);
+        if (previous == null) {
+          mailbox.order.put(mailbox.nextSequence++, email.getEmailRef());
+        }
+        mailbox.version++;
+        release(previous, stored);
+        heapBytes.add(heapBytes(stored) - heapBytes(previous));
+        notifyStored(accountName, stored);
+      }
+      count = fitting.size();
+    } finally {
+      lock.unlock();
+    }
+    compactIfNeeded();
+    return count;
+  }
+
+  /**
+   * Returns the first of the emails that fit in the mailbox's room. Called under the account's
+   * stripe lock.
+   */
+  private List<Email> fitting(Mailbox mailbox, Collection<Email> emails) {
+    long room = maxEmailsPerAccount <= 0
+        ? Long.MAX_VALUE
+        : (long) maxEmailsPerAccount - mailbox.emails.size();
+    List<Email> fitting = new ArrayList<>(emails.size());
+    Set<String> added = new HashSet<>();
+    for (Email email : emails) {
+      if (!mailbox.emails.containsKey(email.getEmailRef()) && added.add(email.getEmailRef())
+          && room-- <= 0) {
+        break;
+      }
+      fitting.add(email);
+    }
+    return fitting;
+  }
+
+  /**
+   * Stores the email unless the account already holds an email with the same reference.
+   *
+   * @return false when the account does not exist or the reference is already taken
+   */
+  public boolean putIfAbsent(String accountName, Email email) {
+    Mailbox mailbox = mailbox(accountName);
+    if (mailbox == null) {
+      return false;
+    }
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      // Every writer of the account holds the lock, so nothing can take the reference in between
+      if (!mailbox.writable() || mailbox.emails.containsKey(email.getEmailRef())) {
+        return false;
+      }
+      mutationLog.append(accountName, email).join();
+      Email stored = stored(email);
+      mailbox.emails.put(email.getEmailRef(), stored);
+      mailbox.order.put(mailbox.nextSequence++, email.getEmailRef());
+      mailbox.version++;
+      heapBytes.add(heapBytes(stored));
+      notifyStored(accountName, stored);
+    } finally {
+      lock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Stores the copy the mutation makes of the stored email in its place, with the next version,
+   * while holding the account's stripe lock, so concurrent updates to the same email are never
+   * lost or interleaved. Readers keep the email they already hold and see the copy from their
+   * next lookup on. A mutation that throws leaves the stored email as it was, which lets it check
+   * a precondition first. The mutation must keep the email's reference.
+   *
+   * @return the updated email, or empty when the account or email does not exist
+   */
+  public Optional<Email> update(String accountName, String emailRef,
+      UnaryOperator<Email> mutation) {
+    Mailbox mailbox = mailbox(accountName);
+    if (mailbox == null || emailRef == null) {
+      return Optional.empty();
+    }
+    Email email;
+    ReentrantLock lock = stripeFor(accountName);
+    lock.lock();
+    try {
+      Email previous = !mailbox.writable() ? null : mailbox.emails.get(emailRef);
+      if (previous == null) {
+        return Optional.empty();
+      }
+      Email changed = mutation.apply(previous).withVersion(previous.getVersion() + 1);
+      mutationLog.append(accountName, changed).join();
+      email = stored(changed);
+      mailbox.emails.put(emailRef, email);
+      mailbox.version++;
+      release(previous, email);
+      heapBytes.add(heapBytes(email) - heapBytes(previous));
+      notifyStored(accountName, email);
+    } finally {
+      lock.unlock();
+    }
+    compactIfNeeded();
+    return Optional.of(email);
+  }
+
+  /**
+   * Hands the emails to the mutation log and waits until all of them are durable. Called under
+   * the account's stripe lock before the emails are applied.
+   */
+  private void awaitDurable(String accountName, Collection<Email> emails) {
+    List<CompletableFuture<?>> durable = new ArrayList<>(emails.size());
+    for (Email email : emails) {
+      durable.add(mutationLog.append(accountName, email));
+    }
+    CompletableFuture.allOf(durable.toArray(new CompletableFuture<?>[0])).join();
+  }
+
+  /**
+   * Waits until every change that has been handed to the mutation log so far has been applied
+   * to the store, or has failed. Writers keep their stripe lock from handing a change to the log
+   * until it is applied, so taking every lock once is enough.
+   */
+  public void awaitLoggedChanges() {
+    for (ReentrantLock stripe : stripes) {
+      stripe.lock();
+      stripe.unlock();
+    }
+  }
+
+  /**
+   * Returns the email as the store keeps it: a copy whose body is in the arena or refers to the
+   * recipient dictionary, if there is one, or the email itself when it is kept that way already.
+   */
+  private Email stored(Email email) {
+    EmailBody body = email.getBody();
+    if (recipients != null) {
+      if (body instanceof InternedBody interned && interned.dictionary() == recipients) {
+        // Stored once more, e.g. put back under its own reference, so it uses its recipients again
+        interned.retain();
+        return email;
+      }
+      return email.withBody(InternedBody.of(body, recipients));
+    }
+    if (arena == null || body instanceof OffHeapBody offHeap && offHeap.arena() == arena) {
+      // Also an email stored again unchanged, e.g. put back under its own reference
+      return email;
+    }
+    return email.withBody(arena.store(body));
+  }
+
+  /**
+   * Gives back what the body of an email that was replaced or removed holds: its uses of the
+   * recipient dictionary, or its arena space unless the replacement still uses it.
+   */
+  private void release(Email previous, Email stored) {
+    if (previous == null) {
+      return;
+    }
+    EmailBody body = previous.getBody();
+    if (body instanceof InternedBody interned) {
+      interned.release();
+    } else if (arena != null && body instanceof OffHeapBody offHeap
+        && (stored == null || stored.getBody() != body)) {
+      arena.release(offHeap);
+    }
+  }
+
+  /**
+   * Moves the bodies left in mostly released arena chunks to new chunks, so the arena can drop the
+   * old ones. Called by writers once they have let go of their stripe lock. One writer compacts at
+   * a time and takes one stripe lock after the other, so writes to other accounts go on meanwhile.
+   * A moved email keeps its version and listeners are not told, as nothing they see has changed.
+   */
+  private void compactIfNeeded() {
+    if (arena == null || !arena.needsCompaction() || !compacting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      for (Map.Entry<String, Mailbox> account : mailboxes.entrySet()) {
+        Mailbox mailbox = account.getValue();
+        ReentrantLock lock = stripeFor(account.getKey());
+        lock.lock();
+        try {
+          if (mailbox.removed) {
+            continue;
+          }
+          for (Email email : mailbox.emails.values()) {
+            if (email.getBody() instanceof OffHeapBody offHeap && arena.isSparse(offHeap)) {
+              mailbox.emails.put(email.getEmailRef(), email.withBody(arena.store(offHeap)));
+              arena.release(offHeap);
+            }
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
+    } finally {
+      compacting.set(false);
+    }
+  }
+
+  /**
+   * Returns the bytes of native memory taken by email bodies, or 0 when they are kept on the heap.
+   * Chunks that were freed may stay in memory until the emails last read from them are collected.
+   */
+  public long offHeapBytes() {
+    return arena == null ? 0 : arena.allocatedBytes();
+  }
+
+  /**
+   * Returns a rough estimate of the heap taken by the stored emails and the recipient dictionary.
+   * It is kept up to date as emails are stored, so reading it costs nothing.
+   */
+  public long estimatedHeapBytes() {
+    return heapBytes.sum() + (recipients == null ? 0 : recipients.heapBytes());
+  }
+
+  private static long heapBytes(Email email) {
+    if (email == null) {
+      return 0;
+    }
+    long bytes = EMAIL_OVERHEAD_BYTES + heapBytes(email.getEmailRef())
+        + heapBytes(email.getSubject()) + heapBytes(email.getSender());
+    EmailBody body = email.getBody();
+    if (body instanceof InternedBody interned) {
+      bytes += heapBytes(interned.content()) + references(interned.to()) + references(interned.cc());
+    } else if (!(body instanceof OffHeapBody)) {
+      bytes += heapBytes(body.content()) + heapBytes(body.toList()) + heapBytes(body.ccList());
+    }
+    return bytes;
+  }
+
+  private static long heapBytes(String value) {
+    // Compact strings take a byte per character as long as they are Latin-1
+    return value == null ? 0 : STRING_OVERHEAD_BYTES + value.length();
+  }
+
+  private static long heapBytes(List<String> values) {
+    if (values == null) {
+      return 0;
+    }
+    long bytes = STRING_OVERHEAD_BYTES;
+    for (String value : values) {
+      bytes += Integer.BYTES + heapBytes(value);
+    }
+    return bytes;
+  }
+
+  private static long references(String[] addresses) {
+    // The addresses themselves are counted by the dictionary
+    return addresses == null ? 0 : 16 + (long) Integer.BYTES * addresses.length;
+  }
+
+  /**
+   * Returns the number of distinct recipient addresses the store holds, or 0 when they are not
+   * interned.
+   */
+  public int recipientCount() {
+    return recipients == null ? 0 : recipients.size();
+  }
+
+  private void notifyStored(String accountName, Email email) {
+    for (MailboxListener listener : listeners) {
+      listener.emailStored(accountName, email);
+    }
+  }
+
+  private Mailbox mailbox(String accountName) {
+    Mailbox mailbox = mailboxes.get(accountName);
+    if (mailbox == null) {
+      accountLoader.load(accountName);
+      mailbox = mailboxes.get(accountName);
+    }
+    return mailbox;
+  }
+
+  private ReentrantLock stripeFor(String accountName) {
+    int hash = accountName.hashCode();
+    return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+  }
+
+  private static final class Mailbox {
+
+    private final ConcurrentMap<String, Email> emails = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, String> order = new ConcurrentSkipListMap<>();
+    // Guarded by the account's stripe lock
+    private long nextSequence;
+    // Written under the account's stripe lock, read without it
+    private volatile long version;
+    // Guarded by the account's stripe lock
+    private boolean removed;
+    // Guarded by the account's stripe lock
+    private boolean fenced;
+
+    private boolean writable() {
+      return !removed && !fenced;
+    }
+  }
+}
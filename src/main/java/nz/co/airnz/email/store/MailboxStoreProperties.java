@@ -0,0 +1,29 @@
+package nz.co.airnz.email.store;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings of the mailbox store, bound from {@code email.store.*}.
+ *
+ * @param offHeapBodies       keep the content and recipients of stored emails outside the Java
+ *                            heap
+ * @param chunkSize           size of each block of native memory the bodies are written to; the
+ *                            JVM's {@code -XX:MaxDirectMemorySize} has to leave room for all of
+ *                            them
+ * @param internRecipients    share one copy of every recipient address between the emails on the
+ *                            heap; has no effect with off-heap bodies
+ * @param maxEmailsPerAccount emails one account may hold before sends and drafts are refused, 0
+ *                            for no limit
+ */
+@ConfigurationProperties(prefix = "email.store")
+public record MailboxStoreProperties(@DefaultValue("false") boolean offHeapBodies,
+                                     @DefaultValue("64MB") DataSize chunkSize,
+                                     @DefaultValue("true") boolean internRecipients,
+                                     @DefaultValue("0") int maxEmailsPerAccount) {
+
+  public static MailboxStoreProperties defaults() {
+    return new MailboxStoreProperties(false, DataSize.ofMegabytes(64), true, 0);
+  }
+}
@@ -0,0 +1,28 @@
+package nz.co.airnz.email.store;
+
+import java.util.concurrent.CompletableFuture;
+import nz.co.airnz.email.model.Email;
+
+/**
+ * Receives every change made to a {@link MailboxStore}.
+ *
+ * <p>{@link #append} is called while the account's stripe lock is held, before the change is
+ * applied, so changes to one account reach the log in the order they are applied. It must capture
+ * the email's state and return without blocking. The store then waits on the returned future,
+ * still under the lock, and applies the change only when it completes normally; the future must
+ * therefore complete, normally or not, without needing any store lock.
+ */
+public interface MutationLog {
+
+  MutationLog NONE = (accountName, email) -> CompletableFuture.completedFuture(null);
+
+  CompletableFuture<?> append(String accountName, Email email);
+
+  /**
+   * Records that the account and all of its emails were removed, with the same contract as
+   * {@link #append}.
+   */
+  default CompletableFuture<?> accountRemoved(String accountName) {
+    return CompletableFuture.completedFuture(null);
+  }
+}
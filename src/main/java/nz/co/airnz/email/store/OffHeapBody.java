@@ -0,0 +1,27 @@
+package nz.co.airnz.email.store;
+
+import java.util.List;
+import nz.co.airnz.email.model.EmailBody;
+
+/**
+ * An email body kept in a {@link BodyArena}. Only its place in the arena stays on the heap; every
+ * accessor decodes its part of the body again. Holding the body keeps its chunk allocated.
+ */
+record OffHeapBody(BodyArena arena, BodyArena.Chunk chunk, int offset, int length)
+    implements EmailBody {
+
+  @Override
+  public String content() {
+    return arena.content(this);
+  }
+
+  @Override
+  public List<String> toList() {
+    return arena.toList(this);
+  }
+
+  @Override
+  public List<String> ccList() {
+    return arena.ccList(this);
+  }
+}
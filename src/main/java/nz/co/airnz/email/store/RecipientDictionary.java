@@ -0,0 +1,102 @@
+package nz.co.airnz.email.store;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out one shared copy of every recipient address the stored emails are sent to, so an
+ * address is held once however many emails it is on.
+ *
+ * <p>Each address counts the stored emails that {@link #intern} it, once per appearance, and is
+ * dropped when the last of them is {@link #release released}. The dictionary therefore holds the
+ * addresses of the emails in the store and no more. Emails keep the address strings themselves,
+ * so one that was released still reads its recipients after they are dropped.
+ */
+final class RecipientDictionary {
+
+  // Rough heap cost of an address besides its characters: the string, map entry and count
+  private static final int ADDRESS_OVERHEAD_BYTES = 100;
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong heapBytes = new AtomicLong();
+
+  int size() {
+    return entries.size();
+  }
+
+  long heapBytes() {
+    return heapBytes.get();
+  }
+
+  /**
+   * Returns the shared copies of the addresses and counts one more use of each of them.
+   */
+  String[] intern(List<String> addresses) {
+    if (addresses == null) {
+      return null;
+    }
+    String[] result = new String[addresses.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = intern(addresses.get(i));
+    }
+    return result;
+  }
+
+  private String intern(String address) {
+    if (address == null) {
+      return null;
+    }
+    return entries.compute(address, (key, entry) -> {
+      if (entry == null) {
+        entry = new Entry(key);
+        heapBytes.addAndGet(ADDRESS_OVERHEAD_BYTES + key.length());
+      }
+      entry.uses++;
+      return entry;
+    }).address;
+  }
+
+  /**
+   * Counts one more use of each of the addresses, which were returned by {@link #intern}.
+   */
+  void retain(String[] addresses) {
+    if (addresses != null) {
+      for (String address : addresses) {
+        intern(address);
+      }
+    }
+  }
+
+  /**
+   * Counts one use less of each of the addresses, which were returned by {@link #intern}.
+   */
+  void release(String[] addresses) {
+    if (addresses == null) {
+      return;
+    }
+    for (String address : addresses) {
+      if (address != null) {
+        entries.computeIfPresent(address, (key, entry) -> {
+          if (--entry.uses > 0) {
+            return entry;
+          }
+          heapBytes.addAndGet(-(ADDRESS_OVERHEAD_BYTES + key.length()));
+          return null;
+        });
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    private final String address;
+    // Only changed inside the map's compute functions
+    private int uses;
+
+    private Entry(String address) {
+      this.address = address;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package nz.co.airnz.email;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import nz.co.airnz.email.cluster.AccountRebalancer;
+import nz.co.airnz.email.cluster.HashRing;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Runs two nodes on localhost and joins them into one cluster, as an operator would.
+ */
+class ClusterIntegrationTest {
+
+  private static final String ACCOUNT_PATH = "/api/v1/email/account/";
+  private static final String SECRET = "cluster-test-secret";
+
+  private final HttpClient client = HttpClient.newHttpClient();
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private ConfigurableApplicationContext first;
+  private ConfigurableApplicationContext second;
+
+  @AfterEach
+  void tearDown() {
+    if (first != null) {
+      first.close();
+    }
+    if (second != null) {
+      second.close();
+    }
+  }
+
+  @DisplayName("Hand accounts over to their owner when a node joins and redirect to it")
+  @Test
+  void joiningNodeTakesOverItsAccounts() throws Exception {
+    first = start();
+    second = start();
+    String firstUrl = url(first);
+    String secondUrl = url(second);
+
+    // Both nodes start on their own and hold every account; the one that is about to lose
+    // pJo001 takes a draft for it
+    String owner = HashRing.of(List.of(firstUrl, secondUrl), 128).owner("pJo001");
+    String other = owner.equals(firstUrl) ? secondUrl : firstUrl;
+    HttpResponse<String> draft = send(HttpRequest.newBuilder(
+            URI.create(other + ACCOUNT_PATH + "pJo001/draft"))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString("{\"subject\":\"Moved draft\"}")));
+    assertEquals(201, draft.statusCode());
+
+    String nodes = objectMapper.writeValueAsString(List.of(firstUrl, secondUrl));
+    HttpResponse<String> refused = send(HttpRequest.newBuilder(
+            URI.create(firstUrl + "/api/v1/cluster/nodes"))
+        .header("Content-Type", "application/json")
+        .PUT(HttpRequest.BodyPublishers.ofString(nodes)));
+    assertEquals(403, refused.statusCode());
+
+    HttpResponse<String> joined = send(HttpRequest.newBuilder(
+            URI.create(firstUrl + "/api/v1/cluster/nodes"))
+        .header("Content-Type", "application/json")
+        .header(AccountRebalancer.SECRET_HEADER, SECRET)
+        .PUT(HttpRequest.BodyPublishers.ofString(nodes)));
+    assertEquals(202, joined.statusCode());
+
+    // The node that was not asked hears about the change in the background
+    HttpResponse<String> redirect = null;
+    for (int attempt = 0; attempt < 100 && (redirect == null || redirect.statusCode() == 200);
+        attempt++) {
+      if (redirect != null) {
+        Thread.sleep(100);
+      }
+      redirect = send(HttpRequest.newBuilder(
+          URI.create(other + ACCOUNT_PATH + "pJo001?x=1")).GET());
+    }
+    assertEquals(307, redirect.statusCode());
+    assertEquals(owner + ACCOUNT_PATH + "pJo001?x=1",
+        redirect.headers().firstValue("Location").orElseThrow());
+
+    // The handover runs in the background, the draft arrives with the rest of the account
+    List<String> emailRefs = List.of();
+    for (int attempt = 0; attempt < 100 && emailRefs.size() < 4; attempt++) {
+      Thread.sleep(100);
+      emailRefs = objectMapper.readValue(send(HttpRequest.newBuilder(
+          URI.create(owner + ACCOUNT_PATH + "pJo001")).GET()).body(), new TypeReference<>() { });
+    }
+    assertEquals(4, emailRefs.size(), emailRefs::toString);
+    assertTrue(emailRefs.containsAll(List.of("emailRef1", "emailRef2", "emailRef3")));
+
+    HttpResponse<String> view = send(HttpRequest.newBuilder(
+        URI.create(secondUrl + "/api/v1/cluster/nodes")).GET());
+    assertTrue(view.body().contains(firstUrl) && view.body().contains(secondUrl), view.body());
+  }
+
+  private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+    return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private static ConfigurableApplicationContext start() {
+    // Arguments, since application.properties takes precedence over default properties
+    return new SpringApplicationBuilder(EmailApplication.class)
+        .run("--server.port=0", "--email.cluster.enabled=true", "--email.cluster.secret=" + SECRET,
+            "--logging.level.nz.co.airnz=WARN");
+  }
+
+  private static String url(ConfigurableApplicationContext context) {
+    return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+  }
+}
@@ -4,33 +4,57 @@
 
 package nz.co.airnz.email;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Attachment;
+import nz.co.airnz.email.model.ChangeEvent;
+import nz.co.airnz.email.model.ChangePage;
 import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
 import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.FetchResult;
+import nz.co.airnz.email.model.SendResult;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.endsWith;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringIntegrationTest
 class EmailApiIntegrationTest {
 
   private static final String API_PATH = "/api/v1/email/account";
+  @RegisterExtension
+  static GreenMailExtension smtpServer = new GreenMailExtension(ServerSetupTest.SMTP);
   @Autowired
   private MockMvc mockMvc;
   private final ObjectMapper objectMapper = new ObjectMapper();
@@ -53,6 +77,190 @@ class EmailApiIntegrationTest {
     assertTrue(actual.contains("emailRef4"));
   }
 
+  @DisplayName("Return 200 OK with a page of summaries when getEmailSummaries endpoint is invoked")
+  @Test
+  void testGetEmailSummariesSuccess() throws Exception {
+
+    MvcResult response = mockMvc.perform(get(API_PATH.concat("/pJo001/summaries"))
+            .param("limit", "2"))
+        .andExpect(status().isOk()).andReturn();
+
+    EmailPage actual = objectMapper.readValue(response.getResponse().getContentAsString(),
+        EmailPage.class);
+    assertEquals(2, actual.emails().size());
+    assertEquals("emailRef1", actual.emails().get(0).emailRef());
+    assertEquals("somebody@airnz.co.nz", actual.emails().get(0).sender());
+    assertNotNull(actual.nextCursor());
+    assertThat(response.getResponse().getContentAsString()).doesNotContain("content");
+  }
+
+  @DisplayName("Return 400 Bad Request when getEmailSummaries is given an invalid cursor")
+  @Test
+  void testBadRequestInGetEmailSummariesWithInvalidCursor() throws Exception {
+
+    mockMvc.perform(get(API_PATH.concat("/pJo001/summaries")).param("cursor", "!!"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @DisplayName("Return 200 OK with ranked summaries when searchEmails endpoint is invoked")
+  @Test
+  void testSearchEmailsSuccess() throws Exception {
+
+    MvcResult response = mockMvc.perform(get(API_PATH.concat("/pJo001/search"))
+            .param("q", "Policy"))
+        .andExpect(status().isOk()).andReturn();
+
+    EmailPage actual = objectMapper.readValue(response.getResponse().getContentAsString(),
+        EmailPage.class);
+    assertEquals("emailRef1", actual.emails().get(0).emailRef());
+  }
+
+  @DisplayName("Return 200 OK with newline delimited JSON when exportEmails endpoint is invoked")
+  @Test
+  void testExportEmailsSuccess() throws Exception {
+
+    MvcResult started = mockMvc.perform(get(API_PATH.concat("/iDa001/export")))
+        .andExpect(request().asyncStarted()).andReturn();
+    MvcResult response = mockMvc.perform(asyncDispatch(started))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/x-ndjson"))
+        .andReturn();
+
+    String[] lines = response.getResponse().getContentAsString().split("\n");
+    Email first = objectMapper.readValue(lines[0], Email.class);
+    assertEquals("emailRef4", first.getEmailRef());
+    assertNotNull(first.getContent());
+  }
+
+  @DisplayName("Return a status per email when sendEmails endpoint is invoked")
+  @Test
+  void testSendEmailsSuccess() throws Exception {
+    List<EmailRequest> emailRequests = List.of(
+        new EmailRequest("Batch email", null, List.of("batch@airnz.co.nz"), null),
+        new EmailRequest("Batch email without recipients", null, null, null));
+
+    MvcResult response = mockMvc.perform(post(API_PATH.concat("/pJo001/batch"))
+            .contentType("application/json")
+            .content(objectMapper.writeValueAsString(emailRequests)))
+        .andExpect(status().isOk()).andReturn();
+
+    List<SendResult> actual = objectMapper.readValue(response.getResponse().getContentAsString(),
+        new TypeReference<List<SendResult>>() { });
+    assertEquals(202, actual.get(0).status());
+    assertTrue(actual.get(0).emailRef().startsWith("emailRef-"));
+    assertEquals(400, actual.get(1).status());
+  }
+
+  @DisplayName("Return a status per reference when fetchEmails endpoint is invoked")
+  @Test
+  void testFetchEmailsSuccess() throws Exception {
+
+    MvcResult response = mockMvc.perform(post(API_PATH.concat("/pJo001/fetch"))
+            .contentType("application/json")
+            .content(objectMapper.writeValueAsString(List.of("emailRef2", "missing"))))
+        .andExpect(status().isOk()).andReturn();
+
+    List<FetchResult> actual = objectMapper.readValue(response.getResponse().getContentAsString(),
+        new TypeReference<List<FetchResult>>() { });
+    assertEquals("emailRef2", actual.get(0).email().getEmailRef());
+    assertEquals(404, actual.get(1).status());
+  }
+
+  @DisplayName("Answer a pending long poll as soon as an email is drafted")
+  @Test
+  void testPollChangesSuccess() throws Exception {
+    MvcResult poll = mockMvc.perform(get(API_PATH.concat("/iDa001/changes")))
+        .andExpect(request().asyncStarted()).andReturn();
+
+    mockMvc.perform(post(API_PATH.concat("/iDa001/draft"))
+            .contentType("application/json")
+            .content(objectMapper.writeValueAsString(
+                new EmailRequest("Polled draft", null, null, null))))
+        .andExpect(status().isCreated());
+
+    MvcResult response = mockMvc.perform(asyncDispatch(poll)).andExpect(status().isOk())
+        .andReturn();
+    ChangePage actual = objectMapper.readValue(response.getResponse().getContentAsString(),
+        ChangePage.class);
+    assertEquals(ChangeEvent.Type.DRAFTED, actual.events().get(0).type());
+    assertEquals("Polled draft", actual.events().get(0).email().subject());
+    assertEquals(actual.events().get(actual.events().size() - 1).sequence(), actual.cursor());
+  }
+
+  @DisplayName("Return 400 Bad Request when pollChanges endpoint is invoked with a negative cursor")
+  @Test
+  void testPollChangesBadCursor() throws Exception {
+    MvcResult poll = mockMvc.perform(get(API_PATH.concat("/iDa001/changes")).param("since", "-1"))
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(poll)).andExpect(status().isBadRequest())
+        .andExpect(content().string("since must not be negative"));
+  }
+
+  @DisplayName("Return 304 Not Modified for a current ETag and 412 for a stale If-Match")
+  @Test
+  void testConditionalRequests() throws Exception {
+    MvcResult draft = mockMvc.perform(post(API_PATH.concat("/iDa001/draft"))
+            .contentType("application/json")
+            .content(objectMapper.writeValueAsString(
+                new EmailRequest("Versioned draft", null, null, null))))
+        .andExpect(status().isCreated()).andReturn();
+    String emailRef = objectMapper.readValue(draft.getResponse().getContentAsString(), Email.class)
+        .getEmailRef();
+    String tag = draft.getResponse().getHeader("ETag");
+    String emailPath = API_PATH + "/iDa001/" + emailRef;
+
+    mockMvc.perform(get(emailPath).header("If-None-Match", tag))
+        .andExpect(status().isNotModified())
+        .andExpect(content().string(""));
+
+    String update = objectMapper.writeValueAsString(
+        new EmailRequest("Versioned update", null, null, null));
+    mockMvc.perform(patch(emailPath + "/draft").header("If-Match", tag)
+            .contentType("application/json").content(update))
+        .andExpect(status().isOk())
+        .andExpect(header().string("ETag", "\"2\""));
+    mockMvc.perform(patch(emailPath + "/draft").header("If-Match", tag)
+            .contentType("application/json").content(update))
+        .andExpect(status().isPreconditionFailed());
+
+    mockMvc.perform(get(emailPath).header("If-None-Match", tag))
+        .andExpect(status().isOk());
+  }
+
+  @DisplayName("Hand whole attachments to Tomcat's sendfile and answer ranges with 206")
+  @Test
+  void testAttachmentDownloads() throws Exception {
+    MvcResult draft = mockMvc.perform(post(API_PATH.concat("/iDa001/draft"))
+            .contentType("application/json")
+            .content(objectMapper.writeValueAsString(
+                new EmailRequest("Draft with a pass", null, null, null))))
+        .andExpect(status().isCreated()).andReturn();
+    String emailPath = API_PATH + "/iDa001/"
+        + objectMapper.readValue(draft.getResponse().getContentAsString(), Email.class)
+        .getEmailRef();
+    MvcResult added = mockMvc.perform(multipart(emailPath + "/attachments")
+            .file(new MockMultipartFile("file", "pass.txt", "text/plain",
+                "Boarding pass".getBytes(StandardCharsets.UTF_8))))
+        .andExpect(status().isOk()).andReturn();
+    Attachment attachment = objectMapper.readValue(added.getResponse().getContentAsString(),
+        Email.class).getAttachments().get(0);
+    String attachmentPath = emailPath + "/attachments/" + attachment.sha256();
+
+    mockMvc.perform(get(attachmentPath).requestAttr("org.apache.tomcat.sendfile.support", true))
+        .andExpect(status().isOk())
+        .andExpect(header().longValue("Content-Length", attachment.size()))
+        .andExpect(request().attribute("org.apache.tomcat.sendfile.filename",
+            endsWith(attachment.sha256())))
+        .andExpect(content().string(""));
+    mockMvc.perform(get(attachmentPath).header("Range", "bytes=0-7"))
+        .andExpect(status().isPartialContent())
+        .andExpect(content().string("Boarding"));
+    mockMvc.perform(get(attachmentPath))
+        .andExpect(status().isOk())
+        .andExpect(content().string("Boarding pass"));
+  }
+
   @DisplayName("Return 200 OK when getEmailContent endpoint is invoked")
   @Test
   void testGetEmailContentSuccess() throws Exception {
@@ -64,7 +272,34 @@ class EmailApiIntegrationTest {
     assertEquals("Spam: Dangerous goods", actual.getSubject());
   }
 
-  @DisplayName("Return 201 CREATED when sendEmail endpoint is invoked")
+  @DisplayName("Draft an email as Smile and read it back as CBOR")
+  @Test
+  void testBinaryWireFormats() throws Exception {
+    ObjectMapper smileMapper = WireFormat.SMILE.objectMapper();
+    EmailRequest emailRequest = new EmailRequest("Binary draft", "content",
+        List.of("abc@airnz.co.nz"), null);
+
+    MvcResult draft = mockMvc.perform(post(API_PATH.concat("/iDa001/draft"))
+            .contentType("application/x-jackson-smile")
+            .accept("application/x-jackson-smile")
+            .content(smileMapper.writeValueAsBytes(emailRequest)))
+        .andExpect(status().isCreated())
+        .andExpect(content().contentType("application/x-jackson-smile")).andReturn();
+    Email created = smileMapper.readValue(draft.getResponse().getContentAsByteArray(),
+        Email.class);
+    assertEquals("Binary draft", created.getSubject());
+
+    MvcResult response = mockMvc.perform(
+            get(API_PATH + "/iDa001/" + created.getEmailRef()).accept("application/cbor"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/cbor")).andReturn();
+    Email actual = WireFormat.CBOR.objectMapper()
+        .readValue(response.getResponse().getContentAsByteArray(), Email.class);
+    assertEquals(created.getDate().toInstant(), actual.getDate().toInstant());
+    assertEquals(List.of("abc@airnz.co.nz"), actual.getToList());
+  }
+
+  @DisplayName("Return 202 ACCEPTED when sendEmail endpoint is invoked and deliver the email")
   @Test
   void testSendEmailSuccess() throws Exception {
     EmailRequest emailRequest = new EmailRequest(
@@ -76,11 +311,23 @@ class EmailApiIntegrationTest {
     MvcResult response = mockMvc.perform(post(API_PATH.concat("/iDa001"))
             .contentType("application/json")
             .content(objectMapper.writeValueAsString(emailRequest)))
-        .andExpect(status().isCreated()).andReturn();
+        .andExpect(status().isAccepted()).andReturn();
 
     Email actual = objectMapper.readValue(response.getResponse().getContentAsString(), Email.class);
-    assertEquals("emailRef-sent", actual.getEmailRef());
+    assertTrue(actual.getEmailRef().startsWith("emailRef-"));
     assertEquals("Emergency email", actual.getSubject());
+
+    // Emails queued by other tests may arrive first
+    MimeMessage delivered = null;
+    for (int received = 1; delivered == null && smtpServer.waitForIncomingEmail(5000, received);
+        received++) {
+      delivered = Arrays.stream(smtpServer.getReceivedMessages())
+          .filter(message -> actual.getEmailRef().equals(headerOf(message, "X-Email-Ref")))
+          .findFirst().orElse(null);
+    }
+    assertNotNull(delivered);
+    assertEquals("Emergency email", delivered.getSubject());
+    assertEquals(actual.getEmailRef(), delivered.getHeader("X-Email-Ref")[0]);
   }
 
   @DisplayName("Return 201 CREATED when draftEmail endpoint is invoked")
@@ -98,7 +345,7 @@ class EmailApiIntegrationTest {
         .andExpect(status().isCreated()).andReturn();
 
     Email actual = objectMapper.readValue(response.getResponse().getContentAsString(), Email.class);
-    assertEquals("emailRef-draft", actual.getEmailRef());
+    assertTrue(actual.getEmailRef().startsWith("emailRef-"));
     assertEquals("Draft email", actual.getSubject());
   }
 
@@ -176,4 +423,29 @@ class EmailApiIntegrationTest {
     assertEquals(400, httpServletResponse.getStatus());
     assertEquals("Invalid request content.", httpServletResponse.getErrorMessage());
   }
+
+  @DisplayName("Expose operation timings and failures on the Prometheus endpoint")
+  @Test
+  void testPrometheusMetrics() throws Exception {
+    mockMvc.perform(get(API_PATH.concat("/iDa001/noSuchRef")))
+        .andExpect(status().isNotFound());
+
+    String metrics = mockMvc.perform(get("/actuator/prometheus"))
+        .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+    assertThat(metrics)
+        .contains("email_operation_seconds_bucket{operation=\"getEmailContent\"")
+        .contains("email_operation_errors_total{operation=\"getEmailContent\",status=\"404\",}")
+        // One series for the whole store; per-account gauges are off by default
+        .containsPattern("(?m)^email_store_emails \\d")
+        .doesNotContain("email_store_account_emails");
+  }
+
+  private static String headerOf(MimeMessage message, String name) {
+    try {
+      String[] values = message.getHeader(name);
+      return values == null ? null : values[0];
+    } catch (MessagingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
 }
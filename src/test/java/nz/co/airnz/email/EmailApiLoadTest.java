@@ -0,0 +1,217 @@
+package nz.co.airnz.email;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Compares throughput, latency and heap use of platform request threads, virtual request threads
+ * and the reactive (WebFlux) stack with many concurrent connections. Every request waits
+ * {@code loadtest.latency-ms} before it is handled, standing in for a call to a mail server or
+ * database: the servlet stacks block for it, the reactive stack waits without blocking.
+ *
+ * <p>Excluded from {@code test}; run it with {@code ./gradlew loadTest}, optionally with
+ * {@code -Dloadtest.connections=...}, {@code -Dloadtest.requests-per-connection=...} and
+ * {@code -Dloadtest.latency-ms=...}. The open file limit must allow two sockets per connection.
+ */
+@Tag("LoadTests")
+class EmailApiLoadTest {
+
+  private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 10_000);
+  private static final int REQUESTS_PER_CONNECTION =
+      Integer.getInteger("loadtest.requests-per-connection", 5);
+  private static final long LATENCY_MS = Long.getLong("loadtest.latency-ms", 20);
+
+  @DisplayName("Compare platform threads, virtual threads and WebFlux under load")
+  @Test
+  void compareRequestStacks() throws Exception {
+    Map<Stack, Result> results = new EnumMap<>(Stack.class);
+    for (Stack stack : Stack.values()) {
+      results.put(stack, run(stack));
+    }
+
+    System.out.printf("%n%d connections x %d requests, %d ms latency per request%n", CONNECTIONS,
+        REQUESTS_PER_CONNECTION, LATENCY_MS);
+    System.out.printf("%-10s %12s %10s %10s %14s %8s%n", "stack", "requests/s", "p50 ms",
+        "p99 ms", "heap KB/conn", "errors");
+    results.forEach((stack, result) -> System.out.println(result.format(stack)));
+
+    results.values().forEach(result -> assertEquals(0, result.errors()));
+  }
+
+  private static Result run(Stack stack) throws Exception {
+    SpringApplicationBuilder application =
+        new SpringApplicationBuilder(EmailApplication.class, SimulatedLatency.class)
+            .properties(
+                "server.port=0",
+                "server.tomcat.max-connections=" + (CONNECTIONS + 1000),
+                "server.tomcat.accept-count=" + CONNECTIONS,
+                "email.virtual-threads.enabled=" + (stack == Stack.VIRTUAL),
+                "logging.level.nz.co.airnz=WARN");
+    if (stack == Stack.REACTIVE) {
+      application.profiles("reactive");
+    }
+    try (ConfigurableApplicationContext context = application.run()) {
+      int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+      URI uri = URI.create("http://localhost:" + port + "/api/v1/email/account/pJo001/emailRef1");
+      // Warm up with a fraction of the load before measuring
+      load(uri, Math.max(1, CONNECTIONS / 10), 1);
+      return load(uri, CONNECTIONS, REQUESTS_PER_CONNECTION);
+    }
+  }
+
+  private static Result load(URI uri, int connections, int requestsPerConnection)
+      throws InterruptedException {
+    long[] latencies = new long[connections * requestsPerConnection];
+    AtomicInteger errors = new AtomicInteger();
+    HeapSampler heap = new HeapSampler();
+    long startTime;
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient httpClient = HttpClient.newBuilder().executor(clients)
+            .connectTimeout(Duration.ofSeconds(30)).build()) {
+      HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofMinutes(2)).build();
+      startTime = System.nanoTime();
+      List<Thread> threads = new ArrayList<>(connections);
+      for (int c = 0; c < connections; c++) {
+        int connection = c;
+        threads.add(Thread.ofVirtual().start(() -> {
+          for (int r = 0; r < requestsPerConnection; r++) {
+            long requestStart = System.nanoTime();
+            try {
+              HttpResponse<Void> response = httpClient.send(request,
+                  HttpResponse.BodyHandlers.discarding());
+              if (response.statusCode() != 200) {
+                errors.incrementAndGet();
+              }
+            } catch (Exception e) {
+              errors.incrementAndGet();
+            }
+            latencies[connection * requestsPerConnection + r] = System.nanoTime() - requestStart;
+          }
+        }));
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+    long elapsed = System.nanoTime() - startTime;
+    long heapGrowth = heap.stop();
+    Arrays.sort(latencies);
+    return new Result(latencies.length * (double) TimeUnit.SECONDS.toNanos(1) / elapsed,
+        percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99),
+        heapGrowth / 1024.0 / connections, errors.get());
+  }
+
+  private static double percentileMillis(long[] sorted, double percentile) {
+    int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+    return sorted[Math.max(0, index)] / 1_000_000.0;
+  }
+
+  private enum Stack { PLATFORM, VIRTUAL, REACTIVE }
+
+  private record Result(double throughput, double p50Millis, double p99Millis,
+                        double heapKbPerConnection, int errors) {
+
+    String format(Stack stack) {
+      return String.format("%-10s %12.0f %10.1f %10.1f %14.1f %8d",
+          stack.name().toLowerCase(Locale.ROOT), throughput, p50Millis, p99Millis,
+          heapKbPerConnection, errors);
+    }
+  }
+
+  /**
+   * Tracks the highest heap use above the level measured after a GC at the start. The client runs
+   * in the same JVM, so the figure includes its share, which is the same for every stack.
+   */
+  private static final class HeapSampler {
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final long baseline;
+    private final AtomicLong peak = new AtomicLong();
+    private final Thread sampler;
+
+    HeapSampler() {
+      System.gc();
+      baseline = memory.getHeapMemoryUsage().getUsed();
+      sampler = Thread.ofPlatform().daemon().start(() -> {
+        while (!Thread.currentThread().isInterrupted()) {
+          peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+          try {
+            Thread.sleep(20);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      });
+    }
+
+    long stop() throws InterruptedException {
+      sampler.interrupt();
+      sampler.join();
+      return Math.max(0, peak.get() - baseline);
+    }
+  }
+
+  /**
+   * Delays every API request by {@link #LATENCY_MS}, blocking on the servlet stack and with a timer
+   * on the reactive one. Not a {@code @Configuration}, so the component scan of the integration
+   * tests leaves it out.
+   */
+  static class SimulatedLatency {
+
+    @Bean
+    WebFilter reactiveSimulatedLatency() {
+      return (exchange, chain) -> exchange.getRequest().getPath().value().startsWith("/api/")
+          ? Mono.delay(Duration.ofMillis(LATENCY_MS)).then(chain.filter(exchange))
+          : chain.filter(exchange);
+    }
+
+    @Bean
+    WebMvcConfigurer simulatedLatency() {
+      return new WebMvcConfigurer() {
+        @Override
+        public void addInterceptors(InterceptorRegistry registry) {
+          registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+                Object handler) throws InterruptedException {
+              Thread.sleep(LATENCY_MS);
+              return true;
+            }
+          }).addPathPatterns("/api/**");
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package nz.co.airnz.email;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.ChangeEvent;
+import nz.co.airnz.email.model.ChangePage;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
+import nz.co.airnz.email.model.EmailRequest;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    classes = {EmailApplication.class, IntegrationConfiguration.class},
+    properties = "spring.main.web-application-type=reactive"
+)
+@AutoConfigureWebTestClient
+@TestPropertySource(locations = {"classpath:application.properties",
+    "classpath:application-test.properties"})
+@ActiveProfiles({"test", "reactive"})
+@Tag("IntegrationTests")
+class ReactiveEmailApiIntegrationTest {
+
+  private static final String API_PATH = "/api/v1/email/account";
+  @RegisterExtension
+  static GreenMailExtension smtpServer = new GreenMailExtension(ServerSetupTest.SMTP);
+  @Autowired
+  private WebTestClient webTestClient;
+
+  @DisplayName("Return 200 OK with every email reference when getAllEmails endpoint is invoked")
+  @Test
+  void testGetAllEmailsSuccess() {
+    List<String> actual = webTestClient.get().uri(API_PATH.concat("/iDa001")).exchange()
+        .expectStatus().isOk()
+        .expectBody(new ParameterizedTypeReference<List<String>>() { })
+        .returnResult().getResponseBody();
+    // Other tests may have drafted or sent more emails for this account
+    assertEquals(List.of("emailRef4", "emailRef5"), actual.subList(0, 2));
+  }
+
+  @DisplayName("Stream the inbox as newline delimited JSON, one email at a time")
+  @Test
+  void testExportEmailsStreamsWithBackpressure() {
+    Flux<Email> emails = webTestClient.get().uri(API_PATH.concat("/pJo001/export"))
+        .accept(MediaType.parseMediaType("application/x-ndjson")).exchange()
+        .expectStatus().isOk()
+        .returnResult(Email.class).getResponseBody();
+
+    StepVerifier.create(emails, 1)
+        .assertNext(email -> assertEquals("emailRef1", email.getEmailRef()))
+        .thenRequest(2)
+        .expectNextCount(2)
+        .verifyComplete();
+  }
+
+  @DisplayName("Return 200 OK with a page of summaries when getEmailSummaries endpoint is invoked")
+  @Test
+  void testGetEmailSummariesSuccess() {
+    EmailPage actual = webTestClient.get()
+        .uri(uri -> uri.path(API_PATH.concat("/pJo001/summaries")).queryParam("limit", 2).build())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(EmailPage.class).returnResult().getResponseBody();
+    assertEquals(2, actual.emails().size());
+    assertThat(actual.nextCursor()).isNotNull();
+  }
+
+  @DisplayName("Return 404 Not Found with the same message as the servlet stack")
+  @Test
+  void testGetEmailContentNotFound() {
+    webTestClient.get().uri(API_PATH.concat("/pJo001/emailRef4")).exchange()
+        .expectStatus().isNotFound()
+        .expectBody(String.class).isEqualTo("Email reference number not found");
+    webTestClient.get().uri(API_PATH.concat("/nobody")).exchange()
+        .expectStatus().isNotFound()
+        .expectBody(String.class).isEqualTo("Email account not found");
+  }
+
+  @DisplayName("Draft, update and send an email")
+  @Test
+  void testDraftUpdateAndSendEmail() {
+    Email draft = webTestClient.post().uri(API_PATH.concat("/iDa001/draft"))
+        .bodyValue(new EmailRequest("Reactive draft", null, null, null)).exchange()
+        .expectStatus().isCreated()
+        .expectBody(Email.class).returnResult().getResponseBody();
+
+    webTestClient.patch().uri(API_PATH + "/iDa001/" + draft.getEmailRef() + "/draft")
+        .bodyValue(new EmailRequest("Reactive update", null, null, null)).exchange()
+        .expectStatus().isOk()
+        .expectBody().jsonPath("$.subject").isEqualTo("Reactive update");
+
+    webTestClient.post().uri(API_PATH.concat("/iDa001"))
+        .bodyValue(new EmailRequest("Reactive send", "content", Arrays.asList("abc@gmail.com"),
+            null)).exchange()
+        .expectStatus().isAccepted();
+  }
+
+  @DisplayName("Draft an email as CBOR and read it back as CBOR")
+  @Test
+  void testBinaryWireFormat() throws IOException {
+    ObjectMapper cborMapper = WireFormat.CBOR.objectMapper();
+    byte[] created = webTestClient.post().uri(API_PATH.concat("/iDa001/draft"))
+        .contentType(MediaType.APPLICATION_CBOR).accept(MediaType.APPLICATION_CBOR)
+        .bodyValue(cborMapper.writeValueAsBytes(
+            new EmailRequest("Binary draft", "content", null, null)))
+        .exchange()
+        .expectStatus().isCreated()
+        .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+        .expectBody(byte[].class).returnResult().getResponseBody();
+    Email draft = cborMapper.readValue(created, Email.class);
+
+    byte[] read = webTestClient.get().uri(API_PATH + "/iDa001/" + draft.getEmailRef())
+        .accept(MediaType.APPLICATION_CBOR).exchange()
+        .expectStatus().isOk()
+        .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+        .expectBody(byte[].class).returnResult().getResponseBody();
+    assertEquals("Binary draft", cborMapper.readValue(read, Email.class).getSubject());
+  }
+
+  @DisplayName("Return 304 Not Modified for a current ETag and 412 for a stale If-Match")
+  @Test
+  void testConditionalRequests() {
+    String tag = webTestClient.get().uri(API_PATH.concat("/iDa001")).exchange()
+        .expectStatus().isOk()
+        .returnResult(String.class).getResponseHeaders().getETag();
+    webTestClient.get().uri(API_PATH.concat("/iDa001")).header("If-None-Match", tag).exchange()
+        .expectStatus().isNotModified();
+
+    Email draft = webTestClient.post().uri(API_PATH.concat("/iDa001/draft"))
+        .bodyValue(new EmailRequest("Versioned draft", null, null, null)).exchange()
+        .expectStatus().isCreated()
+        .expectHeader().valueEquals("ETag", "\"1\"")
+        .expectBody(Email.class).returnResult().getResponseBody();
+    webTestClient.get().uri(API_PATH.concat("/iDa001")).header("If-None-Match", tag).exchange()
+        .expectStatus().isOk();
+
+    String draftPath = API_PATH + "/iDa001/" + draft.getEmailRef() + "/draft";
+    webTestClient.patch().uri(draftPath).header("If-Match", "\"1\"")
+        .bodyValue(new EmailRequest("Versioned update", null, null, null)).exchange()
+        .expectStatus().isOk()
+        .expectHeader().valueEquals("ETag", "\"2\"");
+    webTestClient.patch().uri(draftPath).header("If-Match", "\"1\"")
+        .bodyValue(new EmailRequest("Lost update", null, null, null)).exchange()
+        .expectStatus().isEqualTo(412);
+  }
+
+  @DisplayName("Stream inbox changes as server-sent events")
+  @Test
+  void testStreamChanges() {
+    Email draft = webTestClient.post().uri(API_PATH.concat("/iDa001/draft"))
+        .bodyValue(new EmailRequest("Streamed draft", null, null, null)).exchange()
+        .expectStatus().isCreated()
+        .expectBody(Email.class).returnResult().getResponseBody();
+
+    Flux<ServerSentEvent<ChangeEvent>> events = webTestClient.get()
+        .uri(uri -> uri.path(API_PATH.concat("/iDa001/changes/stream")).queryParam("since", 0)
+            .build())
+        .accept(MediaType.TEXT_EVENT_STREAM).exchange()
+        .expectStatus().isOk()
+        .returnResult(new ParameterizedTypeReference<ServerSentEvent<ChangeEvent>>() { })
+        .getResponseBody();
+
+    // Changes made by other tests come first
+    StepVerifier.create(events
+            .filter(event -> draft.getEmailRef().equals(event.data().email().emailRef()))
+            .take(1))
+        .assertNext(event -> {
+          assertEquals("drafted", event.event());
+          assertEquals(String.valueOf(event.data().sequence()), event.id());
+        })
+        .verifyComplete();
+  }
+
+  @DisplayName("Return the changes after the cursor straight away when there are some")
+  @Test
+  void testPollChanges() {
+    webTestClient.post().uri(API_PATH.concat("/iDa001/draft"))
+        .bodyValue(new EmailRequest("Polled draft", null, null, null)).exchange()
+        .expectStatus().isCreated();
+
+    ChangePage actual = webTestClient.get()
+        .uri(uri -> uri.path(API_PATH.concat("/iDa001/changes")).queryParam("since", 0).build())
+        .exchange()
+        .expectStatus().isOk()
+        .expectBody(ChangePage.class).returnResult().getResponseBody();
+    assertThat(actual.events()).isNotEmpty();
+    assertEquals(actual.events().get(actual.events().size() - 1).sequence(), actual.cursor());
+
+    webTestClient.get().uri(API_PATH.concat("/nobody/changes/stream"))
+        .accept(MediaType.TEXT_EVENT_STREAM).exchange()
+        .expectStatus().isNotFound();
+  }
+
+  @DisplayName("Return 400 Bad Request for an incomplete or invalid email")
+  @Test
+  void testBadRequests() {
+    webTestClient.post().uri(API_PATH.concat("/iDa001"))
+        .bodyValue(new EmailRequest("No recipients", null, null, null)).exchange()
+        .expectStatus().isBadRequest()
+        .expectBody(String.class)
+        .isEqualTo("Email not complete: toList is mandatory to send an email");
+
+    webTestClient.post().uri(API_PATH.concat("/iDa001/draft"))
+        .bodyValue(new EmailRequest("Draft", null, null, Arrays.asList("@xyz.com"))).exchange()
+        .expectStatus().isBadRequest();
+  }
+}
@@ -1,6 +1,7 @@
 package nz.co.airnz.email;
 
 import org.junit.jupiter.api.Tag;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
@@ -18,7 +19,9 @@ import java.lang.annotation.Target;
     classes = {EmailApplication.class, IntegrationConfiguration.class}
 )
 @AutoConfigureMockMvc
-@TestPropertySource(locations = "classpath:application.properties")
+@AutoConfigureObservability(tracing = false)
+@TestPropertySource(locations = {"classpath:application.properties",
+    "classpath:application-test.properties"})
 @ActiveProfiles("test")
 @Tag("IntegrationTests")
 public @interface SpringIntegrationTest {
@@ -0,0 +1,78 @@
+package nz.co.airnz.email.attachment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import nz.co.airnz.email.model.Attachment;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.AccountLoader;
+import nz.co.airnz.email.store.MailboxStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class AttachmentSweeperTest {
+
+  @TempDir
+  Path directory;
+
+  private final MailboxStore store = new MailboxStore();
+
+  @Test
+  void removesBlobsNoEmailRefersTo() throws IOException {
+    AttachmentProperties properties =
+        new AttachmentProperties(directory, DataSize.ofKilobytes(64), Duration.ZERO);
+    BlobStore blobs = new BlobStore(properties);
+    blobs.open();
+    AttachmentSweeper sweeper = new AttachmentSweeper(blobs, store, properties);
+    BlobStore.Blob attached = store(blobs, "Boarding pass");
+    BlobStore.Blob unattached = store(blobs, "Itinerary");
+    store.createAccount("pJo001");
+    store.put("pJo001", new Email("ref1", "subject", ZonedDateTime.now(), null, null, null, null)
+        .withAttachment(new Attachment("pass.txt", "text/plain", attached.size(),
+            attached.sha256())));
+
+    assertEquals(1, sweeper.sweep(Instant.now().plusSeconds(60)));
+
+    assertTrue(blobs.contains(attached.sha256()));
+    assertFalse(blobs.contains(unattached.sha256()));
+  }
+
+  @Test
+  void waitsForEveryAccountToBeLoaded() throws IOException {
+    AttachmentProperties properties =
+        new AttachmentProperties(directory, DataSize.ofKilobytes(64), Duration.ZERO);
+    BlobStore blobs = new BlobStore(properties);
+    blobs.open();
+    AttachmentSweeper sweeper = new AttachmentSweeper(blobs, store, properties);
+    BlobStore.Blob blob = store(blobs, "Itinerary");
+    store.setAccountLoader(new AccountLoader() {
+      @Override
+      public void load(String accountName) {
+      }
+
+      @Override
+      public boolean hasUnloadedAccounts() {
+        return true;
+      }
+    });
+
+    assertEquals(-1, sweeper.sweep(Instant.now().plusSeconds(60)));
+    assertTrue(blobs.contains(blob.sha256()));
+  }
+
+  private static BlobStore.Blob store(BlobStore blobs, String content) throws IOException {
+    try (BlobStore.Upload upload = blobs.upload()) {
+      upload.write(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+      return upload.commit();
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package nz.co.airnz.email.attachment;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class BlobStoreTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void storesContentUnderItsHash() throws Exception {
+    BlobStore blobs = open(DataSize.ofKilobytes(256));
+    // More than one buffer, so the hash covers every read
+    byte[] content = "Boarding pass ".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+
+    BlobStore.Blob blob = store(blobs, content);
+
+    String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    assertEquals(new BlobStore.Blob(sha256, content.length), blob);
+    assertTrue(blobs.contains(sha256));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(content.length, blobs.transferTo(sha256, Channels.newChannel(out)));
+    assertArrayEquals(content, out.toByteArray());
+  }
+
+  @Test
+  void keepsTheSameContentOnce() throws Exception {
+    BlobStore blobs = open(DataSize.ofKilobytes(64));
+    byte[] content = "Itinerary".getBytes(StandardCharsets.UTF_8);
+
+    BlobStore.Blob first = store(blobs, content);
+    BlobStore.Blob second = store(blobs, content);
+
+    assertEquals(first, second);
+    assertEquals(1, blobFiles());
+    assertEquals(0, incomingFiles());
+  }
+
+  @Test
+  void discardsUploadsThatAreNotCommitted() throws Exception {
+    BlobStore blobs = open(DataSize.ofBytes(8));
+
+    try (BlobStore.Upload upload = blobs.upload()) {
+      upload.write(ByteBuffer.wrap(new byte[4]));
+      assertEquals(1, incomingFiles());
+    }
+    assertEquals(0, incomingFiles());
+
+    try (BlobStore.Upload upload = blobs.upload()) {
+      assertThrows(BlobStore.TooLargeException.class,
+          () -> upload.write(new ByteArrayInputStream(new byte[9])));
+    }
+    assertEquals(0, incomingFiles());
+    assertEquals(0, blobFiles());
+  }
+
+  @Test
+  void removesUnfinishedUploadsOnOpen() throws Exception {
+    BlobStore blobs = open(DataSize.ofKilobytes(64));
+    // An upload the process did not get to close
+    blobs.upload().write(ByteBuffer.wrap(new byte[4]));
+
+    open(DataSize.ofKilobytes(64));
+
+    assertEquals(0, incomingFiles());
+  }
+
+  @Test
+  void sweepsOldBlobsNothingRefersTo() throws Exception {
+    BlobStore blobs = open(DataSize.ofKilobytes(64));
+    BlobStore.Blob kept = store(blobs, "Boarding pass".getBytes(StandardCharsets.UTF_8));
+    BlobStore.Blob dropped = store(blobs, "Itinerary".getBytes(StandardCharsets.UTF_8));
+
+    // Both were stored after the cut-off, so neither is old enough yet
+    assertEquals(0, blobs.sweep(Set.of(kept.sha256()), Instant.now().minusSeconds(60)));
+    assertEquals(1, blobs.sweep(Set.of(kept.sha256()), Instant.now().plusSeconds(60)));
+
+    assertTrue(blobs.contains(kept.sha256()));
+    assertFalse(blobs.contains(dropped.sha256()));
+    assertEquals(0, incomingFiles());
+  }
+
+  @Test
+  void storingContentAgainKeepsItFromTheSweep() throws Exception {
+    BlobStore blobs = open(DataSize.ofKilobytes(64));
+    byte[] content = "Itinerary".getBytes(StandardCharsets.UTF_8);
+    BlobStore.Blob blob = store(blobs, content);
+    Files.setLastModifiedTime(blobs.path(blob.sha256()),
+        FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+
+    store(blobs, content);
+
+    assertEquals(0, blobs.sweep(Set.of(), Instant.now().minus(Duration.ofHours(1))));
+    assertTrue(blobs.contains(blob.sha256()));
+  }
+
+  @Test
+  void rejectsNamesThatAreNotHashes() throws IOException {
+    BlobStore blobs = open(DataSize.ofKilobytes(64));
+
+    assertFalse(blobs.contains("../../etc/passwd"));
+    assertThrows(IllegalArgumentException.class, () -> blobs.path("../incoming"));
+  }
+
+  private BlobStore open(DataSize maxSize) throws IOException {
+    BlobStore blobs = new BlobStore(new AttachmentProperties(directory, maxSize, Duration.ZERO));
+    blobs.open();
+    return blobs;
+  }
+
+  private static BlobStore.Blob store(BlobStore blobs, byte[] content) throws IOException {
+    try (BlobStore.Upload upload = blobs.upload()) {
+      upload.write(new ByteArrayInputStream(content));
+      return upload.commit();
+    }
+  }
+
+  private long incomingFiles() throws IOException {
+    try (Stream<Path> files = Files.list(directory.resolve("incoming"))) {
+      return files.count();
+    }
+  }
+
+  private long blobFiles() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      return files.filter(Files::isRegularFile)
+          .filter(file -> !file.getParent().endsWith("incoming"))
+          .count();
+    }
+  }
+}
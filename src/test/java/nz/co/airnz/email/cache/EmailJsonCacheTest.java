@@ -0,0 +1,92 @@
+package nz.co.airnz.email.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class EmailJsonCacheTest {
+
+  private final MailboxStore store = new MailboxStore();
+  private final EmailJsonCache cache = new EmailJsonCache(store,
+      new EmailJsonCacheProperties(DataSize.ofKilobytes(4), DataSize.ofBytes(512)));
+
+  @BeforeEach
+  void setUp() {
+    cache.start();
+    store.createAccount("pJo001");
+  }
+
+  @Test
+  void servesTheSameBytesUntilTheEmailChanges() {
+    Email email = email("ref1", "content");
+    store.put("pJo001", email);
+
+    byte[] first = cache.json("pJo001", email);
+    assertSame(first, cache.json("pJo001", email));
+    assertTrue(new String(first, StandardCharsets.UTF_8)
+        .startsWith("{\"emailRef\":\"ref1\",\"subject\":\"subject\",\"date\":\"2023-"));
+
+    Email changed = store.update("pJo001", "ref1", stored -> stored.withSubject("updated"))
+        .orElseThrow();
+    byte[] updated = cache.json("pJo001", changed);
+    assertNotSame(first, updated);
+    assertTrue(new String(updated, StandardCharsets.UTF_8).contains("\"subject\":\"updated\""));
+  }
+
+  @Test
+  void keepsEachFormatAndGzippedLargeEmails() throws IOException {
+    Email email = email("ref1", "content ".repeat(100));
+    store.put("pJo001", email);
+
+    byte[] smile = cache.encoded("pJo001", email, WireFormat.SMILE);
+    assertSame(smile, cache.encoded("pJo001", email, WireFormat.SMILE));
+    assertEquals(email.getContent(), WireFormat.SMILE.objectMapper()
+        .readValue(smile, Email.class).getContent());
+
+    byte[] gzipped = cache.gzipped("pJo001", email, WireFormat.JSON);
+    assertSame(gzipped, cache.gzipped("pJo001", email, WireFormat.JSON));
+    assertTrue(gzipped.length < cache.json("pJo001", email).length / 4);
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+      assertArrayEquals(cache.json("pJo001", email), in.readAllBytes());
+    }
+
+    store.update("pJo001", "ref1", stored -> stored.withSubject("updated"));
+    assertNotSame(smile, cache.encoded("pJo001", email, WireFormat.SMILE));
+    assertNotSame(gzipped, cache.gzipped("pJo001", email, WireFormat.JSON));
+
+    Email small = email("ref2", "content");
+    store.put("pJo001", small);
+    assertNull(cache.gzipped("pJo001", small, WireFormat.JSON));
+  }
+
+  @Test
+  void staysWithinItsSize() {
+    for (int i = 0; i < 100; i++) {
+      Email email = email("ref" + i, "x".repeat(200));
+      store.put("pJo001", email);
+      cache.json("pJo001", email);
+    }
+    assertTrue(cache.weightedSize() <= DataSize.ofKilobytes(4).toBytes());
+  }
+
+  private static Email email(String emailRef, String content) {
+    return new Email(emailRef, "subject", ZonedDateTime.parse("2023-11-02T09:30:00+13:00"),
+        "a@airnz.co.nz", content, List.of("b@airnz.co.nz"), null);
+  }
+}
@@ -0,0 +1,60 @@
+package nz.co.airnz.email.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+
+  private static final int ACCOUNTS = 30_000;
+  private static final List<String> NODES =
+      List.of("http://node1:8080", "http://node2:8080", "http://node3:8080");
+
+  @Test
+  void spreadsAccountsEvenly() {
+    HashRing ring = HashRing.of(NODES, 128);
+    Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < ACCOUNTS; i++) {
+      counts.merge(ring.owner("account" + i), 1, Integer::sum);
+    }
+    assertEquals(NODES.size(), counts.size());
+    int expected = ACCOUNTS / NODES.size();
+    counts.values().forEach(count ->
+        assertTrue(Math.abs(count - expected) < expected / 5, counts::toString));
+  }
+
+  @Test
+  void joiningNodeOnlyTakesAccountsOver() {
+    HashRing before = HashRing.of(NODES, 128);
+    String joining = "http://node4:8080";
+    HashRing after = HashRing.of(List.of(NODES.get(2), joining, NODES.get(0), NODES.get(1)), 128);
+
+    int moved = 0;
+    for (int i = 0; i < ACCOUNTS; i++) {
+      String account = "account" + i;
+      String owner = after.owner(account);
+      if (!owner.equals(before.owner(account))) {
+        assertEquals(joining, owner);
+        moved++;
+      }
+    }
+    // About a quarter of the accounts move to the new node
+    assertTrue(Math.abs(moved - ACCOUNTS / 4) < ACCOUNTS / 20, String.valueOf(moved));
+  }
+
+  @Test
+  void nodeOrderDoesNotMatter() {
+    HashRing ring = HashRing.of(NODES, 16);
+    HashRing reversed = HashRing.of(List.of(NODES.get(2), NODES.get(1), NODES.get(0)), 16);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(ring.owner("account" + i), reversed.owner("account" + i));
+    }
+    assertEquals(NODES, reversed.nodes());
+    assertNull(HashRing.of(List.of(), 16).owner("pJo001"));
+  }
+}
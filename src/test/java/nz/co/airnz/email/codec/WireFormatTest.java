@@ -0,0 +1,50 @@
+package nz.co.airnz.email.codec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+import org.junit.jupiter.api.Test;
+
+class WireFormatTest {
+
+  @Test
+  void negotiatesTheMostPreferredFormat() {
+    assertEquals(WireFormat.JSON, WireFormat.negotiate(null));
+    assertEquals(WireFormat.JSON, WireFormat.negotiate("*/*"));
+    assertEquals(WireFormat.JSON, WireFormat.negotiate("text/html, not a media type"));
+    assertEquals(WireFormat.SMILE, WireFormat.negotiate("application/x-jackson-smile"));
+    assertEquals(WireFormat.CBOR, WireFormat.negotiate("application/json;q=0.5, application/cbor"));
+    assertEquals(WireFormat.CBOR, WireFormat.negotiate("application/*, application/cbor"));
+    assertEquals(WireFormat.JSON, WireFormat.negotiate("application/cbor;q=0, */*"));
+  }
+
+  @Test
+  void acceptsGzipByNameOrWildcard() {
+    assertTrue(Gzip.accepted("gzip, deflate, br"));
+    assertTrue(Gzip.accepted("br;q=1.0, *;q=0.5"));
+    assertFalse(Gzip.accepted("gzip;q=0, *"));
+    assertFalse(Gzip.accepted("identity"));
+    assertFalse(Gzip.accepted(null));
+  }
+
+  @Test
+  void sharedWritersRoundTripEmails() throws IOException {
+    Email email = new Email("ref1", "subject", ZonedDateTime.parse("2023-12-12T12:39:40.260Z"),
+        "from@airnz.co.nz", "content", List.of("to@airnz.co.nz"), List.of());
+    String json = new String(WireFormat.JSON.emailWriter().writeValueAsBytes(email),
+        StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"date\":\"2023-12-12T12:39:40.26"), json);
+
+    for (WireFormat format : WireFormat.values()) {
+      Email read = format.emailReader().readValue(format.emailWriter().writeValueAsBytes(email));
+      assertEquals(email.getDate().toInstant(), read.getDate().toInstant());
+      assertEquals(email.getToList(), read.getToList());
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package nz.co.airnz.email.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.ZonedDateTime;
+import nz.co.airnz.email.codec.WireFormat;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+class WireFormatConfigurationTest {
+
+  private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+      .withConfiguration(AutoConfigurations.of(JacksonAutoConfiguration.class))
+      .withUserConfiguration(WireFormatConfiguration.class);
+
+  @Test
+  void bootsJacksonSettingsDoNotChangeTheWireFormat() {
+    contextRunner
+        .withPropertyValues("spring.jackson.serialization.write-dates-as-timestamps=true",
+            "spring.jackson.property-naming-strategy=SNAKE_CASE")
+        .withBean(Jackson2ObjectMapperBuilderCustomizer.class,
+            () -> builder -> builder.indentOutput(true))
+        .run(context -> {
+          ObjectMapper mapper = context.getBean(ObjectMapper.class);
+          assertThat(mapper).isSameAs(WireFormat.JSON.objectMapper());
+          assertThat(mapper.writeValueAsString(ZonedDateTime.parse("2023-12-12T12:39:40Z")))
+              .isEqualTo("\"2023-12-12T12:39:40Z\"");
+        });
+  }
+}
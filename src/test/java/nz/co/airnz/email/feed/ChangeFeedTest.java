@@ -0,0 +1,107 @@
+package nz.co.airnz.email.feed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.model.ChangeEvent;
+import nz.co.airnz.email.model.ChangePage;
+import nz.co.airnz.email.model.Email;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ChangeFeedTest {
+
+  private final ChangeFeed feed = new ChangeFeed(
+      new ChangeFeedProperties(4, Duration.ofMillis(200), Duration.ofMinutes(1)));
+
+  @AfterEach
+  void tearDown() {
+    feed.stop();
+  }
+
+  @Test
+  void returnsEventsAfterTheCursorInOrder() {
+    feed.drafted("pJo001", email("ref1"));
+    feed.sent("pJo001", email("ref2"));
+    feed.updated("pJo001", email("ref1"));
+
+    ChangePage page = feed.changes("pJo001", 1);
+    assertEquals(List.of(2L, 3L), page.events().stream().map(ChangeEvent::sequence).toList());
+    assertEquals(List.of(ChangeEvent.Type.SENT, ChangeEvent.Type.UPDATED),
+        page.events().stream().map(ChangeEvent::type).toList());
+    assertEquals(3, page.cursor());
+    assertFalse(page.missed());
+    assertTrue(feed.changes("pJo001", 3).events().isEmpty());
+    assertTrue(feed.changes("iDa001", 0).events().isEmpty());
+  }
+
+  @Test
+  void reportsEventsDroppedFromTheRing() {
+    for (int i = 1; i <= 6; i++) {
+      feed.sent("pJo001", email("ref" + i));
+    }
+
+    ChangePage page = feed.changes("pJo001", 1);
+    assertTrue(page.missed());
+    assertEquals(List.of("ref3", "ref4", "ref5", "ref6"),
+        page.events().stream().map(event -> event.email().emailRef()).toList());
+    assertFalse(feed.changes("pJo001", 2).missed());
+
+    // A cursor from before a restart is ahead of the feed
+    ChangePage restarted = feed.changes("pJo001", 42);
+    assertTrue(restarted.missed());
+    assertEquals(6, restarted.cursor());
+  }
+
+  @Test
+  void pollWaitsForTheNextEvent() throws Exception {
+    feed.drafted("pJo001", email("ref1"));
+    CompletableFuture<ChangePage> poll = feed.poll("pJo001", 1);
+    assertFalse(poll.isDone());
+
+    feed.sent("pJo001", email("ref2"));
+    ChangePage page = poll.get(1, TimeUnit.SECONDS);
+    assertEquals("ref2", page.events().get(0).email().emailRef());
+    assertEquals(2, page.cursor());
+  }
+
+  @Test
+  void pollAnswersEmptyAfterTheTimeout() throws Exception {
+    ChangePage page = feed.poll("pJo001", 0).get(1, TimeUnit.SECONDS);
+    assertTrue(page.events().isEmpty());
+    assertEquals(0, page.cursor());
+  }
+
+  @Test
+  void subscriberReceivesEveryEventOnce() throws Exception {
+    BlockingQueue<ChangeEvent> received = new LinkedBlockingQueue<>();
+    feed.sent("pJo001", email("ref1"));
+    ChangeFeed.Subscription subscription = feed.subscribe("pJo001", 0,
+        page -> received.addAll(page.events()));
+
+    for (int i = 2; i <= 3; i++) {
+      feed.sent("pJo001", email("ref" + i));
+    }
+    for (long sequence = 1; sequence <= 3; sequence++) {
+      assertEquals(sequence, received.poll(1, TimeUnit.SECONDS).sequence());
+    }
+
+    subscription.cancel();
+    feed.sent("pJo001", email("ref4"));
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  private static Email email(String emailRef) {
+    return new Email(emailRef, "subject", ZonedDateTime.now(), "a@airnz.co.nz", "content",
+        List.of("b@airnz.co.nz"), null);
+  }
+}
@@ -0,0 +1,234 @@
+package nz.co.airnz.email.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.store.MailboxStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class MailboxJournalTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void recoversPutsAndUpdatesAfterRestart() throws Exception {
+    MailboxStore store = new MailboxStore();
+    MailboxJournal journal = open(store, DataSize.ofMegabytes(1));
+    store.createAccount("pJo001");
+    store.put("pJo001", email("ref1", "first"));
+    store.put("pJo001", email("ref2", "second"));
+    store.update("pJo001", "ref1", email -> email.withSubject("updated"));
+    journal.stop();
+
+    MailboxStore recovered = new MailboxStore();
+    MailboxJournal reopened = open(recovered, DataSize.ofMegabytes(1));
+    try {
+      assertEquals(List.of("ref1", "ref2"), recovered.emailRefs("pJo001"));
+      assertEquals("updated", recovered.get("pJo001", "ref1").orElseThrow().getSubject());
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  void removedAccountsStayRemovedAfterRestart() throws Exception {
+    MailboxStore store = new MailboxStore();
+    MailboxJournal journal = open(store, DataSize.ofMegabytes(1));
+    store.createAccount("pJo001");
+    store.createAccount("iDa001");
+    store.put("pJo001", email("ref1", "first"));
+    store.put("iDa001", email("ref2", "second"));
+    store.removeAccount("pJo001");
+    journal.stop();
+
+    MailboxStore recovered = new MailboxStore();
+    MailboxJournal reopened = open(recovered, DataSize.ofMegabytes(1));
+    try {
+      assertFalse(recovered.hasAccount("pJo001"));
+      assertEquals(List.of("ref2"), recovered.emailRefs("iDa001"));
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  void snapshotReplacesTheLogItCovers() throws Exception {
+    MailboxStore store = new MailboxStore();
+    MailboxJournal journal = open(store, DataSize.ofKilobytes(4));
+    store.createAccount("pJo001");
+    store.createAccount("iDa001");
+    for (int i = 0; i < 100; i++) {
+      store.put("pJo001", email("ref" + i, "subject " + i));
+    }
+    journal.snapshot();
+    store.put("pJo001", email("after", "written after the snapshot"));
+    journal.stop();
+
+    assertEquals(1, files("snapshot-").size());
+    // Only the segment started by the snapshot is left
+    assertEquals(1, files("journal-").size());
+
+    MailboxStore recovered = new MailboxStore();
+    MailboxJournal reopened = open(recovered, DataSize.ofKilobytes(4));
+    try {
+      assertEquals(101, recovered.size("pJo001"));
+      assertTrue(recovered.hasAccount("iDa001"));
+      assertEquals("subject 42", recovered.get("pJo001", "ref42").orElseThrow().getSubject());
+      assertEquals("after", recovered.emailRefs("pJo001").get(100));
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  void concurrentWritersShareGroupCommits() throws Exception {
+    MailboxStore store = new MailboxStore();
+    MailboxJournal journal = open(store, DataSize.ofMegabytes(1));
+    // Writes to one account wait for the log in turn, writers of different accounts share commits
+    for (int w = 0; w < 32; w++) {
+      store.createAccount("shared" + w);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(32);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int w = 0; w < 32; w++) {
+        int writer = w;
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 200; i++) {
+            store.put("shared" + writer, email("ref-" + writer + "-" + i, "subject"));
+          }
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    journal.stop();
+
+    MailboxStore recovered = new MailboxStore();
+    MailboxJournal reopened = open(recovered, DataSize.ofMegabytes(1));
+    try {
+      for (int w = 0; w < 32; w++) {
+        assertEquals(200, recovered.size("shared" + w));
+      }
+    } finally {
+      reopened.close();
+    }
+  }
+
+  @Test
+  void writesThatCannotBeLoggedAreNotApplied() throws Exception {
+    MailboxStore store = new MailboxStore();
+    MailboxJournal journal = open(store, DataSize.ofKilobytes(4));
+    store.createAccount("pJo001");
+    store.put("pJo001", email("ref1", "logged"));
+    Email tooLarge = new Email("ref2", "too large", ZonedDateTime.now(), null, "x".repeat(8192),
+        List.of("ani@airnz.co.nz"), null);
+
+    assertThrows(CompletionException.class, () -> store.put("pJo001", tooLarge));
+    assertThrows(CompletionException.class, () -> store.update("pJo001", "ref1",
+        email -> email.withContent("x".repeat(8192))));
+
+    assertFalse(store.get("pJo001", "ref2").isPresent());
+    assertEquals("content", store.get("pJo001", "ref1").orElseThrow().getContent());
+    assertEquals(1, store.get("pJo001", "ref1").orElseThrow().getVersion());
+    journal.close();
+  }
+
+  @Test
+  void deadFlusherFailsWritesAndSnapshots() throws Exception {
+    MailboxStore store = new MailboxStore();
+    Set<Thread> running = Thread.getAllStackTraces().keySet();
+    MailboxJournal journal = open(store, DataSize.ofMegabytes(1));
+    store.createAccount("pJo001");
+    Thread flusher = Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.getName().equals("email-journal-flusher"))
+        .filter(thread -> !running.contains(thread))
+        .findFirst().orElseThrow();
+    flusher.interrupt();
+    flusher.join(5000);
+
+    assertThrows(CompletionException.class, () -> store.put("pJo001", email("ref1", "lost")));
+    assertFalse(store.get("pJo001", "ref1").isPresent());
+    IOException snapshotFailure = assertThrows(IOException.class, journal::snapshot);
+    assertTrue(snapshotFailure.getCause().getMessage().contains("interrupted"));
+    journal.stop();
+  }
+
+  @Test
+  void tornRecordEndsRecovery() throws Exception {
+    MailboxStore store = new MailboxStore();
+    MailboxJournal journal = open(store, DataSize.ofMegabytes(1));
+    store.createAccount("pJo001");
+    store.put("pJo001", email("ref1", "intact"));
+    store.put("pJo001", email("ref2", "torn"));
+    journal.stop();
+
+    // Flip a byte in the payload of the last record
+    Path segment = files("journal-").get(0);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      long[] offsets = new long[2];
+      long[] position = {0};
+      JournalSegment.read(segment, (sequence, payload) -> {
+        offsets[(int) sequence - 1] = position[0];
+        position[0] += JournalSegment.HEADER_BYTES + payload.length;
+      });
+      channel.write(ByteBuffer.wrap(new byte[] {'X'}),
+          offsets[1] + JournalSegment.HEADER_BYTES + 4);
+    }
+
+    MailboxStore recovered = new MailboxStore();
+    MailboxJournal reopened = open(recovered, DataSize.ofMegabytes(1));
+    try {
+      assertTrue(recovered.get("pJo001", "ref1").isPresent());
+      assertFalse(recovered.get("pJo001", "ref2").isPresent());
+    } finally {
+      reopened.close();
+    }
+  }
+
+  private MailboxJournal open(MailboxStore store, DataSize segmentSize) throws IOException {
+    MailboxJournal journal = new MailboxJournal(store,
+        new JournalProperties(true, directory, segmentSize, Duration.ofHours(1)));
+    journal.open();
+    return journal;
+  }
+
+  private List<Path> files(String prefix) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(file -> file.getFileName().toString().startsWith(prefix)).sorted()
+          .toList();
+    }
+  }
+
+  private static Email email(String emailRef, String subject) {
+    return new Email(emailRef, subject, ZonedDateTime.parse("2023-12-12T12:39:40.260Z"),
+        "somebody@airnz.co.nz", "content", List.of("ani@airnz.co.nz"), null);
+  }
+}
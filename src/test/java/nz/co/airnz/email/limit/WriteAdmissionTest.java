@@ -0,0 +1,106 @@
+package nz.co.airnz.email.limit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.store.MailboxStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+class WriteAdmissionTest {
+
+  private final MailboxStore store = new MailboxStore();
+
+  @Test
+  void tokenBucketAllowsABurstThenTheRate() {
+    long now = 0;
+    TokenBucket bucket = new TokenBucket(10, 3, now);
+    assertEquals(0, bucket.tryTake(now));
+    assertEquals(0, bucket.tryTake(now));
+    assertEquals(0, bucket.tryTake(now));
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.tryTake(now));
+
+    now += TimeUnit.MILLISECONDS.toNanos(100);
+    assertEquals(0, bucket.tryTake(now));
+    assertTrue(bucket.tryTake(now) > 0);
+  }
+
+  @Test
+  void limitsEachAccountOnItsOwn() {
+    store.createAccount("pJo001");
+    store.createAccount("iDa001");
+    WriteAdmission admission = new WriteAdmission(store, new LimitProperties(0.5, 2, 0));
+
+    assertTrue(admission.admit("pJo001").admitted());
+    assertTrue(admission.admit("pJo001").admitted());
+    Admission refused = admission.admit("pJo001");
+    assertFalse(refused.admitted());
+    assertEquals(2, refused.retryAfterSeconds());
+
+    assertTrue(admission.admit("iDa001").admitted());
+    // Unknown accounts are left to the service, which answers 404
+    for (int i = 0; i < 5; i++) {
+      assertTrue(admission.admit("unknown").admitted());
+    }
+  }
+
+  @Test
+  void batchItemsShareTheAccountsTokens() {
+    store.createAccount("pJo001");
+    WriteAdmission admission = new WriteAdmission(store, new LimitProperties(0.5, 3, 0));
+
+    assertTrue(admission.admit("pJo001").admitted());
+    assertTrue(admission.admitBatchItem("pJo001"));
+    assertTrue(admission.admitBatchItem("pJo001"));
+    assertFalse(admission.admitBatchItem("pJo001"));
+    assertFalse(admission.admit("pJo001").admitted());
+  }
+
+  @Test
+  void shedsWritesBeyondTheConcurrencyLimit() {
+    WriteAdmission admission = new WriteAdmission(store, new LimitProperties(0, 1, 2));
+
+    assertTrue(admission.admit("pJo001").admitted());
+    assertTrue(admission.admit("pJo001").admitted());
+    assertFalse(admission.admit("pJo001").admitted());
+    assertEquals(2, admission.inProgress());
+
+    admission.release();
+    assertTrue(admission.admit("pJo001").admitted());
+  }
+
+  @Test
+  void interceptorAnswers429BeforeTheHandler() throws Exception {
+    store.createAccount("pJo001");
+    WriteAdmission admission = new WriteAdmission(store, new LimitProperties(1, 1, 10));
+    WriteAdmissionInterceptor interceptor = new WriteAdmissionInterceptor(admission);
+
+    MockHttpServletRequest first = post("pJo001");
+    assertTrue(interceptor.preHandle(first, new MockHttpServletResponse(), null));
+    interceptor.afterCompletion(first, new MockHttpServletResponse(), null, null);
+    assertEquals(0, admission.inProgress());
+
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    assertFalse(interceptor.preHandle(post("pJo001"), response, null));
+    assertEquals(429, response.getStatus());
+    assertEquals("1", response.getHeader(HttpHeaders.RETRY_AFTER));
+    assertEquals(0, admission.inProgress());
+
+    MockHttpServletRequest read = new MockHttpServletRequest("GET", "/");
+    assertTrue(interceptor.preHandle(read, new MockHttpServletResponse(), null));
+  }
+
+  private static MockHttpServletRequest post(String accountName) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST",
+        "/api/v1/email/account/" + accountName + "/draft");
+    request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE,
+        Map.of("name", accountName));
+    return request;
+  }
+}
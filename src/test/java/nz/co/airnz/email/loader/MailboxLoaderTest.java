@@ -0,0 +1,124 @@
+package nz.co.airnz.email.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import nz.co.airnz.email.store.MailboxStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MailboxLoaderTest {
+
+  @TempDir
+  Path directory;
+
+  private final MailboxStore store = new MailboxStore();
+  private MailboxLoader loader;
+
+  @AfterEach
+  void tearDown() {
+    if (loader != null) {
+      loader.close();
+    }
+  }
+
+  @Test
+  void loadsBundledSeedEmails() throws IOException {
+    loader = new MailboxLoader(store, MailboxLoaderProperties.defaults());
+    loader.discover();
+    loader.loadAll();
+
+    assertEquals(List.of("emailRef1", "emailRef2", "emailRef3"), store.emailRefs("pJo001"));
+    assertEquals(List.of("emailRef4", "emailRef5"), store.emailRefs("iDa001"));
+    assertTrue(loader.failures().isEmpty());
+  }
+
+  @Test
+  void loadsManyAccountsFromDirectory() throws IOException {
+    for (int account = 0; account < 200; account++) {
+      for (int i = 0; i < 50; i++) {
+        writeEmail("account" + account, String.format("email%03d", i));
+      }
+    }
+    loader = load(false);
+
+    assertEquals(200, store.accountNames().size());
+    for (int account = 0; account < 200; account++) {
+      assertEquals(50, store.size("account" + account));
+    }
+    assertEquals("email000", store.emailRefs("account7").get(0));
+    assertEquals("email049", store.emailRefs("account7").get(49));
+  }
+
+  @Test
+  void reportsFilesThatCannotBeRead() throws IOException {
+    writeEmail("pJo001", "emailRef1");
+    Files.writeString(Files.createDirectories(directory.resolve("pJo001")).resolve("broken.json"),
+        "{ \"emailRef\": ");
+    Files.writeString(directory.resolve("pJo001").resolve("noRef.json"), "{ \"subject\": \"x\" }");
+    loader = load(false);
+
+    assertEquals(List.of("emailRef1"), store.emailRefs("pJo001"));
+    assertEquals(2, loader.failures().size());
+  }
+
+  @Test
+  void lazyLoaderLoadsAccountOnFirstAccess() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      writeEmail("pJo001", "emailRef" + i);
+    }
+    loader = load(true);
+    assertTrue(store.accountNames().isEmpty());
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Integer>> sizes = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        sizes.add(executor.submit(() -> store.size("pJo001")));
+      }
+      for (Future<Integer> size : sizes) {
+        // Nobody sees a partly loaded account
+        assertEquals(20, size.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, store.accountNames().size());
+    assertFalse(store.hasAccount("iDa001"));
+  }
+
+  private MailboxLoader load(boolean lazy) throws IOException {
+    MailboxLoader loader = new MailboxLoader(store,
+        new MailboxLoaderProperties(directory.toUri().toString(), lazy, 4));
+    loader.discover();
+    if (!lazy) {
+      loader.loadAll();
+    }
+    return loader;
+  }
+
+  private void writeEmail(String accountName, String emailRef) throws IOException {
+    Path accountDirectory = Files.createDirectories(directory.resolve(accountName));
+    Files.writeString(accountDirectory.resolve(emailRef + ".json"), """
+        {
+          "emailRef": "%s",
+          "subject": "Subject of %s",
+          "date": "2023-12-12T12:39:40.260Z",
+          "sender": "somebody@airnz.co.nz",
+          "content": "content",
+          "toList": [ "ani@airnz.co.nz" ]
+        }
+        """.formatted(emailRef, emailRef));
+  }
+}
@@ -0,0 +1,76 @@
+package nz.co.airnz.email.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.ZonedDateTime;
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.store.MailboxStore;
+import org.junit.jupiter.api.Test;
+
+class EmailMetricsTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final MailboxStore store = new MailboxStore();
+  private final EmailMetrics metrics =
+      new EmailMetrics(registry, store, MetricsProperties.defaults());
+
+  @Test
+  void recordsTimesAndErrorsPerOperation() {
+    long start = System.nanoTime();
+    metrics.record(EmailOperation.GET_EMAIL_CONTENT, start, 200);
+    metrics.record(EmailOperation.GET_EMAIL_CONTENT, start, 404);
+    metrics.record(EmailOperation.UPDATE_EMAIL, start, 412);
+
+    assertEquals(2, registry.get("email.operation").tag("operation", "getEmailContent").timer()
+        .count());
+    assertEquals(1, registry.get("email.operation.errors").tag("operation", "getEmailContent")
+        .tag("status", "404").counter().count());
+    assertEquals(1, registry.get("email.operation.errors").tag("operation", "updateEmail")
+        .tag("status", "412").counter().count());
+    // The common failures are there before they happen
+    assertEquals(0, registry.get("email.operation.errors").tag("operation", "draftEmail")
+        .tag("status", "500").counter().count());
+  }
+
+  @Test
+  void gaugesFollowTheStore() {
+    store.createAccount("pJo001");
+    metrics.start();
+    store.createAccount("iDa001");
+    store.put("iDa001", new Email("ref1", "subject", ZonedDateTime.now(), null, "content",
+        List.of("ani@airnz.co.nz"), null));
+    metrics.recordContent(new EmailRequest("subject", "content", null, null));
+
+    assertEquals(2, registry.get("email.store.accounts").gauge().value());
+    assertEquals(1, registry.get("email.store.emails").gauge().value());
+    assertTrue(registry.get("email.store.heap").gauge().value() > 0);
+    assertNotNull(registry.get("email.store.off.heap").gauge());
+    assertEquals(7, registry.get("email.content.size").summary().totalAmount());
+    // No series per account unless asked for
+    assertNull(registry.find("email.store.account.emails").gauge());
+  }
+
+  @Test
+  void perAccountGaugesCanBeTurnedOn() {
+    EmailMetrics perAccount = new EmailMetrics(registry, store, new MetricsProperties(true));
+    store.createAccount("pJo001");
+    perAccount.start();
+    store.createAccount("iDa001");
+    store.put("iDa001", new Email("ref1", "subject", ZonedDateTime.now(), null, "content",
+        List.of("ani@airnz.co.nz"), null));
+
+    assertEquals(0, registry.get("email.store.account.emails").tag("account", "pJo001").gauge()
+        .value());
+    assertEquals(1, registry.get("email.store.account.emails").tag("account", "iDa001").gauge()
+        .value());
+
+    store.removeAccount("iDa001");
+    assertNull(registry.find("email.store.account.emails").tag("account", "iDa001").gauge());
+  }
+}
@@ -0,0 +1,29 @@
+package nz.co.airnz.email.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class EmailAddressValidatorTest {
+
+  private static final Pattern PREVIOUS = Pattern.compile("^(.+)@(.+)$");
+
+  @Test
+  void acceptsWhatThePatternAccepted() {
+    List<String> addresses = List.of("ani@airnz.co.nz", "a@b", "@", "a@", "@b", "", "abc",
+        "a@@b", "@@", "@a@", "a@b@", "first last@airnz.co.nz", "a\n@b", "a@b\r", "a@ ",
+        "a\u0085@b", "a@ b", "😀@😀", "a@\t", "ani.airnz.co.nz@");
+
+    for (String address : addresses) {
+      assertEquals(PREVIOUS.matcher(address).matches(),
+          EmailAddressValidator.isEmailAddress(address), address);
+    }
+  }
+
+  @Test
+  void nullIsValid() {
+    assertEquals(true, new EmailAddressValidator().isValid(null, null));
+  }
+}
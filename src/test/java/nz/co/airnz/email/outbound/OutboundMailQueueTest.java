@@ -0,0 +1,195 @@
+package nz.co.airnz.email.outbound;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.user.GreenMailUser;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import nz.co.airnz.email.model.Email;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+class OutboundMailQueueTest {
+
+  @RegisterExtension
+  static GreenMailExtension smtpServer = new GreenMailExtension(ServerSetupTest.SMTP);
+
+  private OutboundMailQueue queue;
+
+  @AfterEach
+  void tearDown() {
+    if (queue != null) {
+      queue.stop();
+    }
+  }
+
+  @Test
+  void deliversOneMessageWithTheFullRecipientList() throws Exception {
+    JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+    mailSender.setHost("localhost");
+    mailSender.setPort(ServerSetupTest.SMTP.getPort());
+    queue = new OutboundMailQueue(mailSender, properties(100, 5));
+    queue.start();
+
+    assertTrue(queue.submit("pJo001", email(List.of("ani@airnz.co.nz", "abc@gmail.com"),
+        List.of("xyz@airnz.co.nz"))));
+
+    // The server keeps a copy for every recipient
+    MimeMessage[] received = awaitReceived(3);
+    assertEquals(3, received.length);
+    assertEquals(1, inboxSize("ani@airnz.co.nz"));
+    assertEquals(1, inboxSize("abc@gmail.com"));
+    assertEquals(1, inboxSize("xyz@airnz.co.nz"));
+    for (MimeMessage message : received) {
+      assertEquals("Quarterly update", message.getSubject());
+      // Every recipient sees everyone the email went to, so reply-all works
+      assertEquals("ani@airnz.co.nz, abc@gmail.com", message.getHeader("To", ", "));
+      assertEquals("xyz@airnz.co.nz", message.getHeader("Cc", ", "));
+    }
+  }
+
+  @Test
+  void deliversAnEmailWithOnlyCopiedRecipients() throws Exception {
+    JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+    mailSender.setHost("localhost");
+    mailSender.setPort(ServerSetupTest.SMTP.getPort());
+    queue = new OutboundMailQueue(mailSender, properties(100, 5));
+    queue.start();
+
+    assertTrue(queue.submit("pJo001", email(List.of(), List.of("xyz@airnz.co.nz"))));
+
+    MimeMessage[] received = awaitReceived(1);
+    assertEquals(1, received.length);
+    assertNull(received[0].getHeader("To"));
+    assertEquals("xyz@airnz.co.nz", received[0].getHeader("Cc", ", "));
+  }
+
+  @Test
+  void skipsMissingRecipients() throws Exception {
+    JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+    mailSender.setHost("localhost");
+    mailSender.setPort(ServerSetupTest.SMTP.getPort());
+    queue = new OutboundMailQueue(mailSender, properties(100, 5));
+    queue.start();
+
+    assertTrue(queue.submit("pJo001", email(Arrays.asList("ani@airnz.co.nz", null),
+        Arrays.asList((String) null))));
+
+    MimeMessage[] received = awaitReceived(1);
+    assertEquals(1, received.length);
+    assertEquals("ani@airnz.co.nz", received[0].getHeader("To", ", "));
+    assertNull(received[0].getHeader("Cc"));
+  }
+
+  @Test
+  void retriesFailedDeliveries() {
+    JavaMailSender mailSender = mock(JavaMailSender.class);
+    when(mailSender.createMimeMessage())
+        .thenAnswer(invocation -> new MimeMessage(Session.getInstance(new Properties())));
+    doThrow(new MailSendException("Connection refused"))
+        .doNothing()
+        .when(mailSender).send(any(MimeMessage[].class));
+    queue = new OutboundMailQueue(mailSender, properties(100, 5));
+    queue.start();
+
+    queue.submit("pJo001", email(List.of("ani@airnz.co.nz"), null));
+
+    verify(mailSender, timeout(5000).times(2)).send(any(MimeMessage[].class));
+  }
+
+  @Test
+  void rejectsEmailsWhenTheQueueIsFull() {
+    queue = new OutboundMailQueue(mock(JavaMailSender.class), properties(2, 5));
+
+    assertTrue(queue.submit("pJo001", email(List.of("ani@airnz.co.nz", "abc@gmail.com"), null)));
+    assertFalse(queue.reserve(2));
+    assertTrue(queue.reserve(1));
+    assertFalse(queue.submit("pJo001", email(List.of("ani@airnz.co.nz"), null)));
+
+    // A reserved place that is given back can be used again
+    queue.release(1);
+    assertTrue(queue.submit("pJo001", email(List.of("ani@airnz.co.nz"), null)));
+    assertEquals(2, queue.size());
+  }
+
+  @Test
+  void stopDeliversWhatIsQueued() {
+    JavaMailSender mailSender = mock(JavaMailSender.class);
+    when(mailSender.createMimeMessage())
+        .thenAnswer(invocation -> new MimeMessage(Session.getInstance(new Properties())));
+    AtomicInteger delivered = new AtomicInteger();
+    doAnswer(invocation -> delivered.addAndGet(invocation.getArguments().length))
+        .when(mailSender).send(any(MimeMessage[].class));
+    queue = new OutboundMailQueue(mailSender, properties(100, 5));
+    queue.start();
+
+    for (int i = 0; i < 40; i++) {
+      assertTrue(queue.submit("pJo001", email(List.of("ani@airnz.co.nz"), null)));
+    }
+    queue.stop();
+
+    assertEquals(40, delivered.get());
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  void backoffDoublesUpToTheLimit() {
+    queue = new OutboundMailQueue(mock(JavaMailSender.class), new OutboundMailProperties(
+        1, 1, 1, 10, Duration.ofMillis(100), Duration.ofMillis(1000), "no-reply@airnz.co.nz",
+        Duration.ofSeconds(1)));
+
+    assertEquals(100, queue.backoffMillis(0));
+    assertEquals(200, queue.backoffMillis(1));
+    assertEquals(800, queue.backoffMillis(3));
+    assertEquals(1000, queue.backoffMillis(4));
+    assertEquals(1000, queue.backoffMillis(40));
+  }
+
+  private static MimeMessage[] awaitReceived(int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    MimeMessage[] received = smtpServer.getReceivedMessages();
+    while (received.length < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+      received = smtpServer.getReceivedMessages();
+    }
+    return received;
+  }
+
+  private static int inboxSize(String address) throws FolderException {
+    GreenMailUser user = smtpServer.getUserManager().getUserByEmail(address);
+    return smtpServer.getManagers().getImapHostManager().getInbox(user).getMessageCount();
+  }
+
+  private static OutboundMailProperties properties(int capacity, int maxAttempts) {
+    return new OutboundMailProperties(capacity, 2, 10, maxAttempts, Duration.ofMillis(10),
+        Duration.ofMillis(100), "no-reply@airnz.co.nz", Duration.ofSeconds(5));
+  }
+
+  private static Email email(List<String> toList, List<String> ccList) {
+    return new Email("emailRef-test", "Quarterly update", ZonedDateTime.now(), null,
+        "Numbers are up", toList, ccList);
+  }
+}
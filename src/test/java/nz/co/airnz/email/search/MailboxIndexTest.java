@@ -0,0 +1,81 @@
+package nz.co.airnz.email.search;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+import org.junit.jupiter.api.Test;
+
+class MailboxIndexTest {
+
+  private final MailboxIndex index = new MailboxIndex();
+
+  @Test
+  void matchesEveryTermAcrossFields() {
+    index.index(email("ref1", "Quarterly budget", "Numbers attached", "cfo@airnz.co.nz"));
+    index.index(email("ref2", "Budget meeting", "Room 4", "pa@airnz.co.nz"));
+
+    assertEquals(List.of("ref2"), index.search(List.of("budget", "pa"), 0, 10).emailRefs());
+    assertEquals(2, index.search(List.of("budget"), 0, 10).total());
+    assertEquals(0, index.search(List.of("budget", "unknown"), 0, 10).total());
+  }
+
+  @Test
+  void ranksSubjectMatchesFirst() {
+    index.index(email("ref1", "Lunch", "The roster is attached", "a@airnz.co.nz"));
+    index.index(email("ref2", "Roster", "See attachment", "a@airnz.co.nz"));
+    index.index(email("ref3", "Hello", "Nothing to see", "a@airnz.co.nz"));
+
+    assertEquals(List.of("ref2", "ref1"), index.search(List.of("roster"), 0, 10).emailRefs());
+  }
+
+  @Test
+  void reindexingReplacesOldTerms() {
+    index.index(email("ref1", "Old subject", "content", "a@airnz.co.nz"));
+    index.index(email("ref1", "New subject", "content", "a@airnz.co.nz"));
+
+    assertEquals(0, index.search(List.of("old"), 0, 10).total());
+    assertEquals(List.of("ref1"), index.search(List.of("new"), 0, 10).emailRefs());
+    assertEquals(1, index.stats().emails());
+  }
+
+  @Test
+  void pagesThroughMatches() {
+    for (int i = 0; i < 25; i++) {
+      index.index(email("ref" + i, "Report " + i, "weekly", "a@airnz.co.nz"));
+    }
+
+    SearchResult first = index.search(List.of("weekly"), 0, 10);
+    SearchResult last = index.search(List.of("weekly"), 20, 10);
+    assertEquals(25, first.total());
+    assertEquals("ref24", first.emailRefs().get(0));
+    assertEquals(List.of("ref4", "ref3", "ref2", "ref1", "ref0"), last.emailRefs());
+  }
+
+  @Test
+  void reportsMemoryPerEmail() {
+    for (int i = 0; i < 1000; i++) {
+      index.index(email("ref" + i, "Flight NZ" + i, "Boarding pass for seat " + (i % 40),
+          "crew" + (i % 10) + "@airnz.co.nz"));
+    }
+
+    IndexStats stats = index.stats();
+    assertEquals(1000, stats.emails());
+    assertTrue(stats.bytesPerEmail() > 0 && stats.bytesPerEmail() < 1024,
+        "bytes per email: " + stats.bytesPerEmail());
+  }
+
+  @Test
+  void tokenizesAddressesAndPunctuation() {
+    assertEquals(List.of("ani", "airnz", "co", "nz"), MailboxIndex.tokenize("ani@airnz.co.nz"));
+    assertEquals(List.of("fwd", "introducing", "the", "policy"),
+        MailboxIndex.tokenize("Fwd: Introducing the POLICY!"));
+  }
+
+  private static Email email(String emailRef, String subject, String content, String to) {
+    return new Email(emailRef, subject, ZonedDateTime.parse("2023-12-12T12:39:40.260Z"),
+        "somebody@airnz.co.nz", content, List.of(to), null);
+  }
+}
@@ -0,0 +1,68 @@
+package nz.co.airnz.email.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import java.time.ZonedDateTime;
+import java.util.List;
+import nz.co.airnz.email.model.Email;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+class EmailAuditLogTest {
+
+  private final EmailAuditLog auditLog = new EmailAuditLog(5);
+
+  @Test
+  void contentIsCutToTheConfiguredLength() {
+    assertEquals("short", auditLog.truncate("short"));
+    assertEquals("longe...", auditLog.truncate("longer content"));
+    assertNull(auditLog.truncate(null));
+  }
+
+  @Test
+  void recordingHandlesEmailsWithoutContentOrRecipients() {
+    Email email = new Email("emailRef1", null, ZonedDateTime.now(), null, null, null, null);
+
+    auditLog.drafted("pJo001", email);
+    auditLog.sent("pJo001", email);
+    auditLog.updated("pJo001", email);
+  }
+
+  @Test
+  void clientValuesCannotBreakOutOfAnEntry() {
+    Logger logger = (Logger) LoggerFactory.getLogger(EmailAuditLog.LOGGER_NAME);
+    ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    appender.start();
+    Level level = logger.getLevel();
+    logger.setLevel(Level.INFO);
+    logger.addAppender(appender);
+    try {
+      Email email = new Email("emailRef1", "Hi\" account=admin\nevent=send", ZonedDateTime.now(),
+          null, "a\\b\r\u0007", List.of("ani@airnz.co.nz"), null);
+
+      new EmailAuditLog(256).drafted("pJo001", email);
+    } finally {
+      logger.detachAppender(appender);
+      logger.setLevel(level);
+    }
+
+    assertEquals(1, appender.list.size());
+    assertEquals("event=draft account=pJo001 emailRef=emailRef1 "
+            + "subject=\"Hi\\\" account=admin\\nevent=send\" to=1 cc=0 contentLength=5 "
+            + "content=\"a\\\\b\\r\\u0007\"",
+        appender.list.get(0).getFormattedMessage());
+  }
+
+  @Test
+  void valuesWithoutSpecialCharactersAreLoggedAsTheyAre() {
+    String subject = "Fwd: Introducing the policy";
+    assertSame(subject, EmailAuditLog.escape(subject));
+    assertNull(EmailAuditLog.escape(null));
+  }
+}
@@ -0,0 +1,124 @@
+package nz.co.airnz.email.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EmailRefGeneratorTest {
+
+  private static final Clock FIXED_CLOCK =
+      Clock.fixed(Instant.parse("2023-12-12T12:39:40.260Z"), ZoneOffset.UTC);
+
+  @Test
+  void refsAreUniqueAndSortedWhenTheClockStandsStill() {
+    EmailRefGenerator generator = new EmailRefGenerator(1, FIXED_CLOCK);
+
+    List<String> refs = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      refs.add(generator.nextRef());
+    }
+
+    List<String> sorted = new ArrayList<>(refs);
+    Collections.sort(sorted);
+    assertEquals(refs, sorted);
+    assertEquals(refs.size(), Set.copyOf(refs).size());
+    assertTrue(refs.get(0).startsWith(EmailRefGenerator.PREFIX));
+  }
+
+  @Test
+  void idsKeepIncreasingWhenTheClockMovesBackwards() {
+    MutableClock clock = new MutableClock(FIXED_CLOCK.millis());
+    EmailRefGenerator generator = new EmailRefGenerator(0, clock);
+
+    long before = generator.nextId();
+    clock.millis -= 5_000;
+    long after = generator.nextId();
+
+    assertTrue(after > before);
+  }
+
+  @Test
+  void nodeIdSeparatesGenerators() {
+    long first = new EmailRefGenerator(1, FIXED_CLOCK).nextId();
+    long second = new EmailRefGenerator(2, FIXED_CLOCK).nextId();
+
+    assertNotEquals(first, second);
+    assertEquals(1, (first >>> EmailRefGenerator.SEQUENCE_BITS) & EmailRefGenerator.MAX_NODE_ID);
+    assertEquals(2, (second >>> EmailRefGenerator.SEQUENCE_BITS) & EmailRefGenerator.MAX_NODE_ID);
+  }
+
+  @Test
+  void rejectsNodeIdOutOfRange() {
+    assertThrows(IllegalArgumentException.class, () -> new EmailRefGenerator(-1, FIXED_CLOCK));
+    assertThrows(IllegalArgumentException.class,
+        () -> new EmailRefGenerator(EmailRefGenerator.MAX_NODE_ID + 1, FIXED_CLOCK));
+  }
+
+  @Test
+  void concurrentCallersNeverReceiveTheSameRef() throws Exception {
+    EmailRefGenerator generator = new EmailRefGenerator(0, Clock.systemUTC());
+    Set<String> refs = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(64);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < 64; t++) {
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 2_000; i++) {
+            refs.add(generator.nextRef());
+          }
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get(30, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(64 * 2_000, refs.size());
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private long millis;
+
+    private MutableClock(long millis) {
+      this.millis = millis;
+    }
+
+    @Override
+    public long millis() {
+      return millis;
+    }
+
+    @Override
+    public Instant instant() {
+      return Instant.ofEpochMilli(millis);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+  }
+}
@@ -1,18 +1,105 @@
 package nz.co.airnz.email.service;
 
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
 
+import jakarta.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.GZIPInputStream;
+import nz.co.airnz.email.attachment.AttachmentProperties;
+import nz.co.airnz.email.attachment.BlobStore;
+import nz.co.airnz.email.cache.EmailJsonCache;
+import nz.co.airnz.email.cache.EmailJsonCacheProperties;
+import nz.co.airnz.email.codec.WireFormat;
+import nz.co.airnz.email.feed.ChangeFeed;
+import nz.co.airnz.email.feed.ChangeFeedProperties;
+import nz.co.airnz.email.limit.LimitProperties;
+import nz.co.airnz.email.limit.WriteAdmission;
+import nz.co.airnz.email.loader.MailboxLoader;
+import nz.co.airnz.email.loader.MailboxLoaderProperties;
+import nz.co.airnz.email.model.Attachment;
+import nz.co.airnz.email.model.Email;
+import nz.co.airnz.email.model.EmailPage;
 import nz.co.airnz.email.model.EmailRequest;
+import nz.co.airnz.email.model.FetchResult;
+import nz.co.airnz.email.model.SendResult;
+import nz.co.airnz.email.outbound.OutboundMailProperties;
+import nz.co.airnz.email.outbound.OutboundMailQueue;
+import nz.co.airnz.email.search.SearchIndex;
+import nz.co.airnz.email.store.MailboxStore;
+import nz.co.airnz.email.store.MailboxStoreProperties;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 class EmailServiceImplTest {
 
-  EmailServiceImpl service = new EmailServiceImpl();
+  EmailServiceImpl service = newService(OutboundMailProperties.defaults());
+
+  private static EmailServiceImpl newService(OutboundMailProperties outboundProperties) {
+    return newService(outboundProperties, MailboxStoreProperties.defaults());
+  }
+
+  private static EmailServiceImpl newService(OutboundMailProperties outboundProperties,
+      MailboxStoreProperties storeProperties) {
+    return newService(new MailboxStore(storeProperties),
+        new OutboundMailQueue(mock(JavaMailSender.class), outboundProperties));
+  }
+
+  private static EmailServiceImpl newService(MailboxStore store, OutboundMailQueue outbound) {
+    return newService(store, outbound, new LimitProperties(0, 1, 0));
+  }
+
+  private static EmailServiceImpl newService(MailboxStore store, OutboundMailQueue outbound,
+      LimitProperties limits) {
+    SearchIndex searchIndex = new SearchIndex(store);
+    searchIndex.start();
+    EmailJsonCache emailJson = new EmailJsonCache(store, EmailJsonCacheProperties.defaults());
+    emailJson.start();
+    BlobStore blobs;
+    try {
+      new MailboxLoader(store, MailboxLoaderProperties.defaults()).discover();
+      blobs = new BlobStore(new AttachmentProperties(
+          Files.createTempDirectory("email-attachments"), DataSize.ofKilobytes(64),
+          Duration.ZERO));
+      blobs.open();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // The outbound workers are not started, so sent emails stay in the queue
+    return new EmailServiceImpl(store, new EmailRefGenerator(0),
+        new EmailAuditLog(256),
+        outbound, searchIndex,
+        new ChangeFeed(ChangeFeedProperties.defaults()), emailJson, blobs,
+        new WriteAdmission(store, limits),
+        Validation.buildDefaultValidatorFactory().getValidator());
+  }
 
   @BeforeEach
   void setUp() {
@@ -21,20 +108,178 @@ class EmailServiceImplTest {
 
   @Test
   void getAllEmails() {
-    ResponseEntity actual1 = service.getAllEmails("iDa001");
+    ResponseEntity actual1 = service.getAllEmails("iDa001", null);
+    assertSame(HttpStatus.OK, actual1.getStatusCode());
+
+    ResponseEntity actual2 = service.getAllEmails("iDa002", null);
+    assertSame(HttpStatus.NOT_FOUND, actual2.getStatusCode());
+  }
+
+  @Test
+  void getAllEmailsWhenNotModified() {
+    String tag = service.getAllEmails("iDa001", null).getHeaders().getETag();
+    ResponseEntity actual1 = service.getAllEmails("iDa001", "\"other\", " + tag);
+    assertSame(HttpStatus.NOT_MODIFIED, actual1.getStatusCode());
+    assertNull(actual1.getBody());
+
+    service.draftEmail("iDa001", new EmailRequest("New draft", null, null, null));
+    ResponseEntity actual2 = service.getAllEmails("iDa001", tag);
+    assertSame(HttpStatus.OK, actual2.getStatusCode());
+    assertNotEquals(tag, actual2.getHeaders().getETag());
+  }
+
+  @Test
+  void getEmailSummaries() {
+    ResponseEntity first = service.getEmailSummaries("pJo001", null, 2);
+    assertSame(HttpStatus.OK, first.getStatusCode());
+    EmailPage firstPage = (EmailPage) first.getBody();
+    assertEquals(2, firstPage.emails().size());
+    assertEquals("emailRef1", firstPage.emails().get(0).emailRef());
+
+    ResponseEntity second = service.getEmailSummaries("pJo001", firstPage.nextCursor(), 2);
+    EmailPage secondPage = (EmailPage) second.getBody();
+    assertEquals(1, secondPage.emails().size());
+    assertEquals("emailRef3", secondPage.emails().get(0).emailRef());
+    assertNull(secondPage.nextCursor());
+
+    assertSame(HttpStatus.BAD_REQUEST,
+        service.getEmailSummaries("pJo001", "not a cursor", 2).getStatusCode());
+    assertSame(HttpStatus.BAD_REQUEST,
+        service.getEmailSummaries("pJo001", null, 0).getStatusCode());
+    assertSame(HttpStatus.NOT_FOUND,
+        service.getEmailSummaries("iDa002", null, 2).getStatusCode());
+  }
+
+  @Test
+  void exportEmails() throws Exception {
+    ResponseEntity<StreamingResponseBody> actual1 = service.exportEmails("pJo001");
     assertSame(HttpStatus.OK, actual1.getStatusCode());
 
-    ResponseEntity actual2 = service.getAllEmails("iDa002");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    actual1.getBody().writeTo(out);
+    String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0].startsWith("{\"emailRef\":\"emailRef1\""));
+
+    ResponseEntity<StreamingResponseBody> actual2 = service.exportEmails("iDa002");
     assertSame(HttpStatus.NOT_FOUND, actual2.getStatusCode());
   }
 
+  @Test
+  void searchEmails() {
+    ResponseEntity actual1 = service.searchEmails("pJo001", "policy", null, 20);
+    assertSame(HttpStatus.OK, actual1.getStatusCode());
+    EmailPage page = (EmailPage) actual1.getBody();
+    assertEquals("emailRef1", page.emails().get(0).emailRef());
+
+    service.updateEmail("iDa001", "emailRef4", new EmailRequest("Zebra crossing", null, null, null),
+        null);
+    EmailPage updated = (EmailPage) service.searchEmails("iDa001", "zebra", null, 20).getBody();
+    assertEquals("emailRef4", updated.emails().get(0).emailRef());
+
+    assertSame(HttpStatus.BAD_REQUEST,
+        service.searchEmails("pJo001", " - ", null, 20).getStatusCode());
+    assertSame(HttpStatus.NOT_FOUND,
+        service.searchEmails("iDa002", "policy", null, 20).getStatusCode());
+  }
+
   @Test
   void getEmailContent() {
-    ResponseEntity actual1 = service.getEmailContent("iDa001", "emailRef4");
+    ResponseEntity actual1 = service.getEmailContent("iDa001", "emailRef4", null,
+        WireFormat.JSON, false);
     assertSame(HttpStatus.OK, actual1.getStatusCode());
+    assertEquals("\"1\"", actual1.getHeaders().getETag());
 
-    ResponseEntity actual2 = service.getEmailContent("iDa001", "emailRef1");
+    ResponseEntity actual2 = service.getEmailContent("iDa001", "emailRef1", null,
+        WireFormat.JSON, false);
     assertSame(HttpStatus.NOT_FOUND, actual2.getStatusCode());
+
+    ResponseEntity actual3 = service.getEmailContent("iDa001", "emailRef4", "W/\"1\"",
+        WireFormat.JSON, false);
+    assertSame(HttpStatus.NOT_MODIFIED, actual3.getStatusCode());
+    assertNull(actual3.getBody());
+  }
+
+  @Test
+  void addAndGetAttachments() throws Exception {
+    byte[] content = "Boarding pass".getBytes(StandardCharsets.UTF_8);
+    String sha256 = HexFormat.of().formatHex(
+        MessageDigest.getInstance("SHA-256").digest(content));
+    Email first = (Email) service.draftEmail("iDa001",
+        new EmailRequest("First", "content", null, null)).getBody();
+    Email second = (Email) service.draftEmail("pJo001",
+        new EmailRequest("Second", "content", null, null)).getBody();
+
+    ResponseEntity added = service.addAttachment("iDa001", first.getEmailRef(),
+        new MockMultipartFile("file", "C:\\tickets\\pass.txt", "text/plain", content), "\"1\"");
+    assertSame(HttpStatus.OK, added.getStatusCode());
+    assertEquals("\"2\"", added.getHeaders().getETag());
+    assertEquals(List.of(new Attachment("pass.txt", "text/plain", content.length, sha256)),
+        ((Email) added.getBody()).getAttachments());
+    // The same content attached by another account refers to the same blob
+    Email other = (Email) service.addAttachment("pJo001", second.getEmailRef(),
+        new MockMultipartFile("file", "copy.txt", null, content), null).getBody();
+    assertEquals(new Attachment("copy.txt", "application/octet-stream", content.length, sha256),
+        other.getAttachments().get(0));
+
+    ResponseEntity<Resource> download = service.getAttachment("iDa001",
+        first.getEmailRef(), sha256);
+    assertSame(HttpStatus.OK, download.getStatusCode());
+    assertEquals("\"" + sha256 + "\"", download.getHeaders().getETag());
+    assertEquals("pass.txt", download.getHeaders().getContentDisposition().getFilename());
+    assertEquals("Boarding pass", download.getBody().getContentAsString(StandardCharsets.UTF_8));
+
+    assertSame(HttpStatus.NOT_FOUND,
+        service.getAttachment("iDa001", first.getEmailRef(), "0".repeat(64)).getStatusCode());
+    assertSame(HttpStatus.NOT_FOUND,
+        service.getAttachment("iDa001", "emailRef4", sha256).getStatusCode());
+    // A stale If-Match is refused before the upload is read
+    MockMultipartFile unread = new MockMultipartFile("file", content) {
+      @Override
+      public InputStream getInputStream() {
+        throw new AssertionError("Upload read despite a stale If-Match");
+      }
+    };
+    assertSame(HttpStatus.PRECONDITION_FAILED, service.addAttachment("iDa001",
+        first.getEmailRef(), unread, "\"1\"").getStatusCode());
+    assertSame(HttpStatus.PAYLOAD_TOO_LARGE, service.addAttachment("iDa001",
+        first.getEmailRef(), new MockMultipartFile("file", new byte[64 * 1024 + 1]), null)
+        .getStatusCode());
+  }
+
+  @Test
+  void getEmailContentInOtherFormats() throws IOException {
+    Email draft = (Email) service.draftEmail("iDa001",
+        new EmailRequest("Long draft", "word ".repeat(1000), null, null)).getBody();
+
+    ResponseEntity smile = service.getEmailContent("iDa001", draft.getEmailRef(), null,
+        WireFormat.SMILE, false);
+    assertEquals(WireFormat.SMILE.mediaType(), smile.getHeaders().getContentType());
+    assertEquals("Long draft", WireFormat.SMILE.objectMapper()
+        .readValue((byte[]) smile.getBody(), Email.class).getSubject());
+
+    ResponseEntity gzipped = service.getEmailContent("iDa001", draft.getEmailRef(), null,
+        WireFormat.JSON, true);
+    assertEquals("gzip", gzipped.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("\"1-gzip\"", gzipped.getHeaders().getETag());
+    try (GZIPInputStream in = new GZIPInputStream(
+        new ByteArrayInputStream((byte[]) gzipped.getBody()))) {
+      assertTrue(new String(in.readAllBytes(), StandardCharsets.UTF_8)
+          .contains("\"subject\":\"Long draft\""));
+    }
+
+    ResponseEntity notModified = service.getEmailContent("iDa001", draft.getEmailRef(),
+        "\"1-gzip\"", WireFormat.JSON, true);
+    assertSame(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+    assertEquals("\"1-gzip\"", notModified.getHeaders().getETag());
+    assertSame(HttpStatus.OK, service.updateEmail("iDa001", draft.getEmailRef(),
+        new EmailRequest("Updated", null, null, null), "\"1-gzip\"").getStatusCode());
+
+    // Small emails are not worth compressing
+    ResponseEntity small = service.getEmailContent("iDa001", "emailRef4", null,
+        WireFormat.JSON, true);
+    assertNull(small.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("\"1\"", small.getHeaders().getETag());
   }
 
   @Test
@@ -59,12 +304,156 @@ class EmailServiceImplTest {
         Arrays.asList("abc@gmail.com"),
         null);
     ResponseEntity actual1 = service.sendEmail("iDa001", emailRequest);
-    assertSame(HttpStatus.CREATED, actual1.getStatusCode());
+    assertSame(HttpStatus.ACCEPTED, actual1.getStatusCode());
 
     ResponseEntity actual2 = service.sendEmail("iDa002", emailRequest);
     assertSame(HttpStatus.NOT_FOUND, actual2.getStatusCode());
   }
 
+  @Test
+  void sendEmailWhenOutboundQueueIsFull() {
+    EmailServiceImpl busyService = newService(new OutboundMailProperties(1, 1, 1, 1,
+        Duration.ofMillis(1), Duration.ofMillis(1), "no-reply@airnz.co.nz", Duration.ZERO));
+    EmailRequest emailRequest = new EmailRequest(
+        "Emergency email",
+        null,
+        Arrays.asList("abc@gmail.com"),
+        null);
+
+    ResponseEntity actual1 = busyService.sendEmail("iDa001", emailRequest);
+    assertSame(HttpStatus.ACCEPTED, actual1.getStatusCode());
+
+    ResponseEntity actual2 = busyService.sendEmail("iDa001", emailRequest);
+    assertSame(HttpStatus.SERVICE_UNAVAILABLE, actual2.getStatusCode());
+  }
+
+  @Test
+  void sendEmailThatCannotBeStoredIsNotQueued() {
+    MailboxStore store = new MailboxStore();
+    OutboundMailQueue outbound = new OutboundMailQueue(mock(JavaMailSender.class),
+        new OutboundMailProperties(1, 1, 1, 1, Duration.ofMillis(1), Duration.ofMillis(1),
+            "no-reply@airnz.co.nz", Duration.ZERO));
+    EmailServiceImpl failingService = newService(store, outbound);
+    store.setMutationLog((accountName, email) ->
+        CompletableFuture.failedFuture(new IOException("Disk full")));
+    EmailRequest emailRequest = new EmailRequest("Lost", null, List.of("abc@gmail.com"), null);
+
+    assertThrows(CompletionException.class,
+        () -> failingService.sendEmail("iDa001", emailRequest));
+    assertThrows(CompletionException.class,
+        () -> failingService.sendEmails("iDa001", List.of(emailRequest)));
+
+    assertEquals(0, outbound.size());
+    // Their places in the queue were given back
+    assertTrue(outbound.reserve(1));
+  }
+
+  @Test
+  void sendEmailWithAMissingAddressIsRejectedBeforeItIsStored() {
+    MailboxStore store = new MailboxStore();
+    OutboundMailQueue outbound = new OutboundMailQueue(mock(JavaMailSender.class),
+        new OutboundMailProperties(1, 1, 1, 1, Duration.ofMillis(1), Duration.ofMillis(1),
+            "no-reply@airnz.co.nz", Duration.ZERO));
+    EmailServiceImpl checkingService = newService(store, outbound);
+    EmailRequest missingTo = new EmailRequest("Missing", null,
+        Arrays.asList("abc@gmail.com", null), null);
+    EmailRequest missingCc = new EmailRequest("Missing", null, List.of("abc@gmail.com"),
+        Arrays.asList((String) null));
+
+    assertSame(HttpStatus.BAD_REQUEST,
+        checkingService.sendEmail("iDa001", missingTo).getStatusCode());
+    List<SendResult> results = (List<SendResult>) checkingService.sendEmails("iDa001",
+        List.of(missingTo, missingCc)).getBody();
+    assertEquals(List.of(400, 400), results.stream().map(SendResult::status).toList());
+
+    assertEquals(0, outbound.size());
+    assertTrue(outbound.reserve(1));
+  }
+
+  @Test
+  void sendEmails() {
+    List<EmailRequest> emailRequests = List.of(
+        new EmailRequest("First", null, List.of("abc@gmail.com"), null),
+        new EmailRequest("No recipients", null, null, null),
+        new EmailRequest("Bad cc", null, List.of("abc@gmail.com"), List.of("@xyz.com")),
+        new EmailRequest("Last", null, List.of("abc@gmail.com"), null));
+
+    ResponseEntity actual1 = service.sendEmails("iDa001", emailRequests);
+    assertSame(HttpStatus.OK, actual1.getStatusCode());
+    List<SendResult> results = (List<SendResult>) actual1.getBody();
+    assertEquals(List.of(202, 400, 400, 202), results.stream().map(SendResult::status).toList());
+    assertTrue(results.get(2).message().startsWith("Invalid request content"));
+    assertSame(HttpStatus.OK,
+        service.getEmailContent("iDa001", results.get(3).emailRef(), null, WireFormat.JSON, false)
+            .getStatusCode());
+
+    assertSame(HttpStatus.BAD_REQUEST, service.sendEmails("iDa001", List.of()).getStatusCode());
+    assertSame(HttpStatus.NOT_FOUND,
+        service.sendEmails("iDa002", emailRequests).getStatusCode());
+  }
+
+  @Test
+  void sendEmailsWhenOutboundQueueFills() {
+    EmailServiceImpl busyService = newService(new OutboundMailProperties(1, 1, 1, 1,
+        Duration.ofMillis(1), Duration.ofMillis(1), "no-reply@airnz.co.nz", Duration.ZERO));
+    EmailRequest emailRequest = new EmailRequest("Emergency email", null,
+        List.of("abc@gmail.com"), null);
+
+    List<SendResult> results = (List<SendResult>) busyService.sendEmails("iDa001",
+        List.of(emailRequest, emailRequest)).getBody();
+    assertEquals(List.of(202, 503), results.stream().map(SendResult::status).toList());
+  }
+
+  @Test
+  void sendAndDraftBeyondMailboxQuota() {
+    // iDa001 starts with two emails
+    EmailServiceImpl fullService = newService(OutboundMailProperties.defaults(),
+        new MailboxStoreProperties(false, DataSize.ofMegabytes(1), true, 3));
+    EmailRequest emailRequest = new EmailRequest("Quota", null, List.of("abc@gmail.com"), null);
+
+    assertSame(HttpStatus.CREATED, fullService.draftEmail("iDa001", emailRequest).getStatusCode());
+    assertSame(HttpStatus.INSUFFICIENT_STORAGE,
+        fullService.draftEmail("iDa001", emailRequest).getStatusCode());
+    assertSame(HttpStatus.INSUFFICIENT_STORAGE,
+        fullService.sendEmail("iDa001", emailRequest).getStatusCode());
+    List<SendResult> results = (List<SendResult>) fullService.sendEmails("iDa001",
+        List.of(emailRequest)).getBody();
+    assertEquals(List.of(507), results.stream().map(SendResult::status).toList());
+  }
+
+  @Test
+  void batchEmailsTakeATokenEach() {
+    EmailServiceImpl limitedService = newService(new MailboxStore(),
+        new OutboundMailQueue(mock(JavaMailSender.class), OutboundMailProperties.defaults()),
+        new LimitProperties(0.001, 3, 0));
+    EmailRequest emailRequest = new EmailRequest("Rate", null, List.of("abc@gmail.com"), null);
+
+    List<SendResult> results = (List<SendResult>) limitedService.sendEmails("iDa001",
+        List.of(emailRequest, emailRequest, emailRequest, emailRequest, emailRequest)).getBody();
+    // The first email goes on the token the request was admitted with, the next three empty the
+    // bucket
+    assertEquals(List.of(202, 202, 202, 202, 429),
+        results.stream().map(SendResult::status).toList());
+    assertEquals(List.of(202, 429),
+        ((List<SendResult>) limitedService.sendEmails("iDa001",
+            List.of(emailRequest, emailRequest)).getBody()).stream()
+            .map(SendResult::status).toList());
+  }
+
+  @Test
+  void fetchEmails() {
+    ResponseEntity actual1 = service.fetchEmails("pJo001", List.of("emailRef3", "emailRef4",
+        "emailRef1"));
+    assertSame(HttpStatus.OK, actual1.getStatusCode());
+    List<FetchResult> results = (List<FetchResult>) actual1.getBody();
+    assertEquals(List.of(200, 404, 200), results.stream().map(FetchResult::status).toList());
+    assertEquals("emailRef3", results.get(0).email().getEmailRef());
+    assertNull(results.get(1).email());
+
+    assertSame(HttpStatus.NOT_FOUND,
+        service.fetchEmails("iDa002", List.of("emailRef1")).getStatusCode());
+  }
+
   @Test
   void updateEmail() {
     EmailRequest updateRequest = new EmailRequest(
@@ -72,10 +461,33 @@ class EmailServiceImplTest {
         null,
         null,
         null);
-    ResponseEntity actual1 = service.updateEmail("iDa001", "emailRef4", updateRequest);
+    ResponseEntity actual1 = service.updateEmail("iDa001", "emailRef4", updateRequest, null);
     assertSame(HttpStatus.OK, actual1.getStatusCode());
+    assertEquals("\"2\"", actual1.getHeaders().getETag());
 
-    ResponseEntity actual2 = service.updateEmail("iDa002", "emailRef1", updateRequest);
+    ResponseEntity actual2 = service.updateEmail("iDa002", "emailRef1", updateRequest, null);
     assertSame(HttpStatus.NOT_FOUND, actual2.getStatusCode());
   }
-}
\ No newline at end of file
+
+  @Test
+  void updateEmailWithIfMatch() {
+    EmailRequest updateRequest = new EmailRequest("Updated subject", null, null, null);
+    assertSame(HttpStatus.OK,
+        service.getEmailContent("iDa001", "emailRef4", null, WireFormat.JSON, false).getStatusCode());
+    ResponseEntity actual1 = service.updateEmail("iDa001", "emailRef4", updateRequest, "\"1\"");
+    assertSame(HttpStatus.OK, actual1.getStatusCode());
+
+    // The first update moved the email on to version 2
+    ResponseEntity actual2 = service.updateEmail("iDa001", "emailRef4",
+        new EmailRequest("Lost update", null, null, null), "\"1\"");
+    assertSame(HttpStatus.PRECONDITION_FAILED, actual2.getStatusCode());
+    ResponseEntity current = service.getEmailContent("iDa001", "emailRef4", null,
+        WireFormat.JSON, false);
+    assertEquals("\"2\"", current.getHeaders().getETag());
+    assertTrue(new String((byte[]) current.getBody(), StandardCharsets.UTF_8)
+        .contains("\"subject\":\"Updated subject\""));
+
+    ResponseEntity actual3 = service.updateEmail("iDa001", "emailRef4", updateRequest, "*");
+    assertSame(HttpStatus.OK, actual3.getStatusCode());
+  }
+}
\ No newline at end of file
@@ -0,0 +1,39 @@
+package nz.co.airnz.email.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nz.co.airnz.email.metrics.EmailMetrics;
+import nz.co.airnz.email.metrics.MetricsProperties;
+import nz.co.airnz.email.store.MailboxStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+class MeteredEmailServiceTest {
+
+  private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+  private final EmailServiceImpl delegate = mock(EmailServiceImpl.class);
+  private final MeteredEmailService service = new MeteredEmailService(delegate,
+      new EmailMetrics(registry, new MailboxStore(), MetricsProperties.defaults()));
+
+  @Test
+  void callsThatThrowAreRecordedWithTheirStatus() {
+    when(delegate.fetchEmails("pJo001", null))
+        .thenThrow(new ResponseStatusException(HttpStatus.INSUFFICIENT_STORAGE));
+    when(delegate.getAllEmails("pJo001", null)).thenThrow(new IllegalStateException("broken"));
+
+    assertThrows(ResponseStatusException.class, () -> service.fetchEmails("pJo001", null));
+    assertThrows(IllegalStateException.class, () -> service.getAllEmails("pJo001", null));
+
+    assertEquals(1, registry.get("email.operation").tag("operation", "fetchEmails").timer()
+        .count());
+    assertEquals(1, registry.get("email.operation.errors").tag("operation", "fetchEmails")
+        .tag("status", "507").counter().count());
+    assertEquals(1, registry.get("email.operation.errors").tag("operation", "getAllEmails")
+        .tag("status", "500").counter().count());
+  }
+}
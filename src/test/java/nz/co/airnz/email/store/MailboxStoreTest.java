@@ -0,0 +1,463 @@
+package nz.co.airnz.email.store;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import nz.co.airnz.email.model.Email;
+import org.springframework.util.unit.DataSize;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class MailboxStoreTest {
+
+  private static final int WRITERS = 64;
+  private static final int WRITES_PER_WRITER = 500;
+
+  private final MailboxStore store = new MailboxStore();
+  private final ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void putRequiresAnExistingAccount() {
+    assertFalse(store.put("unknown", email("ref", "subject")));
+    assertFalse(store.hasAccount("unknown"));
+
+    store.createAccount("pJo001");
+    assertTrue(store.put("pJo001", email("ref", "subject")));
+    assertEquals("subject", store.get("pJo001", "ref").orElseThrow().getSubject());
+  }
+
+  @Test
+  void storedEmailsKeepTheirOwnRecipients() {
+    MailboxStore plain =
+        new MailboxStore(new MailboxStoreProperties(false, DataSize.ofMegabytes(1), false, 0));
+    plain.createAccount("pJo001");
+    List<String> toList = new ArrayList<>(Arrays.asList("to@airnz.co.nz", null));
+    plain.put("pJo001", new Email("ref", "subject", ZonedDateTime.now(), null, "content", toList,
+        null));
+
+    toList.set(0, "changed@airnz.co.nz");
+
+    Email stored = plain.get("pJo001", "ref").orElseThrow();
+    assertEquals(Arrays.asList("to@airnz.co.nz", null), stored.getToList());
+    assertNull(stored.getCcList());
+    assertThrows(UnsupportedOperationException.class, () -> stored.getToList().add("x"));
+  }
+
+  @Test
+  void replacingAnEmailKeepsItsPosition() {
+    store.createAccount("pJo001");
+    store.put("pJo001", email("ref1", "first"));
+    store.put("pJo001", email("ref2", "second"));
+    store.put("pJo001", email("ref1", "replaced"));
+
+    assertEquals(List.of("ref1", "ref2"), store.emailRefs("pJo001"));
+    assertEquals("replaced", store.get("pJo001", "ref1").orElseThrow().getSubject());
+  }
+
+  @Test
+  void putAllStoresEveryEmailInOrder() {
+    List<Email> seen = new ArrayList<>();
+    store.addListener((accountName, email) -> seen.add(email));
+    assertFalse(store.putAll("unknown", List.of(email("ref", "subject"))));
+
+    store.createAccount("pJo001");
+    store.put("pJo001", email("ref1", "first"));
+    assertTrue(store.putAll("pJo001",
+        List.of(email("ref2", "second"), email("ref1", "replaced"), email("ref3", "third"))));
+
+    assertEquals(List.of("ref1", "ref2", "ref3"), store.emailRefs("pJo001"));
+    assertEquals("replaced", store.get("pJo001", "ref1").orElseThrow().getSubject());
+    assertEquals(4, seen.size());
+  }
+
+  @Test
+  void versionsGoUpWithEveryChange() {
+    assertEquals(-1, store.version("pJo001"));
+    store.createAccount("pJo001");
+    assertEquals(0, store.version("pJo001"));
+    store.put("pJo001", email("ref1", "first"));
+    store.putAll("pJo001", List.of(email("ref2", "second"), email("ref3", "third")));
+    assertEquals(3, store.version("pJo001"));
+
+    Email updated = store.update("pJo001", "ref1", email -> email.withSubject("updated"))
+        .orElseThrow();
+    assertEquals(2, updated.getVersion());
+    assertEquals(4, store.version("pJo001"));
+
+    // A mutation that refuses the change leaves both versions alone
+    assertThrows(IllegalStateException.class, () -> store.update("pJo001", "ref1", email -> {
+      throw new IllegalStateException("precondition failed");
+    }));
+    assertEquals(2, store.get("pJo001", "ref1").orElseThrow().getVersion());
+    assertEquals(4, store.version("pJo001"));
+  }
+
+  @Test
+  void pagesFollowInsertionOrder() {
+    store.createAccount("pJo001");
+    for (int i = 0; i < 5; i++) {
+      store.put("pJo001", email("ref" + i, "subject"));
+    }
+
+    MailboxPage first = store.page("pJo001", -1, 2);
+    assertEquals(List.of("ref0", "ref1"), refs(first));
+    assertTrue(first.hasMore());
+
+    MailboxPage second = store.page("pJo001", first.lastSequence(), 2);
+    assertEquals(List.of("ref2", "ref3"), refs(second));
+
+    MailboxPage last = store.page("pJo001", second.lastSequence(), 2);
+    assertEquals(List.of("ref4"), refs(last));
+    assertFalse(last.hasMore());
+  }
+
+  @Test
+  void putAllWithinQuotaStopsAtTheQuota() {
+    MailboxStore limited =
+        new MailboxStore(new MailboxStoreProperties(false, DataSize.ofMegabytes(1), true, 3));
+    assertEquals(-1, limited.putAllWithinQuota("pJo001", List.of(email("ref1", "first"))));
+    limited.createAccount("pJo001");
+
+    assertEquals(2, limited.putAllWithinQuota("pJo001",
+        List.of(email("ref1", "first"), email("ref2", "second"))));
+    // Replacing ref1 takes no room, ref3 takes the last place
+    assertEquals(2, limited.putAllWithinQuota("pJo001",
+        List.of(email("ref1", "changed"), email("ref3", "third"), email("ref4", "fourth"))));
+    assertEquals(List.of("ref1", "ref2", "ref3"), limited.emailRefs("pJo001"));
+    assertEquals("changed", limited.get("pJo001", "ref1").orElseThrow().getSubject());
+    assertEquals(0, limited.putAllWithinQuota("pJo001", List.of(email("ref5", "fifth"))));
+    // Writes that do not come from clients are not limited
+    assertTrue(limited.putAll("pJo001", List.of(email("ref5", "fifth"))));
+  }
+
+  @Test
+  void concurrentBatchesDoNotOvershootTheQuota() throws Exception {
+    MailboxStore limited =
+        new MailboxStore(new MailboxStoreProperties(false, DataSize.ofMegabytes(1), true, 1000));
+    limited.createAccount("shared");
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Integer>> writers = new ArrayList<>();
+    for (int w = 0; w < 8; w++) {
+      int writer = w;
+      writers.add(executor.submit(() -> {
+        List<Email> batch = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+          batch.add(email(writer + "-" + i, "subject"));
+        }
+        start.await();
+        return limited.putAllWithinQuota("shared", batch);
+      }));
+    }
+    start.countDown();
+
+    int stored = 0;
+    for (Future<Integer> writer : writers) {
+      stored += writer.get(30, TimeUnit.SECONDS);
+    }
+    assertEquals(1000, stored);
+    assertEquals(1000, limited.size("shared"));
+  }
+
+  @Test
+  void offHeapBodiesReadBackWhatWasStored() {
+    MailboxStore offHeap =
+        new MailboxStore(new MailboxStoreProperties(true, DataSize.ofKilobytes(1), true, 0));
+    List<String> seen = new ArrayList<>();
+    offHeap.addListener((accountName, email) -> seen.add(email.getContent()));
+    offHeap.createAccount("pJo001");
+    String content = "Kia ora \u2708 ".repeat(100);
+    offHeap.put("pJo001", new Email("ref1", "first", ZonedDateTime.now(), "a@airnz.co.nz",
+        content, List.of("b@airnz.co.nz", "c@example.com"), null));
+    offHeap.put("pJo001", email("ref2", "second"));
+
+    Email first = offHeap.get("pJo001", "ref1").orElseThrow();
+    assertInstanceOf(OffHeapBody.class, first.getBody());
+    assertEquals(content, first.getContent());
+    assertEquals(List.of("b@airnz.co.nz", "c@example.com"), first.getToList());
+    assertNull(first.getCcList());
+    Email second = offHeap.get("pJo001", "ref2").orElseThrow();
+    assertNull(second.getContent());
+    assertNull(second.getToList());
+    assertEquals(Arrays.asList(content, null), seen);
+    // The first body does not fit the 1KB chunk, so it got a chunk of its own
+    assertTrue(offHeap.offHeapBytes() > 2 * 1024);
+
+    Email updated = offHeap.update("pJo001", "ref1",
+        email -> email.withCcList(List.of("d@airnz.co.nz"))).orElseThrow();
+    assertInstanceOf(OffHeapBody.class, updated.getBody());
+    assertEquals(content, updated.getContent());
+    assertEquals(List.of("b@airnz.co.nz", "c@example.com"), updated.getToList());
+    assertEquals(List.of("d@airnz.co.nz"), updated.getCcList());
+  }
+
+  @Test
+  void offHeapSpaceStaysFlatUnderRepeatedUpdates() {
+    MailboxStore offHeap =
+        new MailboxStore(new MailboxStoreProperties(true, DataSize.ofKilobytes(1), true, 0));
+    offHeap.createAccount("pJo001");
+    for (int i = 0; i < 10; i++) {
+      offHeap.put("pJo001", email("ref" + i, "draft").withContent(content(i, 100)));
+    }
+
+    for (int round = 0; round < 500; round++) {
+      for (int i = 0; i < 10; i++) {
+        String content = content(round, 100);
+        offHeap.update("pJo001", "ref" + i, email -> email.withContent(content));
+      }
+    }
+
+    // 5000 updates of about 100 bytes each, kept in a few 1KB chunks
+    assertTrue(offHeap.offHeapBytes() <= 4 * 1024, () -> offHeap.offHeapBytes() + " bytes");
+    for (int i = 0; i < 10; i++) {
+      assertEquals(content(499, 100), offHeap.get("pJo001", "ref" + i).orElseThrow().getContent());
+    }
+  }
+
+  @Test
+  void removedAccountsGiveBackTheirOffHeapSpace() {
+    MailboxStore offHeap =
+        new MailboxStore(new MailboxStoreProperties(true, DataSize.ofKilobytes(1), true, 0));
+    offHeap.createAccount("pJo001");
+    offHeap.createAccount("iDa001");
+    // Both accounts share every chunk, the removed one taking most of it
+    for (int i = 0; i < 40; i++) {
+      offHeap.put("pJo001", email("big" + i, "big").withContent(content(i, 200)));
+      offHeap.put("iDa001", email("small" + i, "small").withContent(content(i, 20)));
+    }
+    assertTrue(offHeap.offHeapBytes() >= 10 * 1024);
+
+    List<Email> removed = offHeap.removeAccount("pJo001");
+
+    // What is left of the shared chunks was moved to new ones
+    assertTrue(offHeap.offHeapBytes() <= 4 * 1024, () -> offHeap.offHeapBytes() + " bytes");
+    for (int i = 0; i < 40; i++) {
+      Email small = offHeap.get("iDa001", "small" + i).orElseThrow();
+      assertEquals(content(i, 20), small.getContent());
+      assertEquals(1, small.getVersion());
+    }
+    // Emails handed back still read from the chunks they keep alive
+    assertEquals(content(0, 200), removed.get(0).getContent());
+  }
+
+  @Test
+  void recipientsAreSharedBetweenEmails() {
+    store.createAccount("pJo001");
+    store.put("pJo001", new Email("ref1", "first", ZonedDateTime.now(), null, "content",
+        List.of(new String("ani@airnz.co.nz"), "xyz@airnz.co.nz"), null));
+    store.putAll("pJo001", List.of(new Email("ref2", "second", ZonedDateTime.now(), null, null,
+        List.of(new String("ani@airnz.co.nz")), List.of("xyz@airnz.co.nz"))));
+
+    Email first = store.get("pJo001", "ref1").orElseThrow();
+    Email second = store.get("pJo001", "ref2").orElseThrow();
+    assertEquals(List.of("ani@airnz.co.nz", "xyz@airnz.co.nz"), first.getToList());
+    assertNull(first.getCcList());
+    assertEquals("content", first.getContent());
+    assertSame(first.getToList().get(0), second.getToList().get(0));
+    assertEquals(List.of("xyz@airnz.co.nz"), second.getCcList());
+    assertEquals(2, store.recipientCount());
+
+    store.update("pJo001", "ref2", email -> email.withCcList(List.of("new@airnz.co.nz")));
+    assertEquals(List.of("new@airnz.co.nz"),
+        store.get("pJo001", "ref2").orElseThrow().getCcList());
+    assertEquals(3, store.recipientCount());
+  }
+
+  @Test
+  void recipientsNoEmailIsSentToAreDropped() {
+    store.createAccount("pJo001");
+    store.put("pJo001", new Email("ref1", "first", ZonedDateTime.now(), null, null,
+        List.of("ani@airnz.co.nz", "xyz@airnz.co.nz"), null));
+    store.put("pJo001", new Email("ref2", "second", ZonedDateTime.now(), null, null,
+        List.of("ani@airnz.co.nz"), null));
+    store.update("pJo001", "ref1", email -> email.withSubject("changed"));
+    store.put("pJo001", store.get("pJo001", "ref2").orElseThrow());
+    assertEquals(2, store.recipientCount());
+
+    store.update("pJo001", "ref1", email -> email.withToList(List.of("new@airnz.co.nz")));
+    assertEquals(2, store.recipientCount());
+    store.update("pJo001", "ref1", email -> email.withToList(null));
+    assertEquals(1, store.recipientCount());
+
+    List<Email> removed = store.removeAccount("pJo001");
+    assertEquals(0, store.recipientCount());
+    // Emails handed back keep their recipients
+    assertEquals(List.of("ani@airnz.co.nz"), removed.get(1).getToList());
+  }
+
+  @Test
+  void removedAccountsHandBackTheirEmails() {
+    store.createAccount("pJo001");
+    store.put("pJo001", email("ref1", "first"));
+    store.put("pJo001", email("ref2", "second"));
+    store.createAccount("iDa001");
+    store.put("iDa001", email("ref3", "third"));
+    long heapBytes = store.estimatedHeapBytes();
+
+    List<Email> removed = store.removeAccount("pJo001");
+    assertEquals(List.of("ref1", "ref2"), removed.stream().map(Email::getEmailRef).toList());
+    assertFalse(store.hasAccount("pJo001"));
+    assertFalse(store.put("pJo001", email("ref4", "fourth")));
+    assertTrue(store.estimatedHeapBytes() < heapBytes);
+    assertTrue(store.removeAccount("pJo001").isEmpty());
+    assertEquals(List.of("ref3"), store.emailRefs("iDa001"));
+  }
+
+  @Test
+  void fencedAccountsRefuseWritesUntilUnfenced() {
+    store.createAccount("pJo001");
+    store.put("pJo001", email("ref1", "first"));
+    assertFalse(store.fence("unknown"));
+
+    assertTrue(store.fence("pJo001"));
+    assertFalse(store.put("pJo001", email("ref2", "second")));
+    assertEquals(-1, store.putAllWithinQuota("pJo001", List.of(email("ref2", "second"))));
+    assertFalse(store.putIfAbsent("pJo001", email("ref2", "second")));
+    assertTrue(store.update("pJo001", "ref1", email -> email.withSubject("changed")).isEmpty());
+    assertEquals("first", store.get("pJo001", "ref1").orElseThrow().getSubject());
+    assertEquals(List.of("ref1"), store.emailRefs("pJo001"));
+
+    store.unfence("pJo001");
+    assertTrue(store.put("pJo001", email("ref2", "second")));
+    assertEquals(List.of("ref1", "ref2"), store.emailRefs("pJo001"));
+  }
+
+  @Test
+  void concurrentWritersDoNotLoseEmails() throws Exception {
+    store.createAccount("shared");
+    AtomicBoolean writing = new AtomicBoolean(true);
+    CountDownLatch start = new CountDownLatch(1);
+
+    // A reader keeps iterating the mailbox while it is being written to
+    Future<Integer> reader = executor.submit(() -> {
+      start.await();
+      int iterations = 0;
+      while (writing.get()) {
+        store.emailRefs("shared");
+        iterations++;
+      }
+      return iterations;
+    });
+
+    List<Callable<Void>> writers = new ArrayList<>();
+    for (int w = 0; w < WRITERS; w++) {
+      int writer = w;
+      writers.add(() -> {
+        start.await();
+        for (int i = 0; i < WRITES_PER_WRITER; i++) {
+          store.put("shared", email("ref-" + writer + "-" + i, "subject"));
+        }
+        return null;
+      });
+    }
+    List<Future<Void>> results = new ArrayList<>();
+    for (Callable<Void> writer : writers) {
+      results.add(executor.submit(writer));
+    }
+    start.countDown();
+    for (Future<Void> result : results) {
+      result.get(30, TimeUnit.SECONDS);
+    }
+    writing.set(false);
+    reader.get(30, TimeUnit.SECONDS);
+
+    List<String> refs = store.emailRefs("shared");
+    assertEquals(WRITERS * WRITES_PER_WRITER, store.size("shared"));
+    assertEquals(WRITERS * WRITES_PER_WRITER, refs.size());
+    assertEquals(refs.size(), new HashSet<>(refs).size());
+  }
+
+  @Test
+  void concurrentUpdatesDoNotLoseWrites() throws Exception {
+    store.createAccount("shared");
+    store.put("shared", email("counter", "0"));
+    CountDownLatch start = new CountDownLatch(1);
+
+    List<Future<?>> results = new ArrayList<>();
+    for (int w = 0; w < WRITERS; w++) {
+      results.add(executor.submit(() -> {
+        start.await();
+        for (int i = 0; i < WRITES_PER_WRITER; i++) {
+          store.update("shared", "counter", email -> {
+            int next = Integer.parseInt(email.getSubject()) + 1;
+            return email.withSubject(String.valueOf(next)).withContent(String.valueOf(next));
+          });
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> result : results) {
+      result.get(30, TimeUnit.SECONDS);
+    }
+
+    Email counter = store.get("shared", "counter").orElseThrow();
+    assertEquals(String.valueOf(WRITERS * WRITES_PER_WRITER), counter.getSubject());
+    assertEquals(counter.getSubject(), counter.getContent());
+  }
+
+  @Test
+  void readersSeeWholeUpdates() throws Exception {
+    store.createAccount("shared");
+    store.put("shared", new Email("counter", "0", ZonedDateTime.now(), null, "0", null, null));
+    Email before = store.get("shared", "counter").orElseThrow();
+    AtomicBoolean writing = new AtomicBoolean(true);
+
+    // Subject and content are changed by one update, so a reader must never see them differ
+    Future<Integer> reader = executor.submit(() -> {
+      int torn = 0;
+      while (writing.get()) {
+        Email email = store.get("shared", "counter").orElseThrow();
+        if (!email.getSubject().equals(email.getContent())
+            || !email.getSubject().equals(String.valueOf(email.getVersion() - 1))) {
+          torn++;
+        }
+      }
+      return torn;
+    });
+    for (int i = 1; i <= WRITES_PER_WRITER; i++) {
+      String next = String.valueOf(i);
+      store.update("shared", "counter", email -> email.withSubject(next).withContent(next));
+    }
+    writing.set(false);
+
+    assertEquals(0, reader.get(30, TimeUnit.SECONDS));
+    // The email a reader already holds does not change under it
+    assertEquals("0", before.getSubject());
+    assertEquals(1, before.getVersion());
+  }
+
+  private static List<String> refs(MailboxPage page) {
+    return page.emails().stream().map(Email::getEmailRef).toList();
+  }
+
+  private static String content(int i, int length) {
+    String prefix = i + ":";
+    return prefix + "x".repeat(length - prefix.length());
+  }
+
+  private static Email email(String emailRef, String subject) {
+    return new Email(emailRef, subject, ZonedDateTime.now(), null, null, null, null);
+  }
+}